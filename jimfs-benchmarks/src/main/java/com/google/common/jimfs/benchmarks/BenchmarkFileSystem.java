@@ -0,0 +1,139 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs.benchmarks;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import com.google.common.jimfs.WatchServiceConfiguration;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A directory for a benchmark to work in, either in a new Jimfs file system or in a new temporary
+ * directory on the default file system.
+ *
+ * <p>The temporary directories for the default file system are created under the directory given
+ * by the {@code jimfs.benchmark.dir} system property, or {@code java.io.tmpdir} if it isn't set.
+ * For results that are comparable to Jimfs, that directory should be on a tmpfs such as {@code
+ * /dev/shm} so that the benchmarks measure the cost of the file system implementation rather than
+ * that of a disk.
+ */
+final class BenchmarkFileSystem implements Closeable {
+
+  /** Parameter value for a Jimfs file system with the default watch service. */
+  static final String JIMFS = "jimfs";
+
+  /** Parameter value for a Jimfs file system with a watch service that polls every millisecond. */
+  static final String JIMFS_POLLING = "jimfs-polling";
+
+  /** Parameter value for a Jimfs file system with an event-driven watch service. */
+  static final String JIMFS_EVENT_DRIVEN = "jimfs-event-driven";
+
+  /** Parameter value for the default file system. */
+  static final String DEFAULT = "default";
+
+  /** Creates a new file system of the given type using Jimfs's default block size. */
+  static BenchmarkFileSystem create(String type) throws IOException {
+    return create(type, 8192);
+  }
+
+  /**
+   * Creates a new file system of the given type. The block size is only used by Jimfs file
+   * systems.
+   */
+  static BenchmarkFileSystem create(String type, int blockSize) throws IOException {
+    Configuration.Builder config =
+        Configuration.unix().toBuilder()
+            .setBlockSize(blockSize)
+            .setMaxSize(16L * 1024 * 1024 * 1024);
+    switch (type) {
+      case JIMFS:
+        return forJimfs(config.build());
+      case JIMFS_POLLING:
+        return forJimfs(
+            config.setWatchServiceConfiguration(WatchServiceConfiguration.polling(1, MILLISECONDS))
+                .build());
+      case JIMFS_EVENT_DRIVEN:
+        return forJimfs(
+            config.setWatchServiceConfiguration(WatchServiceConfiguration.eventDriven()).build());
+      case DEFAULT:
+        Path base =
+            Paths.get(
+                System.getProperty("jimfs.benchmark.dir", System.getProperty("java.io.tmpdir")));
+        return new BenchmarkFileSystem(null, Files.createTempDirectory(base, "jimfs-benchmark"));
+      default:
+        throw new IllegalArgumentException("unknown file system type: " + type);
+    }
+  }
+
+  private static BenchmarkFileSystem forJimfs(Configuration config) throws IOException {
+    FileSystem fileSystem = Jimfs.newFileSystem(config);
+    return new BenchmarkFileSystem(
+        fileSystem, Files.createDirectories(fileSystem.getPath("/benchmark")));
+  }
+
+  private final FileSystem jimfs; // null for the default file system
+  private final Path root;
+
+  private BenchmarkFileSystem(FileSystem jimfs, Path root) {
+    this.jimfs = jimfs;
+    this.root = root;
+  }
+
+  /** Returns the directory the benchmark should work in. */
+  Path root() {
+    return root;
+  }
+
+  /** Closes the Jimfs file system or deletes the temporary directory and everything under it. */
+  @Override
+  public void close() throws IOException {
+    if (jimfs != null) {
+      jimfs.close();
+      return;
+    }
+
+    Files.walkFileTree(
+        root,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            Files.delete(file);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+            if (e != null) {
+              throw e;
+            }
+            Files.delete(dir);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+}
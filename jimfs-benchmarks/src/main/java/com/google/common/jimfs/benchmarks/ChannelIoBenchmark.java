@@ -0,0 +1,139 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs.benchmarks;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for sequential and random reads and writes of a file through a {@link FileChannel},
+ * for various block sizes and buffer sizes. Each operation reads or writes one buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChannelIoBenchmark {
+
+  @Param({BenchmarkFileSystem.JIMFS, BenchmarkFileSystem.DEFAULT})
+  String fileSystem;
+
+  /** The Jimfs block size; ignored for the default file system. */
+  @Param({"4096", "8192", "65536"})
+  int blockSize;
+
+  @Param({"512", "8192", "65536"})
+  int bufferSize;
+
+  @Param({"67108864"}) // 64 MB
+  long fileSize;
+
+  private BenchmarkFileSystem fs;
+  private FileChannel channel;
+  private ByteBuffer buffer;
+
+  private long[] randomPositions;
+  private int nextRandomPosition;
+  private long sequentialPosition;
+
+  @Setup
+  public void setUp() throws IOException {
+    fs = BenchmarkFileSystem.create(fileSystem, blockSize);
+    channel = FileChannel.open(fs.root().resolve("file"), CREATE, READ, WRITE);
+
+    buffer = ByteBuffer.allocate(bufferSize);
+    byte[] bytes = buffer.array();
+    new Random(0).nextBytes(bytes);
+    for (long pos = 0; pos < fileSize; pos += bufferSize) {
+      buffer.clear();
+      channel.write(buffer, pos);
+    }
+
+    Random random = new Random(1);
+    long bufferCount = fileSize / bufferSize;
+    randomPositions = new long[4096];
+    for (int i = 0; i < randomPositions.length; i++) {
+      randomPositions[i] = (long) (random.nextDouble() * bufferCount) * bufferSize;
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    channel.close();
+    fs.close();
+  }
+
+  private long nextSequentialPosition() {
+    long pos = sequentialPosition;
+    sequentialPosition += bufferSize;
+    if (sequentialPosition >= fileSize) {
+      sequentialPosition = 0;
+    }
+    return pos;
+  }
+
+  private long nextRandomPosition() {
+    long pos = randomPositions[nextRandomPosition];
+    nextRandomPosition = (nextRandomPosition + 1) % randomPositions.length;
+    return pos;
+  }
+
+  @Benchmark
+  public int sequentialRead() throws IOException {
+    buffer.clear();
+    return channel.read(buffer, nextSequentialPosition());
+  }
+
+  @Benchmark
+  public int randomRead() throws IOException {
+    buffer.clear();
+    return channel.read(buffer, nextRandomPosition());
+  }
+
+  @Benchmark
+  public int sequentialWrite() throws IOException {
+    buffer.clear();
+    return channel.write(buffer, nextSequentialPosition());
+  }
+
+  @Benchmark
+  public int randomWrite() throws IOException {
+    buffer.clear();
+    return channel.write(buffer, nextRandomPosition());
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs.benchmarks;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks for copying and moving files of various sizes. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CopyMoveBenchmark {
+
+  @Param({BenchmarkFileSystem.JIMFS, BenchmarkFileSystem.DEFAULT})
+  String fileSystem;
+
+  @Param({"0", "4096", "1048576", "67108864"})
+  int fileSize;
+
+  private BenchmarkFileSystem fs;
+  private Path source;
+  private Path copy;
+  private Path renamed;
+  private Path otherDir;
+  private boolean moved;
+
+  @Setup
+  public void setUp() throws IOException {
+    fs = BenchmarkFileSystem.create(fileSystem);
+    byte[] bytes = new byte[fileSize];
+    new Random(0).nextBytes(bytes);
+    source = Files.write(fs.root().resolve("source"), bytes);
+    copy = fs.root().resolve("copy");
+    renamed = fs.root().resolve("renamed");
+    otherDir = Files.createDirectory(fs.root().resolve("other"));
+    moved = false;
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    fs.close();
+  }
+
+  @Benchmark
+  public Path copy() throws IOException {
+    return Files.copy(source, copy, REPLACE_EXISTING);
+  }
+
+  /** Moves the file back and forth between two names in the same directory. */
+  @Benchmark
+  public Path rename() throws IOException {
+    Path result = moved ? Files.move(renamed, source) : Files.move(source, renamed);
+    moved = !moved;
+    return result;
+  }
+
+  /** Moves the file back and forth between two directories. */
+  @Benchmark
+  public Path moveBetweenDirectories() throws IOException {
+    Path other = otherDir.resolve("source");
+    Path result = moved ? Files.move(other, source) : Files.move(source, other);
+    moved = !moved;
+    return result;
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for growing a single directory to a large number of entries, which exercises the
+ * resizing of the directory's table, and for listing it afterwards.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DirectoryGrowthBenchmark {
+
+  @Param({BenchmarkFileSystem.JIMFS, BenchmarkFileSystem.DEFAULT})
+  String fileSystem;
+
+  @Param({"10000", "100000", "1000000"})
+  int entries;
+
+  private BenchmarkFileSystem fs;
+  private Path dir;
+  private Path[] names;
+
+  @Setup(Level.Trial)
+  public void createNames() throws IOException {
+    // the names are created up front so that creating paths isn't part of what's measured
+    fs = BenchmarkFileSystem.create(fileSystem);
+    names = new Path[entries];
+    for (int i = 0; i < entries; i++) {
+      names[i] = fs.root().getFileSystem().getPath("file" + i);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void closeFileSystem() throws IOException {
+    fs.close();
+  }
+
+  @Setup(Level.Iteration)
+  public void createDirectory() throws IOException {
+    dir = Files.createDirectory(fs.root().resolve("dir"));
+  }
+
+  @TearDown(Level.Iteration)
+  public void deleteDirectory() throws IOException {
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+      for (Path file : stream) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(dir);
+  }
+
+  @Benchmark
+  public void createEntries() throws IOException {
+    for (Path name : names) {
+      Files.createFile(dir.resolve(name));
+    }
+  }
+
+  @Benchmark
+  public int createEntriesAndList() throws IOException {
+    createEntries();
+    int count = 0;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+      for (Path unused : stream) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for metadata operations (lookups, attribute reads, file creation and deletion) on a
+ * tree of files shared by all benchmark threads. These are meant to be run at different thread
+ * counts using JMH's {@code -t} option, for example {@code -t 1}, {@code -t 4} and {@code -t 16},
+ * to measure how well the file system scales under concurrent use.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetadataBenchmark {
+
+  private static final int DIRECTORY_COUNT = 100;
+  private static final int FILES_PER_DIRECTORY = 100;
+
+  @Param({BenchmarkFileSystem.JIMFS, BenchmarkFileSystem.DEFAULT})
+  String fileSystem;
+
+  private BenchmarkFileSystem fs;
+  private Path[] files;
+  private Path shared;
+
+  @Setup
+  public void setUp() throws IOException {
+    fs = BenchmarkFileSystem.create(fileSystem);
+    files = new Path[DIRECTORY_COUNT * FILES_PER_DIRECTORY];
+    for (int i = 0; i < DIRECTORY_COUNT; i++) {
+      Path dir = Files.createDirectories(fs.root().resolve("a/b/c/dir" + i));
+      for (int j = 0; j < FILES_PER_DIRECTORY; j++) {
+        files[i * FILES_PER_DIRECTORY + j] = Files.createFile(dir.resolve("file" + j));
+      }
+    }
+    shared = Files.createDirectory(fs.root().resolve("shared"));
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    fs.close();
+  }
+
+  /** Per-thread state: a directory only used by one thread. */
+  @State(Scope.Thread)
+  public static class ThreadState {
+
+    private static final AtomicInteger threadIds = new AtomicInteger();
+
+    final int threadId = threadIds.getAndIncrement();
+    Path dir;
+    int counter;
+
+    @Setup
+    public void setUp(MetadataBenchmark benchmark) throws IOException {
+      dir = Files.createDirectory(benchmark.fs.root().resolve("thread" + threadId));
+    }
+  }
+
+  private Path randomFile() {
+    return files[ThreadLocalRandom.current().nextInt(files.length)];
+  }
+
+  @Benchmark
+  public boolean exists() {
+    return Files.exists(randomFile());
+  }
+
+  @Benchmark
+  public boolean notExists() {
+    return Files.exists(randomFile().resolveSibling("missing"));
+  }
+
+  @Benchmark
+  public BasicFileAttributes readAttributes() throws IOException {
+    return Files.readAttributes(randomFile(), BasicFileAttributes.class);
+  }
+
+  /** Creates and deletes a file in a directory that no other thread modifies. */
+  @Benchmark
+  public void createAndDelete(ThreadState thread) throws IOException {
+    Path file = thread.dir.resolve("file" + (thread.counter++ & 1023));
+    Files.createFile(file);
+    Files.delete(file);
+  }
+
+  /** Creates and deletes a file in a directory that all threads modify. */
+  @Benchmark
+  public void createAndDeleteShared(ThreadState thread) throws IOException {
+    Path file = shared.resolve("file" + thread.threadId + "-" + (thread.counter++ & 1023));
+    Files.createFile(file);
+    Files.delete(file);
+  }
+}
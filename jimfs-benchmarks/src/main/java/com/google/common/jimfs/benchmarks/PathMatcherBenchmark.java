@@ -0,0 +1,89 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks for compiling glob patterns to path matchers and for matching paths with them. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathMatcherBenchmark {
+
+  @Param({BenchmarkFileSystem.JIMFS, BenchmarkFileSystem.DEFAULT})
+  String fileSystem;
+
+  @Param({"glob:*.java", "glob:**/*.{java,class}", "glob:/foo/[a-m]*/b?r/**"})
+  String pattern;
+
+  private BenchmarkFileSystem fs;
+  private PathMatcher matcher;
+  private Path[] paths;
+  private int next;
+
+  @Setup
+  public void setUp() throws IOException {
+    fs = BenchmarkFileSystem.create(fileSystem);
+    FileSystem system = fs.root().getFileSystem();
+    matcher = system.getPathMatcher(pattern);
+    paths =
+        new Path[] {
+          system.getPath("Foo.java"),
+          system.getPath("/foo/bar/baz/Foo.java"),
+          system.getPath("/foo/bar/baz/Foo.class"),
+          system.getPath("/foo/abc/bar/baz/qux.txt"),
+          system.getPath("/foo/xyz/bar/baz/qux.txt"),
+          system.getPath("relative/path/to/some/File.java"),
+        };
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    fs.close();
+  }
+
+  @Benchmark
+  public PathMatcher compile() {
+    return fs.root().getFileSystem().getPathMatcher(pattern);
+  }
+
+  @Benchmark
+  public boolean match() {
+    Path path = paths[next];
+    next = (next + 1) % paths.length;
+    return matcher.matches(path);
+  }
+}
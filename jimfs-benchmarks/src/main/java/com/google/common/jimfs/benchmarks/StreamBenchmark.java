@@ -0,0 +1,114 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for reading and writing a whole file with {@link InputStream} and {@link
+ * OutputStream}, using buffers of various sizes. A buffer size of 1 reads or writes one byte at a
+ * time with {@code read()} and {@code write(int)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamBenchmark {
+
+  @Param({BenchmarkFileSystem.JIMFS, BenchmarkFileSystem.DEFAULT})
+  String fileSystem;
+
+  @Param({"1", "512", "8192"})
+  int bufferSize;
+
+  @Param({"1048576"}) // 1 MB
+  int fileSize;
+
+  private BenchmarkFileSystem fs;
+  private Path file;
+  private Path output;
+  private byte[] buffer;
+
+  @Setup
+  public void setUp() throws IOException {
+    fs = BenchmarkFileSystem.create(fileSystem);
+    byte[] bytes = new byte[fileSize];
+    new Random(0).nextBytes(bytes);
+    file = Files.write(fs.root().resolve("file"), bytes);
+    output = fs.root().resolve("output");
+    buffer = new byte[bufferSize];
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    fs.close();
+  }
+
+  @Benchmark
+  public long read() throws IOException {
+    long total = 0;
+    try (InputStream in = Files.newInputStream(file)) {
+      if (bufferSize == 1) {
+        int b;
+        while ((b = in.read()) != -1) {
+          total += b;
+        }
+      } else {
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          total += read;
+        }
+      }
+    }
+    return total;
+  }
+
+  @Benchmark
+  public void write() throws IOException {
+    try (OutputStream out = Files.newOutputStream(output)) {
+      if (bufferSize == 1) {
+        for (int i = 0; i < fileSize; i++) {
+          out.write(i);
+        }
+      } else {
+        for (int written = 0; written < fileSize; written += bufferSize) {
+          out.write(buffer, 0, Math.min(bufferSize, fileSize - written));
+        }
+      }
+    }
+  }
+}
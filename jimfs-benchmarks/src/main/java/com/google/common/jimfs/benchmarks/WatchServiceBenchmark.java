@@ -0,0 +1,107 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs.benchmarks;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for the latency of a watch service: the time from a file being created or deleted in a
+ * watched directory until the corresponding event is received.
+ *
+ * <p>The polling Jimfs watch service is configured to poll every millisecond; its latency is
+ * dominated by that interval.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WatchServiceBenchmark {
+
+  @Param({
+    BenchmarkFileSystem.JIMFS_POLLING,
+    BenchmarkFileSystem.JIMFS_EVENT_DRIVEN,
+    BenchmarkFileSystem.DEFAULT
+  })
+  String fileSystem;
+
+  private BenchmarkFileSystem fs;
+  private WatchService watcher;
+  private Path file;
+
+  @Setup
+  public void setUp() throws IOException {
+    fs = BenchmarkFileSystem.create(fileSystem);
+    watcher = fs.root().getFileSystem().newWatchService();
+    fs.root().register(watcher, ENTRY_CREATE, ENTRY_DELETE);
+    file = fs.root().resolve("file");
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    watcher.close();
+    fs.close();
+  }
+
+  /** Creates the file if it doesn't exist or deletes it if it does and waits for the event. */
+  @Benchmark
+  public WatchEvent<?> createOrDelete() throws IOException, InterruptedException {
+    WatchEvent.Kind<?> expected;
+    if (Files.exists(file)) {
+      Files.delete(file);
+      expected = ENTRY_DELETE;
+    } else {
+      Files.createFile(file);
+      expected = ENTRY_CREATE;
+    }
+
+    while (true) {
+      WatchKey key = watcher.take();
+      try {
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == expected) {
+            return event;
+          }
+        }
+      } finally {
+        key.reset();
+      }
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Compresses the blocks of files that haven't been used recently and decompresses them when they
+ * are used again, keeping statistics about both. Compressed blocks are always heap buffers over
+ * byte arrays, whatever kind of storage the blocks they were compressed from are in.
+ */
+final class BlockCompressor {
+
+  private final int blockSize;
+
+  /**
+   * Maximum length of a compressed block. A block is only kept compressed if that saves at least a
+   * quarter of its size; otherwise it's not worth the cost of decompressing it later.
+   */
+  private final int maxCompressedLength;
+
+  /** The time (in nanoseconds) that a file must go unused to be compressed. */
+  private final long delayNanos;
+
+  // guarded by deflater
+  private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+  private final byte[] buffer;
+  // the content of a direct block, which the deflater can only read from an array on Java 8
+  private byte @Nullable [] input;
+
+  private final AtomicInteger compressedBlockCount = new AtomicInteger();
+  private final AtomicLong compressedSize = new AtomicLong();
+  private final AtomicLong compressionAttempts = new AtomicLong();
+  private final AtomicLong compressionHits = new AtomicLong();
+  private final AtomicLong decompressions = new AtomicLong();
+
+  BlockCompressor(int blockSize, long delayNanos) {
+    checkArgument(delayNanos > 0, "delayNanos (%s) must be positive", delayNanos);
+    this.blockSize = blockSize;
+    this.maxCompressedLength = blockSize - blockSize / 4;
+    this.delayNanos = delayNanos;
+    this.buffer = new byte[maxCompressedLength + 1];
+  }
+
+  /** Returns the time (in nanoseconds) that a file must go unused to be compressed. */
+  long delayNanos() {
+    return delayNanos;
+  }
+
+  /**
+   * Compresses the given full block, returning the compressed block or null if the block doesn't
+   * compress well enough to be worth keeping compressed.
+   */
+  @Nullable ByteBuffer compress(ByteBuffer block) {
+    compressionAttempts.incrementAndGet();
+
+    byte[] compressed;
+    synchronized (deflater) {
+      deflater.reset();
+      if (block.hasArray()) {
+        deflater.setInput(block.array(), block.arrayOffset(), blockSize);
+      } else {
+        if (input == null) {
+          input = new byte[blockSize];
+        }
+        Blocks.get(block, 0, input, 0, blockSize);
+        deflater.setInput(input, 0, blockSize);
+      }
+      deflater.finish();
+      int length = 0;
+      while (!deflater.finished() && length < buffer.length) {
+        length += deflater.deflate(buffer, length, buffer.length - length);
+      }
+      if (!deflater.finished() || length > maxCompressedLength) {
+        return null;
+      }
+      compressed = Arrays.copyOf(buffer, length);
+    }
+
+    compressionHits.incrementAndGet();
+    compressedBlockCount.incrementAndGet();
+    compressedSize.addAndGet(compressed.length);
+    return ByteBuffer.wrap(compressed);
+  }
+
+  /** Decompresses the given compressed block into the given full block. */
+  void decompress(ByteBuffer compressed, ByteBuffer block) {
+    byte[] output = block.hasArray() ? block.array() : new byte[blockSize];
+    int off = block.hasArray() ? block.arrayOffset() : 0;
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed.array(), compressed.arrayOffset(), compressed.capacity());
+      int length = 0;
+      while (length < blockSize && !inflater.finished()) {
+        length += inflater.inflate(output, off + length, blockSize - length);
+      }
+      if (!block.hasArray()) {
+        Blocks.put(block, 0, output, 0, blockSize);
+      }
+    } catch (DataFormatException e) {
+      throw new AssertionError(e); // the block was compressed by deflater
+    } finally {
+      inflater.end();
+    }
+
+    decompressions.incrementAndGet();
+    discard(compressed);
+  }
+
+  /** Records that the given compressed block is no longer in use. */
+  void discard(ByteBuffer compressed) {
+    compressedBlockCount.decrementAndGet();
+    compressedSize.addAndGet(-compressed.capacity());
+  }
+
+  /**
+   * Returns the value of the given compression statistic, or null if there's no statistic with
+   * that name.
+   */
+  @Nullable Object getStatistic(String name) {
+    switch (name) {
+      case "compressedBlockCount":
+        return compressedBlockCount.get();
+      case "compressedSize":
+        return compressedSize.get();
+      case "uncompressedSize":
+        return compressedBlockCount.get() * (long) blockSize;
+      case "compressionAttempts":
+        return compressionAttempts.get();
+      case "compressionHits":
+        return compressionHits.get();
+      case "compressionHitRate":
+        long attempts = compressionAttempts.get();
+        return attempts == 0 ? 0.0 : (double) compressionHits.get() / attempts;
+      case "decompressions":
+        return decompressions.get();
+      default:
+        return null;
+    }
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+/**
+ * Where a Jimfs file system stores the blocks that hold the content of its regular files.
+ *
+ * @since 1.4
+ */
+public enum BlockStorage {
+
+  /** Blocks are byte arrays on the Java heap. This is the default. */
+  HEAP,
+
+  /**
+   * Blocks are direct {@link java.nio.ByteBuffer ByteBuffers} in memory outside of the Java heap,
+   * so that the content of a large file system isn't copied or compacted by the garbage collector
+   * and doesn't count toward the heap's maximum size. Blocks are sliced from chunks of about a
+   * megabyte each, and a chunk's memory is released once every block sliced from it has been
+   * freed and garbage collected. Direct memory is limited by the JVM's {@code
+   * -XX:MaxDirectMemorySize} option rather than by its heap size.
+   *
+   * <p>The content of files small enough to be {@linkplain
+   * Configuration.Builder#setMaxInlineFileSize(int) stored inline} is still kept on the heap, as
+   * are compressed blocks. Set the maximum inline file size to 0 to keep the content of all files
+   * outside of the heap, other than compressed blocks.
+   */
+  DIRECT
+}
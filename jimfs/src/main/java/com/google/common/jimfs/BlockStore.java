@@ -0,0 +1,131 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.Math.max;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Allocates the full blocks that a {@link HeapDisk} stores file content in. The disk caches and
+ * reuses the blocks it frees, so a store only allocates blocks when the disk's cache is empty, and
+ * blocks that the disk doesn't cache are simply left to be garbage collected.
+ */
+abstract class BlockStore {
+
+  /** Creates a new store for the given kind of storage, allocating blocks of the given size. */
+  static BlockStore create(BlockStorage storage, int blockSize) {
+    checkArgument(blockSize > 0, "blockSize (%s) must be positive", blockSize);
+    switch (checkNotNull(storage)) {
+      case HEAP:
+        return new HeapBlockStore(blockSize);
+      case DIRECT:
+        return new DirectBlockStore(blockSize);
+    }
+    throw new AssertionError(storage);
+  }
+
+  final int blockSize;
+
+  BlockStore(int blockSize) {
+    this.blockSize = blockSize;
+  }
+
+  /** Returns the kind of storage this store allocates blocks in. */
+  abstract BlockStorage storage();
+
+  /** Allocates a new, zero-filled block. */
+  abstract ByteBuffer allocate();
+
+  /** Allocates each block as a heap buffer over a new byte array. */
+  private static final class HeapBlockStore extends BlockStore {
+
+    HeapBlockStore(int blockSize) {
+      super(blockSize);
+    }
+
+    @Override
+    BlockStorage storage() {
+      return BlockStorage.HEAP;
+    }
+
+    @Override
+    ByteBuffer allocate() {
+      return ByteBuffer.wrap(new byte[blockSize]);
+    }
+  }
+
+  /**
+   * Allocates blocks off the heap, slicing them from direct buffers of about {@value #CHUNK_SIZE}
+   * bytes each. Allocating a direct buffer is far more expensive than allocating an array, and each
+   * one has to be tracked by the garbage collector for its memory to be released, so blocks aren't
+   * allocated one at a time. Each block keeps its whole chunk reachable, so a chunk's memory is
+   * released only after all of its blocks have been garbage collected.
+   *
+   * <p>Blocks are taken from the current chunk with a single atomic increment; only replacing a
+   * used up chunk takes a lock.
+   */
+  private static final class DirectBlockStore extends BlockStore {
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    private final int blocksPerChunk;
+
+    private volatile @Nullable Chunk chunk;
+
+    DirectBlockStore(int blockSize) {
+      super(blockSize);
+      this.blocksPerChunk = max(CHUNK_SIZE / blockSize, 1);
+    }
+
+    @Override
+    BlockStorage storage() {
+      return BlockStorage.DIRECT;
+    }
+
+    @Override
+    ByteBuffer allocate() {
+      while (true) {
+        Chunk current = chunk;
+        if (current != null) {
+          int index = current.next.getAndIncrement();
+          if (index < blocksPerChunk) {
+            return Blocks.view(current.buffer, index * blockSize, blockSize).slice();
+          }
+        }
+        synchronized (this) {
+          if (chunk == current) {
+            chunk = new Chunk(ByteBuffer.allocateDirect(blocksPerChunk * blockSize));
+          }
+        }
+      }
+    }
+
+    private static final class Chunk {
+      final ByteBuffer buffer;
+      final AtomicInteger next = new AtomicInteger();
+
+      Chunk(ByteBuffer buffer) {
+        this.buffer = buffer;
+      }
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static java.lang.Math.min;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Static methods for reading and writing blocks, which are heap buffers over byte arrays or direct
+ * buffers depending on the {@link BlockStore} they were allocated from. A block may be read and
+ * written by several threads at once, so these methods never change a block's position or limit:
+ * they copy to or from the block's array if it has one, and through a duplicate of it if not.
+ */
+final class Blocks {
+
+  private static final byte[] ZEROS = new byte[8192];
+
+  private Blocks() {}
+
+  /**
+   * Returns a duplicate of the given block whose position and limit are {@code off} and {@code off
+   * + len}.
+   */
+  static ByteBuffer view(ByteBuffer block, int off, int len) {
+    ByteBuffer view = block.duplicate();
+    Java8Compatibility.position(view, off);
+    Java8Compatibility.limit(view, off + len);
+    return view;
+  }
+
+  /** Copies {@code len} bytes starting at {@code off} in the given block to the given array. */
+  static void get(ByteBuffer block, int off, byte[] b, int bOff, int len) {
+    if (block.hasArray()) {
+      System.arraycopy(block.array(), block.arrayOffset() + off, b, bOff, len);
+    } else {
+      view(block, off, len).get(b, bOff, len);
+    }
+  }
+
+  /** Copies {@code len} bytes starting at {@code off} in the given block to the given buffer. */
+  static void get(ByteBuffer block, int off, ByteBuffer buf, int len) {
+    if (block.hasArray()) {
+      buf.put(block.array(), block.arrayOffset() + off, len);
+    } else {
+      buf.put(view(block, off, len));
+    }
+  }
+
+  /** Copies {@code len} bytes from the given array to the given block starting at {@code off}. */
+  static void put(ByteBuffer block, int off, byte[] b, int bOff, int len) {
+    if (block.hasArray()) {
+      System.arraycopy(b, bOff, block.array(), block.arrayOffset() + off, len);
+    } else {
+      view(block, off, len).put(b, bOff, len);
+    }
+  }
+
+  /** Copies the next {@code len} bytes from the given buffer to the given block at {@code off}. */
+  static void put(ByteBuffer block, int off, ByteBuffer buf, int len) {
+    if (block.hasArray()) {
+      buf.get(block.array(), block.arrayOffset() + off, len);
+    } else {
+      ByteBuffer src = buf.duplicate();
+      Java8Compatibility.limit(src, src.position() + len);
+      view(block, off, len).put(src);
+      Java8Compatibility.position(buf, buf.position() + len);
+    }
+  }
+
+  /** Copies the first {@code len} bytes of one block to the start of another. */
+  static void copy(ByteBuffer from, ByteBuffer to, int len) {
+    if (from.hasArray()) {
+      put(to, 0, from.array(), from.arrayOffset(), len);
+    } else if (to.hasArray()) {
+      get(from, 0, to.array(), to.arrayOffset(), len);
+    } else {
+      view(to, 0, len).put(view(from, 0, len));
+    }
+  }
+
+  /** Zeroes {@code len} bytes starting at {@code off} in the given block. */
+  static void zero(ByteBuffer block, int off, int len) {
+    if (block.hasArray()) {
+      Util.zero(block.array(), block.arrayOffset() + off, len);
+    } else {
+      ByteBuffer view = view(block, off, len);
+      while (view.hasRemaining()) {
+        view.put(ZEROS, 0, min(view.remaining(), ZEROS.length));
+      }
+    }
+  }
+}
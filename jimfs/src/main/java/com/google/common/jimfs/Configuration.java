@@ -35,6 +35,7 @@ import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import java.nio.channels.FileChannel;
 import java.nio.file.FileSystem;
 import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.nio.file.SecureDirectoryStream;
 import java.nio.file.WatchService;
 import java.nio.file.attribute.BasicFileAttributeView;
@@ -44,6 +45,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import org.jspecify.annotations.Nullable;
 
@@ -227,8 +229,19 @@ public final class Configuration {
 
   // Disk configuration
   final int blockSize;
+  final BlockStorage blockStorage;
   final long maxSize;
   final long maxCacheSize;
+  final long blockCacheIdleTimeoutNanos;
+  final boolean trimBlockCacheOnLowMemory;
+  final int maxInlineFileSize;
+  final long coldFileCompressionDelayNanos;
+  final boolean blockDeduplication;
+  final @Nullable Path spillDirectory;
+  final long maxHeapSize;
+  final boolean bufferedOutputStreams;
+  final boolean directAsynchronousIo;
+  final boolean virtualThreadExecutor;
 
   // Attribute configuration
   final ImmutableSet<String> attributeViews;
@@ -252,8 +265,19 @@ public final class Configuration {
     this.nameCanonicalNormalization = builder.nameCanonicalNormalization;
     this.pathEqualityUsesCanonicalForm = builder.pathEqualityUsesCanonicalForm;
     this.blockSize = builder.blockSize;
+    this.blockStorage = builder.blockStorage;
     this.maxSize = builder.maxSize;
     this.maxCacheSize = builder.maxCacheSize;
+    this.blockCacheIdleTimeoutNanos = builder.blockCacheIdleTimeoutNanos;
+    this.trimBlockCacheOnLowMemory = builder.trimBlockCacheOnLowMemory;
+    this.maxInlineFileSize = builder.maxInlineFileSize;
+    this.coldFileCompressionDelayNanos = builder.coldFileCompressionDelayNanos;
+    this.blockDeduplication = builder.blockDeduplication;
+    this.spillDirectory = builder.spillDirectory;
+    this.maxHeapSize = builder.spillDirectory == null ? builder.maxSize : builder.maxHeapSize;
+    this.bufferedOutputStreams = builder.bufferedOutputStreams;
+    this.directAsynchronousIo = builder.directAsynchronousIo;
+    this.virtualThreadExecutor = builder.virtualThreadExecutor;
     this.attributeViews = builder.attributeViews;
     this.attributeProviders =
         builder.attributeProviders == null
@@ -292,9 +316,39 @@ public final class Configuration {
         .add("pathEqualityUsesCanonicalForm", pathEqualityUsesCanonicalForm)
         .add("blockSize", blockSize)
         .add("maxSize", maxSize);
+    if (blockStorage != BlockStorage.HEAP) {
+      helper.add("blockStorage", blockStorage);
+    }
     if (maxCacheSize != Builder.DEFAULT_MAX_CACHE_SIZE) {
       helper.add("maxCacheSize", maxCacheSize);
     }
+    if (blockCacheIdleTimeoutNanos != 0) {
+      helper.add("blockCacheIdleTimeoutNanos", blockCacheIdleTimeoutNanos);
+    }
+    if (trimBlockCacheOnLowMemory) {
+      helper.add("trimBlockCacheOnLowMemory", trimBlockCacheOnLowMemory);
+    }
+    if (maxInlineFileSize != Builder.DEFAULT_MAX_INLINE_FILE_SIZE) {
+      helper.add("maxInlineFileSize", maxInlineFileSize);
+    }
+    if (coldFileCompressionDelayNanos != 0) {
+      helper.add("coldFileCompressionDelayNanos", coldFileCompressionDelayNanos);
+    }
+    if (blockDeduplication) {
+      helper.add("blockDeduplication", blockDeduplication);
+    }
+    if (spillDirectory != null) {
+      helper.add("spillDirectory", spillDirectory).add("maxHeapSize", maxHeapSize);
+    }
+    if (bufferedOutputStreams) {
+      helper.add("bufferedOutputStreams", bufferedOutputStreams);
+    }
+    if (directAsynchronousIo) {
+      helper.add("directAsynchronousIo", directAsynchronousIo);
+    }
+    if (virtualThreadExecutor) {
+      helper.add("virtualThreadExecutor", virtualThreadExecutor);
+    }
     if (!attributeViews.isEmpty()) {
       helper.add("attributeViews", attributeViews);
     }
@@ -330,6 +384,13 @@ public final class Configuration {
     /** Equal to the configured max size. */
     public static final long DEFAULT_MAX_CACHE_SIZE = -1;
 
+    /**
+     * Equal to half the configured block size, or 0 if the block size is less than 64 bytes.
+     *
+     * @since 1.4
+     */
+    public static final int DEFAULT_MAX_INLINE_FILE_SIZE = -1;
+
     // Path configuration
     private final PathType pathType;
     private ImmutableSet<PathNormalization> nameDisplayNormalization = ImmutableSet.of();
@@ -338,8 +399,19 @@ public final class Configuration {
 
     // Disk configuration
     private int blockSize = DEFAULT_BLOCK_SIZE;
+    private BlockStorage blockStorage = BlockStorage.HEAP;
     private long maxSize = DEFAULT_MAX_SIZE;
     private long maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+    private long blockCacheIdleTimeoutNanos = 0;
+    private boolean trimBlockCacheOnLowMemory = false;
+    private int maxInlineFileSize = DEFAULT_MAX_INLINE_FILE_SIZE;
+    private long coldFileCompressionDelayNanos = 0;
+    private boolean blockDeduplication = false;
+    private @Nullable Path spillDirectory;
+    private long maxHeapSize;
+    private boolean bufferedOutputStreams = false;
+    private boolean directAsynchronousIo = false;
+    private boolean virtualThreadExecutor = false;
 
     // Attribute configuration
     private ImmutableSet<String> attributeViews = ImmutableSet.of();
@@ -366,8 +438,19 @@ public final class Configuration {
       this.nameCanonicalNormalization = configuration.nameCanonicalNormalization;
       this.pathEqualityUsesCanonicalForm = configuration.pathEqualityUsesCanonicalForm;
       this.blockSize = configuration.blockSize;
+      this.blockStorage = configuration.blockStorage;
       this.maxSize = configuration.maxSize;
       this.maxCacheSize = configuration.maxCacheSize;
+      this.blockCacheIdleTimeoutNanos = configuration.blockCacheIdleTimeoutNanos;
+      this.trimBlockCacheOnLowMemory = configuration.trimBlockCacheOnLowMemory;
+      this.maxInlineFileSize = configuration.maxInlineFileSize;
+      this.coldFileCompressionDelayNanos = configuration.coldFileCompressionDelayNanos;
+      this.blockDeduplication = configuration.blockDeduplication;
+      this.spillDirectory = configuration.spillDirectory;
+      this.maxHeapSize = configuration.maxHeapSize;
+      this.bufferedOutputStreams = configuration.bufferedOutputStreams;
+      this.directAsynchronousIo = configuration.directAsynchronousIo;
+      this.virtualThreadExecutor = configuration.virtualThreadExecutor;
       this.attributeViews = configuration.attributeViews;
       this.attributeProviders =
           configuration.attributeProviders.isEmpty()
@@ -474,6 +557,23 @@ public final class Configuration {
       return this;
     }
 
+    /**
+     * Sets where the file system stores the blocks that hold the content of its regular files:
+     * {@linkplain BlockStorage#HEAP on the Java heap} or {@linkplain BlockStorage#DIRECT in direct
+     * memory outside of it}. Keeping a large file system's content off the heap keeps it from being
+     * copied by the garbage collector and from counting toward the heap's maximum size. Reads and
+     * writes copy bytes directly between the blocks and the caller's arrays or buffers either way.
+     *
+     * <p>The default is {@link BlockStorage#HEAP}.
+     *
+     * @since 1.4
+     */
+    @CanIgnoreReturnValue
+    public Builder setBlockStorage(BlockStorage storage) {
+      this.blockStorage = checkNotNull(storage);
+      return this;
+    }
+
     /**
      * Sets the maximum size (in bytes) for the file system's in-memory file storage. This maximum
      * size determines the maximum number of blocks that can be allocated to regular files, so it
@@ -515,6 +615,209 @@ public final class Configuration {
       return this;
     }
 
+    /**
+     * Sets the time that the cache of unused space must go without being reused before the space
+     * in it is released for garbage collection. This lets a long-running file system give memory
+     * back after a burst of temporary files, while still avoiding garbage when files are created
+     * and deleted steadily. The cache is checked once per the given time, so it may go unused for
+     * up to twice the given time before it's released.
+     *
+     * <p>The cache can also be released at any time with {@link
+     * Jimfs#trim(java.nio.file.FileSystem) Jimfs.trim}.
+     *
+     * <p>The default is 0, which keeps cached space until it's reused.
+     *
+     * @since 1.4
+     */
+    @CanIgnoreReturnValue
+    public Builder setBlockCacheIdleTimeout(long timeout, TimeUnit unit) {
+      checkArgument(timeout >= 0, "timeout (%s) may not be negative", timeout);
+      this.blockCacheIdleTimeoutNanos = unit.toNanos(timeout);
+      return this;
+    }
+
+    /**
+     * Sets whether or not the cache of unused space is released for garbage collection when the
+     * JVM is low on memory. When enabled, the file system checks the usage of the heap's {@link
+     * java.lang.management.MemoryPoolMXBean memory pools} after their last garbage collection once
+     * a second. The cache is released if a pool's usage is at or above its collection usage
+     * threshold or, for pools without one, 90% of its maximum size. The pools' thresholds are
+     * never changed.
+     *
+     * <p>The default is false.
+     *
+     * @since 1.4
+     */
+    @CanIgnoreReturnValue
+    public Builder setTrimBlockCacheOnLowMemory(boolean enabled) {
+      this.trimBlockCacheOnLowMemory = enabled;
+      return this;
+    }
+
+    /**
+     * Sets the maximum size (in bytes) of a regular file whose content is stored inline. Rather
+     * than being allocated a full block, such a file stores its content in a single array that is
+     * only as large as the content needs (rounded up to a power of 2), which greatly reduces the
+     * memory used by file systems containing many tiny files. When a file grows beyond this size,
+     * its content is moved to a full block. This can be set to 0 to always allocate full blocks.
+     *
+     * <p>Sizes greater than or equal to the {@linkplain #setBlockSize(int) block size} are treated
+     * as one byte less than the block size. Like a block, inline content counts as one block toward
+     * the {@linkplain #setMaxSize(long) maximum size} of the storage.
+     *
+     * <p>The default is half the block size, or 0 if the block size is less than 64 bytes.
+     *
+     * @since 1.4
+     */
+    @CanIgnoreReturnValue
+    public Builder setMaxInlineFileSize(int maxInlineFileSize) {
+      checkArgument(
+          maxInlineFileSize >= 0, "maxInlineFileSize (%s) may not be negative", maxInlineFileSize);
+      this.maxInlineFileSize = maxInlineFileSize;
+      return this;
+    }
+
+    /**
+     * Sets the time that a regular file must go without being read or written before its blocks
+     * are compressed. Files are compressed in the background and decompressed again when they're
+     * next read or written, which can greatly reduce the memory used by large files that are
+     * rarely read, such as logs. Blocks that don't compress well are left uncompressed. Since
+     * compressed blocks still count toward the {@linkplain #setMaxSize(long) maximum size} of the
+     * storage, compression never causes writes to fail for lack of space.
+     *
+     * <p>Files are checked for compression once per the given time, so a file may go unused for
+     * up to twice the given time before it's compressed. Statistics about compression are
+     * available from the file system's {@link java.nio.file.FileStore FileStore} as {@code
+     * "jimfs:compressedBlockCount"}, {@code "jimfs:compressedSize"}, {@code
+     * "jimfs:uncompressedSize"}, {@code "jimfs:compressionAttempts"}, {@code
+     * "jimfs:compressionHits"}, {@code "jimfs:compressionHitRate"} and {@code
+     * "jimfs:decompressions"}.
+     *
+     * <p>The default is 0, which disables compression.
+     *
+     * @since 1.4
+     */
+    @CanIgnoreReturnValue
+    public Builder setColdFileCompressionDelay(long delay, TimeUnit unit) {
+      checkArgument(delay >= 0, "delay (%s) may not be negative", delay);
+      this.coldFileCompressionDelayNanos = unit.toNanos(delay);
+      return this;
+    }
+
+    /**
+     * Sets whether or not the file system deduplicates the blocks of regular files. When enabled,
+     * each time a channel or stream that wrote to a file is closed, the file is queued to be
+     * deduplicated by a background thread. That thread hashes the file's blocks and looks them up
+     * by content. Blocks with the same content as a block in another file, or elsewhere in the same
+     * file, are replaced by a single shared block, which is copied again before it's next written
+     * to. This greatly reduces the memory used by file systems containing many copies of the same
+     * content, at the cost of hashing each file's content after it's written. Blocks with no
+     * duplicates are left alone.
+     *
+     * <p>Files copied with {@link java.nio.file.Files#copy Files.copy} always share their blocks
+     * with the original file until either is written to, whether or not this is enabled.
+     *
+     * <p>The default is false.
+     *
+     * @since 1.4
+     */
+    @CanIgnoreReturnValue
+    public Builder setBlockDeduplication(boolean enabled) {
+      this.blockDeduplication = enabled;
+      return this;
+    }
+
+    /**
+     * Sets the file system to spill the blocks of regular files to a temporary file in the given
+     * directory on the default file system when the blocks allocated to files would use more than
+     * {@code maxHeapSize} bytes of heap. Blocks of the files that were least recently read or
+     * written are spilled first, and they're read back into the heap the next time their file is
+     * read or written. This allows a file system to hold more data than fits in the heap, with the
+     * most recently used data staying in memory. The temporary file is deleted when the file system
+     * is closed.
+     *
+     * <p>The {@linkplain #setMaxSize(long) maximum size} of the file system still limits the total
+     * size of the files it contains, including spilled blocks, so it should generally be set to
+     * something larger than {@code maxHeapSize}. Files are checked for spilling in the background
+     * a few times per second, so the heap used may briefly exceed {@code maxHeapSize}. The number
+     * of blocks currently spilled is available from the file system's {@link
+     * java.nio.file.FileStore FileStore} as {@code "jimfs:spilledBlockCount"}, and their size as
+     * {@code "jimfs:spilledSize"}.
+     *
+     * <p>A spilled file is read back into the heap all at once, so no single file may be larger
+     * than {@code maxHeapSize}, counting any holes in it; writes that would make a file larger fail
+     * with an {@link java.io.IOException IOException}. For the same reason, {@code maxHeapSize}
+     * must be at least the {@linkplain #setBlockSize(int) block size}, or {@link #build()} throws
+     * an {@code IllegalArgumentException}.
+     *
+     * <p>By default, blocks are never spilled.
+     *
+     * @since 1.4
+     */
+    @CanIgnoreReturnValue
+    public Builder setSpillToDisk(Path directory, long maxHeapSize) {
+      checkArgument(maxHeapSize >= 0, "maxHeapSize (%s) may not be negative", maxHeapSize);
+      this.spillDirectory = checkNotNull(directory);
+      this.maxHeapSize = maxHeapSize;
+      return this;
+    }
+
+    /**
+     * Sets whether or not the streams returned by {@link java.nio.file.Files#newOutputStream
+     * Files.newOutputStream} buffer what's written to them. A buffered stream collects small
+     * writes without locking the file, and writes them to the file a block at a time: when the
+     * writes reach the end of a block, or when the stream is flushed or closed. Until then, the
+     * bytes written aren't visible to anything else reading the file, and the file's size doesn't
+     * include them, just as if the stream were wrapped in a {@link java.io.BufferedOutputStream}.
+     * This makes writing many small records to a file, as loggers do, nearly as fast as writing to
+     * a {@link java.io.ByteArrayOutputStream}.
+     *
+     * <p>The default is false, which writes everything to the file as soon as it's written to the
+     * stream.
+     *
+     * @since 1.4
+     */
+    @CanIgnoreReturnValue
+    public Builder setBufferedOutputStreams(boolean enabled) {
+      this.bufferedOutputStreams = enabled;
+      return this;
+    }
+
+    /**
+     * Sets whether or not {@link java.nio.channels.AsynchronousFileChannel asynchronous file
+     * channels} do reads and writes on the calling thread when they can. Since a read or write is
+     * only a copy in memory, handing it to another thread usually takes much longer than doing it.
+     * When enabled, a read or write that doesn't need to wait for another thread that's using the
+     * file is done immediately, and the future returned for it is already complete; completion
+     * handlers are still called from the channel's executor. Other reads and writes are done by
+     * the executor as usual.
+     *
+     * <p>The default is false.
+     *
+     * @since 1.4
+     */
+    @CanIgnoreReturnValue
+    public Builder setDirectAsynchronousIo(boolean enabled) {
+      this.directAsynchronousIo = enabled;
+      return this;
+    }
+
+    /**
+     * Sets whether or not {@link java.nio.channels.AsynchronousFileChannel asynchronous file
+     * channels} opened without an executor run their tasks in a new virtual thread for each task,
+     * rather than in a pool of platform threads. This has no effect on JVMs that don't support
+     * virtual threads.
+     *
+     * <p>The default is false.
+     *
+     * @since 1.4
+     */
+    @CanIgnoreReturnValue
+    public Builder setVirtualThreadExecutor(boolean enabled) {
+      this.virtualThreadExecutor = enabled;
+      return this;
+    }
+
     /**
      * Sets the attribute views the file system should support. By default, the following views may
      * be specified:
@@ -723,8 +1026,18 @@ public final class Configuration {
       return this;
     }
 
-    /** Creates a new immutable configuration object from this builder. */
+    /**
+     * Creates a new immutable configuration object from this builder.
+     *
+     * @throws IllegalArgumentException if the file system {@linkplain #setSpillToDisk spills to
+     *     disk} with a maximum heap size smaller than the block size
+     */
     public Configuration build() {
+      checkArgument(
+          spillDirectory == null || maxHeapSize >= blockSize,
+          "maxHeapSize (%s) must be at least the block size (%s)",
+          maxHeapSize,
+          blockSize);
       return new Configuration(this);
     }
   }
@@ -18,15 +18,23 @@ package com.google.common.jimfs;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import java.nio.file.attribute.FileTime;
 import java.util.Iterator;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.StampedLock;
 import org.jspecify.annotations.Nullable;
 
 /**
  * A table of {@linkplain DirectoryEntry directory entries}.
  *
+ * <p>The entries of a directory may only be changed while holding either the file store's write
+ * lock or both the file store's read lock and this directory's {@linkplain #lockEntries() entries
+ * lock}. Entries linking to directories are only unlinked while holding the file store's write
+ * lock.
+ *
  * @author Colin Decker
  */
 final class Directory extends File implements Iterable<DirectoryEntry> {
@@ -34,6 +42,14 @@ final class Directory extends File implements Iterable<DirectoryEntry> {
   /** The entry linking to this directory in its parent directory. */
   private DirectoryEntry entryInParent;
 
+  /** Lock guarding changes to the entries of this directory made under the store's read lock. */
+  private final StampedLock entriesLock = new StampedLock();
+
+  private final Lock entriesWriteLock = entriesLock.asWriteLock();
+
+  /** The thread holding the entries lock, if any, so that it can still call {@link #get}. */
+  private volatile @Nullable Thread entriesLockOwner;
+
   /** Creates a new normal directory with the given ID and creation time. */
   public static Directory create(int id, FileTime creationTime) {
     return new Directory(id, creationTime);
@@ -93,6 +109,13 @@ final class Directory extends File implements Iterable<DirectoryEntry> {
     parent().decrementLinkCount();
   }
 
+  @Override
+  void deleted() {
+    for (FileObserver observer : observers()) {
+      observer.deleted();
+    }
+  }
+
   /** Returns the number of entries in this directory. */
   @VisibleForTesting
   int entryCount() {
@@ -104,12 +127,61 @@ final class Directory extends File implements Iterable<DirectoryEntry> {
     return entryCount() == 2;
   }
 
-  /** Returns the entry for the given name in this table or null if no such entry exists. */
+  /**
+   * Acquires the lock on this directory's entries, allowing them to be changed while holding only
+   * the file store's read lock. The lock isn't reentrant. A thread locking more than one directory
+   * must acquire their locks in order of the directories' {@linkplain #id() IDs}.
+   */
+  void lockEntries() {
+    entriesWriteLock.lock();
+    entriesLockOwner = Thread.currentThread();
+  }
+
+  /** Releases the lock on this directory's entries. */
+  void unlockEntries() {
+    entriesLockOwner = null;
+    entriesWriteLock.unlock();
+  }
+
+  /**
+   * Returns the entry for the given name in this table or null if no such entry exists. The entry
+   * is first looked up optimistically, and is only looked up again while holding the read lock on
+   * this directory's entries if they were changed concurrently.
+   */
   public @Nullable DirectoryEntry get(Name name) {
+    long stamp = entriesLock.tryOptimisticRead();
+    if (stamp != 0) {
+      DirectoryEntry entry = find(name);
+      if (entriesLock.validate(stamp)) {
+        return entry;
+      }
+    } else if (entriesLockOwner == Thread.currentThread()) {
+      return find(name);
+    }
+
+    stamp = entriesLock.readLock();
+    try {
+      return find(name);
+    } finally {
+      entriesLock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Returns the entry for the given name in this table or null if no such entry exists.
+   *
+   * <p>This may be called while the table is concurrently modified during an optimistic lookup, so
+   * it must not fail in unexpected ways (such as by looping forever) in that case. The result may
+   * then be wrong, but the lookup will be retried.
+   */
+  private @Nullable DirectoryEntry find(Name name) {
+    DirectoryEntry[] table = this.table;
     int index = bucketIndex(name, table.length);
 
+    // no bucket can contain more than entryCount entries unless the table is being modified
+    int remaining = entryCount;
     DirectoryEntry entry = table[index];
-    while (entry != null) {
+    while (entry != null && remaining-- > 0) {
       if (name.equals(entry.name())) {
         return entry;
       }
@@ -129,6 +201,10 @@ final class Directory extends File implements Iterable<DirectoryEntry> {
     DirectoryEntry entry = new DirectoryEntry(this, checkNotReserved(name, "link"), file);
     put(entry);
     file.linked(entry);
+
+    for (FileObserver observer : observers()) {
+      observer.linked(name, file);
+    }
   }
 
   /**
@@ -140,6 +216,10 @@ final class Directory extends File implements Iterable<DirectoryEntry> {
   public void unlink(Name name) {
     DirectoryEntry entry = remove(checkNotReserved(name, "unlink"));
     entry.file().unlinked();
+
+    for (FileObserver observer : observers()) {
+      observer.unlinked(name, entry.file());
+    }
   }
 
   /**
@@ -150,15 +230,32 @@ final class Directory extends File implements Iterable<DirectoryEntry> {
     ImmutableSortedSet.Builder<Name> builder =
         new ImmutableSortedSet.Builder<>(Name.displayComparator());
 
-    for (DirectoryEntry entry : this) {
-      if (!isReserved(entry.name())) {
-        builder.add(entry.name());
-      }
+    for (DirectoryEntry entry : entries()) {
+      builder.add(entry.name());
     }
 
     return builder.build();
   }
 
+  /**
+   * Returns a snapshot of the entries this directory contains, excluding "." and "..". Unlike
+   * {@link #iterator()}, this may be called while holding only the file store's read lock.
+   */
+  public ImmutableList<DirectoryEntry> entries() {
+    ImmutableList.Builder<DirectoryEntry> builder = ImmutableList.builder();
+    long stamp = entriesLock.readLock();
+    try {
+      for (DirectoryEntry entry : this) {
+        if (!isReserved(entry.name())) {
+          builder.add(entry);
+        }
+      }
+    } finally {
+      entriesLock.unlockRead(stamp);
+    }
+    return builder.build();
+  }
+
   /** Checks that the given name is not "." or "..". Those names cannot be set/removed by users. */
   private static Name checkNotReserved(Name name, String action) {
     if (isReserved(name)) {
@@ -332,6 +429,10 @@ final class Directory extends File implements Iterable<DirectoryEntry> {
     throw new IllegalArgumentException("no entry matching '" + name + "' in this directory");
   }
 
+  /**
+   * Returns an iterator over all entries in this directory, including "." and "..". Must be called
+   * while holding the file store's write lock, or on a directory that isn't in a file tree yet.
+   */
   @Override
   public Iterator<DirectoryEntry> iterator() {
     return new AbstractIterator<DirectoryEntry>() {
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchService;
+import java.nio.file.Watchable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Implementation of {@link WatchService} that observes watched directories and their entries
+ * directly, posting events to keys as changes are made rather than polling for them. Unlike {@link
+ * PollingWatchService}, a key watches the directory that was located by its path at registration
+ * rather than the path itself; the key remains valid if the directory is moved, and is cancelled
+ * when the directory is deleted.
+ */
+final class EventDrivenWatchService extends AbstractWatchService {
+
+  /** Map of keys to the watch for each key. */
+  private final ConcurrentMap<Key, DirectoryWatch> watches = new ConcurrentHashMap<>();
+
+  private final FileSystemView view;
+  private final PathService pathService;
+  private final FileSystemState fileSystemState;
+
+  EventDrivenWatchService(
+      FileSystemView view, PathService pathService, FileSystemState fileSystemState) {
+    this.view = checkNotNull(view);
+    this.pathService = checkNotNull(pathService);
+    this.fileSystemState = checkNotNull(fileSystemState);
+
+    fileSystemState.register(this);
+  }
+
+  @Override
+  @CanIgnoreReturnValue
+  public synchronized Key register(
+      Watchable watchable, Iterable<? extends WatchEvent.Kind<?>> eventTypes) throws IOException {
+    JimfsPath path = checkWatchable(watchable);
+
+    Key key = super.register(path, eventTypes);
+
+    DirectoryWatch watch = new DirectoryWatch(key, pathService);
+    view.startWatching(path, watch);
+    watches.put(key, watch);
+    return key;
+  }
+
+  private JimfsPath checkWatchable(Watchable watchable) {
+    if (!(watchable instanceof JimfsPath) || !isSameFileSystem((Path) watchable)) {
+      throw new IllegalArgumentException(
+          "watchable ("
+              + watchable
+              + ") must be a Path "
+              + "associated with the same file system as this watch service");
+    }
+
+    return (JimfsPath) watchable;
+  }
+
+  private boolean isSameFileSystem(Path path) {
+    return ((JimfsFileSystem) path.getFileSystem()).getDefaultView() == view;
+  }
+
+  /** Returns the number of keys currently watching directories. */
+  @VisibleForTesting
+  int watchCount() {
+    return watches.size();
+  }
+
+  @Override
+  public synchronized void cancelled(Key key) {
+    DirectoryWatch watch = watches.remove(key);
+    if (watch != null) {
+      view.stopWatching(watch);
+    }
+  }
+
+  @Override
+  public void close() {
+    super.close();
+
+    synchronized (this) {
+      for (Key key : watches.keySet()) {
+        key.cancel();
+      }
+
+      fileSystemState.unregister(this);
+    }
+  }
+
+  /**
+   * Watch of a single directory for a single key. Observes the directory for entries being linked
+   * and unlinked, and each of its entries for modification.
+   *
+   * <p>All methods other than {@link #deleted()} and the modification callbacks are called while
+   * holding either the file store's write lock or the lock on the watched directory's entries,
+   * which together guard the state of this object.
+   */
+  static final class DirectoryWatch implements FileObserver {
+
+    private final Key key;
+    private final PathService pathService;
+
+    private @Nullable Directory directory;
+    private final Map<Name, EntryWatch> entryWatches = new HashMap<>();
+
+    DirectoryWatch(Key key, PathService pathService) {
+      this.key = checkNotNull(key);
+      this.pathService = checkNotNull(pathService);
+    }
+
+    /** Starts watching the given directory and its current entries. */
+    void start(Directory directory) {
+      this.directory = directory;
+      directory.addObserver(this);
+      for (DirectoryEntry entry : directory) {
+        Name name = entry.name();
+        if (!name.equals(Name.SELF) && !name.equals(Name.PARENT)) {
+          watchEntry(name, entry.file());
+        }
+      }
+    }
+
+    /** Stops watching the directory and its entries. Does nothing if already stopped. */
+    void stop() {
+      if (directory == null) {
+        return;
+      }
+
+      directory.removeObserver(this);
+      for (DirectoryEntry entry : directory) {
+        EntryWatch entryWatch = entryWatches.get(entry.name());
+        if (entryWatch != null) {
+          entry.file().removeObserver(entryWatch);
+        }
+      }
+      entryWatches.clear();
+      directory = null;
+    }
+
+    private void watchEntry(Name name, File file) {
+      EntryWatch entryWatch = new EntryWatch(name);
+      entryWatches.put(name, entryWatch);
+      file.addObserver(entryWatch);
+    }
+
+    @Override
+    public void linked(Name name, File file) {
+      watchEntry(name, file);
+      post(ENTRY_CREATE, name);
+    }
+
+    @Override
+    public void unlinked(Name name, File file) {
+      EntryWatch entryWatch = entryWatches.remove(name);
+      if (entryWatch != null) {
+        file.removeObserver(entryWatch);
+      }
+      post(ENTRY_DELETE, name);
+    }
+
+    @Override
+    public void deleted() {
+      key.cancel();
+    }
+
+    private void post(WatchEvent.Kind<Path> kind, Name name) {
+      if (key.isValid() && key.subscribesTo(kind)) {
+        key.post(new Event<>(kind, 1, pathService.createFileName(name)));
+        key.signal();
+      }
+    }
+
+    /** Observer of an entry in the watched directory, posting an event when it's modified. */
+    private final class EntryWatch implements FileObserver {
+
+      private final Name name;
+
+      EntryWatch(Name name) {
+        this.name = name;
+      }
+
+      @Override
+      public void modified() {
+        post(ENTRY_MODIFY, name);
+      }
+    }
+  }
+}
@@ -21,7 +21,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Table;
 import java.io.IOException;
 import java.nio.file.attribute.FileTime;
@@ -46,6 +48,9 @@ public abstract class File {
   // null when only the basic view is used (default)
   private @Nullable Table<String, String, Object> attributes;
 
+  // empty unless the file is being watched by an event-driven watch service
+  private volatile ImmutableList<FileObserver> observers = ImmutableList.of();
+
   File(int id, FileTime creationTime) {
     this.id = id;
 
@@ -179,8 +184,36 @@ public abstract class File {
   }
 
   /** Sets the last modified time of the file. */
-  final synchronized void setLastModifiedTime(FileTime lastModifiedTime) {
-    this.lastModifiedTime = lastModifiedTime;
+  final void setLastModifiedTime(FileTime lastModifiedTime) {
+    synchronized (this) {
+      this.lastModifiedTime = lastModifiedTime;
+    }
+
+    for (FileObserver observer : observers) {
+      observer.modified();
+    }
+  }
+
+  /** Returns the observers of this file. */
+  final ImmutableList<FileObserver> observers() {
+    return observers;
+  }
+
+  /** Adds the given observer to this file. */
+  final synchronized void addObserver(FileObserver observer) {
+    observers =
+        ImmutableList.<FileObserver>builder().addAll(observers).add(checkNotNull(observer)).build();
+  }
+
+  /** Removes the given observer from this file, if present. */
+  final synchronized void removeObserver(FileObserver observer) {
+    ImmutableList.Builder<FileObserver> builder = ImmutableList.builder();
+    for (FileObserver existing : observers) {
+      if (existing != observer) {
+        builder.add(existing);
+      }
+    }
+    observers = builder.build();
   }
 
   /**
@@ -208,6 +241,14 @@ public abstract class File {
     return builder.build();
   }
 
+  /** Returns a snapshot of the file's attributes table, not including the file times. */
+  final synchronized ImmutableTable<String, String, Object> getAttributes() {
+    if (attributes == null) {
+      return ImmutableTable.of();
+    }
+    return ImmutableTable.copyOf(attributes);
+  }
+
   /** Gets the value of the given attribute in the given view. */
   public final synchronized @Nullable Object getAttribute(String view, String attribute) {
     if (attributes == null) {
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static java.lang.Math.max;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A read-only view of a range of the content of a file in a Jimfs file system, created by {@link
+ * Jimfs#readOnlyView(java.nio.file.Path, long, long)}. The view's {@linkplain #buffers() buffers}
+ * wrap the file's storage directly, so reading a file through a view doesn't copy its content.
+ *
+ * <p>A view is a snapshot: it keeps the content the file had when the view was created, even if the
+ * file is written to, truncated or deleted after that. The storage holding that content stays in
+ * use, and counts toward the file system's size, until the view is {@linkplain #close() closed}.
+ * While a view is open, the first write to each part of the file it covers copies that part of
+ * the file's storage first.
+ *
+ * @since 1.4
+ */
+public final class FileContentView implements Closeable {
+
+  private final long size;
+  private final ByteBuffer[] buffers;
+
+  // guarded by this; null once the view is closed
+  private @Nullable RegularFile snapshot;
+
+  /**
+   * Creates a view of the given {@linkplain RegularFile#snapshot snapshot}, taken starting at the
+   * given position in its file.
+   */
+  FileContentView(RegularFile snapshot, long position) {
+    this.snapshot = checkNotNull(snapshot);
+    long offset = position % snapshot.disk().blockSize();
+    this.size = max(snapshot.sizeWithoutLocking() - offset, 0);
+    this.buffers = snapshot.readOnlyBuffers(offset);
+  }
+
+  /** Returns the number of bytes in this view. */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Returns read-only buffers that together contain the bytes in this view, in order. Each call
+   * returns new buffers, so each caller can read them independently. Each buffer covers part of the
+   * file's storage, so it's at most the file system's {@linkplain
+   * Configuration.Builder#setBlockSize block size} in length.
+   *
+   * <p>The buffers must not be used after this view is closed, since the storage they wrap may be
+   * reused by then.
+   *
+   * @throws IllegalStateException if this view is closed
+   */
+  public synchronized ByteBuffer[] buffers() {
+    checkState(snapshot != null, "view is closed");
+    ByteBuffer[] result = new ByteBuffer[buffers.length];
+    for (int i = 0; i < buffers.length; i++) {
+      result[i] = buffers[i].duplicate();
+    }
+    return result;
+  }
+
+  /** Releases the storage held by this view. Does nothing if this view is already closed. */
+  @Override
+  public synchronized void close() {
+    if (snapshot != null) {
+      snapshot.disk().free(snapshot);
+      snapshot = null;
+    }
+  }
+}
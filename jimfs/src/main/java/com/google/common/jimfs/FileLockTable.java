@@ -0,0 +1,286 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Table of the byte-range locks on a {@link RegularFile}. Each channel to the file stands in for a
+ * separate process: a range locked through one channel conflicts with overlapping ranges locked
+ * through other channels unless both locks are shared, while locking a range that overlaps one
+ * already locked (or being waited for) through the same channel throws {@link
+ * OverlappingFileLockException}, as it would for two locks held by one JVM.
+ *
+ * <p>Locks, including those that are still waiting to be granted, are kept in a plain list since a
+ * file rarely has more than a few at once. Threads only wait on the table's monitor, and releasing
+ * a lock only notifies, when locks are actually contended.
+ */
+final class FileLockTable {
+
+  // all guarded by this
+  private final List<RangeLock> locks = new ArrayList<>(2);
+  private int waiters;
+
+  /**
+   * Grants the given lock if no lock held through another channel conflicts with it, returning it;
+   * otherwise returns null.
+   */
+  synchronized @Nullable FileLock tryLock(RangeLock lock) throws ClosedChannelException {
+    checkCanLock(lock);
+    if (conflicts(lock)) {
+      return null;
+    }
+    locks.add(lock);
+    lock.granted = true;
+    return lock;
+  }
+
+  /**
+   * Grants the given lock, waiting for any conflicting locks held through other channels to be
+   * released first.
+   *
+   * @throws ClosedChannelException if the lock's channel is closed while waiting
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  synchronized FileLock lock(RangeLock lock) throws ClosedChannelException, InterruptedException {
+    checkCanLock(lock);
+    locks.add(lock);
+    boolean granted = false;
+    try {
+      while (conflicts(lock)) {
+        waiters++;
+        try {
+          wait();
+        } finally {
+          waiters--;
+        }
+        if (!lock.owner.isOpen()) {
+          throw new ClosedChannelException();
+        }
+      }
+      lock.granted = true;
+      granted = true;
+      return lock;
+    } finally {
+      if (!granted) {
+        locks.remove(lock);
+      }
+    }
+  }
+
+  /**
+   * Returns a future that completes with the given lock once it's granted. The lock is granted by
+   * whichever thread releases the last lock that conflicts with it, so no thread waits for it.
+   */
+  ListenableFuture<FileLock> lockAsync(RangeLock lock) {
+    SettableFuture<FileLock> future = SettableFuture.create();
+    synchronized (this) {
+      try {
+        checkCanLock(lock);
+      } catch (ClosedChannelException e) {
+        return Futures.immediateFailedFuture(e);
+      }
+      locks.add(lock);
+      if (!conflicts(lock)) {
+        lock.granted = true;
+        return Futures.immediateFuture(lock);
+      }
+      lock.future = future;
+    }
+
+    future.addListener(
+        () -> {
+          if (future.isCancelled()) {
+            cancel(lock);
+          }
+        },
+        directExecutor());
+    return future;
+  }
+
+  /** Releases the given lock, granting any waiting locks that no longer conflict. */
+  void release(RangeLock lock) {
+    List<RangeLock> granted;
+    synchronized (this) {
+      if (!lock.granted || !locks.remove(lock)) {
+        return;
+      }
+      lock.granted = false;
+      granted = grantWaiting();
+    }
+    complete(granted);
+  }
+
+  /**
+   * Releases all locks held through the given channel, which has been closed, and fails any of its
+   * locks that are still waiting to be granted.
+   */
+  void releaseAll(JimfsFileChannel owner) {
+    List<RangeLock> failed = new ArrayList<>();
+    List<RangeLock> granted;
+    synchronized (this) {
+      boolean released = false;
+      for (Iterator<RangeLock> it = locks.iterator(); it.hasNext(); ) {
+        RangeLock lock = it.next();
+        if (lock.owner == owner) {
+          it.remove();
+          released |= lock.granted;
+          if (lock.future != null && !lock.granted) {
+            failed.add(lock);
+          }
+          lock.granted = false;
+        }
+      }
+      granted = released ? grantWaiting() : null;
+    }
+
+    for (RangeLock lock : failed) {
+      lock.future.setException(new AsynchronousCloseException());
+    }
+    complete(granted);
+  }
+
+  private synchronized void cancel(RangeLock lock) {
+    if (!lock.granted) {
+      locks.remove(lock);
+    }
+  }
+
+  private void checkCanLock(RangeLock lock) throws ClosedChannelException {
+    if (!lock.owner.isOpen()) {
+      throw new ClosedChannelException();
+    }
+    for (RangeLock other : locks) {
+      if (other.owner == lock.owner && other.overlapsRange(lock)) {
+        throw new OverlappingFileLockException();
+      }
+    }
+  }
+
+  /** Returns whether a granted lock held through another channel conflicts with the given lock. */
+  private boolean conflicts(RangeLock lock) {
+    for (RangeLock other : locks) {
+      if (other.granted
+          && other.owner != lock.owner
+          && !(other.isShared() && lock.isShared())
+          && other.overlapsRange(lock)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Wakes threads waiting for locks and grants waiting asynchronous locks that no longer conflict,
+   * returning the latter (or null if there are none) so that their futures can be completed without
+   * holding this table's monitor.
+   */
+  private @Nullable List<RangeLock> grantWaiting() {
+    if (waiters > 0) {
+      notifyAll();
+    }
+
+    List<RangeLock> granted = null;
+    for (RangeLock lock : locks) {
+      if (lock.future != null && !lock.granted && !conflicts(lock)) {
+        lock.granted = true;
+        if (granted == null) {
+          granted = new ArrayList<>(2);
+        }
+        granted.add(lock);
+      }
+    }
+    return granted;
+  }
+
+  private void complete(@Nullable List<RangeLock> granted) {
+    if (granted != null) {
+      for (RangeLock lock : granted) {
+        if (!lock.future.set(lock)) {
+          release(lock); // the future was cancelled
+        }
+      }
+    }
+  }
+
+  /** A lock on a range of a file, held through a channel to the file. */
+  static final class RangeLock extends FileLock {
+
+    private final FileLockTable table;
+    private final JimfsFileChannel owner;
+
+    // both guarded by table; granted is volatile so that isValid() needn't lock the table
+    private volatile boolean granted;
+    private @Nullable SettableFuture<FileLock> future;
+
+    RangeLock(
+        FileLockTable table, JimfsFileChannel channel, long position, long size, boolean shared) {
+      super(channel, position, size, shared);
+      this.table = checkNotNull(table);
+      this.owner = channel;
+    }
+
+    RangeLock(
+        FileLockTable table,
+        JimfsFileChannel owner,
+        AsynchronousFileChannel channel,
+        long position,
+        long size,
+        boolean shared) {
+      super(channel, position, size, shared);
+      this.table = checkNotNull(table);
+      this.owner = checkNotNull(owner);
+    }
+
+    /** Returns the end of this lock's range, treating ranges that overflow as unbounded. */
+    private long end() {
+      long end = position() + size();
+      return end < 0 ? Long.MAX_VALUE : end;
+    }
+
+    private boolean overlapsRange(RangeLock other) {
+      return position() < other.end() && other.position() < end();
+    }
+
+    @Override
+    public boolean isValid() {
+      return granted;
+    }
+
+    @Override
+    public void release() throws ClosedChannelException {
+      if (!owner.isOpen()) {
+        throw new ClosedChannelException();
+      }
+      table.release(this);
+    }
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+/**
+ * Observer of changes to a {@link File}, notified synchronously by the thread making the change.
+ * Implementations should be fast, and other than {@link #deleted()} must not acquire the file store
+ * lock or any directory's lock since they may be called while those are held.
+ */
+interface FileObserver {
+
+  /** Called when the given name is linked to the given file in the observed directory. */
+  default void linked(Name name, File file) {}
+
+  /** Called when the given name is unlinked from the given file in the observed directory. */
+  default void unlinked(Name name, File file) {}
+
+  /** Called when the last modified time of the observed file is set. */
+  default void modified() {}
+
+  /** Called when the observed file is deleted, after the file store lock has been released. */
+  default void deleted() {}
+}
@@ -0,0 +1,566 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Table;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryFlag;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserPrincipal;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the file tree of a file store to a stream as an image and reads such an image back into a
+ * new file store. See {@link Jimfs#saveImage} and {@link Jimfs#loadImage}.
+ *
+ * <p>An image contains, for each root directory, the tree of files under that root in depth-first
+ * order. Each file is written the first time it's encountered, with its times, its attributes and
+ * its content; any further links to the same file refer back to it by number. The content of a
+ * regular file is written as the runs of bytes that aren't in holes, so sparse files stay sparse.
+ */
+final class FileSystemImage {
+
+  private FileSystemImage() {}
+
+  /** "JIMF" */
+  private static final int MAGIC = 0x4A494D46;
+
+  private static final int VERSION = 1;
+
+  // file types
+  private static final byte DIRECTORY = 'D';
+  private static final byte REGULAR_FILE = 'F';
+  private static final byte SYMBOLIC_LINK = 'L';
+
+  // attribute value types
+  private static final byte BOOLEAN = 0;
+  private static final byte INTEGER = 1;
+  private static final byte LONG = 2;
+  private static final byte STRING = 3;
+  private static final byte BYTES = 4;
+  private static final byte FILE_TIME = 5;
+  private static final byte USER = 6;
+  private static final byte GROUP = 7;
+  private static final byte POSIX_PERMISSIONS = 8;
+  private static final byte ACL = 9;
+
+  private static final byte[] EMPTY = new byte[0];
+
+  /**
+   * Writes an image of the file tree of the given store to the given stream. The store's write lock
+   * is held while the image is written, so the image is a consistent snapshot of the tree.
+   */
+  static void write(JimfsFileStore store, PathService pathService, OutputStream out)
+      throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    WritableByteChannel channel = Channels.newChannel(data);
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+
+    store.writeLock().lock();
+    try {
+      Map<File, Integer> fileNumbers = new IdentityHashMap<>();
+
+      Collection<Name> rootNames = store.getRootDirectoryNames();
+      data.writeInt(rootNames.size());
+      for (Name rootName : rootNames) {
+        Directory root = store.getRoot(rootName);
+        writeString(data, pathService.createRoot(rootName).toString());
+        writeFileInfo(data, root);
+
+        // the directories whose entries are currently being written, deepest first
+        Deque<Iterator<DirectoryEntry>> directories = new ArrayDeque<>();
+        writeEntryCount(data, root);
+        directories.push(root.iterator());
+
+        while (!directories.isEmpty()) {
+          Iterator<DirectoryEntry> entries = directories.peek();
+          if (!entries.hasNext()) {
+            directories.pop();
+            continue;
+          }
+
+          DirectoryEntry entry = entries.next();
+          Name name = entry.name();
+          if (name.equals(Name.SELF) || name.equals(Name.PARENT)) {
+            continue;
+          }
+
+          writeString(data, name.toString());
+
+          File file = entry.file();
+          Integer number = fileNumbers.get(file);
+          if (number != null) {
+            data.writeInt(number);
+            continue;
+          }
+
+          fileNumbers.put(file, fileNumbers.size());
+          data.writeInt(fileNumbers.size() - 1);
+          writeFileInfo(data, file);
+
+          if (file.isDirectory()) {
+            writeEntryCount(data, (Directory) file);
+            directories.push(((Directory) file).iterator());
+          } else if (file.isSymbolicLink()) {
+            writeString(data, ((SymbolicLink) file).target().toString());
+          } else {
+            writeContent(data, channel, (RegularFile) file);
+          }
+        }
+      }
+    } finally {
+      store.writeLock().unlock();
+    }
+
+    data.flush();
+  }
+
+  /**
+   * Reads the image from the given stream into the given store, which must be newly created. Each
+   * root directory in the image must already exist in the store.
+   */
+  static void read(InputStream in, JimfsFileStore store, PathService pathService)
+      throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    ReadableByteChannel channel = Channels.newChannel(data);
+    if (data.readInt() != MAGIC) {
+      throw new IOException("not a Jimfs file system image");
+    }
+    int version = data.readInt();
+    if (version != VERSION) {
+      throw new IOException("unsupported Jimfs file system image version: " + version);
+    }
+
+    List<File> files = new ArrayList<>();
+
+    int rootCount = data.readInt();
+    for (int i = 0; i < rootCount; i++) {
+      String rootPath = readString(data);
+      Name rootName = pathService.parsePath(rootPath).root();
+      Directory root = rootName == null ? null : store.getRoot(rootName);
+      if (root == null) {
+        throw new IOException(
+            "root directory " + rootPath + " in image doesn't exist in the file system");
+      }
+      readRootInfo(data, root);
+
+      // the directories whose entries are currently being read and the number of entries remaining
+      // for each, deepest first
+      Deque<Directory> directories = new ArrayDeque<>();
+      Deque<Integer> remainingEntries = new ArrayDeque<>();
+      directories.push(root);
+      remainingEntries.push(data.readInt());
+
+      while (!directories.isEmpty()) {
+        int remaining = remainingEntries.pop();
+        if (remaining == 0) {
+          directories.pop();
+          continue;
+        }
+        remainingEntries.push(remaining - 1);
+
+        Name name = pathService.name(readString(data));
+        int number = data.readInt();
+        if (number >= 0 && number < files.size()) {
+          directories.peek().link(name, files.get(number));
+          continue;
+        } else if (number != files.size()) {
+          throw new IOException("invalid file number in image: " + number);
+        }
+
+        File file = readFile(data, channel, store, pathService);
+        files.add(file);
+        directories.peek().link(name, file);
+        if (file.isDirectory()) {
+          directories.push((Directory) file);
+          remainingEntries.push(data.readInt());
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads a file that was just referenced by a directory entry for the first time. If the file is a
+   * directory, its entries are not read.
+   */
+  private static File readFile(
+      DataInputStream data,
+      ReadableByteChannel channel,
+      JimfsFileStore store,
+      PathService pathService)
+      throws IOException {
+    byte type = data.readByte();
+    switch (type) {
+      case DIRECTORY:
+        {
+          Directory directory = store.directoryCreator().get();
+          readTimesAndAttributes(data, directory);
+          return directory;
+        }
+      case REGULAR_FILE:
+        {
+          RegularFile file = store.regularFileCreator().get();
+          readTimesAndAttributes(data, file);
+          readContent(data, channel, file);
+          return file;
+        }
+      case SYMBOLIC_LINK:
+        {
+          // the link can't be created until its target, which follows its attributes, is read
+          FileTime[] times = readTimes(data);
+          ImmutableTable<String, String, Object> attributes = readAttributes(data);
+          JimfsPath target = pathService.parsePath(readString(data));
+          SymbolicLink link = store.symbolicLinkCreator(target).get();
+          setTimesAndAttributes(link, times, attributes);
+          return link;
+        }
+      default:
+        throw new IOException("invalid file type in image: " + type);
+    }
+  }
+
+  private static void writeFileInfo(DataOutputStream data, File file) throws IOException {
+    if (file.isDirectory()) {
+      data.writeByte(DIRECTORY);
+    } else if (file.isSymbolicLink()) {
+      data.writeByte(SYMBOLIC_LINK);
+    } else {
+      data.writeByte(REGULAR_FILE);
+    }
+
+    writeFileTime(data, file.getCreationTime());
+    writeFileTime(data, file.getLastModifiedTime());
+    writeFileTime(data, file.getLastAccessTime());
+
+    ImmutableTable<String, String, Object> attributes = file.getAttributes();
+    data.writeInt(attributes.size());
+    for (Table.Cell<String, String, Object> cell : attributes.cellSet()) {
+      writeString(data, cell.getRowKey());
+      writeString(data, cell.getColumnKey());
+      writeAttributeValue(data, cell.getValue());
+    }
+  }
+
+  private static void readRootInfo(DataInputStream data, Directory root) throws IOException {
+    if (data.readByte() != DIRECTORY) {
+      throw new IOException("root in image isn't a directory");
+    }
+    readTimesAndAttributes(data, root);
+  }
+
+  private static void readTimesAndAttributes(DataInputStream data, File file) throws IOException {
+    setTimesAndAttributes(file, readTimes(data), readAttributes(data));
+  }
+
+  private static FileTime[] readTimes(DataInputStream data) throws IOException {
+    return new FileTime[] {readFileTime(data), readFileTime(data), readFileTime(data)};
+  }
+
+  private static ImmutableTable<String, String, Object> readAttributes(DataInputStream data)
+      throws IOException {
+    ImmutableTable.Builder<String, String, Object> builder = ImmutableTable.builder();
+    int count = data.readInt();
+    for (int i = 0; i < count; i++) {
+      String view = readString(data);
+      String attribute = readString(data);
+      builder.put(view, attribute, readAttributeValue(data));
+    }
+    return builder.build();
+  }
+
+  private static void setTimesAndAttributes(
+      File file, FileTime[] times, ImmutableTable<String, String, Object> attributes) {
+    file.setCreationTime(times[0]);
+    file.setLastModifiedTime(times[1]);
+    file.setLastAccessTime(times[2]);
+    for (Table.Cell<String, String, Object> cell : attributes.cellSet()) {
+      file.setAttribute(cell.getRowKey(), cell.getColumnKey(), cell.getValue());
+    }
+  }
+
+  private static void writeEntryCount(DataOutputStream data, Directory directory)
+      throws IOException {
+    // don't count the entries for the directory itself and its parent
+    data.writeInt(directory.entryCount() - 2);
+  }
+
+  /** Writes the size of the given file and the runs of its content that aren't holes. */
+  private static void writeContent(
+      DataOutputStream data, WritableByteChannel channel, RegularFile file) throws IOException {
+    file.readLock().lock();
+    try {
+      long size = file.size();
+      data.writeLong(size);
+
+      long pos = file.nextData(0);
+      while (pos < size) {
+        long end = file.nextHole(pos);
+        data.writeLong(pos);
+        data.writeLong(end - pos);
+        file.transferTo(pos, end - pos, channel);
+        pos = file.nextData(end);
+      }
+      data.writeLong(-1);
+    } finally {
+      file.readLock().unlock();
+    }
+  }
+
+  private static void readContent(
+      DataInputStream data, ReadableByteChannel channel, RegularFile file) throws IOException {
+    long size = data.readLong();
+    for (long pos = data.readLong(); pos != -1; pos = data.readLong()) {
+      long length = data.readLong();
+      if (pos < file.sizeWithoutLocking() || length < 0 || pos + length > size) {
+        throw new IOException("invalid file content in image");
+      }
+
+      // writing nothing at pos extends the file to pos, leaving whole blocks in between as holes
+      file.write(pos, EMPTY, 0, 0);
+      // reads directly from the image into the file's blocks
+      if (file.transferFrom(channel, pos, length) != length) {
+        throw new EOFException();
+      }
+    }
+
+    if (size < file.sizeWithoutLocking()) {
+      throw new IOException("invalid file content in image");
+    }
+    file.write(size, EMPTY, 0, 0);
+  }
+
+  private static void writeAttributeValue(DataOutputStream data, Object value) throws IOException {
+    if (value instanceof Boolean) {
+      data.writeByte(BOOLEAN);
+      data.writeBoolean((Boolean) value);
+    } else if (value instanceof Integer) {
+      data.writeByte(INTEGER);
+      data.writeInt((Integer) value);
+    } else if (value instanceof Long) {
+      data.writeByte(LONG);
+      data.writeLong((Long) value);
+    } else if (value instanceof String) {
+      data.writeByte(STRING);
+      writeString(data, (String) value);
+    } else if (value instanceof byte[]) {
+      data.writeByte(BYTES);
+      writeBytes(data, (byte[]) value);
+    } else if (value instanceof FileTime) {
+      data.writeByte(FILE_TIME);
+      writeFileTime(data, (FileTime) value);
+    } else if (value instanceof UserPrincipal) {
+      data.writeByte(value instanceof GroupPrincipal ? GROUP : USER);
+      writeString(data, ((UserPrincipal) value).getName());
+    } else if (isPosixPermissions(value)) {
+      data.writeByte(POSIX_PERMISSIONS);
+      Set<?> permissions = (Set<?>) value;
+      data.writeInt(permissions.size());
+      for (Object permission : permissions) {
+        writeString(data, ((PosixFilePermission) permission).name());
+      }
+    } else if (isAcl(value)) {
+      data.writeByte(ACL);
+      List<?> acl = (List<?>) value;
+      data.writeInt(acl.size());
+      for (Object element : acl) {
+        writeAclEntry(data, (AclEntry) element);
+      }
+    } else {
+      throw new IOException(
+          "can't write attribute value of type " + value.getClass().getName() + " to an image");
+    }
+  }
+
+  private static Object readAttributeValue(DataInputStream data) throws IOException {
+    byte type = data.readByte();
+    switch (type) {
+      case BOOLEAN:
+        return data.readBoolean();
+      case INTEGER:
+        return data.readInt();
+      case LONG:
+        return data.readLong();
+      case STRING:
+        return readString(data);
+      case BYTES:
+        return readBytes(data);
+      case FILE_TIME:
+        return readFileTime(data);
+      case USER:
+        return UserLookupService.createUserPrincipal(readString(data));
+      case GROUP:
+        return UserLookupService.createGroupPrincipal(readString(data));
+      case POSIX_PERMISSIONS:
+        {
+          ImmutableSet.Builder<PosixFilePermission> permissions = ImmutableSet.builder();
+          int count = data.readInt();
+          for (int i = 0; i < count; i++) {
+            permissions.add(readEnum(data, PosixFilePermission.class));
+          }
+          return permissions.build();
+        }
+      case ACL:
+        {
+          ImmutableList.Builder<AclEntry> acl = ImmutableList.builder();
+          int count = data.readInt();
+          for (int i = 0; i < count; i++) {
+            acl.add(readAclEntry(data));
+          }
+          return acl.build();
+        }
+      default:
+        throw new IOException("invalid attribute value type in image: " + type);
+    }
+  }
+
+  private static boolean isPosixPermissions(Object value) {
+    if (!(value instanceof Set)) {
+      return false;
+    }
+    for (Object element : (Set<?>) value) {
+      if (!(element instanceof PosixFilePermission)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isAcl(Object value) {
+    if (!(value instanceof List)) {
+      return false;
+    }
+    for (Object element : (List<?>) value) {
+      if (!(element instanceof AclEntry)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void writeAclEntry(DataOutputStream data, AclEntry entry) throws IOException {
+    writeString(data, entry.type().name());
+    UserPrincipal principal = entry.principal();
+    data.writeBoolean(principal instanceof GroupPrincipal);
+    writeString(data, principal.getName());
+    data.writeInt(entry.permissions().size());
+    for (AclEntryPermission permission : entry.permissions()) {
+      writeString(data, permission.name());
+    }
+    data.writeInt(entry.flags().size());
+    for (AclEntryFlag flag : entry.flags()) {
+      writeString(data, flag.name());
+    }
+  }
+
+  private static AclEntry readAclEntry(DataInputStream data) throws IOException {
+    AclEntry.Builder builder = AclEntry.newBuilder().setType(readEnum(data, AclEntryType.class));
+    boolean group = data.readBoolean();
+    String principalName = readString(data);
+    builder.setPrincipal(
+        group
+            ? UserLookupService.createGroupPrincipal(principalName)
+            : UserLookupService.createUserPrincipal(principalName));
+
+    List<AclEntryPermission> permissions = new ArrayList<>();
+    int permissionCount = data.readInt();
+    for (int i = 0; i < permissionCount; i++) {
+      permissions.add(readEnum(data, AclEntryPermission.class));
+    }
+    builder.setPermissions(permissions.toArray(new AclEntryPermission[0]));
+
+    List<AclEntryFlag> flags = new ArrayList<>();
+    int flagCount = data.readInt();
+    for (int i = 0; i < flagCount; i++) {
+      flags.add(readEnum(data, AclEntryFlag.class));
+    }
+    builder.setFlags(flags.toArray(new AclEntryFlag[0]));
+    return builder.build();
+  }
+
+  private static <E extends Enum<E>> E readEnum(DataInputStream data, Class<E> type)
+      throws IOException {
+    String name = readString(data);
+    try {
+      return Enum.valueOf(type, name);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("invalid " + type.getSimpleName() + " in image: " + name, e);
+    }
+  }
+
+  private static void writeFileTime(DataOutputStream data, FileTime time) throws IOException {
+    Instant instant = time.toInstant();
+    data.writeLong(instant.getEpochSecond());
+    data.writeInt(instant.getNano());
+  }
+
+  private static FileTime readFileTime(DataInputStream data) throws IOException {
+    long seconds = data.readLong();
+    int nanos = data.readInt();
+    return FileTime.from(Instant.ofEpochSecond(seconds, nanos));
+  }
+
+  private static void writeString(DataOutputStream data, String string) throws IOException {
+    writeBytes(data, string.getBytes(UTF_8));
+  }
+
+  private static String readString(DataInputStream data) throws IOException {
+    return new String(readBytes(data), UTF_8);
+  }
+
+  private static void writeBytes(DataOutputStream data, byte[] bytes) throws IOException {
+    data.writeInt(bytes.length);
+    data.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInputStream data) throws IOException {
+    int length = data.readInt();
+    if (length < 0) {
+      throw new IOException("invalid length in image: " + length);
+    }
+    byte[] bytes = new byte[length];
+    data.readFully(bytes);
+    return bytes;
+  }
+}
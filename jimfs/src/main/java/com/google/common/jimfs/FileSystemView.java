@@ -101,9 +101,30 @@ final class FileSystemView {
     return workingDirectoryPath;
   }
 
-  /** Attempt to look up the file at the given path. */
+  /**
+   * Attempt to look up the file at the given path. The lookup is first attempted optimistically
+   * without acquiring the read lock, and is only repeated while holding the read lock if the file
+   * tree was restructured concurrently by a thread holding the write lock. (Each directory
+   * validates its own lookups against changes made while holding only its lock.)
+   */
   DirectoryEntry lookUpWithLock(JimfsPath path, Set<? super LinkOption> options)
       throws IOException {
+    long stamp = store.tryOptimisticRead();
+    if (stamp != 0) {
+      try {
+        DirectoryEntry result = lookUp(path, options);
+        if (store.validate(stamp)) {
+          return result;
+        }
+      } catch (IOException | RuntimeException e) {
+        // a concurrent modification may cause an inconsistent view of the tree, resulting in an
+        // exception that wouldn't be thrown otherwise; only throw it if there was no modification
+        if (store.validate(stamp)) {
+          throw e;
+        }
+      }
+    }
+
     store.readLock().lock();
     try {
       return lookUp(path, options);
@@ -163,10 +184,8 @@ final class FileSystemView {
       // directory when SecureDirectoryStream is supported rather than looking up the directory
       // each time the WatchService polls
 
-      for (DirectoryEntry entry : dir) {
-        if (!entry.name().equals(Name.SELF) && !entry.name().equals(Name.PARENT)) {
-          modifiedTimes.put(entry.name(), entry.file().getLastModifiedTime());
-        }
+      for (DirectoryEntry entry : dir.entries()) {
+        modifiedTimes.put(entry.name(), entry.file().getLastModifiedTime());
       }
 
       return modifiedTimes.build();
@@ -175,6 +194,32 @@ final class FileSystemView {
     }
   }
 
+  /**
+   * Starts the given watch watching the directory at the given path. This is done while holding the
+   * write lock, which guards the watch's state, so that no entries can be linked to or unlinked
+   * from the directory in the meantime.
+   */
+  public void startWatching(JimfsPath path, EventDrivenWatchService.DirectoryWatch watch)
+      throws IOException {
+    store.writeLock().lock();
+    try {
+      Directory dir = (Directory) lookUp(path, Options.FOLLOW_LINKS).requireDirectory(path).file();
+      watch.start(dir);
+    } finally {
+      store.writeLock().unlock();
+    }
+  }
+
+  /** Stops the given watch from watching its directory, while holding the write lock. */
+  public void stopWatching(EventDrivenWatchService.DirectoryWatch watch) {
+    store.writeLock().lock();
+    try {
+      watch.stop();
+    } finally {
+      store.writeLock().unlock();
+    }
+  }
+
   /**
    * Returns whether or not the two given paths locate the same file. The second path is located
    * using the given view rather than this file view.
@@ -185,13 +230,14 @@ final class FileSystemView {
       return false;
     }
 
-    store.readLock().lock();
+    // the write lock is needed so that no file can be linked or unlinked between the two lookups
+    store.writeLock().lock();
     try {
       File file = lookUp(path, Options.FOLLOW_LINKS).fileOrNull();
       File file2 = view2.lookUp(path2, Options.FOLLOW_LINKS).fileOrNull();
       return file != null && Objects.equals(file, file2);
     } finally {
-      store.readLock().unlock();
+      store.writeLock().unlock();
     }
   }
 
@@ -260,31 +306,68 @@ final class FileSystemView {
     checkNotNull(path);
     checkNotNull(fileCreator);
 
-    store.writeLock().lock();
+    File newFile = newFile(fileCreator, attrs);
+
+    store.readLock().lock();
     try {
-      DirectoryEntry entry = lookUp(path, Options.NOFOLLOW_LINKS);
+      DirectoryEntry entry = lookUpAndLockEntry(path);
+      try {
+        return linkNewFile(entry, path, newFile, failIfExists);
+      } finally {
+        entry.directory().unlockEntries();
+      }
+    } finally {
+      store.readLock().unlock();
+    }
+  }
 
-      if (entry.exists()) {
-        if (failIfExists) {
-          throw new FileAlreadyExistsException(path.toString());
-        }
+  /**
+   * Creates a new file using the given supplier and sets its initial attributes. This doesn't
+   * depend on the state of the file tree, so it's done before acquiring any locks to avoid blocking
+   * other threads while (potentially many) attributes are set. If it turns out a file already
+   * exists at the path, the new file is simply discarded.
+   */
+  private File newFile(Supplier<? extends File> fileCreator, FileAttribute<?>... attrs) {
+    File newFile = fileCreator.get();
+    store.setInitialAttributes(newFile, attrs);
+    return newFile;
+  }
 
-        // currently can only happen if getOrCreateFile doesn't find the file with the read lock
-        // and then the file is created between when it releases the read lock and when it
-        // acquires the write lock; so, very unlikely
-        return entry.file();
+  /**
+   * Looks up the entry for the given path, without following a final symbolic link, and locks the
+   * entries of its directory. Must be called while holding the file store's read lock.
+   */
+  private DirectoryEntry lookUpAndLockEntry(JimfsPath path) throws IOException {
+    while (true) {
+      DirectoryEntry entry = lookUp(path, Options.NOFOLLOW_LINKS);
+      if (lockEntries(entry, entry)) {
+        return entry;
       }
+    }
+  }
 
-      Directory parent = entry.directory();
+  /**
+   * Links the given new file at the path of the given entry and returns it. If {@code
+   * failIfExists} is {@code false} and a file already exists at the path, returns that file
+   * instead. Must be called while holding the lock on the entries of the entry's directory.
+   */
+  private File linkNewFile(
+      DirectoryEntry entry, JimfsPath path, File newFile, boolean failIfExists)
+      throws IOException {
+    if (entry.exists()) {
+      if (failIfExists) {
+        throw new FileAlreadyExistsException(path.toString());
+      }
 
-      File newFile = fileCreator.get();
-      store.setInitialAttributes(newFile, attrs);
-      parent.link(path.name(), newFile);
-      parent.setLastModifiedTime(now());
-      return newFile;
-    } finally {
-      store.writeLock().unlock();
+      // currently can only happen if getOrCreateFile doesn't find the file on its first lookup
+      // and then the file is created before it's looked up again; so, very unlikely
+      return entry.file();
     }
+
+    Directory parent = entry.directory();
+    parent.link(path.name(), newFile);
+    parent.setLastModifiedTime(now());
+    return newFile;
   }
 
   /**
@@ -304,7 +387,7 @@ final class FileSystemView {
     }
 
     if (options.contains(CREATE) || options.contains(CREATE_NEW)) {
-      return getOrCreateRegularFileWithWriteLock(path, options, attrs);
+      return createRegularFile(path, options, attrs);
     } else {
       throw new NoSuchFileException(path.toString());
     }
@@ -318,42 +401,64 @@ final class FileSystemView {
       throws IOException {
     store.readLock().lock();
     try {
-      DirectoryEntry entry = lookUp(path, options);
-      if (entry.exists()) {
+      while (true) {
+        DirectoryEntry entry = lookUp(path, options);
+        if (!entry.exists()) {
+          return null;
+        }
+
         File file = entry.file();
         if (!file.isRegularFile()) {
           throw new FileSystemException(path.toString(), null, "not a regular file");
         }
-        return open((RegularFile) file, options);
-      } else {
-        return null;
+
+        // The file may be unlinked concurrently by a thread holding only its directory's lock, so
+        // open it and then check that it was still linked when it was opened. Once it's open,
+        // unlinking it can no longer delete its content.
+        RegularFile regularFile = (RegularFile) file;
+        regularFile.opened();
+        if (isCurrent(entry)) {
+          truncateIfNecessary(regularFile, options);
+          return regularFile;
+        }
+        regularFile.closed();
       }
     } finally {
       store.readLock().unlock();
     }
   }
 
-  /** Gets or creates a new regular file with a write lock (assuming the file does not exist). */
-  private RegularFile getOrCreateRegularFileWithWriteLock(
+  /** Gets or creates a new regular file (assuming the file does not exist). */
+  private RegularFile createRegularFile(
       JimfsPath path, Set<OpenOption> options, FileAttribute<?>[] attrs) throws IOException {
-    store.writeLock().lock();
+    File newFile = newFile(store.regularFileCreator(), attrs);
+
+    store.readLock().lock();
     try {
-      File file = createFile(path, store.regularFileCreator(), options.contains(CREATE_NEW), attrs);
-      // the file already existed but was not a regular file
-      if (!file.isRegularFile()) {
-        throw new FileSystemException(path.toString(), null, "not a regular file");
+      DirectoryEntry entry = lookUpAndLockEntry(path);
+      try {
+        File file = linkNewFile(entry, path, newFile, options.contains(CREATE_NEW));
+        // the file already existed but was not a regular file
+        if (!file.isRegularFile()) {
+          throw new FileSystemException(path.toString(), null, "not a regular file");
+        }
+
+        // must be opened while holding the directory's lock to ensure no race between opening and
+        // deleting the file
+        RegularFile regularFile = (RegularFile) file;
+        regularFile.opened();
+        truncateIfNecessary(regularFile, options);
+        return regularFile;
+      } finally {
+        entry.directory().unlockEntries();
       }
-      return open((RegularFile) file, options);
     } finally {
-      store.writeLock().unlock();
+      store.readLock().unlock();
     }
   }
 
-  /**
-   * Opens the given regular file with the given options, truncating it if necessary and
-   * incrementing its open count. Returns the given file.
-   */
-  private static RegularFile open(RegularFile file, Set<OpenOption> options) {
+  /** Truncates the given newly opened regular file if the given options say to. */
+  private static void truncateIfNecessary(RegularFile file, Set<OpenOption> options) {
     if (options.contains(TRUNCATE_EXISTING) && options.contains(WRITE)) {
       file.writeLock().lock();
       try {
@@ -362,12 +467,6 @@ final class FileSystemView {
         file.writeLock().unlock();
       }
     }
-
-    // must be opened while holding a file store lock to ensure no race between opening and
-    // deleting the file
-    file.opened();
-
-    return file;
   }
 
   /** Returns the target of the symbolic link at the given path. */
@@ -416,40 +515,79 @@ final class FileSystemView {
 
     Name linkName = link.name();
 
-    // existingView is in the same file system, so just one lock is needed
-    store.writeLock().lock();
+    // existingView is in the same file system, so just one store lock is needed
+    store.readLock().lock();
     try {
-      // we do want to follow links when finding the existing file
-      File existingFile =
-          existingView.lookUp(existing, Options.FOLLOW_LINKS).requireExists(existing).file();
-      if (!existingFile.isRegularFile()) {
-        throw new FileSystemException(
-            link.toString(), existing.toString(), "can't link: not a regular file");
-      }
-
-      Directory linkParent =
-          lookUp(link, Options.NOFOLLOW_LINKS).requireDoesNotExist(link).directory();
+      while (true) {
+        // we do want to follow links when finding the existing file
+        DirectoryEntry existingEntry =
+            existingView.lookUp(existing, Options.FOLLOW_LINKS).requireExists(existing);
+        File existingFile = existingEntry.file();
+        if (!existingFile.isRegularFile()) {
+          throw new FileSystemException(
+              link.toString(), existing.toString(), "can't link: not a regular file");
+        }
 
-      linkParent.link(linkName, existingFile);
-      linkParent.setLastModifiedTime(now());
+        DirectoryEntry linkEntry = lookUp(link, Options.NOFOLLOW_LINKS).requireDoesNotExist(link);
+
+        // lock the existing file's directory too, so that it can't be unlinked (and its content
+        // deleted) before it's linked again
+        if (lockEntries(existingEntry, linkEntry)) {
+          try {
+            Directory linkParent = linkEntry.directory();
+            linkParent.link(linkName, existingFile);
+            linkParent.setLastModifiedTime(now());
+            return;
+          } finally {
+            unlockEntries(existingEntry, linkEntry);
+          }
+        }
+      }
     } finally {
-      store.writeLock().unlock();
+      store.readLock().unlock();
     }
   }
 
   /** Deletes the file at the given absolute path. */
   public void deleteFile(JimfsPath path, DeleteMode deleteMode) throws IOException {
-    store.writeLock().lock();
+    File file = null;
+    store.readLock().lock();
     try {
-      DirectoryEntry entry = lookUp(path, Options.NOFOLLOW_LINKS).requireExists(path);
-      delete(entry, deleteMode, path);
+      DirectoryEntry entry = lookUpAndLockEntry(path);
+      try {
+        // a directory can only be unlinked while holding the write lock
+        if (!entry.requireExists(path).file().isDirectory()) {
+          file = delete(entry, deleteMode, path);
+        }
+      } finally {
+        entry.directory().unlockEntries();
+      }
     } finally {
-      store.writeLock().unlock();
+      store.readLock().unlock();
     }
+
+    if (file == null) {
+      store.writeLock().lock();
+      try {
+        DirectoryEntry entry = lookUp(path, Options.NOFOLLOW_LINKS).requireExists(path);
+        file = delete(entry, deleteMode, path);
+      } finally {
+        store.writeLock().unlock();
+      }
+    }
+
+    // Done outside the locks since it may free all the content of the file, which could take a
+    // (relatively) long time. The file is no longer reachable, so nothing can open it first; a
+    // thread that looked it up before it was unlinked closes it again when it sees it was unlinked.
+    file.deleted();
   }
 
-  /** Deletes the given directory entry from its parent directory. */
-  private void delete(DirectoryEntry entry, DeleteMode deleteMode, JimfsPath pathForException)
+  /**
+   * Unlinks the given directory entry from its parent directory and returns the unlinked file. The
+   * caller must call {@link File#deleted()} on the returned file once it has released its locks.
+   */
+  @CanIgnoreReturnValue
+  private File delete(DirectoryEntry entry, DeleteMode deleteMode, JimfsPath pathForException)
       throws IOException {
     Directory parent = entry.directory();
     File file = entry.file();
@@ -457,8 +595,7 @@ final class FileSystemView {
     checkDeletable(file, deleteMode, pathForException);
     parent.unlink(entry.name());
     parent.setLastModifiedTime(now());
-
-    file.deleted();
+    return file;
   }
 
   /** Mode for deleting. Determines what types of files can be deleted. */
@@ -517,86 +654,60 @@ final class FileSystemView {
 
     boolean sameFileSystem = isSameFileSystem(destView);
 
-    File sourceFile;
+    File sourceFile = null; // non-null once the file tree has been updated
     File copyFile = null; // non-null after block completes iff source file was copied
-    lockBoth(store.writeLock(), destView.store.writeLock());
+    List<File> unlinked = new ArrayList<>(2); // replaced dest and deleted source, if any
     try {
-      DirectoryEntry sourceEntry = lookUp(source, options).requireExists(source);
-      DirectoryEntry destEntry = destView.lookUp(dest, Options.NOFOLLOW_LINKS);
-
-      Directory sourceParent = sourceEntry.directory();
-      sourceFile = sourceEntry.file();
-
-      Directory destParent = destEntry.directory();
-
-      if (move && sourceFile.isDirectory()) {
-        if (sameFileSystem) {
-          checkMovable(sourceFile, source);
-          checkNotAncestor(sourceFile, destParent, destView);
-        } else {
-          // move to another file system is accomplished by copy-then-delete, so the source file
-          // must be deletable to be moved
-          checkDeletable(sourceFile, DeleteMode.ANY, source);
+      if (sameFileSystem) {
+        // Unless a directory is moved or replaced, only the directories containing the source and
+        // dest need to be locked.
+        store.readLock().lock();
+        try {
+          while (true) {
+            DirectoryEntry sourceEntry = lookUp(source, options).requireExists(source);
+            DirectoryEntry destEntry = destView.lookUp(dest, Options.NOFOLLOW_LINKS);
+            if ((move && sourceEntry.file().isDirectory())
+                || (destEntry.exists() && destEntry.file().isDirectory())) {
+              break;
+            }
+
+            if (lockEntries(sourceEntry, destEntry)) {
+              try {
+                sourceFile = sourceEntry.file();
+                copyFile =
+                    copyLocked(
+                        sourceEntry, destView, destEntry, source, dest, options, move, unlinked);
+              } finally {
+                unlockEntries(sourceEntry, destEntry);
+              }
+              break;
+            }
+          }
+        } finally {
+          store.readLock().unlock();
         }
       }
 
-      if (destEntry.exists()) {
-        if (destEntry.file().equals(sourceFile)) {
-          return;
-        } else if (options.contains(REPLACE_EXISTING) || options.contains(ATOMIC_MOVE)) {
-          destView.delete(destEntry, DeleteMode.ANY, dest);
-        } else {
-          throw new FileAlreadyExistsException(dest.toString());
-        }
-      }
-
-      if (move && sameFileSystem) {
-        // Real move on the same file system.
-        sourceParent.unlink(source.name());
-        sourceParent.setLastModifiedTime(now());
-
-        destParent.link(dest.name(), sourceFile);
-        destParent.setLastModifiedTime(now());
-      } else {
-        // Doing a copy OR a move to a different file system, which must be implemented by copy and
-        // delete.
-
-        // By default, don't copy attributes.
-        AttributeCopyOption attributeCopyOption = AttributeCopyOption.NONE;
-        if (move) {
-          // Copy only the basic attributes of the file to the other file system, as it may not
-          // support all the attribute views that this file system does. This also matches the
-          // behavior of moving a file to a foreign file system with a different
-          // FileSystemProvider.
-          attributeCopyOption = AttributeCopyOption.BASIC;
-        } else if (options.contains(COPY_ATTRIBUTES)) {
-          // As with move, if we're copying the file to a different file system, only copy its
-          // basic attributes.
-          attributeCopyOption =
-              sameFileSystem ? AttributeCopyOption.ALL : AttributeCopyOption.BASIC;
-        }
-
-        // Copy the file, but don't copy its content while we're holding the file store locks.
-        copyFile = destView.store.copyWithoutContent(sourceFile, attributeCopyOption);
-        destParent.link(dest.name(), copyFile);
-        destParent.setLastModifiedTime(now());
-
-        // In order for the copy to be atomic (not strictly necessary, but seems preferable since
-        // we can) lock both source and copy files before leaving the file store locks. This
-        // ensures that users cannot observe the copy's content until the content has been copied.
-        // This also marks the source file as opened, preventing its content from being deleted
-        // until after it's copied if the source file itself is deleted in the next step.
-        lockSourceAndCopy(sourceFile, copyFile);
-
-        if (move) {
-          // It should not be possible for delete to throw an exception here, because we already
-          // checked that the file was deletable above.
-          delete(sourceEntry, DeleteMode.ANY, source);
+      if (sourceFile == null) {
+        lockBoth(store.writeLock(), destView.store.writeLock());
+        try {
+          DirectoryEntry sourceEntry = lookUp(source, options).requireExists(source);
+          DirectoryEntry destEntry = destView.lookUp(dest, Options.NOFOLLOW_LINKS);
+          sourceFile = sourceEntry.file();
+          copyFile =
+              copyLocked(sourceEntry, destView, destEntry, source, dest, options, move, unlinked);
+        } finally {
+          destView.store.writeLock().unlock();
+          store.writeLock().unlock();
         }
       }
     } finally {
-      destView.store.writeLock().unlock();
-      store.writeLock().unlock();
+      // As in deleteFile, notify deleted files only after releasing the locks. The source is still
+      // marked open by lockSourceAndCopy at this point, so its content is kept until it has been
+      // copied.
+      for (File file : unlinked) {
+        file.deleted();
+      }
     }
 
     if (copyFile != null) {
@@ -615,6 +726,100 @@ final class FileSystemView {
     }
   }
 
+  /**
+   * Copies or moves the file at the given source entry to the given dest entry, linking and
+   * unlinking files as needed but not copying any content. Must be called while holding either the
+   * write locks of both file stores or the read lock and the locks on both entries' directories.
+   * Returns the copy of the source file, or null if the file was moved or is already at the dest.
+   * Files that are unlinked are added to {@code unlinked}; the caller must call {@link
+   * File#deleted()} on each of them once it has released its locks.
+   */
+  private @Nullable File copyLocked(
+      DirectoryEntry sourceEntry,
+      FileSystemView destView,
+      DirectoryEntry destEntry,
+      JimfsPath source,
+      JimfsPath dest,
+      Set<CopyOption> options,
+      boolean move,
+      List<File> unlinked)
+      throws IOException {
+    boolean sameFileSystem = isSameFileSystem(destView);
+
+    Directory sourceParent = sourceEntry.directory();
+    File sourceFile = sourceEntry.file();
+
+    Directory destParent = destEntry.directory();
+
+    if (move && sourceFile.isDirectory()) {
+      if (sameFileSystem) {
+        checkMovable(sourceFile, source);
+        checkNotAncestor(sourceFile, destParent, destView);
+      } else {
+        // move to another file system is accomplished by copy-then-delete, so the source file
+        // must be deletable to be moved
+        checkDeletable(sourceFile, DeleteMode.ANY, source);
+      }
+    }
+
+    if (destEntry.exists()) {
+      if (destEntry.file().equals(sourceFile)) {
+        return null;
+      } else if (options.contains(REPLACE_EXISTING) || options.contains(ATOMIC_MOVE)) {
+        unlinked.add(destView.delete(destEntry, DeleteMode.ANY, dest));
+      } else {
+        throw new FileAlreadyExistsException(dest.toString());
+      }
+    }
+
+    if (move && sameFileSystem) {
+      // Real move on the same file system.
+      sourceParent.unlink(source.name());
+      sourceParent.setLastModifiedTime(now());
+
+      destParent.link(dest.name(), sourceFile);
+      destParent.setLastModifiedTime(now());
+      return null;
+    }
+
+    // Doing a copy OR a move to a different file system, which must be implemented by copy and
+    // delete.
+
+    // By default, don't copy attributes.
+    AttributeCopyOption attributeCopyOption = AttributeCopyOption.NONE;
+    if (move) {
+      // Copy only the basic attributes of the file to the other file system, as it may not
+      // support all the attribute views that this file system does. This also matches the
+      // behavior of moving a file to a foreign file system with a different
+      // FileSystemProvider.
+      attributeCopyOption = AttributeCopyOption.BASIC;
+    } else if (options.contains(COPY_ATTRIBUTES)) {
+      // As with move, if we're copying the file to a different file system, only copy its
+      // basic attributes.
+      attributeCopyOption = sameFileSystem ? AttributeCopyOption.ALL : AttributeCopyOption.BASIC;
+    }
+
+    // Copy the file, but don't copy its content while we're holding the locks.
+    File copyFile = destView.store.copyWithoutContent(sourceFile, attributeCopyOption);
+    destParent.link(dest.name(), copyFile);
+    destParent.setLastModifiedTime(now());
+
+    // In order for the copy to be atomic (not strictly necessary, but seems preferable since we
+    // can) lock both source and copy files before releasing the locks. This ensures that users
+    // cannot observe the copy's content until the content has been copied. This also marks the
+    // source file as opened, preventing its content from being deleted until after it's copied if
+    // the source file itself is deleted in the next step.
+    lockSourceAndCopy(sourceFile, copyFile);
+
+    if (move) {
+      // It should not be possible for delete to throw an exception here, because we already
+      // checked that the file was deletable above.
+      delete(sourceEntry, DeleteMode.ANY, source);
+      unlinked.add(sourceFile);
+    }
+    return copyFile;
+  }
+
   private void checkMovable(File file, JimfsPath path) throws FileSystemException {
     if (file.isRootDirectory()) {
       throw new FileSystemException(path.toString(), null, "can't move root directory");
@@ -644,6 +849,56 @@ final class FileSystemView {
     }
   }
 
+  /**
+   * Locks the entries of the directories of the given entries, which were looked up while holding
+   * the file store's read lock. The directories are locked in order of their IDs so that threads
+   * locking the same directories can't deadlock. Returns true if neither entry has changed since it
+   * was looked up. Otherwise, unlocks the directories and returns false, in which case the entries
+   * should be looked up again.
+   */
+  private static boolean lockEntries(DirectoryEntry entry1, DirectoryEntry entry2) {
+    Directory dir1 = entry1.directory();
+    Directory dir2 = entry2.directory();
+    if (dir1 == dir2) {
+      dir1.lockEntries();
+    } else if (dir1.id() < dir2.id()) {
+      dir1.lockEntries();
+      dir2.lockEntries();
+    } else {
+      dir2.lockEntries();
+      dir1.lockEntries();
+    }
+
+    if (isCurrent(entry1) && isCurrent(entry2)) {
+      return true;
+    }
+    unlockEntries(entry1, entry2);
+    return false;
+  }
+
+  /** Unlocks the entries of the directories locked by {@link #lockEntries}. */
+  private static void unlockEntries(DirectoryEntry entry1, DirectoryEntry entry2) {
+    entry1.directory().unlockEntries();
+    if (entry2.directory() != entry1.directory()) {
+      entry2.directory().unlockEntries();
+    }
+  }
+
+  /**
+   * Returns whether the given entry, looked up while holding the file store's read lock, is still
+   * the entry for its name in its directory.
+   */
+  private static boolean isCurrent(DirectoryEntry entry) {
+    File file = entry.fileOrNull();
+    if (file != null && file.isDirectory()) {
+      // directories can't be unlinked while the read lock is held
+      return true;
+    }
+
+    DirectoryEntry current = entry.directory().get(entry.name());
+    return file == (current == null ? null : current.file());
+  }
+
   /** Checks that source is not an ancestor of dest, throwing an exception if it is. */
   private void checkNotAncestor(File source, Directory destParent, FileSystemView destView)
       throws IOException {
@@ -670,12 +925,15 @@ final class FileSystemView {
   /**
    * Locks source and copy files before copying content. Also marks the source file as opened so
    * that its content won't be deleted until after the copy if it is deleted.
+   *
+   * <p>The source is write-locked rather than read-locked because copying a regular file shares its
+   * blocks with the copy, and in-place writes to a regular file only hold its read lock.
    */
   private void lockSourceAndCopy(File sourceFile, File copyFile) {
     sourceFile.opened();
     ReadWriteLock sourceLock = sourceFile.contentLock();
     if (sourceLock != null) {
-      sourceLock.readLock().lock();
+      sourceLock.writeLock().lock();
     }
     ReadWriteLock copyLock = copyFile.contentLock();
     if (copyLock != null) {
@@ -690,7 +948,7 @@ final class FileSystemView {
   private void unlockSourceAndCopy(File sourceFile, File copyFile) {
     ReadWriteLock sourceLock = sourceFile.contentLock();
     if (sourceLock != null) {
-      sourceLock.readLock().unlock();
+      sourceLock.writeLock().unlock();
     }
     ReadWriteLock copyLock = copyFile.contentLock();
     if (copyLock != null) {
@@ -17,13 +17,29 @@
 package com.google.common.jimfs;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.jimfs.Util.nextPowerOf2;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.math.LongMath;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import java.io.IOException;
 import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jspecify.annotations.Nullable;
 
 /**
  * A resizable pseudo-disk acting as a shared space for storing file data. A disk allocates fixed
@@ -36,9 +52,35 @@ import java.math.RoundingMode;
  */
 final class HeapDisk {
 
+  /**
+   * Size the table of deduplication candidates may grow to, regardless of the number of allocated
+   * blocks, before the candidates whose files have changed are dropped from it.
+   */
+  private static final int MIN_CANDIDATES_TO_DROP = 1024;
+
+  /** Maximum number of free lists the block cache is split into. */
+  private static final int MAX_FREE_LISTS = 64;
+
+  /** Size of the smallest small block. */
+  private static final int MIN_SMALL_BLOCK_SIZE = 16;
+
+  /** Length (in nanoseconds) of an epoch of the clock used to track when files were last used. */
+  static final long EPOCH_NANOS = MILLISECONDS.toNanos(100);
+
   /** Fixed size of each block for this disk. */
   private final int blockSize;
 
+  /** Store that full blocks are allocated from when the cache has none to reuse. */
+  private final BlockStore store;
+
+  /**
+   * Maximum size of a small block, or 0 if small blocks are disabled. A file whose content fits in
+   * a single small block is given a block that is only as large as it needs to be (rounded up to a
+   * power of 2) rather than a full block, so that the many tiny files in a typical file system
+   * don't each take up a whole block of memory.
+   */
+  private final int maxSmallBlockSize;
+
   /** Maximum total number of blocks that the disk may contain at any time. */
   private final int maxBlockCount;
 
@@ -46,21 +88,119 @@ final class HeapDisk {
   private final int maxCachedBlockCount;
 
   /**
-   * Cache of free blocks to be allocated to files. While this is stored as a file, it isn't used
-   * like a normal file: only the methods for accessing its blocks are used.
+   * Cache of free blocks to be allocated to files, split into several lock-free free lists. Each
+   * thread caches and allocates blocks using the free list for its stripe, only taking blocks from
+   * other stripes when its own is empty, so that threads growing and truncating different files
+   * rarely contend with each other.
+   */
+  private final FreeList[] freeLists;
+
+  /**
+   * The total number of blocks in the free lists, or that are about to be added to them. Slots in
+   * the cache are reserved by incrementing this before adding blocks, so that the cache never grows
+   * beyond {@link #maxCachedBlockCount} blocks.
+   */
+  private final AtomicInteger cachedBlockCount = new AtomicInteger();
+
+  /**
+   * Whether or not a block has been taken from the cache since it was last {@linkplain
+   * #trimIfIdle() checked for idleness}.
+   */
+  private volatile boolean cacheUsed;
+
+  /** Time (in nanoseconds) the cache must go unused before it's trimmed, or 0 if it never is. */
+  private final long cacheIdleTimeoutNanos;
+
+  /** Whether or not the cache is trimmed when the JVM is low on memory. */
+  private final boolean trimsCacheOnLowMemory;
+
+  /**
+   * The current total number of blocks that are currently allocated to files. Blocks are reserved
+   * by incrementing this before they're allocated, so that no more than {@link #maxBlockCount}
+   * blocks are ever allocated.
+   */
+  private final AtomicInteger allocatedBlockCount = new AtomicInteger();
+
+  /**
+   * Reference counts for blocks that are shared by more than one file. Blocks that are only used by
+   * a single file (the vast majority, usually) aren't in this map. A shared block counts only once
+   * toward the number of allocated blocks, and must be {@linkplain #unshare unshared} by a file
+   * before it writes to the block.
+   */
+  private final Map<ByteBuffer, Integer> sharedBlocks = new IdentityHashMap<>();
+
+  /**
+   * Table of interned blocks keyed by their content, or null if blocks aren't deduplicated. Only
+   * blocks that were found to have duplicates are interned. An interned block is always in {@link
+   * #sharedBlocks}, with the table counting as one of its
+   * references, so that files copy it before writing to it and its content never changes while
+   * it's in the table. Guarded by this disk.
+   */
+  private final @Nullable Map<BlockContent, ByteBuffer> internedBlocks;
+
+  /** The keys of the interned blocks in {@link #internedBlocks}, by block identity. */
+  private final @Nullable Map<ByteBuffer, BlockContent> internedBlockKeys;
+
+  /**
+   * Blocks that were seen when deduplicating files but had no duplicates at the time, keyed by the
+   * hash of their content, or null if blocks aren't deduplicated. Only the last block seen with
+   * each hash is kept. The blocks aren't shared, so their files may change them at any time; an
+   * entry is only used if its file hasn't been modified since. Guarded by this disk.
+   */
+  private final @Nullable Map<Integer, DeduplicationCandidate> deduplicationCandidates;
+
+  /**
+   * Files waiting to be deduplicated in the background, in the order they were queued. Files are
+   * queued whenever a stream or channel writing to them is closed, so the queue is lock-free rather
+   * than guarded by this disk.
+   */
+  private final Queue<RegularFile> pendingDeduplication = new ConcurrentLinkedQueue<>();
+
+  /** The files in {@link #pendingDeduplication}, so that each file is queued only once. */
+  private final Set<RegularFile> pendingDeduplicationFiles = ConcurrentHashMap.newKeySet();
+
+  /** File that blocks are spilled to when too much heap is used, or null if they aren't spilled. */
+  private final @Nullable SpillFile spillFile;
+
+  /** Maximum number of blocks that may be kept in the heap before blocks are spilled. */
+  private final int maxHeapBlockCount;
+
+  /**
+   * Clock used to track when files were last used, in coarse epochs of {@link #EPOCH_NANOS}. The
+   * clock is only advanced by {@link #tick()}, which the background tasks that compress or spill
+   * files call each time they run, so reading it is cheap.
    */
-  @VisibleForTesting final RegularFile blockCache;
+  private volatile int epoch;
 
-  /** The current total number of blocks that are currently allocated to files. */
-  private int allocatedBlockCount;
+  private final long startNanos = System.nanoTime();
+
+  /** Compressor for the blocks of cold files, or null if cold files aren't compressed. */
+  private final @Nullable BlockCompressor compressor;
 
   /** Creates a new disk using settings from the given configuration. */
   public HeapDisk(Configuration config) {
     this.blockSize = config.blockSize;
+    this.store = BlockStore.create(config.blockStorage, blockSize);
     this.maxBlockCount = toBlockCount(config.maxSize, blockSize);
     this.maxCachedBlockCount =
         config.maxCacheSize == -1 ? maxBlockCount : toBlockCount(config.maxCacheSize, blockSize);
-    this.blockCache = createBlockCache(maxCachedBlockCount);
+    this.maxSmallBlockSize =
+        config.maxInlineFileSize == -1
+            ? defaultMaxSmallBlockSize(blockSize)
+            : min(config.maxInlineFileSize, blockSize - 1);
+    this.freeLists = createFreeLists();
+    this.compressor =
+        config.coldFileCompressionDelayNanos == 0
+            ? null
+            : new BlockCompressor(blockSize, config.coldFileCompressionDelayNanos);
+    this.internedBlocks = config.blockDeduplication ? new HashMap<>() : null;
+    this.internedBlockKeys = config.blockDeduplication ? new IdentityHashMap<>() : null;
+    this.deduplicationCandidates = config.blockDeduplication ? new HashMap<>() : null;
+    this.spillFile =
+        config.spillDirectory == null ? null : new SpillFile(config.spillDirectory, blockSize);
+    this.maxHeapBlockCount = toBlockCount(config.maxHeapSize, blockSize);
+    this.cacheIdleTimeoutNanos = config.blockCacheIdleTimeoutNanos;
+    this.trimsCacheOnLowMemory = config.trimBlockCacheOnLowMemory;
   }
 
   /**
@@ -68,15 +208,34 @@ final class HeapDisk {
    * maxCachedBlockCount}.
    */
   public HeapDisk(int blockSize, int maxBlockCount, int maxCachedBlockCount) {
+    this(blockSize, maxBlockCount, maxCachedBlockCount, BlockStorage.HEAP);
+  }
+
+  /**
+   * Creates a new disk with the given {@code blockSize}, {@code maxBlockCount} and {@code
+   * maxCachedBlockCount}, storing its blocks in the given kind of storage.
+   */
+  public HeapDisk(
+      int blockSize, int maxBlockCount, int maxCachedBlockCount, BlockStorage storage) {
     checkArgument(blockSize > 0, "blockSize (%s) must be positive", blockSize);
     checkArgument(maxBlockCount > 0, "maxBlockCount (%s) must be positive", maxBlockCount);
     checkArgument(
         maxCachedBlockCount >= 0, "maxCachedBlockCount (%s) must be non-negative",
         maxCachedBlockCount);
     this.blockSize = blockSize;
+    this.store = BlockStore.create(storage, blockSize);
     this.maxBlockCount = maxBlockCount;
     this.maxCachedBlockCount = maxCachedBlockCount;
-    this.blockCache = createBlockCache(maxCachedBlockCount);
+    this.maxSmallBlockSize = defaultMaxSmallBlockSize(blockSize);
+    this.freeLists = createFreeLists();
+    this.compressor = null;
+    this.internedBlocks = null;
+    this.internedBlockKeys = null;
+    this.deduplicationCandidates = null;
+    this.spillFile = null;
+    this.maxHeapBlockCount = maxBlockCount;
+    this.cacheIdleTimeoutNanos = 0;
+    this.trimsCacheOnLowMemory = false;
   }
 
   /** Returns the nearest multiple of {@code blockSize} that is <= {@code size}. */
@@ -84,15 +243,17 @@ final class HeapDisk {
     return (int) LongMath.divide(size, blockSize, RoundingMode.FLOOR);
   }
 
-  private RegularFile createBlockCache(int maxCachedBlockCount) {
-    // This file is just for holding blocks so things like the creation time don't matter
-    return new RegularFile(
-        -1,
-        SystemFileTimeSource.INSTANCE.now(),
-        this,
-        new byte[min(maxCachedBlockCount, 8192)][],
-        0,
-        0);
+  private static int defaultMaxSmallBlockSize(int blockSize) {
+    return blockSize >= MIN_SMALL_BLOCK_SIZE * 4 ? blockSize / 2 : 0;
+  }
+
+  private static FreeList[] createFreeLists() {
+    int count = min(nextPowerOf2(Runtime.getRuntime().availableProcessors()), MAX_FREE_LISTS);
+    FreeList[] freeLists = new FreeList[count];
+    for (int i = 0; i < count; i++) {
+      freeLists[i] = new FreeList();
+    }
+    return freeLists;
   }
 
   /** Returns the size of blocks created by this disk. */
@@ -100,11 +261,24 @@ final class HeapDisk {
     return blockSize;
   }
 
+  /** Returns the kind of storage this disk's full blocks are allocated in. */
+  BlockStorage blockStorage() {
+    return store.storage();
+  }
+
+  /**
+   * Returns the maximum size of a small block. Only a file that has a single block that is no
+   * larger than this may have a small block.
+   */
+  public int maxSmallBlockSize() {
+    return maxSmallBlockSize;
+  }
+
   /**
    * Returns the total size of this disk. This is the maximum size of the disk and does not reflect
    * the amount of data currently allocated or cached.
    */
-  public synchronized long getTotalSpace() {
+  public long getTotalSpace() {
     return maxBlockCount * (long) blockSize;
   }
 
@@ -113,28 +287,173 @@ final class HeapDisk {
    * additional bytes that could be allocated and does not reflect the number of bytes currently
    * actually cached in the disk.
    */
-  public synchronized long getUnallocatedSpace() {
-    return (maxBlockCount - allocatedBlockCount) * (long) blockSize;
+  public long getUnallocatedSpace() {
+    return (maxBlockCount - allocatedBlockCount.get()) * (long) blockSize;
+  }
+
+  /** Returns the compressor for the blocks of cold files, or null if they aren't compressed. */
+  @Nullable BlockCompressor compressor() {
+    return compressor;
+  }
+
+  /** Returns the file that blocks are spilled to, or null if blocks aren't spilled. */
+  @Nullable SpillFile spillFile() {
+    return spillFile;
+  }
+
+  /**
+   * Returns whether or not this disk tracks when each file was last used, which it does if it
+   * compresses or spills the blocks of files that haven't been used recently.
+   */
+  boolean tracksFileUsage() {
+    return compressor != null || spillFile != null;
+  }
+
+  /** Returns the current epoch of the clock used to track when files were last used. */
+  int epoch() {
+    return epoch;
+  }
+
+  /** Advances the clock used to track when files were last used to the current time. */
+  void tick() {
+    epoch = (int) ((System.nanoTime() - startNanos) / EPOCH_NANOS);
+  }
+
+  /**
+   * Returns the time (in nanoseconds) from the given epoch to the current epoch. Since the clock
+   * only advances when it's {@linkplain #tick() ticked}, this may be less than the actual time.
+   */
+  long nanosSince(int epoch) {
+    return (this.epoch - epoch) * EPOCH_NANOS;
+  }
+
+  /** Returns whether or not this disk deduplicates the blocks of files. */
+  boolean deduplicatesBlocks() {
+    return internedBlocks != null;
+  }
+
+  /** Returns the number of free blocks currently cached for reuse. */
+  @VisibleForTesting
+  int cachedBlockCount() {
+    return cachedBlockCount.get();
+  }
+
+  /**
+   * Returns the time (in nanoseconds) that the cache must go unused before it's trimmed, or 0 if
+   * it's never trimmed for being idle.
+   */
+  long cacheIdleTimeoutNanos() {
+    return cacheIdleTimeoutNanos;
+  }
+
+  /** Returns whether or not the cache should be trimmed when the JVM is low on memory. */
+  boolean trimsCacheOnLowMemory() {
+    return trimsCacheOnLowMemory;
+  }
+
+  /**
+   * Releases all blocks in the cache so that they can be garbage collected, returning the number
+   * of blocks released. Blocks that are freed concurrently may be cached again right away.
+   */
+  @CanIgnoreReturnValue
+  int trim() {
+    int released = 0;
+    for (FreeList freeList : freeLists) {
+      released += freeList.clear();
+    }
+    cachedBlockCount.addAndGet(-released);
+    return released;
+  }
+
+  /**
+   * Trims the cache if no block has been taken from it since the last time this was called,
+   * returning the number of blocks released.
+   */
+  @CanIgnoreReturnValue
+  int trimIfIdle() {
+    if (cacheUsed) {
+      cacheUsed = false;
+      return 0;
+    }
+    return trim();
   }
 
   /** Allocates the given number of blocks and adds them to the given file. */
-  public synchronized void allocate(RegularFile file, int count) throws IOException {
-    int newAllocatedBlockCount = allocatedBlockCount + count;
-    if (newAllocatedBlockCount > maxBlockCount) {
-      throw new IOException("out of disk space");
+  public void allocate(RegularFile file, int count) throws IOException {
+    checkFitsInHeap(file, count);
+    reserve(count);
+
+    for (int i = 0; i < count; i++) {
+      ByteBuffer block = takeCachedBlock();
+      file.addBlock(block != null ? block : store.allocate());
     }
+  }
 
-    int newBlocksNeeded = max(count - blockCache.blockCount(), 0);
+  /**
+   * Allocates a small block that can hold at least {@code minLength} bytes and adds it to the given
+   * file, which must have no blocks. A small block counts as a full block toward the size of the
+   * disk but is never cached for reuse. Small blocks are always allocated on the heap, whatever
+   * the disk's storage, since they're too small to be worth slicing from off-heap memory that
+   * can't be reused for full blocks.
+   */
+  public void allocateSmall(RegularFile file, int minLength) throws IOException {
+    checkArgument(minLength <= maxSmallBlockSize);
+    checkFitsInHeap(file, 1);
+    reserve(1);
+    file.addBlock(ByteBuffer.allocate(smallBlockSize(minLength)));
+  }
 
-    for (int i = 0; i < newBlocksNeeded; i++) {
-      file.addBlock(new byte[blockSize]);
+  /**
+   * Replaces the small first block of the given file with a larger block that can hold at least
+   * {@code minLength} bytes, copying the content of the small block to it. The new block is a full
+   * block if {@code minLength} is greater than the {@linkplain #maxSmallBlockSize() maximum size of
+   * a small block}. This doesn't allocate an additional block, since the small block has already
+   * been counted as one, unless the small block is shared with another file.
+   *
+   * @throws IOException if the small block is shared and the disk is full
+   */
+  public void growSmallBlock(RegularFile file, int minLength) throws IOException {
+    if (file.hasSharedBlocks()) {
+      unshare(file, 0);
     }
 
-    if (newBlocksNeeded != count) {
-      blockCache.transferBlocksTo(file, count - newBlocksNeeded);
+    ByteBuffer block = file.getBlock(0);
+    ByteBuffer larger;
+    if (minLength > maxSmallBlockSize) {
+      larger = takeCachedBlock();
+      if (larger == null) {
+        larger = store.allocate();
+      }
+    } else {
+      larger = ByteBuffer.allocate(smallBlockSize(minLength));
+    }
+    Blocks.copy(block, larger, block.capacity());
+    file.setBlock(0, larger);
+  }
+
+  /**
+   * Checks that the given file could still be read back into the heap if it were spilled after
+   * adding the given number of blocks to it. A spilled file is read back all at once the next time
+   * it's used, so a file with more blocks than may be kept in the heap could never be used again.
+   *
+   * @throws IOException if the file would have more blocks than may be kept in the heap
+   */
+  private void checkFitsInHeap(RegularFile file, int count) throws IOException {
+    if (spillFile != null && file.blockCount() + (long) count > maxHeapBlockCount) {
+      throw new IOException(
+          "file too large: files may not be larger than the max heap size ("
+              + (long) maxHeapBlockCount * blockSize
+              + " bytes) when blocks are spilled to disk");
     }
+  }
 
-    allocatedBlockCount = newAllocatedBlockCount;
+  private int smallBlockSize(int minLength) {
+    return min(max(nextPowerOf2(minLength), MIN_SMALL_BLOCK_SIZE), maxSmallBlockSize);
+  }
+
+  /** Returns whether or not the given block is a small block. */
+  boolean isSmall(ByteBuffer block) {
+    return block.capacity() < blockSize;
   }
 
   /** Frees all blocks in the given file. */
@@ -143,13 +462,772 @@ final class HeapDisk {
   }
 
   /** Frees the last {@code count} blocks from the given file. */
-  public synchronized void free(RegularFile file, int count) {
-    int remainingCacheSpace = maxCachedBlockCount - blockCache.blockCount();
-    if (remainingCacheSpace > 0) {
-      file.copyBlocksTo(blockCache, min(count, remainingCacheSpace));
+  public void free(RegularFile file, int count) {
+    if (file.hasSharedBlocks()
+        || file.hasHoles()
+        || file.isCompressed()
+        || file.isSpilled()
+        || file.isMapped()) {
+      freeEachBlock(file, count);
+      return;
+    }
+
+    int newBlockCount = file.blockCount() - count;
+    // a small block is always the only block in its file, and can't be reused by other files
+    int toCache = newBlockCount == 0 && count == 1 && isSmall(file.getBlock(0))
+        ? 0
+        : reserveCacheSlots(count);
+    if (toCache > 0) {
+      FreeList freeList = freeList();
+      for (int i = newBlockCount; i < newBlockCount + toCache; i++) {
+        freeList.push(file.getBlock(i));
+      }
+    }
+    file.truncateBlocks(newBlockCount);
+
+    allocatedBlockCount.addAndGet(-count);
+  }
+
+  /**
+   * Frees the last {@code count} blocks from the given file, which may share some of its blocks,
+   * have holes, have compressed blocks or be mapped. Shared blocks are released by the file but
+   * remain allocated to the other files sharing them, and holes were never allocated in the first
+   * place. The blocks of a mapped file are never cached, since its mappings may still see them.
+   *
+   * <p>Only releasing shared blocks holds this disk's lock; every other block is freed without it,
+   * plain blocks going back to the lock-free cache.
+   */
+  private void freeEachBlock(RegularFile file, int count) {
+    int newBlockCount = file.blockCount() - count;
+    boolean @Nullable [] stillShared =
+        file.hasSharedBlocks() ? releaseSharedBlocks(file, newBlockCount) : null;
+    for (int i = newBlockCount; i < file.blockCount(); i++) {
+      ByteBuffer block = file.getBlock(i);
+      if (block == null || (stillShared != null && stillShared[i - newBlockCount])) {
+        continue;
+      }
+      if (file.isEncoded(i) && file.isCompressed()) {
+        compressor.discard(block);
+        allocatedBlockCount.decrementAndGet();
+      } else if (file.isEncoded(i)) {
+        spillFile.free(block);
+        allocatedBlockCount.decrementAndGet();
+      } else if (file.isMapped()) {
+        allocatedBlockCount.decrementAndGet();
+      } else {
+        freeBlock(block);
+      }
+    }
+    file.truncateBlocks(newBlockCount);
+    if (file.hasSharedBlocks()) {
+      synchronized (this) {
+        updateHasSharedBlocks(file);
+      }
+    }
+  }
+
+  /**
+   * Releases the given file's references to its blocks from index {@code from} on, returning
+   * which of them are still used by other files, by index from {@code from}. The others are no
+   * longer used by any file and must be freed.
+   */
+  private synchronized boolean[] releaseSharedBlocks(RegularFile file, int from) {
+    boolean[] stillShared = new boolean[file.blockCount() - from];
+    for (int i = from; i < file.blockCount(); i++) {
+      ByteBuffer block = file.getBlock(i);
+      stillShared[i - from] = block != null && release(block);
+    }
+    return stillShared;
+  }
+
+  /**
+   * Clears the given file's {@linkplain RegularFile#hasSharedBlocks() shared blocks flag} if none
+   * of its blocks are shared anymore, which happens when the other files sharing them release
+   * their last references to them. The search for a shared block starts at the one found last
+   * time, so it usually ends right away while the file still shares blocks.
+   */
+  private void updateHasSharedBlocks(RegularFile file) {
+    int count = file.blockCount();
+    if (!sharedBlocks.isEmpty()) {
+      int start = file.sharedBlockHint() < count ? file.sharedBlockHint() : 0;
+      for (int n = 0; n < count; n++) {
+        int index = start + n < count ? start + n : start + n - count;
+        ByteBuffer block = file.getBlock(index);
+        if (block != null && sharedBlocks.containsKey(block)) {
+          file.setSharedBlockHint(index);
+          return;
+        }
+      }
+    }
+    file.clearHasSharedBlocks();
+  }
+
+  /** Frees the given block, which is no longer used by any file, caching it if possible. */
+  private void freeBlock(ByteBuffer block) {
+    if (!isSmall(block) && reserveCacheSlots(1) == 1) {
+      freeList().push(block);
+    }
+    allocatedBlockCount.decrementAndGet();
+  }
+
+  /**
+   * Queues the given file to be {@linkplain #deduplicate deduplicated} the next time {@link
+   * #deduplicatePendingFiles} is called, unless it's already queued. This disk must deduplicate
+   * blocks. Doesn't acquire any locks.
+   */
+  void deduplicateLater(RegularFile file) {
+    if (pendingDeduplicationFiles.add(file)) {
+      pendingDeduplication.add(file);
+    }
+  }
+
+  /** Deduplicates each file queued by {@link #deduplicateLater}, until none are left. */
+  void deduplicatePendingFiles() {
+    RegularFile file;
+    while ((file = pendingDeduplication.poll()) != null) {
+      // dequeue the file before reading its blocks, so that if it's written to after that it's
+      // queued again rather than being taken to be still queued
+      pendingDeduplicationFiles.remove(file);
+      deduplicate(file);
+    }
+  }
+
+  /**
+   * Deduplicates the blocks of the given file. Each block with the same content as a block in the
+   * table of interned blocks is replaced by the interned block and freed. A block with the same
+   * content as another block that isn't interned yet, in this file or a file deduplicated earlier,
+   * is interned itself, and the other block's file is queued to be deduplicated again so that it
+   * uses the interned block too. Blocks without duplicates aren't interned. Files that are
+   * compressed, spilled, mapped or have a small block aren't deduplicated.
+   *
+   * <p>The blocks are hashed and compared without holding the file's write lock. The file is only
+   * write-locked at the end, briefly, to replace its blocks, which is skipped if the file was
+   * modified in the meantime. Its writer queues it again when it's done.
+   */
+  void deduplicate(RegularFile file) {
+    if (internedBlocks == null) {
+      return;
+    }
+
+    // take the file's blocks under the read lock, then hash and compare them without any lock; if
+    // the file is written to meanwhile, its mod count changes and nothing is replaced
+    int modCount;
+    ByteBuffer[] blocks;
+    long size;
+    file.readLock().lock();
+    try {
+      modCount = file.modCount();
+      synchronized (this) {
+        if (file.isCompressed()
+            || file.isSpilled()
+            || file.isMapped()
+            || file.hasSmallBlock()
+            || modCount == file.deduplicatedModCount()) {
+          return;
+        }
+      }
+      size = file.sizeWithoutLocking();
+      blocks = new ByteBuffer[file.blockCount()];
+      for (int i = 0; i < blocks.length; i++) {
+        blocks[i] = file.getBlock(i);
+      }
+    } finally {
+      file.readLock().unlock();
+    }
+
+    int count = blocks.length;
+    BlockContent[] contents = new BlockContent[count];
+    ByteBuffer[] interned = new ByteBuffer[count];
+    BlockContent[] internedKeys = new BlockContent[count];
+    int[] duplicateOf = new int[count];
+    boolean[] hasDuplicates = new boolean[count];
+    List<RegularFile> filesToRequeue = new ArrayList<>();
+    Map<BlockContent, Integer> firstIndexes = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      duplicateOf[i] = -1;
+      ByteBuffer block = blocks[i];
+      if (block == null) {
+        continue;
+      }
+      // only the part of the last block that's within the file is compared
+      long end = size - (long) i * blockSize;
+      int length = end > 0 && end < blockSize ? (int) end : blockSize;
+      BlockContent content = new BlockContent(block, length);
+      contents[i] = content;
+
+      Integer first = firstIndexes.putIfAbsent(content, i);
+      if (first != null) {
+        duplicateOf[i] = first;
+        hasDuplicates[first] = true;
+        continue;
+      }
+
+      DeduplicationCandidate candidate;
+      synchronized (this) {
+        if (sharedBlocks.containsKey(block)) {
+          continue;
+        }
+        interned[i] = internedBlocks.get(content);
+        if (interned[i] != null) {
+          internedKeys[i] = internedBlockKeys.get(interned[i]);
+          continue;
+        }
+        candidate = deduplicationCandidates.get(content.hashCode());
+      }
+      if (candidate != null && candidate.file != file && candidate.matches(content)) {
+        hasDuplicates[i] = true;
+        filesToRequeue.add(candidate.file);
+      }
     }
-    file.truncateBlocks(file.blockCount() - count);
 
-    allocatedBlockCount -= count;
+    file.writeLock().lock();
+    try {
+      if (file.modCount() != modCount
+          || file.blockCount() != count
+          || file.isCompressed()
+          || file.isSpilled()
+          || file.isMapped()) {
+        return;
+      }
+
+      synchronized (this) {
+        for (int i = 0; i < count; i++) {
+          ByteBuffer block = blocks[i];
+          if (block == null || file.getBlock(i) != block || sharedBlocks.containsKey(block)) {
+            continue;
+          }
+
+          if (interned[i] != null && internedBlockKeys.get(interned[i]) == internedKeys[i]) {
+            replaceWithInternedBlock(file, i, interned[i]);
+          } else if (duplicateOf[i] != -1) {
+            // the first block with the same content was interned above, unless it was shared
+            ByteBuffer first = file.getBlock(duplicateOf[i]);
+            if (internedBlockKeys.containsKey(first)) {
+              replaceWithInternedBlock(file, i, first);
+            }
+          } else if (hasDuplicates[i]) {
+            ByteBuffer existing = internedBlocks.get(contents[i]);
+            if (existing == null) {
+              intern(file, block, contents[i]);
+            } else {
+              replaceWithInternedBlock(file, i, existing);
+            }
+          } else {
+            addDeduplicationCandidate(new DeduplicationCandidate(file, i, modCount, contents[i]));
+          }
+        }
+        file.setDeduplicatedModCount(modCount);
+        for (RegularFile other : filesToRequeue) {
+          // deduplicate the other file again even though it hasn't been modified
+          other.setDeduplicatedModCount(-1);
+          deduplicateLater(other);
+        }
+      }
+    } finally {
+      file.writeLock().unlock();
+    }
+  }
+
+  /** Adds the given block of the given file to the table of interned blocks. */
+  private void intern(RegularFile file, ByteBuffer block, BlockContent content) {
+    internedBlocks.put(content, block);
+    internedBlockKeys.put(block, content);
+    sharedBlocks.put(block, 2);
+    file.setHasSharedBlocks();
+  }
+
+  /** Replaces the block at the given index in the given file with the given interned block. */
+  private void replaceWithInternedBlock(RegularFile file, int index, ByteBuffer interned) {
+    sharedBlocks.put(interned, sharedBlocks.get(interned) + 1);
+    freeBlock(file.getBlock(index));
+    file.setBlock(index, interned);
+    file.setHasSharedBlocks();
+  }
+
+  /**
+   * Adds the given candidate to the table of deduplication candidates, first dropping the
+   * candidates whose files have been modified since if the table has grown larger than the number
+   * of allocated blocks.
+   */
+  private void addDeduplicationCandidate(DeduplicationCandidate candidate) {
+    if (deduplicationCandidates.size() > max(allocatedBlockCount.get(), MIN_CANDIDATES_TO_DROP)) {
+      deduplicationCandidates.values().removeIf(c -> !c.isCurrent());
+    }
+    deduplicationCandidates.put(candidate.content.hashCode(), candidate);
+  }
+
+  /**
+   * Adds all blocks of the given source file to the end of the given target file, sharing them
+   * between the two files rather than copying them. This doesn't allocate any additional blocks.
+   */
+  public void share(RegularFile source, RegularFile target) {
+    share(source, target, 0, source.blockCount());
+  }
+
+  /**
+   * Adds {@code count} blocks of the given source file, starting at block {@code first}, to the end
+   * of the given target file, sharing them between the two files as {@link #share(RegularFile,
+   * RegularFile)} does.
+   */
+  public synchronized void share(RegularFile source, RegularFile target, int first, int count) {
+    for (int i = first; i < first + count; i++) {
+      ByteBuffer block = source.getBlock(i);
+      if (block == null) {
+        target.addHoles(1);
+      } else {
+        Integer refs = sharedBlocks.get(block);
+        sharedBlocks.put(block, refs == null ? 2 : refs + 1);
+        target.addBlock(block);
+      }
+    }
+
+    if (count > 0) {
+      source.setHasSharedBlocks();
+      target.setHasSharedBlocks();
+    }
+  }
+
+  /**
+   * Ensures that the block at the given index in the given file isn't shared with any other file so
+   * that it can be written to, replacing it in the file with a newly allocated copy if it is.
+   *
+   * @throws IOException if the block needs to be copied but the disk is full
+   */
+  public synchronized void unshare(RegularFile file, int index) throws IOException {
+    ByteBuffer block = file.getBlock(index);
+    Integer refs = sharedBlocks.get(block);
+    if (refs == null) {
+      updateHasSharedBlocks(file);
+      return;
+    }
+
+    if (refs == 2 && unintern(block)) {
+      // the file was the only one using the block besides the table, so it can just take it back
+      sharedBlocks.remove(block);
+      return;
+    }
+
+    ByteBuffer copy;
+    if (isSmall(block)) {
+      reserve(1);
+      copy = ByteBuffer.allocate(block.capacity());
+    } else {
+      copy = allocateBlock();
+    }
+    Blocks.copy(block, copy, block.capacity());
+    release(block);
+    file.setBlock(index, copy);
+  }
+
+  /**
+   * Allocates a zero-filled block for the hole at the given index in the given file.
+   *
+   * @throws IOException if the disk is full
+   */
+  public void fillHole(RegularFile file, int index) throws IOException {
+    reserve(1);
+    ByteBuffer block = takeCachedBlock();
+    if (block == null) {
+      block = store.allocate();
+    } else {
+      // cached blocks may contain data from the file that last used them
+      Blocks.zero(block, 0, blockSize);
+    }
+    file.setBlock(index, block);
+  }
+
+  /**
+   * Moves {@code count} blocks of the given {@linkplain RegularFile#map mapped} file, starting at
+   * block {@code first}, into a single new direct buffer, which is returned, so that they can be
+   * mapped as one contiguous region. Each block is replaced in the file by a slice of the buffer
+   * with the same content, and holes by zero-filled slices. A slice taking the place of a hole or
+   * of a block shared with other files is a newly allocated block. Blocks that were only used by
+   * this file are left to be garbage collected rather than cached, since earlier mappings of the
+   * file may still see them.
+   *
+   * @throws IOException if the disk is full
+   */
+  synchronized ByteBuffer map(RegularFile file, int first, int count) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(count * blockSize);
+    for (int i = 0; i < count; i++) {
+      ByteBuffer block = file.getBlock(first + i);
+      ByteBuffer slice = Blocks.view(buffer, i * blockSize, blockSize).slice();
+      if (block == null) {
+        reserve(1);
+      } else {
+        Blocks.copy(block, slice, block.capacity());
+        if (sharedBlocks.containsKey(block)) {
+          reserve(1);
+          if (!release(block)) {
+            // the block turned out to be used only by this file after all
+            allocatedBlockCount.decrementAndGet();
+          }
+        }
+      }
+      file.setBlock(first + i, slice);
+    }
+    if (file.hasSharedBlocks()) {
+      updateHasSharedBlocks(file);
+    }
+    return buffer;
+  }
+
+  /**
+   * Compresses each full block of the given file that compresses well, replacing it in the file
+   * with its compressed form, and returns true if any block was compressed. Files that share
+   * blocks, have a small block or are mapped aren't compressed. The memory used by the
+   * uncompressed blocks is left to be garbage collected rather than cached, but compressed blocks
+   * remain allocated.
+   */
+  boolean compress(RegularFile file) {
+    if (compressor == null
+        || file.hasSharedBlocks()
+        || file.hasSmallBlock()
+        || file.isSpilled()
+        || file.isMapped()) {
+      return false;
+    }
+
+    boolean compressed = false;
+    for (int i = 0; i < file.blockCount(); i++) {
+      ByteBuffer block = file.getBlock(i);
+      if (block != null) {
+        ByteBuffer compressedBlock = compressor.compress(block);
+        if (compressedBlock != null) {
+          file.setEncodedBlock(i, compressedBlock);
+          compressed = true;
+        }
+      }
+    }
+    return compressed;
+  }
+
+  /**
+   * Replaces each compressed block of the given file with a decompressed block. This doesn't
+   * allocate any additional blocks, since compressed blocks remain allocated.
+   */
+  void decompress(RegularFile file) {
+    for (int i = 0; i < file.blockCount(); i++) {
+      ByteBuffer block = file.getBlock(i);
+      if (block != null && file.isEncoded(i)) {
+        ByteBuffer decompressed = takeCachedBlock();
+        if (decompressed == null) {
+          decompressed = store.allocate();
+        }
+        compressor.decompress(block, decompressed);
+        file.setBlock(i, decompressed);
+      }
+    }
+  }
+
+  /**
+   * Returns whether or not more blocks are kept in the heap than this disk allows, in which case
+   * blocks should be spilled.
+   */
+  boolean isOverHeapLimit() {
+    return spillFile != null
+        && allocatedBlockCount.get() - spillFile.spilledBlockCount() > maxHeapBlockCount;
+  }
+
+  /**
+   * Spills each full block of the given file to the spill file, replacing it in the file with a
+   * placeholder. Files that share blocks, have a small block, are compressed or are mapped aren't
+   * spilled.
+   * Spilled blocks remain allocated. Returns true if any block was spilled; if writing a block
+   * fails, the blocks spilled so far remain spilled.
+   *
+   * @throws IOException if writing a block to the spill file fails
+   */
+  boolean spill(RegularFile file) throws IOException {
+    if (spillFile == null
+        || file.hasSharedBlocks()
+        || file.hasSmallBlock()
+        || file.isCompressed()
+        || file.isMapped()) {
+      return false;
+    }
+
+    boolean spilled = false;
+    for (int i = 0; i < file.blockCount(); i++) {
+      ByteBuffer block = file.getBlock(i);
+      if (block != null && !file.isEncoded(i)) {
+        file.setEncodedBlock(i, spillFile.spill(block));
+        spilled = true;
+      }
+    }
+    return spilled;
+  }
+
+  /**
+   * Reads each spilled block of the given file back from the spill file. This doesn't allocate any
+   * additional blocks, since spilled blocks remain allocated.
+   *
+   * @throws IOException if reading a block from the spill file fails
+   */
+  void unspill(RegularFile file) throws IOException {
+    for (int i = 0; i < file.blockCount(); i++) {
+      ByteBuffer block = file.getBlock(i);
+      if (block != null && file.isEncoded(i)) {
+        ByteBuffer unspilled = takeCachedBlock();
+        if (unspilled == null) {
+          unspilled = store.allocate();
+        }
+        spillFile.read(block, unspilled);
+        file.setBlock(i, unspilled);
+      }
+    }
+  }
+
+  /**
+   * Returns the value of the given statistic about compressed or spilled blocks, or null if there's
+   * no such statistic or the disk doesn't compress or spill blocks.
+   */
+  @Nullable Object getStatistic(String name) {
+    if (spillFile != null) {
+      switch (name) {
+        case "spilledBlockCount":
+          return spillFile.spilledBlockCount();
+        case "spilledSize":
+          return spillFile.spilledBlockCount() * (long) blockSize;
+        default:
+          break;
+      }
+    }
+    return compressor == null ? null : compressor.getStatistic(name);
+  }
+
+  /**
+   * Allocates a single block, taking it from the cache if possible. The block may not be zeroed.
+   */
+  private ByteBuffer allocateBlock() throws IOException {
+    reserve(1);
+    ByteBuffer block = takeCachedBlock();
+    return block != null ? block : store.allocate();
+  }
+
+  /**
+   * Reserves the given number of blocks for allocation.
+   *
+   * @throws IOException if allocating that many blocks would exceed the size of the disk
+   */
+  private void reserve(int count) throws IOException {
+    while (true) {
+      int current = allocatedBlockCount.get();
+      int updated = current + count;
+      if (updated > maxBlockCount) {
+        throw new IOException("out of disk space");
+      }
+      if (allocatedBlockCount.compareAndSet(current, updated)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Reserves up to {@code count} slots in the block cache, returning the number of slots reserved.
+   * The caller must then add exactly that many blocks to the free lists.
+   */
+  private int reserveCacheSlots(int count) {
+    while (true) {
+      int current = cachedBlockCount.get();
+      int reserved = min(count, maxCachedBlockCount - current);
+      if (reserved <= 0) {
+        return 0;
+      }
+      if (cachedBlockCount.compareAndSet(current, current + reserved)) {
+        return reserved;
+      }
+    }
+  }
+
+  /**
+   * Takes a block from the cache, preferring the current thread's free list, or returns null if
+   * the cache is empty. The block may not be zeroed.
+   */
+  private @Nullable ByteBuffer takeCachedBlock() {
+    if (cachedBlockCount.get() == 0) {
+      return null;
+    }
+
+    int start = freeListIndex();
+    for (int i = 0; i < freeLists.length; i++) {
+      ByteBuffer block = freeLists[(start + i) & (freeLists.length - 1)].pop();
+      if (block != null) {
+        cachedBlockCount.decrementAndGet();
+        if (!cacheUsed) {
+          // only write when it changes, so threads allocating blocks don't contend on it
+          cacheUsed = true;
+        }
+        return block;
+      }
+    }
+    // the cache was emptied by other threads, or blocks that have been reserved slots haven't been
+    // added to it yet
+    return null;
+  }
+
+  /** Returns the free list for the current thread. */
+  private FreeList freeList() {
+    return freeLists[freeListIndex()];
+  }
+
+  @SuppressWarnings("deprecation") // Thread.threadId() isn't available until JDK 19
+  private int freeListIndex() {
+    return (int) Thread.currentThread().getId() & (freeLists.length - 1);
+  }
+
+  /**
+   * Releases one reference to the given block if it's shared, returning true if so. Returns false
+   * if the block was only used by a single file, or by a single file and the table of interned
+   * blocks (in which case it's removed from the table).
+   */
+  private boolean release(ByteBuffer block) {
+    Integer refs = sharedBlocks.get(block);
+    if (refs == null) {
+      return false;
+    }
+
+    if (refs == 2) {
+      sharedBlocks.remove(block);
+      if (unintern(block)) {
+        // the table was the only other user of the block, so it's no longer used at all
+        return false;
+      }
+    } else {
+      sharedBlocks.put(block, refs - 1);
+    }
+    return true;
+  }
+
+  /** Removes the given block from the table of interned blocks, returning true if it was in it. */
+  private boolean unintern(ByteBuffer block) {
+    if (internedBlockKeys == null) {
+      return false;
+    }
+    BlockContent key = internedBlockKeys.remove(block);
+    if (key == null) {
+      return false;
+    }
+    internedBlocks.remove(key);
+    return true;
+  }
+
+  /**
+   * A block used as a key for looking up blocks by content. Only the first {@code length} bytes of
+   * the block are compared, so that the last block of a file matches blocks with the same content
+   * regardless of what's in the block past the end of the file.
+   */
+  private static final class BlockContent {
+
+    final ByteBuffer block;
+    private final int length;
+    private final int hash;
+
+    BlockContent(ByteBuffer block, int length) {
+      this.block = block;
+      this.length = length;
+      int hash = 1;
+      for (int i = 0; i < length; i++) {
+        hash = 31 * hash + block.get(i);
+      }
+      this.hash = hash;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+      if (!(obj instanceof BlockContent)) {
+        return false;
+      }
+      BlockContent other = (BlockContent) obj;
+      if (other.length != length) {
+        return false;
+      }
+      return Blocks.view(block, 0, length).equals(Blocks.view(other.block, 0, length));
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /** A block that had no duplicates when its file was deduplicated. */
+  private static final class DeduplicationCandidate {
+
+    final RegularFile file;
+    final int index;
+    final int modCount;
+    final BlockContent content;
+
+    DeduplicationCandidate(RegularFile file, int index, int modCount, BlockContent content) {
+      this.file = file;
+      this.index = index;
+      this.modCount = modCount;
+      this.content = content;
+    }
+
+    /** Returns whether or not the file hasn't been modified since it was deduplicated. */
+    boolean isCurrent() {
+      return file.modCount() == modCount && index < file.blockCount();
+    }
+
+    /**
+     * Returns whether or not the block still has the same content as the given block. Acquires the
+     * file's read lock. Since in-place writes only hold the read lock, this is only a hint.
+     */
+    boolean matches(BlockContent other) {
+      file.readLock().lock();
+      try {
+        return isCurrent() && file.getBlock(index) == content.block && content.equals(other);
+      } finally {
+        file.readLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * A lock-free stack of free blocks. Each push creates a new node, so there's no ABA problem with
+   * the compare-and-set in pop.
+   */
+  private static final class FreeList {
+
+    private final AtomicReference<@Nullable Node> head = new AtomicReference<>();
+
+    void push(ByteBuffer block) {
+      Node node = new Node(block);
+      do {
+        node.next = head.get();
+      } while (!head.compareAndSet(node.next, node));
+    }
+
+    @Nullable ByteBuffer pop() {
+      while (true) {
+        Node node = head.get();
+        if (node == null) {
+          return null;
+        }
+        if (head.compareAndSet(node, node.next)) {
+          return node.block;
+        }
+      }
+    }
+
+    /** Removes all blocks from this list, returning the number of blocks removed. */
+    int clear() {
+      int count = 0;
+      for (Node node = head.getAndSet(null); node != null; node = node.next) {
+        count++;
+      }
+      return count;
+    }
+  }
+
+  private static final class Node {
+    final ByteBuffer block;
+    @Nullable Node next;
+
+    Node(ByteBuffer block) {
+      this.block = block;
+    }
   }
 }
@@ -25,5 +25,13 @@ final class Java8Compatibility {
     b.clear();
   }
 
+  static void position(Buffer b, int position) {
+    b.position(position);
+  }
+
+  static void limit(Buffer b, int limit) {
+    b.limit(limit);
+  }
+
   private Java8Compatibility() {}
 }
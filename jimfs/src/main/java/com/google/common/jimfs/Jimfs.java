@@ -21,11 +21,18 @@ import static com.google.common.jimfs.SystemJimfsFileSystemProvider.FILE_SYSTEM_
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.ProviderNotFoundException;
 import java.nio.file.spi.FileSystemProvider;
 import java.util.ServiceConfigurationError;
@@ -83,6 +90,9 @@ public final class Jimfs {
 
   private static final Logger LOGGER = Logger.getLogger(Jimfs.class.getName());
 
+  /** The size of the buffer used when saving and loading images. */
+  private static final int IMAGE_BUFFER = 64 * 1024;
+
   private Jimfs() {}
 
   /**
@@ -146,30 +156,226 @@ public final class Jimfs {
       // the provider that actually implements the operations needed for Files methods to work.
       JimfsFileSystem fileSystem =
           JimfsFileSystems.newFileSystem(JimfsFileSystemProvider.instance(), uri, config);
+      return register(uri, fileSystem);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
 
-      /*
-       * Now, call FileSystems.newFileSystem, passing it the FileSystem we just created. This
-       * allows the system-loaded SystemJimfsFileSystemProvider instance to cache the FileSystem
-       * so that methods like Paths.get(URI) work.
-       * We do it in this awkward way to avoid issues when the classes in the API (this class
-       * and Configuration, for example) are loaded by a different classloader than the one that
-       * loads SystemJimfsFileSystemProvider using ServiceLoader. See
-       * https://github.com/google/jimfs/issues/18 for gory details.
-       */
-      try {
-        ImmutableMap<String, ?> env = ImmutableMap.of(FILE_SYSTEM_KEY, fileSystem);
-        FileSystems.newFileSystem(uri, env, SystemJimfsFileSystemProvider.class.getClassLoader());
-      } catch (ProviderNotFoundException | ServiceConfigurationError ignore) {
-        // See the similar catch block below for why we ignore this.
-        // We log there rather than here so that there's only typically one such message per VM.
-      }
+  /**
+   * Creates a new in-memory file system that starts out as a copy of the given Jimfs file system,
+   * with the same configuration and the same files. The two file systems are independent: changes
+   * made to either one after this method returns are not visible in the other.
+   *
+   * <p>Forking a file system copies its directory tree and file metadata, but not the content of
+   * regular files: each file in the fork shares its blocks with the file it was copied from, and a
+   * block is only copied when one of the files writes to it. For this reason, the fork also shares
+   * the source file system's storage, including its {@linkplain
+   * Configuration.Builder#setMaxSize maximum size}.
+   *
+   * <p>Forking is intended for cases such as building a large fixture file system once and then
+   * giving each test its own fork of it to modify.
+   *
+   * @throws IllegalArgumentException if the given file system is not a Jimfs file system
+   * @throws java.nio.file.ClosedFileSystemException if the given file system is closed
+   * @since 1.4
+   */
+  public static FileSystem fork(FileSystem fileSystem) {
+    return fork(fileSystem, newRandomFileSystemName());
+  }
+
+  /**
+   * Creates a new in-memory file system that starts out as a copy of the given Jimfs file system.
+   * See {@link #fork(FileSystem)} for details.
+   *
+   * <p>The returned file system uses the given name as the host part of its URI and the URIs of
+   * paths in the file system, as with {@link #newFileSystem(String, Configuration)}.
+   *
+   * @throws IllegalArgumentException if the given file system is not a Jimfs file system
+   * @throws java.nio.file.ClosedFileSystemException if the given file system is closed
+   * @since 1.4
+   */
+  public static FileSystem fork(FileSystem fileSystem, String name) {
+    checkArgument(
+        fileSystem instanceof JimfsFileSystem,
+        "fileSystem (%s) must be a Jimfs file system",
+        fileSystem);
 
-      return fileSystem;
+    try {
+      URI uri = new URI(URI_SCHEME, name, null, null);
+      JimfsFileSystem fork =
+          JimfsFileSystems.fork(
+              JimfsFileSystemProvider.instance(), uri, (JimfsFileSystem) fileSystem);
+      return register(uri, fork);
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException(e);
     } catch (IOException e) {
       throw new AssertionError(e);
     }
   }
 
+  /**
+   * Releases the unused space that the given Jimfs file system has cached for reuse so that it can
+   * be garbage collected, returning the number of bytes released. Space freed when files are
+   * truncated or deleted is cached up to the {@linkplain Configuration.Builder#setMaxCacheSize
+   * maximum cache size}, which by default means it's never given back to the JVM; a long-running
+   * program can call this after a burst of temporary files to shrink the heap again. See also
+   * {@link Configuration.Builder#setBlockCacheIdleTimeout} and {@link
+   * Configuration.Builder#setTrimBlockCacheOnLowMemory}, which trim the cache automatically.
+   *
+   * <p>Since {@linkplain #fork forks} share their storage with the file system they were forked
+   * from, trimming any of them trims the cache for all of them.
+   *
+   * @throws IllegalArgumentException if the given file system is not a Jimfs file system
+   * @since 1.4
+   */
+  @CanIgnoreReturnValue
+  public static long trim(FileSystem fileSystem) {
+    checkArgument(
+        fileSystem instanceof JimfsFileSystem,
+        "fileSystem (%s) must be a Jimfs file system",
+        fileSystem);
+    return ((JimfsFileSystem) fileSystem).getFileStore().trimBlockCache();
+  }
+
+  /**
+   * Returns a read-only view of the content of the regular file at the given path in a Jimfs file
+   * system. See {@link #readOnlyView(Path, long, long)}.
+   *
+   * @throws IllegalArgumentException if the given path is not a path in a Jimfs file system
+   * @throws IOException if the file doesn't exist or isn't a regular file
+   * @since 1.4
+   */
+  public static FileContentView readOnlyView(Path path) throws IOException {
+    return readOnlyView(path, 0, Long.MAX_VALUE);
+  }
+
+  /**
+   * Returns a read-only view of up to {@code size} bytes of the content of the regular file at the
+   * given path in a Jimfs file system, starting at the given position. The view is empty if the
+   * position is at or past the end of the file.
+   *
+   * <p>The view's buffers wrap the file's storage directly rather than copying it, so viewing even
+   * a very large file takes little memory. The view is a snapshot of the file's content when it was
+   * created, and holds on to that content until it's {@linkplain FileContentView#close() closed}.
+   * See {@link FileContentView} for details.
+   *
+   * @throws IllegalArgumentException if the given path is not a path in a Jimfs file system, or if
+   *     the position or size is negative
+   * @throws IOException if the file doesn't exist or isn't a regular file
+   * @since 1.4
+   */
+  public static FileContentView readOnlyView(Path path, long position, long size)
+      throws IOException {
+    checkArgument(path instanceof JimfsPath, "path (%s) must be a Jimfs path", path);
+    Util.checkNotNegative(position, "position");
+    Util.checkNotNegative(size, "size");
+
+    JimfsPath jimfsPath = (JimfsPath) path;
+    FileSystemView view = jimfsPath.getJimfsFileSystem().getDefaultView();
+    // opening the file keeps its content from being deleted until it's been snapshotted
+    RegularFile file =
+        view.getOrCreateRegularFile(jimfsPath, Options.getOptionsForInputStream());
+    try {
+      RegularFile snapshot = file.snapshot(position, size);
+      file.setLastAccessTime(view.state().now());
+      return new FileContentView(snapshot, position);
+    } finally {
+      file.closed();
+    }
+  }
+
+  /**
+   * Saves an image of the given Jimfs file system to the given file, replacing the file if it
+   * already exists. The image contains all files in the file system, including their attributes and
+   * content, and can be loaded into a new file system with {@link #loadImage(Path, Configuration)}.
+   * It doesn't contain the file system's configuration.
+   *
+   * <p>The image is a consistent snapshot of the file system: no files may be created, moved or
+   * deleted in the file system while it's being saved.
+   *
+   * @throws IllegalArgumentException if the given file system is not a Jimfs file system
+   * @throws IOException if an I/O error occurs writing the image, or if a file has an attribute
+   *     whose value can't be saved
+   * @since 1.4
+   */
+  public static void saveImage(FileSystem fileSystem, Path image) throws IOException {
+    checkArgument(
+        fileSystem instanceof JimfsFileSystem,
+        "fileSystem (%s) must be a Jimfs file system",
+        fileSystem);
+
+    JimfsFileSystem jimfs = (JimfsFileSystem) fileSystem;
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(image), IMAGE_BUFFER)) {
+      FileSystemImage.write(jimfs.getFileStore(), jimfs.getPathService(), out);
+    }
+  }
+
+  /**
+   * Creates a new in-memory file system with the given configuration, containing the files from the
+   * given image saved with {@link #saveImage}. The configuration doesn't need to be the same as the
+   * configuration of the file system the image was saved from, but each root directory in the image
+   * must be a root directory in the configuration.
+   *
+   * @throws IOException if an I/O error occurs reading the image or if the image is invalid
+   * @since 1.4
+   */
+  public static FileSystem loadImage(Path image, Configuration configuration) throws IOException {
+    return loadImage(image, newRandomFileSystemName(), configuration);
+  }
+
+  /**
+   * Creates a new in-memory file system with the given configuration, containing the files from the
+   * given image saved with {@link #saveImage}. See {@link #loadImage(Path, Configuration)}.
+   *
+   * <p>The returned file system uses the given name as the host part of its URI and the URIs of
+   * paths in the file system, as with {@link #newFileSystem(String, Configuration)}.
+   *
+   * @throws IOException if an I/O error occurs reading the image or if the image is invalid
+   * @since 1.4
+   */
+  public static FileSystem loadImage(Path image, String name, Configuration configuration)
+      throws IOException {
+    URI uri;
+    try {
+      uri = new URI(URI_SCHEME, name, null, null);
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException(e);
+    }
+
+    JimfsFileSystem fileSystem;
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(image), IMAGE_BUFFER)) {
+      fileSystem =
+          JimfsFileSystems.loadImage(JimfsFileSystemProvider.instance(), uri, configuration, in);
+    }
+    return register(uri, fileSystem);
+  }
+
+  /**
+   * Registers the given new file system with the system-loaded provider so that methods like {@code
+   * Paths.get(URI)} work for it, and returns it.
+   */
+  private static FileSystem register(URI uri, JimfsFileSystem fileSystem) throws IOException {
+    /*
+     * Call FileSystems.newFileSystem, passing it the FileSystem we just created. This
+     * allows the system-loaded SystemJimfsFileSystemProvider instance to cache the FileSystem
+     * so that methods like Paths.get(URI) work.
+     * We do it in this awkward way to avoid issues when the classes in the API (this class
+     * and Configuration, for example) are loaded by a different classloader than the one that
+     * loads SystemJimfsFileSystemProvider using ServiceLoader. See
+     * https://github.com/google/jimfs/issues/18 for gory details.
+     */
+    try {
+      ImmutableMap<String, ?> env = ImmutableMap.of(FILE_SYSTEM_KEY, fileSystem);
+      FileSystems.newFileSystem(uri, env, SystemJimfsFileSystemProvider.class.getClassLoader());
+    } catch (ProviderNotFoundException | ServiceConfigurationError ignore) {
+      // See the similar catch block below for why we ignore this.
+      // We log there rather than here so that there's only typically one such message per VM.
+    }
+
+    return fileSystem;
+  }
+
   /**
    * The system-loaded instance of {@code SystemJimfsFileSystemProvider}, or {@code null} if it
    * could not be found or loaded.
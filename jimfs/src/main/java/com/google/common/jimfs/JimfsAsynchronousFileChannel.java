@@ -39,16 +39,27 @@ import org.jspecify.annotations.Nullable;
 /**
  * {@link AsynchronousFileChannel} implementation that delegates to a {@link JimfsFileChannel}.
  *
+ * <p>If the channel is <i>direct</i>, reads and writes that can be done without waiting for the
+ * file's lock are done on the calling thread, returning a future that's already complete. Only
+ * those that would need to wait are handed to the executor.
+ *
  * @author Colin Decker
  */
 final class JimfsAsynchronousFileChannel extends AsynchronousFileChannel {
 
   private final JimfsFileChannel channel;
   private final ListeningExecutorService executor;
+  private final boolean direct;
 
   public JimfsAsynchronousFileChannel(JimfsFileChannel channel, ExecutorService executor) {
+    this(channel, executor, false);
+  }
+
+  JimfsAsynchronousFileChannel(
+      JimfsFileChannel channel, ExecutorService executor, boolean direct) {
     this.channel = checkNotNull(channel);
     this.executor = MoreExecutors.listeningDecorator(executor);
+    this.direct = direct;
   }
 
   @Override
@@ -85,8 +96,7 @@ final class JimfsAsynchronousFileChannel extends AsynchronousFileChannel {
   }
 
   @Override
-  public ListenableFuture<FileLock> lock(
-      final long position, final long size, final boolean shared) {
+  public ListenableFuture<FileLock> lock(long position, long size, boolean shared) {
     Util.checkNotNegative(position, "position");
     Util.checkNotNegative(size, "size");
     if (!isOpen()) {
@@ -97,17 +107,15 @@ final class JimfsAsynchronousFileChannel extends AsynchronousFileChannel {
     } else {
       channel.checkWritable();
     }
-    return executor.submit(
-        new Callable<FileLock>() {
-          @Override
-          public FileLock call() throws IOException {
-            return tryLock(position, size, shared);
-          }
-        });
+    // rather than having a thread from the executor wait for the lock, the lock is granted by the
+    // thread that releases the last lock conflicting with it
+    FileLockTable table = channel.lockTable();
+    return table.lockAsync(
+        new FileLockTable.RangeLock(table, channel, this, position, size, shared));
   }
 
   @Override
-  public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+  public @Nullable FileLock tryLock(long position, long size, boolean shared) throws IOException {
     Util.checkNotNegative(position, "position");
     Util.checkNotNegative(size, "size");
     channel.checkOpen();
@@ -116,7 +124,8 @@ final class JimfsAsynchronousFileChannel extends AsynchronousFileChannel {
     } else {
       channel.checkWritable();
     }
-    return new JimfsFileChannel.FakeFileLock(this, position, size, shared);
+    FileLockTable table = channel.lockTable();
+    return table.tryLock(new FileLockTable.RangeLock(table, channel, this, position, size, shared));
   }
 
   @Override
@@ -136,6 +145,16 @@ final class JimfsAsynchronousFileChannel extends AsynchronousFileChannel {
       return closedChannelFuture();
     }
     channel.checkReadable();
+    if (direct) {
+      try {
+        Integer read = channel.tryRead(dst, position);
+        if (read != null) {
+          return Futures.immediateFuture(read);
+        }
+      } catch (IOException e) {
+        return Futures.immediateFailedFuture(e);
+      }
+    }
     return executor.submit(
         new Callable<Integer>() {
           @Override
@@ -161,6 +180,16 @@ final class JimfsAsynchronousFileChannel extends AsynchronousFileChannel {
       return closedChannelFuture();
     }
     channel.checkWritable();
+    if (direct) {
+      try {
+        Integer written = channel.tryWrite(src, position);
+        if (written != null) {
+          return Futures.immediateFuture(written);
+        }
+      } catch (IOException e) {
+        return Futures.immediateFailedFuture(e);
+      }
+    }
     return executor.submit(
         new Callable<Integer>() {
           @Override
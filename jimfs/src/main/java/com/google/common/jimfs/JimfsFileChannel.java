@@ -16,6 +16,7 @@
 
 package com.google.common.jimfs;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkPositionIndexes;
 import static java.nio.file.StandardOpenOption.APPEND;
@@ -43,7 +44,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.atomic.AtomicBoolean;
+import org.jspecify.annotations.Nullable;
 
 /**
  * A {@link FileChannel} implementation that reads and writes to a {@link RegularFile} object. The
@@ -90,7 +91,16 @@ final class JimfsFileChannel extends FileChannel {
    * asynchronous operations.
    */
   public AsynchronousFileChannel asAsynchronousFileChannel(ExecutorService executor) {
-    return new JimfsAsynchronousFileChannel(this, executor);
+    return asAsynchronousFileChannel(executor, false);
+  }
+
+  /**
+   * Returns an {@link AsynchronousFileChannel} view of this channel using the given executor for
+   * asynchronous operations, and doing reads and writes that don't need to wait for the file's
+   * lock on the calling thread if {@code direct} is true.
+   */
+  AsynchronousFileChannel asAsynchronousFileChannel(ExecutorService executor, boolean direct) {
+    return new JimfsAsynchronousFileChannel(this, executor, direct);
   }
 
   void checkReadable() {
@@ -358,14 +368,28 @@ final class JimfsFileChannel extends FileChannel {
         if (!beginBlocking()) {
           return 0; // AsynchronousCloseException will be thrown
         }
-        file.writeLock().lockInterruptibly();
-        try {
-          written = file.write(position, src);
-          file.setLastModifiedTime(fileSystemState.now());
-          completed = true;
-        } finally {
-          file.writeLock().unlock();
+        // a write that only overwrites existing content can be done while holding just the read
+        // lock, so that positional writes to different parts of the file can run concurrently; the
+        // unlocked size check just avoids taking the read lock for writes that extend the file
+        written = -1;
+        if (position <= file.sizeWithoutLocking() - src.remaining()) {
+          file.readLock().lockInterruptibly();
+          try {
+            written = file.writeInPlace(position, src);
+          } finally {
+            file.readLock().unlock();
+          }
         }
+        if (written == -1) {
+          file.writeLock().lockInterruptibly();
+          try {
+            written = file.write(position, src);
+          } finally {
+            file.writeLock().unlock();
+          }
+        }
+        file.setLastModifiedTime(fileSystemState.now());
+        completed = true;
       } catch (InterruptedException e) {
         Thread.currentThread().interrupt();
       } finally {
@@ -376,6 +400,67 @@ final class JimfsFileChannel extends FileChannel {
     return written;
   }
 
+  /**
+   * Reads from the file at the given position, as {@link #read(ByteBuffer, long)} does, if that can
+   * be done without waiting for the file's lock. Returns null without reading if it can't.
+   */
+  @Nullable Integer tryRead(ByteBuffer dst, long position) throws IOException {
+    checkNotNull(dst);
+    Util.checkNotNegative(position, "position");
+    checkOpen();
+    checkReadable();
+
+    // like tryLock, this never blocks, so it doesn't need to be interruptible
+    if (!file.readLock().tryLock()) {
+      return null;
+    }
+    try {
+      int read = file.read(position, dst);
+      file.setLastAccessTime(fileSystemState.now());
+      return read;
+    } finally {
+      file.readLock().unlock();
+    }
+  }
+
+  /**
+   * Writes to the file at the given position, as {@link #write(ByteBuffer, long)} does, if that can
+   * be done without waiting for the file's lock. Returns null without writing if it can't.
+   */
+  @Nullable Integer tryWrite(ByteBuffer src, long position) throws IOException {
+    checkNotNull(src);
+    Util.checkNotNegative(position, "position");
+    checkOpen();
+    checkWritable();
+    if (append) {
+      return null; // appending updates the channel's position, which needs synchronizing
+    }
+
+    int written = -1;
+    if (position <= file.sizeWithoutLocking() - src.remaining()) {
+      if (!file.readLock().tryLock()) {
+        return null;
+      }
+      try {
+        written = file.writeInPlace(position, src);
+      } finally {
+        file.readLock().unlock();
+      }
+    }
+    if (written == -1) {
+      if (!file.writeLock().tryLock()) {
+        return null;
+      }
+      try {
+        written = file.write(position, src);
+      } finally {
+        file.writeLock().unlock();
+      }
+    }
+    file.setLastModifiedTime(fileSystemState.now());
+    return written;
+  }
+
   @Override
   public long position() throws IOException {
     checkOpen();
@@ -591,26 +676,93 @@ final class JimfsFileChannel extends FileChannel {
     return transferred;
   }
 
+  /**
+   * Maps a region of the file into memory. Only {@link MapMode#READ_ONLY} is supported.
+   *
+   * <p>The returned buffer is a read-only view of the file's content rather than a copy of it: it
+   * sees later writes to the file, and reads through it take no locks. Since a mapping must be
+   * contiguous, the blocks of the region are moved into a single direct buffer the first time the
+   * region is mapped, and from then on the file's blocks stay in place rather than being
+   * compressed, spilled, deduplicated or shared with copies of the file. A mapping keeps seeing
+   * the content of blocks the file frees when it's truncated, as it was before they were freed.
+   *
+   * <p>As with a real mapping, if the region extends past the end of the file, the file is first
+   * extended to include it, which requires that the channel is open for writing. Note that on Java
+   * 8, {@link MappedByteBuffer#load()}, {@link MappedByteBuffer#isLoaded()} and {@link
+   * MappedByteBuffer#force()} throw {@code UnsupportedOperationException} for the buffer, since it
+   * isn't backed by a file descriptor.
+   *
+   * @throws UnsupportedOperationException if {@code mode} isn't {@link MapMode#READ_ONLY} or if
+   *     the JDK's direct buffers aren't {@code MappedByteBuffer}s
+   */
   @Override
   public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
-    // would like this to pretend to work, but can't create an implementation of MappedByteBuffer
-    // well, a direct buffer could be cast to MappedByteBuffer, but it couldn't work in general
-    throw new UnsupportedOperationException();
+    checkNotNull(mode);
+    Util.checkNotNegative(position, "position");
+    Util.checkNotNegative(size, "size");
+    checkArgument(size <= Integer.MAX_VALUE, "size (%s) may not exceed Integer.MAX_VALUE", size);
+    checkArgument(position + size >= 0, "position (%s) + size (%s) overflows", position, size);
+    checkOpen();
+    if (mode != MapMode.READ_ONLY) {
+      throw new UnsupportedOperationException("only READ_ONLY mappings are supported");
+    }
+    checkReadable();
+
+    ByteBuffer buffer = null;
+    // no need to synchronize here; this method does not make use of the channel's position
+    boolean completed = false;
+    try {
+      if (!beginBlocking()) {
+        return null; // AsynchronousCloseException will be thrown
+      }
+      file.writeLock().lockInterruptibly();
+      try {
+        if (position + size > file.sizeWithoutLocking()) {
+          if (!write) {
+            throw new IOException(
+                "Channel not open for writing - cannot extend file to required size");
+          }
+          file.setLastModifiedTime(fileSystemState.now());
+        }
+        buffer = file.map(position, (int) size);
+        completed = true;
+      } finally {
+        file.writeLock().unlock();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      endBlocking(completed);
+    }
+
+    if (!(buffer instanceof MappedByteBuffer)) {
+      throw new UnsupportedOperationException("direct buffers are not MappedByteBuffers");
+    }
+    // the read-only view of a direct buffer is itself a direct buffer
+    return (MappedByteBuffer) buffer.asReadOnlyBuffer();
   }
 
   @Override
   public FileLock lock(long position, long size, boolean shared) throws IOException {
     checkLockArguments(position, size, shared);
+    FileLockTable table = file.lockTable();
+    FileLockTable.RangeLock lock = new FileLockTable.RangeLock(table, this, position, size, shared);
 
     // lock is interruptible
     boolean completed = false;
     try {
-      begin();
+      if (!beginBlocking()) {
+        return null; // AsynchronousCloseException will be thrown
+      }
+      table.lock(lock);
       completed = true;
-      return new FakeFileLock(this, position, size, shared);
+      return lock;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null; // ClosedByInterruptException will be thrown
     } finally {
       try {
-        end(completed);
+        endBlocking(completed);
       } catch (ClosedByInterruptException e) {
         throw new FileLockInterruptionException();
       }
@@ -618,11 +770,17 @@ final class JimfsFileChannel extends FileChannel {
   }
 
   @Override
-  public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+  public @Nullable FileLock tryLock(long position, long size, boolean shared) throws IOException {
     checkLockArguments(position, size, shared);
 
     // tryLock is not interruptible
-    return new FakeFileLock(this, position, size, shared);
+    FileLockTable table = file.lockTable();
+    return table.tryLock(new FileLockTable.RangeLock(table, this, position, size, shared));
+  }
+
+  /** Returns the table of byte-range locks held on this channel's file. */
+  FileLockTable lockTable() {
+    return file.lockTable();
   }
 
   private void checkLockArguments(long position, long size, boolean shared) throws IOException {
@@ -648,31 +806,11 @@ final class JimfsFileChannel extends FileChannel {
       }
     } finally {
       fileSystemState.unregister(this);
+      file.releaseLocks(this);
+      if (write) {
+        file.deduplicateLater();
+      }
       file.closed();
     }
   }
-
-  /** A file lock that does nothing, since only one JVM process has access to this file system. */
-  static final class FakeFileLock extends FileLock {
-
-    private final AtomicBoolean valid = new AtomicBoolean(true);
-
-    public FakeFileLock(FileChannel channel, long position, long size, boolean shared) {
-      super(channel, position, size, shared);
-    }
-
-    public FakeFileLock(AsynchronousFileChannel channel, long position, long size, boolean shared) {
-      super(channel, position, size, shared);
-    }
-
-    @Override
-    public boolean isValid() {
-      return valid.get();
-    }
-
-    @Override
-    public void release() throws IOException {
-      valid.set(false);
-    }
-  }
 }
@@ -17,12 +17,20 @@
 package com.google.common.jimfs;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
 import java.nio.file.FileStore;
 import java.nio.file.LinkOption;
 import java.nio.file.NoSuchFileException;
@@ -30,10 +38,26 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.FileAttributeView;
 import java.nio.file.attribute.FileStoreAttributeView;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.jspecify.annotations.Nullable;
 
 /**
@@ -49,6 +73,21 @@ import org.jspecify.annotations.Nullable;
  */
 final class JimfsFileStore extends FileStore {
 
+  private static final Logger LOGGER = Logger.getLogger(JimfsFileStore.class.getName());
+
+  /** How often the heap's memory pools are checked, if the cache is trimmed on low memory. */
+  private static final long LOW_MEMORY_CHECK_INTERVAL_NANOS = SECONDS.toNanos(1);
+
+  /**
+   * Thread factory for threads compressing or spilling files, which should be daemon threads so as
+   * not to keep the VM running if the user doesn't close the file system.
+   */
+  private static final ThreadFactory BACKGROUND_THREAD_FACTORY =
+      new ThreadFactoryBuilder()
+          .setNameFormat("com.google.common.jimfs.JimfsFileStore-background-thread-%d")
+          .setDaemon(true)
+          .build();
+
   private final FileTree tree;
   private final HeapDisk disk;
   private final AttributeService attributes;
@@ -59,6 +98,15 @@ final class JimfsFileStore extends FileStore {
   private final Lock readLock;
   private final Lock writeLock;
 
+  /**
+   * Lock that is write-locked whenever the store's write lock is held, allowing readers to look up
+   * files optimistically without acquiring the read lock.
+   */
+  private final StampedLock version = new StampedLock();
+
+  /** Whether the content of this store's files is freed when its file system is closed. */
+  private final AtomicBoolean freesFilesOnClose = new AtomicBoolean();
+
   public JimfsFileStore(
       FileTree tree,
       FileFactory factory,
@@ -73,9 +121,9 @@ final class JimfsFileStore extends FileStore {
     this.supportedFeatures = checkNotNull(supportedFeatures);
     this.state = checkNotNull(state);
 
-    ReadWriteLock lock = new ReentrantReadWriteLock();
+    ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
     this.readLock = lock.readLock();
-    this.writeLock = lock.writeLock();
+    this.writeLock = new VersionedWriteLock(lock.writeLock());
   }
 
   // internal use methods
@@ -85,16 +133,38 @@ final class JimfsFileStore extends FileStore {
     return state;
   }
 
-  /** Returns the read lock for this store. */
+  /**
+   * Returns the read lock for this store. The file tree can't be restructured while this lock is
+   * held, but entries may still be linked to and unlinked from individual directories by threads
+   * that also hold those {@linkplain Directory#lockEntries() directories' locks}. No directory is
+   * unlinked while this lock is held.
+   */
   Lock readLock() {
     return readLock;
   }
 
-  /** Returns the write lock for this store. */
+  /** Returns the write lock for this store, which excludes all changes to the file tree. */
   Lock writeLock() {
     return writeLock;
   }
 
+  /**
+   * Returns a stamp for an optimistic read of the file tree, or 0 if the write lock is currently
+   * held. Anything read from the file tree without holding the read lock may be inconsistent unless
+   * the stamp is later {@linkplain #validate validated}.
+   */
+  long tryOptimisticRead() {
+    return version.tryOptimisticRead();
+  }
+
+  /**
+   * Returns true if the write lock has not been acquired since the given stamp was obtained from
+   * {@link #tryOptimisticRead()}.
+   */
+  boolean validate(long stamp) {
+    return version.validate(stamp);
+  }
+
   /** Returns the names of the root directories in this store. */
   ImmutableSortedSet<Name> getRootDirectoryNames() {
     state.checkOpen();
@@ -145,6 +215,299 @@ final class JimfsFileStore extends FileStore {
     return factory.symbolicLinkCreator(target);
   }
 
+  /**
+   * Creates a new file store with the given path service and state containing a copy of this
+   * store's file tree. The new store uses the same disk as this store, and regular files in it
+   * share their blocks with the files they were copied from until either is written to, so only the
+   * files themselves (not their content) are copied. Hard links between files are preserved. The
+   * write lock is held while the tree is copied, so the copy is a consistent snapshot of it.
+   */
+  JimfsFileStore fork(FileTimeSource fileTimeSource, PathService pathService, FileSystemState state)
+      throws IOException {
+    FileFactory forkFactory = new FileFactory(disk, fileTimeSource);
+    Map<File, File> copies = new IdentityHashMap<>();
+    Map<Name, Directory> roots = new HashMap<>();
+
+    writeLock.lock();
+    try {
+      Deque<Directory> sources = new ArrayDeque<>();
+      Deque<Directory> targets = new ArrayDeque<>();
+      for (Name rootName : getRootDirectoryNames()) {
+        Directory root = getRoot(rootName);
+        Directory rootCopy = forkFactory.createRootDirectory(rootName);
+        root.copyAttributes(rootCopy);
+        roots.put(rootName, rootCopy);
+        sources.push(root);
+        targets.push(rootCopy);
+      }
+
+      while (!sources.isEmpty()) {
+        Directory source = sources.pop();
+        Directory target = targets.pop();
+        for (DirectoryEntry entry : source) {
+          Name name = entry.name();
+          if (name.equals(Name.SELF) || name.equals(Name.PARENT)) {
+            continue;
+          }
+
+          File file = entry.file();
+          File copy = copies.get(file);
+          if (copy == null) {
+            copy = forkCopy(file, forkFactory, pathService);
+            copies.put(file, copy);
+            if (file.isDirectory()) {
+              sources.push((Directory) file);
+              targets.push((Directory) copy);
+            }
+          }
+          target.link(name, copy);
+        }
+      }
+    } finally {
+      writeLock.unlock();
+    }
+
+    JimfsFileStore fork =
+        new JimfsFileStore(
+            new FileTree(roots), forkFactory, disk, attributes, supportedFeatures, state);
+    freeFilesOnClose();
+    fork.freeFilesOnClose();
+    return fork;
+  }
+
+  /**
+   * Frees the content of every regular file in this store when its file system is closed. Once a
+   * store is forked, its disk is shared with other stores that may outlive it, so the blocks its
+   * files use (or share with files in other stores) must be released when it's closed.
+   */
+  private void freeFilesOnClose() {
+    if (freesFilesOnClose.compareAndSet(false, true)) {
+      state.register(this::freeFiles);
+    }
+  }
+
+  /** Frees the content of every regular file in this store's file tree. */
+  private void freeFiles() {
+    for (RegularFile file : regularFiles()) {
+      file.writeLock().lock();
+      try {
+        disk.free(file);
+      } finally {
+        file.writeLock().unlock();
+      }
+    }
+  }
+
+  /** Creates a copy of the given file for a forked file store, including all its attributes. */
+  private static File forkCopy(File file, FileFactory factory, PathService pathService)
+      throws IOException {
+    File copy;
+    if (file.isDirectory()) {
+      copy = factory.createDirectory();
+    } else if (file.isSymbolicLink()) {
+      // the target path needs to be associated with the forked file system
+      JimfsPath target = ((SymbolicLink) file).target();
+      copy = factory.createSymbolicLink(pathService.createPath(target.root(), target.names()));
+    } else {
+      RegularFile regularFile = (RegularFile) file;
+      // write-locked since the copy shares the file's blocks; see FileSystemView.lockSourceAndCopy
+      regularFile.writeLock().lock();
+      try {
+        copy = factory.copyWithoutContent(regularFile);
+        regularFile.copyContentTo(copy);
+      } finally {
+        regularFile.writeLock().unlock();
+      }
+    }
+
+    file.copyAttributes(copy);
+    return copy;
+  }
+
+  /**
+   * Starts the background tasks that compress cold files, spill files when too much heap is used,
+   * deduplicate the blocks of written files and trim the block cache when it's idle or the JVM is
+   * low on memory, if the disk does any of those. The tasks stop when the file system is closed.
+   */
+  void startBackgroundTasks() {
+    BlockCompressor compressor = disk.compressor();
+    SpillFile spillFile = disk.spillFile();
+    long cacheIdleTimeout = disk.cacheIdleTimeoutNanos();
+    boolean trimsOnLowMemory = disk.trimsCacheOnLowMemory();
+    boolean deduplicates = disk.deduplicatesBlocks();
+    if (compressor == null
+        && spillFile == null
+        && cacheIdleTimeout == 0
+        && !trimsOnLowMemory
+        && !deduplicates) {
+      return;
+    }
+
+    ScheduledExecutorService executor =
+        Executors.newSingleThreadScheduledExecutor(BACKGROUND_THREAD_FACTORY);
+    state.register(executor::shutdownNow);
+    if (compressor != null) {
+      long delay = compressor.delayNanos();
+      executor.scheduleWithFixedDelay(this::compressColdFiles, delay, delay, NANOSECONDS);
+    }
+    if (spillFile != null) {
+      spillFile.retain();
+      state.register(spillFile::release);
+      long delay = HeapDisk.EPOCH_NANOS;
+      executor.scheduleWithFixedDelay(this::spillLeastRecentlyUsedFiles, delay, delay, NANOSECONDS);
+    }
+    if (deduplicates) {
+      long delay = HeapDisk.EPOCH_NANOS;
+      executor.scheduleWithFixedDelay(this::deduplicateFiles, delay, delay, NANOSECONDS);
+    }
+    if (cacheIdleTimeout != 0) {
+      executor.scheduleWithFixedDelay(
+          disk::trimIfIdle, cacheIdleTimeout, cacheIdleTimeout, NANOSECONDS);
+    }
+    if (trimsOnLowMemory) {
+      long delay = LOW_MEMORY_CHECK_INTERVAL_NANOS;
+      executor.scheduleWithFixedDelay(
+          this::trimBlockCacheIfLowOnMemory, delay, delay, NANOSECONDS);
+    }
+  }
+
+  /**
+   * Trims the disk's block cache if a heap memory pool was low on memory after its last garbage
+   * collection; see {@link #isLowOnMemory}.
+   */
+  private void trimBlockCacheIfLowOnMemory() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && isLowOnMemory(pool)) {
+        disk.trim();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Returns whether or not the given memory pool's usage after its last garbage collection is at
+   * or above its collection usage threshold or, if it has none, 90% of its maximum size. The
+   * threshold is only read: it's shared by everything running in the JVM, so it's not ours to set.
+   */
+  private static boolean isLowOnMemory(MemoryPoolMXBean pool) {
+    MemoryUsage usage = pool.getCollectionUsage();
+    if (usage == null) {
+      return false;
+    }
+    long threshold =
+        pool.isCollectionUsageThresholdSupported() ? pool.getCollectionUsageThreshold() : 0;
+    if (threshold == 0) {
+      if (usage.getMax() == -1) {
+        return false;
+      }
+      threshold = usage.getMax() / 10 * 9;
+    }
+    return usage.getUsed() >= threshold;
+  }
+
+  /**
+   * Releases the unused space cached by the disk for reuse so that it can be garbage collected,
+   * returning the number of bytes released.
+   */
+  long trimBlockCache() {
+    return (long) disk.trim() * disk.blockSize();
+  }
+
+  /**
+   * Compresses the regular files in this store that haven't been read or written recently. Files
+   * that are in use by another thread are skipped until the next time.
+   */
+  void compressColdFiles() {
+    if (disk.compressor() == null) {
+      return;
+    }
+    disk.tick();
+
+    for (RegularFile file : regularFiles()) {
+      if (file.writeLock().tryLock()) {
+        try {
+          file.compressIfCold();
+        } finally {
+          file.writeLock().unlock();
+        }
+      }
+    }
+  }
+
+  /**
+   * Deduplicates the blocks of the regular files that have been written to since they were last
+   * deduplicated, if the disk deduplicates blocks.
+   */
+  void deduplicateFiles() {
+    disk.deduplicatePendingFiles();
+  }
+
+  /**
+   * Spills the least recently used regular files in this store until the disk no longer uses more
+   * heap than it's allowed to. Files that are in use by another thread are skipped.
+   */
+  void spillLeastRecentlyUsedFiles() {
+    disk.tick();
+    if (!disk.isOverHeapLimit()) {
+      return;
+    }
+
+    // the epochs are read without locking and may change while sorting, so sort a snapshot of them;
+    // they're only used as a hint
+    Map<RegularFile, Integer> lastUsedEpochs = new IdentityHashMap<>();
+    for (RegularFile file : regularFiles()) {
+      lastUsedEpochs.put(file, file.lastUsedEpoch());
+    }
+    List<RegularFile> files = new ArrayList<>(lastUsedEpochs.keySet());
+    files.sort(Comparator.comparing(lastUsedEpochs::get));
+    for (RegularFile file : files) {
+      if (!disk.isOverHeapLimit()) {
+        return;
+      }
+
+      if (file.writeLock().tryLock()) {
+        try {
+          file.spill();
+        } catch (IOException e) {
+          LOGGER.log(Level.WARNING, "failed to spill file blocks", e);
+          return;
+        } finally {
+          file.writeLock().unlock();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns all regular files in this store's file tree. The files are collected while holding the
+   * read lock so that they can be modified without holding it. Files linked or unlinked while they
+   * are being collected may or may not be included.
+   */
+  private Set<RegularFile> regularFiles() {
+    Set<RegularFile> files = Sets.newIdentityHashSet();
+    readLock.lock();
+    try {
+      Deque<Directory> directories = new ArrayDeque<>();
+      for (Name rootName : tree.getRootDirectoryNames()) {
+        directories.push(getRoot(rootName));
+      }
+
+      while (!directories.isEmpty()) {
+        for (DirectoryEntry entry : directories.pop().entries()) {
+          File file = entry.file();
+          if (file.isDirectory()) {
+            directories.push((Directory) file);
+          } else if (file.isRegularFile()) {
+            files.add((RegularFile) file);
+          }
+        }
+      }
+    } finally {
+      readLock.unlock();
+    }
+    return files;
+  }
+
   /**
    * Creates a copy of the given file, copying its attributes as well according to the given {@code
    * attributeCopyOption}.
@@ -258,8 +621,87 @@ final class JimfsFileStore extends FileStore {
     return null; // no supported views
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>If the file system {@linkplain Configuration.Builder#setColdFileCompressionDelay compresses
+   * cold files} or {@linkplain Configuration.Builder#setSpillToDisk spills files to disk},
+   * statistics about compression or spilling are available in the {@code "jimfs"} view.
+   */
   @Override
   public Object getAttribute(String attribute) throws IOException {
-    throw new UnsupportedOperationException();
+    state.checkOpen();
+    if (attribute.startsWith("jimfs:")) {
+      Object value = disk.getStatistic(attribute.substring("jimfs:".length()));
+      if (value != null) {
+        return value;
+      }
+    }
+    throw new UnsupportedOperationException("unsupported attribute: " + attribute);
+  }
+
+  /**
+   * Write lock that also holds the {@link StampedLock} write lock for the duration of its outermost
+   * acquisition, invalidating any optimistic reads in progress. The stamped lock is never contended
+   * since it's only acquired while holding the exclusive write lock.
+   */
+  private final class VersionedWriteLock implements Lock {
+
+    private final ReentrantReadWriteLock.WriteLock delegate;
+    private long stamp; // guarded by delegate
+
+    VersionedWriteLock(ReentrantReadWriteLock.WriteLock delegate) {
+      this.delegate = checkNotNull(delegate);
+    }
+
+    @Override
+    public void lock() {
+      delegate.lock();
+      acquired();
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+      delegate.lockInterruptibly();
+      acquired();
+    }
+
+    @Override
+    public boolean tryLock() {
+      if (delegate.tryLock()) {
+        acquired();
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+      if (delegate.tryLock(time, unit)) {
+        acquired();
+        return true;
+      }
+      return false;
+    }
+
+    private void acquired() {
+      if (delegate.getHoldCount() == 1) {
+        stamp = version.writeLock();
+      }
+    }
+
+    @Override
+    public void unlock() {
+      if (delegate.getHoldCount() == 1) {
+        version.unlockWrite(stamp);
+      }
+      delegate.unlock();
+    }
+
+    @Override
+    public Condition newCondition() {
+      // waiting on a condition would release the write lock without releasing the stamped lock
+      throw new UnsupportedOperationException();
+    }
   }
 }
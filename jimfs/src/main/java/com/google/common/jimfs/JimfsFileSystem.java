@@ -178,19 +178,23 @@ final class JimfsFileSystem extends FileSystem {
 
   private final WatchServiceConfiguration watchServiceConfig;
 
+  private final Configuration config;
+
   JimfsFileSystem(
       JimfsFileSystemProvider provider,
       URI uri,
       JimfsFileStore fileStore,
       PathService pathService,
       FileSystemView defaultView,
-      WatchServiceConfiguration watchServiceConfig) {
+      WatchServiceConfiguration watchServiceConfig,
+      Configuration config) {
     this.provider = checkNotNull(provider);
     this.uri = checkNotNull(uri);
     this.fileStore = checkNotNull(fileStore);
     this.pathService = checkNotNull(pathService);
     this.defaultView = checkNotNull(defaultView);
     this.watchServiceConfig = checkNotNull(watchServiceConfig);
+    this.config = checkNotNull(config);
   }
 
   @Override
@@ -234,6 +238,11 @@ final class JimfsFileSystem extends FileSystem {
     return pathService;
   }
 
+  /** Returns the configuration this file system was created with. */
+  Configuration configuration() {
+    return config;
+  }
+
   /** Returns the file store for this file system. */
   public JimfsFileStore getFileStore() {
     return fileStore;
@@ -294,12 +303,17 @@ final class JimfsFileSystem extends FileSystem {
    */
   public synchronized ExecutorService getDefaultThreadPool() {
     if (defaultThreadPool == null) {
-      defaultThreadPool =
-          Executors.newCachedThreadPool(
-              new ThreadFactoryBuilder()
-                  .setDaemon(true)
-                  .setNameFormat("JimfsFileSystem-" + uri.getHost() + "-defaultThreadPool-%s")
-                  .build());
+      if (config.virtualThreadExecutor) {
+        defaultThreadPool = newVirtualThreadPerTaskExecutor();
+      }
+      if (defaultThreadPool == null) {
+        defaultThreadPool =
+            Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("JimfsFileSystem-" + uri.getHost() + "-defaultThreadPool-%s")
+                    .build());
+      }
 
       // ensure thread pool is closed when file system is closed
       fileStore
@@ -315,6 +329,19 @@ final class JimfsFileSystem extends FileSystem {
     return defaultThreadPool;
   }
 
+  /**
+   * Returns a new executor that runs each task in a new virtual thread, or null if the JVM doesn't
+   * support virtual threads. Looked up reflectively, since they were only added in Java 21.
+   */
+  private static @Nullable ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
   /**
    * Returns {@code false}; currently, cannot create a read-only file system.
    *
@@ -175,11 +175,12 @@ final class JimfsFileSystemProvider extends FileSystemProvider {
       throws IOException {
     // call newFileChannel and cast so that FileChannel support is checked there
     JimfsFileChannel channel = (JimfsFileChannel) newFileChannel(path, options, attrs);
+    JimfsFileSystem fileSystem = (JimfsFileSystem) path.getFileSystem();
     if (executor == null) {
-      JimfsFileSystem fileSystem = (JimfsFileSystem) path.getFileSystem();
       executor = fileSystem.getDefaultThreadPool();
     }
-    return channel.asAsynchronousFileChannel(executor);
+    return channel.asAsynchronousFileChannel(
+        executor, fileSystem.configuration().directAsynchronousIo);
   }
 
   @Override
@@ -199,7 +200,9 @@ final class JimfsFileSystemProvider extends FileSystemProvider {
     ImmutableSet<OpenOption> opts = Options.getOptionsForOutputStream(options);
     FileSystemView view = getDefaultView(checkedPath);
     RegularFile file = view.getOrCreateRegularFile(checkedPath, opts, NO_ATTRS);
-    return new JimfsOutputStream(file, opts.contains(APPEND), view.state());
+    Configuration config = checkedPath.getJimfsFileSystem().configuration();
+    int bufferBlockSize = config.bufferedOutputStreams ? config.blockSize : 0;
+    return new JimfsOutputStream(file, opts.contains(APPEND), view.state(), bufferBlockSize);
   }
 
   @Override
@@ -17,6 +17,7 @@
 package com.google.common.jimfs;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URI;
@@ -72,13 +73,57 @@ final class JimfsFileSystems {
         new FileSystemState(config.fileTimeSource, removeFileSystemRunnable(uri));
 
     JimfsFileStore fileStore = createFileStore(config, pathService, state);
+    return createFileSystem(provider, uri, config, fileStore, pathService);
+  }
+
+  /**
+   * Initialize a new file system with the given provider and URI that starts out as a copy of the
+   * given file system, using the same configuration. See {@link Jimfs#fork}.
+   */
+  public static JimfsFileSystem fork(
+      JimfsFileSystemProvider provider, URI uri, JimfsFileSystem source) throws IOException {
+    Configuration config = source.configuration();
+    PathService pathService = new PathService(config);
+    FileSystemState state =
+        new FileSystemState(config.fileTimeSource, removeFileSystemRunnable(uri));
+
+    JimfsFileStore fileStore =
+        source.getFileStore().fork(config.fileTimeSource, pathService, state);
+    return createFileSystem(provider, uri, config, fileStore, pathService);
+  }
+
+  /**
+   * Initialize a new file system with the given provider and URI, using the given configuration,
+   * with the files from the image read from the given stream. See {@link Jimfs#loadImage}.
+   */
+  public static JimfsFileSystem loadImage(
+      JimfsFileSystemProvider provider, URI uri, Configuration config, InputStream image)
+      throws IOException {
+    PathService pathService = new PathService(config);
+    FileSystemState state =
+        new FileSystemState(config.fileTimeSource, removeFileSystemRunnable(uri));
+
+    JimfsFileStore fileStore = createFileStore(config, pathService, state);
+    FileSystemImage.read(image, fileStore, pathService);
+    return createFileSystem(provider, uri, config, fileStore, pathService);
+  }
+
+  private static JimfsFileSystem createFileSystem(
+      JimfsFileSystemProvider provider,
+      URI uri,
+      Configuration config,
+      JimfsFileStore fileStore,
+      PathService pathService)
+      throws IOException {
     FileSystemView defaultView = createDefaultView(config, fileStore, pathService);
     WatchServiceConfiguration watchServiceConfig = config.watchServiceConfig;
 
     JimfsFileSystem fileSystem =
-        new JimfsFileSystem(provider, uri, fileStore, pathService, defaultView, watchServiceConfig);
+        new JimfsFileSystem(
+            provider, uri, fileStore, pathService, defaultView, watchServiceConfig, config);
 
     pathService.setFileSystem(fileSystem);
+    fileStore.startBackgroundTasks();
     return fileSystem;
   }
 
@@ -121,6 +166,14 @@ final class JimfsFileSystems {
     }
 
     for (Name name : workingDirPath.names()) {
+      // the working directory may already exist if the file store is a fork or was loaded from an
+      // image
+      DirectoryEntry entry = dir.get(name);
+      if (entry != null && entry.file().isDirectory()) {
+        dir = (Directory) entry.file();
+        continue;
+      }
+
       Directory newDir = fileStore.directoryCreator().get();
       fileStore.setInitialAttributes(newDir);
       dir.link(name, newDir);
@@ -16,6 +16,7 @@
 
 package com.google.common.jimfs;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkPositionIndexes;
 import static java.lang.Math.max;
@@ -25,14 +26,28 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.primitives.Ints;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import org.jspecify.annotations.Nullable;
 
 /**
  * {@link InputStream} for reading from a file's {@link RegularFile}.
  *
+ * <p>Single bytes and small reads are served from a buffer of bytes copied from the file, so that
+ * reading a file a byte at a time doesn't lock it for every byte. The buffer is used only as long
+ * as the file's {@linkplain RegularFile#modCount() modification count} shows that its bytes are
+ * still current, so reads still see all writes to the file that happened before them.
+ *
  * @author Colin Decker
  */
 final class JimfsInputStream extends InputStream {
 
+  /** Size of the buffer that single bytes and small reads are served from. */
+  private static final int BUFFER_SIZE = 8192;
+
+  /** Maximum size of an array, which {@link #readAllBytes()} can't read more than. */
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
   @GuardedBy("this")
   @VisibleForTesting
   RegularFile file;
@@ -43,6 +58,22 @@ final class JimfsInputStream extends InputStream {
   @GuardedBy("this")
   private boolean finished;
 
+  /**
+   * Bytes {@code bufferPos} to {@code bufferPos + bufferLength} of the file, copied from it when
+   * its modification count was {@code bufferModCount}; null until the buffer is first needed.
+   */
+  @GuardedBy("this")
+  private byte @Nullable [] buffer;
+
+  @GuardedBy("this")
+  private long bufferPos;
+
+  @GuardedBy("this")
+  private int bufferLength;
+
+  @GuardedBy("this")
+  private int bufferModCount;
+
   private final FileSystemState fileSystemState;
 
   public JimfsInputStream(RegularFile file, FileSystemState fileSystemState) {
@@ -58,19 +89,11 @@ final class JimfsInputStream extends InputStream {
       return -1;
     }
 
-    file.readLock().lock();
-    try {
-
-      int b = file.read(pos++); // it's ok for pos to go beyond size()
-      if (b == -1) {
-        finished = true;
-      } else {
-        file.setLastAccessTime(fileSystemState.now());
-      }
-      return b;
-    } finally {
-      file.readLock().unlock();
+    if (bufferedAtPos() == 0 && !fillBuffer()) {
+      finished = true;
+      return -1;
     }
+    return buffer[(int) (pos++ - bufferPos)] & 0xff;
   }
 
   @Override
@@ -93,22 +116,100 @@ final class JimfsInputStream extends InputStream {
       return -1;
     }
 
+    int fromBuffer = readBuffered(b, off, len);
+    if (fromBuffer == len) {
+      return len;
+    }
+
+    int read;
+    if (len - fromBuffer < BUFFER_SIZE) {
+      // read through the buffer, so that the reads following this one don't lock the file
+      read = fillBuffer() ? readFilledBuffer(b, off + fromBuffer, len - fromBuffer) : -1;
+    } else {
+      read = readFile(b, off + fromBuffer, len - fromBuffer);
+    }
+
+    if (read == -1) {
+      if (fromBuffer > 0) {
+        return fromBuffer;
+      }
+      finished = true;
+      return -1;
+    }
+    return fromBuffer + read;
+  }
+
+  // Overrides the method added to InputStream in Java 9, reading everything with a single lock of
+  // the file rather than a buffer at a time.
+  public synchronized byte[] readAllBytes() throws IOException {
+    checkNotClosed();
+    if (finished) {
+      return new byte[0];
+    }
+
     file.readLock().lock();
     try {
-      int read = file.read(pos, b, off, len);
-      if (read == -1) {
-        finished = true;
-      } else {
-        pos += read;
+      long remaining = max(file.sizeWithoutLocking() - pos, 0);
+      if (remaining > MAX_ARRAY_SIZE) {
+        throw new OutOfMemoryError("file is too large to read into an array");
       }
 
-      file.setLastAccessTime(fileSystemState.now());
-      return read;
+      byte[] bytes = new byte[(int) remaining];
+      if (remaining > 0) {
+        pos += file.read(pos, bytes, 0, bytes.length);
+        file.setLastAccessTime(fileSystemState.now());
+      }
+      finished = true;
+      return bytes;
     } finally {
       file.readLock().unlock();
     }
   }
 
+  // Overrides the method added to InputStream in Java 9. A single read already returns as many of
+  // the len bytes as the file has, so there's no need to loop until the end of the file.
+  public int readNBytes(byte[] b, int off, int len) throws IOException {
+    checkPositionIndexes(off, off + len, b.length);
+    return max(readInternal(b, off, len), 0);
+  }
+
+  // Overrides the method added to InputStream in Java 11.
+  public synchronized byte[] readNBytes(int len) throws IOException {
+    checkArgument(len >= 0, "len (%s) may not be negative", len);
+    checkNotClosed();
+    int available = finished ? 0 : (int) min(max(file.size() - pos, 0), len);
+    byte[] bytes = new byte[available];
+    int read = readNBytes(bytes, 0, available);
+    return read == available ? bytes : Arrays.copyOf(bytes, read);
+  }
+
+  // Overrides the method added to InputStream in Java 9, copying to the given stream from the
+  // buffer rather than through another buffer. The file isn't locked while writing to out, which
+  // might be a stream to the same file.
+  public synchronized long transferTo(OutputStream out) throws IOException {
+    checkNotNull(out);
+    checkNotClosed();
+    if (finished) {
+      return 0;
+    }
+
+    long transferred = 0;
+    while (true) {
+      int len = bufferedAtPos();
+      if (len == 0) {
+        if (!fillBuffer()) {
+          break;
+        }
+        len = bufferLength;
+      }
+      out.write(buffer, (int) (pos - bufferPos), len);
+      pos += len;
+      transferred += len;
+    }
+    finished = true;
+    return transferred;
+  }
+
   @Override
   public long skip(long n) throws IOException {
     if (n <= 0) {
@@ -138,6 +239,89 @@ final class JimfsInputStream extends InputStream {
     return Ints.saturatedCast(available);
   }
 
+  /**
+   * Returns the number of bytes in the buffer at and after the current position, or 0 if the
+   * position isn't in the buffer or the file has been modified since the buffer was filled.
+   */
+  @GuardedBy("this")
+  private int bufferedAtPos() {
+    long off = pos - bufferPos;
+    if (off < 0 || off >= bufferLength || file.modCount() != bufferModCount) {
+      return 0;
+    }
+    return (int) (bufferLength - off);
+  }
+
+  /**
+   * Reads up to {@code len} bytes at the current position from the buffer, returning the number of
+   * bytes read, possibly 0.
+   */
+  @GuardedBy("this")
+  private int readBuffered(byte[] b, int off, int len) {
+    int read = min(bufferedAtPos(), len);
+    if (read > 0) {
+      System.arraycopy(buffer, (int) (pos - bufferPos), b, off, read);
+      pos += read;
+    }
+    return read;
+  }
+
+  /**
+   * Reads up to {@code len} bytes at the current position from the buffer, which was just filled,
+   * returning the number of bytes read. Unlike {@link #readBuffered}, this doesn't check whether
+   * the file has been modified since, so it always reads at least one byte.
+   */
+  @GuardedBy("this")
+  private int readFilledBuffer(byte[] b, int off, int len) {
+    int read = min(bufferLength, len);
+    System.arraycopy(buffer, 0, b, off, read);
+    pos += read;
+    return read;
+  }
+
+  /**
+   * Fills the buffer with the bytes of the file at and after the current position, returning
+   * {@code false} if there are none.
+   */
+  @GuardedBy("this")
+  private boolean fillBuffer() throws IOException {
+    if (buffer == null) {
+      buffer = new byte[BUFFER_SIZE];
+    }
+
+    file.readLock().lock();
+    try {
+      // read the count first; if it changes while the bytes are being read, the bytes aren't used
+      bufferModCount = file.modCount();
+      int read = file.read(pos, buffer, 0, buffer.length);
+      bufferPos = pos;
+      bufferLength = max(read, 0);
+      if (read == -1) {
+        return false;
+      }
+      file.setLastAccessTime(fileSystemState.now());
+      return true;
+    } finally {
+      file.readLock().unlock();
+    }
+  }
+
+  /** Reads from the file directly rather than through the buffer. */
+  @GuardedBy("this")
+  private int readFile(byte[] b, int off, int len) throws IOException {
+    file.readLock().lock();
+    try {
+      int read = file.read(pos, b, off, len);
+      if (read != -1) {
+        pos += read;
+      }
+      file.setLastAccessTime(fileSystemState.now());
+      return read;
+    } finally {
+      file.readLock().unlock();
+    }
+  }
+
   @GuardedBy("this")
   private void checkNotClosed() throws IOException {
     if (file == null) {
@@ -153,6 +337,7 @@ final class JimfsInputStream extends InputStream {
 
       // file is set to null here and only here
       file = null;
+      buffer = null;
     }
   }
 
@@ -18,14 +18,21 @@ package com.google.common.jimfs;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkPositionIndexes;
+import static java.lang.Math.min;
 
 import com.google.common.annotations.VisibleForTesting;
 import java.io.IOException;
 import java.io.OutputStream;
+import org.jspecify.annotations.Nullable;
 
 /**
  * {@link OutputStream} for writing to a {@link RegularFile}.
  *
+ * <p>If the stream is given a block size, it buffers what's written to it: bytes are collected in
+ * a buffer without locking the file until they reach the end of the block they'll be written to,
+ * or the stream is flushed or closed, and only then are they written to the file and the file's
+ * size updated. Each write to the file then copies at most a block into a single block of the file.
+ *
  * @author Colin Decker
  */
 final class JimfsOutputStream extends OutputStream {
@@ -40,16 +47,49 @@ final class JimfsOutputStream extends OutputStream {
   private final boolean append;
   private final FileSystemState fileSystemState;
 
+  /** The block size of the file's disk if this stream is buffered, or 0 if it isn't. */
+  private final int blockSize;
+
+  /**
+   * Bytes that have been written to this stream but not yet to the file, or null if there are
+   * none. They go at {@code pos} in the file, or at its end if appending.
+   */
+  @GuardedBy("this")
+  private byte @Nullable [] buffer;
+
+  @GuardedBy("this")
+  private int count;
+
+  /** Number of bytes the buffer can currently take, which ends them at a block boundary. */
+  @GuardedBy("this")
+  private int limit;
+
   JimfsOutputStream(RegularFile file, boolean append, FileSystemState fileSystemState) {
+    this(file, append, fileSystemState, 0);
+  }
+
+  JimfsOutputStream(
+      RegularFile file, boolean append, FileSystemState fileSystemState, int blockSize) {
     this.file = checkNotNull(file);
     this.append = append;
     this.fileSystemState = fileSystemState;
+    this.blockSize = blockSize;
     fileSystemState.register(this);
   }
 
   @Override
   public synchronized void write(int b) throws IOException {
     checkNotClosed();
+    if (blockSize > 0) {
+      if (count == 0) {
+        startBuffer();
+      }
+      buffer[count++] = (byte) b;
+      if (count == limit) {
+        flushBuffer();
+      }
+      return;
+    }
 
     file.writeLock().lock();
     try {
@@ -77,7 +117,61 @@ final class JimfsOutputStream extends OutputStream {
 
   private synchronized void writeInternal(byte[] b, int off, int len) throws IOException {
     checkNotClosed();
+    if (blockSize > 0) {
+      if (count == 0 && len >= blockSize) {
+        // nothing is gained by copying this much to the buffer first
+        writeFile(b, off, len);
+        return;
+      }
+
+      while (len > 0) {
+        if (count == 0) {
+          startBuffer();
+        }
+        int n = min(len, limit - count);
+        System.arraycopy(b, off, buffer, count, n);
+        count += n;
+        off += n;
+        len -= n;
+        if (count == limit) {
+          flushBuffer();
+        }
+      }
+      return;
+    }
 
+    writeFile(b, off, len);
+  }
+
+  @Override
+  public synchronized void flush() throws IOException {
+    if (isOpen()) { // flushing a closed stream does nothing, like closing it again
+      flushBuffer();
+    }
+  }
+
+  /** Prepares the empty buffer to take bytes up to the end of the block they'll be written to. */
+  @GuardedBy("this")
+  private void startBuffer() {
+    if (buffer == null) {
+      buffer = new byte[blockSize];
+    }
+    long start = append ? file.sizeWithoutLocking() : pos;
+    limit = blockSize - (int) (start % blockSize);
+  }
+
+  /** Writes the buffered bytes, if any, to the file. */
+  @GuardedBy("this")
+  private void flushBuffer() throws IOException {
+    if (count > 0) {
+      int len = count;
+      count = 0; // if the write fails, the bytes are lost, as they would be without the buffer
+      writeFile(buffer, 0, len);
+    }
+  }
+
+  @GuardedBy("this")
+  private void writeFile(byte[] b, int off, int len) throws IOException {
     file.writeLock().lock();
     try {
       if (append) {
@@ -101,11 +195,17 @@ final class JimfsOutputStream extends OutputStream {
   @Override
   public synchronized void close() throws IOException {
     if (isOpen()) {
-      fileSystemState.unregister(this);
-      file.closed();
-
-      // file is set to null here and only here
-      file = null;
+      try {
+        flushBuffer();
+      } finally {
+        fileSystemState.unregister(this);
+        file.deduplicateLater();
+        file.closed();
+
+        // file is set to null here and only here
+        file = null;
+        buffer = null;
+      }
     }
   }
 
@@ -17,61 +17,177 @@
 package com.google.common.jimfs;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.jimfs.Util.clear;
 import static com.google.common.jimfs.Util.nextPowerOf2;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 
-import com.google.common.annotations.VisibleForTesting;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.jspecify.annotations.Nullable;
 
 /**
- * A mutable, resizable store for bytes. Bytes are stored in fixed-sized byte arrays (blocks)
- * allocated by a {@link HeapDisk}.
+ * A mutable, resizable store for bytes. Bytes are stored in fixed-sized blocks allocated by a
+ * {@link HeapDisk}, which are buffers on or off the heap depending on the disk's {@link
+ * BlockStore}.
  *
  * @author Colin Decker
  */
 final class RegularFile extends File {
 
+  /** Zeros to read from holes into byte buffers. */
+  private static final byte[] ZEROS = new byte[8192];
+
+  /**
+   * Number of blocks in each page of a file's block index, as a shift. With the default block size,
+   * each page covers 8 MB of the file.
+   */
+  private static final int PAGE_SHIFT = 10;
+
+  private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+  private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+  /**
+   * Block index shared by files that have no blocks. Most files never have more than a single
+   * (often small) block, so the index starts out empty and grows only as blocks are added.
+   */
+  private static final ByteBuffer[][] NO_PAGES = new ByteBuffer[0][];
+
+  /** Number of locks that in-place writes to a file are striped across by block (at most 32). */
+  private static final int WRITE_STRIPES = 16;
+
+  /**
+   * Maximum number of blocks handed to a gathering or scattering channel in a single call when
+   * transferring to or from it. With the default block size, that's 512 KB per call.
+   */
+  private static final int TRANSFER_BLOCKS = 64;
+
+  private static final AtomicIntegerFieldUpdater<RegularFile> MOD_COUNT =
+      AtomicIntegerFieldUpdater.newUpdater(RegularFile.class, "modCount");
+
   private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
   private final HeapDisk disk;
 
-  /** Block list for the file. */
-  private byte[][] blocks;
+  /**
+   * Block index for the file: a table of fixed-size pages of blocks, so that growing a very large
+   * file only ever adds pages rather than copying one huge array of blocks. Only the table of pages
+   * itself is copied as it grows, and it's {@value #PAGE_SIZE} times smaller than the number of
+   * blocks. The first page starts out small and grows to a full page as blocks are added, so that
+   * files with only a few blocks don't each take up a full page; every other page is always full.
+   * Pages past the last block are null unless they were allocated in advance.
+   *
+   * <p>A null block is a hole: a block that has never been written to, which reads as all zeros and
+   * isn't allocated from the disk until it's written to.
+   */
+  private ByteBuffer[][] pages;
 
-  /** Block count for the file, which also acts as the head of the block list. */
+  /** Block count for the file, which also acts as the head of the block index. */
   private int blockCount;
 
   private long size;
 
+  /**
+   * Whether or not some of this file's blocks may be shared with other files, in which case blocks
+   * must be unshared before they're written to.
+   */
+  private boolean hasSharedBlocks;
+
+  /** Index of the last block found to be shared with other files; see {@link #hasSharedBlocks}. */
+  private int sharedBlockHint;
+
+  /** Whether or not some of this file's blocks may be holes. */
+  private boolean hasHoles;
+
+  /**
+   * Whether or not some of this file's blocks are compressed. A compressed block takes the place of
+   * the full block it was compressed from, and is marked in {@link #encodedBlocks}. Volatile
+   * because a compressed file is decompressed by whichever thread uses it first, which may only
+   * hold the read lock.
+   */
+  private volatile boolean compressed;
+
+  /**
+   * Whether or not some of this file's blocks are spilled to the disk's {@link SpillFile}. A
+   * spilled block is replaced by a placeholder, which like a compressed block is marked in {@link
+   * #encodedBlocks}.
+   */
+  private volatile boolean spilled;
+
+  /**
+   * The indexes of the blocks that are encoded rather than held as is: compressed blocks if this
+   * file is compressed or the placeholders of spilled blocks if it's spilled, which it never is at
+   * the same time. Null if no blocks are encoded.
+   */
+  private @Nullable BitSet encodedBlocks;
+
+  /** The {@linkplain HeapDisk#epoch() epoch} in which this file was last used. */
+  private int lastUsedEpoch;
+
+  /**
+   * The {@linkplain #modCount() mod count} of this file when its blocks were last deduplicated, or
+   * -1 if they need to be deduplicated again regardless. Guarded by the disk.
+   */
+  private int deduplicatedModCount = -1;
+
+  /**
+   * Count of the modifications to this file's content, which {@link JimfsInputStream} checks to
+   * tell whether the bytes it has buffered are still current. Incremented atomically, since
+   * {@linkplain #writeInPlace in-place writes} only hold the read lock.
+   */
+  private volatile int modCount;
+
+  /**
+   * Locks for {@linkplain #writeInPlace in-place writes}, striped by block index, or null until the
+   * first in-place write. In-place writes only hold the read lock, so these keep concurrent
+   * in-place writes to the same blocks from interleaving.
+   */
+  private volatile Lock @Nullable [] writeStripes;
+
+  /** The byte-range locks held on this file through its channels, or null until the first lock. */
+  /**
+   * Whether or not some of this file's blocks have been {@linkplain #map mapped}. Once a file has
+   * been mapped, its blocks stay where they are for as long as it holds them: they're never
+   * compressed, spilled, deduplicated or shared with other files, and they're never cached for
+   * reuse by other files when they're freed, so that a mapping only ever shows this file's content.
+   */
+  private volatile boolean mapped;
+
+  /**
+   * The direct buffers that blocks of this file were moved into when regions of it were mapped, in
+   * the order they were mapped, or null if this file has never been mapped. Guarded by the write
+   * lock.
+   */
+  private @Nullable List<MappedArea> mappedAreas;
+  private volatile @Nullable FileLockTable lockTable;
+
   /** Creates a new regular file with the given ID and using the given disk. */
   public static RegularFile create(int id, FileTime creationTime, HeapDisk disk) {
-    return new RegularFile(id, creationTime, disk, new byte[32][], 0, 0);
+    return new RegularFile(id, creationTime, disk, 0);
   }
 
-  RegularFile(
-      int id,
-      FileTime creationTime,
-      HeapDisk disk,
-      byte[][] blocks,
-      int blockCount,
-      long size) {
+  RegularFile(int id, FileTime creationTime, HeapDisk disk, long size) {
     super(id, creationTime);
     this.disk = checkNotNull(disk);
-    this.blocks = checkNotNull(blocks);
-    this.blockCount = blockCount;
+    this.pages = NO_PAGES;
 
     checkArgument(size >= 0);
     this.size = size;
@@ -90,26 +206,69 @@ final class RegularFile extends File {
     return lock.writeLock();
   }
 
-  // lower-level methods dealing with the blocks array
+  // lower-level methods dealing with the block index
+
+  /** Returns the number of pages needed to hold the given number of blocks. */
+  private static int pageCount(int blockCount) {
+    return (int) ((blockCount + (long) PAGE_MASK) >>> PAGE_SHIFT);
+  }
 
   private void expandIfNecessary(int minBlockCount) {
-    if (minBlockCount > blocks.length) {
-      this.blocks = Arrays.copyOf(blocks, nextPowerOf2(minBlockCount));
+    int pageCount = pageCount(minBlockCount);
+    if (pageCount > pages.length) {
+      pages = Arrays.copyOf(pages, nextPowerOf2(pageCount));
+    }
+
+    ByteBuffer[] firstPage = pages[0];
+    int minFirstPageLength = min(minBlockCount, PAGE_SIZE);
+    if (firstPage == null) {
+      pages[0] = new ByteBuffer[nextPowerOf2(minFirstPageLength)];
+    } else if (firstPage.length < minFirstPageLength) {
+      pages[0] = Arrays.copyOf(firstPage, nextPowerOf2(minFirstPageLength));
+    }
+
+    for (int i = max(pageCount(blockCount), 1); i < pageCount; i++) {
+      if (pages[i] == null) {
+        pages[i] = new ByteBuffer[PAGE_SIZE];
+      }
     }
   }
 
+  /** Returns the block at the given index, which must be less than the block count. */
+  private @Nullable ByteBuffer block(int index) {
+    return pages[index >>> PAGE_SHIFT][index & PAGE_MASK];
+  }
+
   /** Returns the number of blocks this file contains. */
   int blockCount() {
     return blockCount;
   }
 
+  /** Returns the disk this file's blocks are allocated from. */
+  HeapDisk disk() {
+    return disk;
+  }
+
   /** Copies the last {@code count} blocks from this file to the end of the given target file. */
   void copyBlocksTo(RegularFile target, int count) {
     int start = blockCount - count;
     int targetEnd = target.blockCount + count;
     target.expandIfNecessary(targetEnd);
 
-    System.arraycopy(this.blocks, start, target.blocks, target.blockCount, count);
+    // copy as much as fits in both the current source page and the current target page at a time
+    int from = start;
+    int to = target.blockCount;
+    while (from < blockCount) {
+      int len = min(PAGE_SIZE - max(from & PAGE_MASK, to & PAGE_MASK), blockCount - from);
+      System.arraycopy(
+          pages[from >>> PAGE_SHIFT],
+          from & PAGE_MASK,
+          target.pages[to >>> PAGE_SHIFT],
+          to & PAGE_MASK,
+          len);
+      from += len;
+      to += len;
+    }
     target.blockCount = targetEnd;
   }
 
@@ -119,22 +278,231 @@ final class RegularFile extends File {
     truncateBlocks(blockCount - count);
   }
 
-  /** Truncates the blocks of this file to the given block count. */
+  /**
+   * Truncates the blocks of this file to the given block count. Pages past the new last block are
+   * dropped rather than cleared, so this only touches the last page that's kept.
+   */
   void truncateBlocks(int count) {
-    clear(blocks, count, blockCount - count);
+    if (count == 0) {
+      pages = NO_PAGES;
+    } else if (count < blockCount) {
+      int pageCount = pageCount(count);
+      for (int i = pageCount; i < pageCount(blockCount); i++) {
+        pages[i] = null;
+      }
+
+      ByteBuffer[] lastPage = pages[pageCount - 1];
+      int off = count - ((pageCount - 1) << PAGE_SHIFT);
+      clear(lastPage, off, min(blockCount - count, lastPage.length - off));
+    }
+    if (encodedBlocks != null && count < blockCount) {
+      encodedBlocks.clear(count, blockCount);
+    }
     blockCount = count;
+    if (count == 0) {
+      hasSharedBlocks = false;
+      hasHoles = false;
+      compressed = false;
+      spilled = false;
+      encodedBlocks = null;
+    }
   }
 
   /** Adds the given block to the end of this file. */
-  void addBlock(byte[] block) {
+  void addBlock(ByteBuffer block) {
     expandIfNecessary(blockCount + 1);
-    blocks[blockCount++] = block;
+    pages[blockCount >>> PAGE_SHIFT][blockCount & PAGE_MASK] = block;
+    blockCount++;
+  }
+
+  /** Adds {@code count} holes to the end of this file. */
+  void addHoles(int count) {
+    expandIfNecessary(blockCount + count);
+    blockCount += count;
+    hasHoles = true;
+  }
+
+  /** Gets the block at the given index in this file, or null if the block is a hole. */
+  @Nullable ByteBuffer getBlock(int index) {
+    checkElementIndex(index, blockCount);
+    return block(index);
+  }
+
+  /** Returns whether or not some of this file's blocks may be holes. */
+  boolean hasHoles() {
+    return hasHoles;
+  }
+
+  /** Replaces the block at the given index in this file. */
+  void setBlock(int index, ByteBuffer block) {
+    pages[index >>> PAGE_SHIFT][index & PAGE_MASK] = block;
+    if (encodedBlocks != null) {
+      encodedBlocks.clear(index);
+    }
+  }
+
+  /**
+   * Replaces the block at the given index in this file with its encoded form: the compressed block
+   * if this file is being compressed, or the placeholder of the spilled block if it's being
+   * spilled.
+   */
+  void setEncodedBlock(int index, ByteBuffer encoded) {
+    pages[index >>> PAGE_SHIFT][index & PAGE_MASK] = encoded;
+    if (encodedBlocks == null) {
+      encodedBlocks = new BitSet(blockCount);
+    }
+    encodedBlocks.set(index);
+  }
+
+  /** Returns whether or not the block at the given index in this file is encoded. */
+  boolean isEncoded(int index) {
+    return encodedBlocks != null && encodedBlocks.get(index);
   }
 
-  /** Gets the block at the given index in this file. */
-  @VisibleForTesting
-  byte[] getBlock(int index) {
-    return blocks[index];
+  /**
+   * Returns whether or not this file's only block is a small block, which may be smaller than the
+   * disk's block size.
+   */
+  boolean hasSmallBlock() {
+    return blockCount == 1 && block(0) != null && !isEncoded(0) && disk.isSmall(block(0));
+  }
+
+  /** Returns whether or not some of this file's blocks may be shared with other files. */
+  boolean hasSharedBlocks() {
+    return hasSharedBlocks;
+  }
+
+  /** Marks this file as (possibly) sharing some of its blocks with other files. */
+  void setHasSharedBlocks() {
+    hasSharedBlocks = true;
+  }
+
+  /** Marks this file as not sharing any of its blocks with other files. */
+  void clearHasSharedBlocks() {
+    hasSharedBlocks = false;
+  }
+
+  /** Returns the index of the block last found to be shared with other files. */
+  int sharedBlockHint() {
+    return sharedBlockHint;
+  }
+
+  /** Sets the index of the block last found to be shared with other files. */
+  void setSharedBlockHint(int index) {
+    sharedBlockHint = index;
+  }
+
+  /** Returns whether or not some of this file's blocks are compressed. */
+  boolean isCompressed() {
+    return compressed;
+  }
+
+  /**
+   * Compresses this file's blocks if it hasn't been read or written recently. Returns true if any
+   * blocks were compressed. Must be called while holding the write lock.
+   */
+  @CanIgnoreReturnValue
+  boolean compressIfCold() {
+    BlockCompressor compressor = disk.compressor();
+    // the clock may have last ticked up to a full delay before this file was last used
+    if (compressor == null || disk.nanosSince(lastUsedEpoch) < 2 * compressor.delayNanos()) {
+      return false;
+    }
+    return compress();
+  }
+
+  /**
+   * Compresses this file's blocks, whether or not it's been used recently. Returns true if any
+   * blocks were compressed. Must be called while holding the write lock.
+   */
+  @CanIgnoreReturnValue
+  boolean compress() {
+    if (!compressed) {
+      compressed = disk.compress(this);
+    }
+    return compressed;
+  }
+
+  /** Returns whether or not some of this file's blocks are spilled. */
+  boolean isSpilled() {
+    return spilled;
+  }
+
+  /**
+   * Spills this file's blocks to the disk's spill file. Returns true if any blocks were spilled.
+   * Must be called while holding the write lock.
+   *
+   * @throws IOException if writing to the spill file fails
+   */
+  @CanIgnoreReturnValue
+  boolean spill() throws IOException {
+    if (!spilled) {
+      // set first, since some blocks may have been spilled if spilling fails partway through
+      spilled = true;
+      spilled = disk.spill(this);
+    }
+    return spilled;
+  }
+
+  /** Returns whether or not some of this file's blocks have been {@linkplain #map mapped}. */
+  boolean isMapped() {
+    return mapped;
+  }
+
+  /** Returns the {@linkplain HeapDisk#epoch() epoch} in which this file was last used. */
+  int lastUsedEpoch() {
+    return lastUsedEpoch;
+  }
+
+  /**
+   * Records that this file is being read or written, first decompressing its blocks if they're
+   * compressed and reading them back from the spill file if they're spilled.
+   *
+   * @throws IOException if reading spilled blocks fails
+   */
+  private void use() throws IOException {
+    if (disk.tracksFileUsage()) {
+      lastUsedEpoch = disk.epoch();
+      if (compressed || spilled) {
+        restore();
+      }
+    }
+  }
+
+  private void restore() throws IOException {
+    // concurrent readers may all find the file compressed or spilled, but only the first restores
+    // its blocks
+    synchronized (this) {
+      if (compressed) {
+        disk.decompress(this);
+        compressed = false;
+      }
+      if (spilled) {
+        disk.unspill(this);
+        spilled = false;
+      }
+      encodedBlocks = null;
+    }
+  }
+
+  /**
+   * Queues this file to have its blocks {@linkplain HeapDisk#deduplicate deduplicated} in the
+   * background, if its disk deduplicates blocks. Doesn't acquire any of this file's locks.
+   */
+  void deduplicateLater() {
+    if (disk.deduplicatesBlocks()) {
+      disk.deduplicateLater(this);
+    }
+  }
+
+  /** Returns the mod count of this file when its blocks were last deduplicated. */
+  int deduplicatedModCount() {
+    return deduplicatedModCount;
+  }
+
+  /** Records that this file's blocks were deduplicated when its mod count was the given count. */
+  void setDeduplicatedModCount(int modCount) {
+    deduplicatedModCount = modCount;
   }
 
   // end of lower-level methods dealing with the blocks array
@@ -161,19 +529,220 @@ final class RegularFile extends File {
 
   @Override
   RegularFile copyWithoutContent(int id, FileTime creationTime) {
-    byte[][] copyBlocks = new byte[max(blockCount * 2, 32)][];
-    return new RegularFile(id, creationTime, disk, copyBlocks, 0, size);
+    // size the copy's index up front for the blocks copyContentTo will add
+    RegularFile copy = new RegularFile(id, creationTime, disk, size);
+    if (blockCount > 0) {
+      copy.expandIfNecessary(blockCount);
+    }
+    return copy;
   }
 
   @Override
   void copyContentTo(File file) throws IOException {
     RegularFile copy = (RegularFile) file;
-    disk.allocate(copy, blockCount);
+    use();
+    if (copy.disk == disk && !mapped) {
+      // Rather than copying this file's blocks, share them with the copy. Each file copies a shared
+      // block before writing to it, so this is only as expensive as copying the block table.
+      disk.share(this, copy);
+      return;
+    }
+
+    copyBlocksTo(copy, 0, blockCount);
+  }
+
+  /**
+   * Allocates {@code count} blocks at the end of the given target file and copies the content of
+   * this file's blocks, starting at block {@code first}, into them.
+   */
+  private void copyBlocksTo(RegularFile target, int first, int count) throws IOException {
+    int start = target.blockCount;
+    target.disk.allocate(target, count);
+
+    for (int i = 0; i < count; i++) {
+      ByteBuffer block = block(first + i);
+      ByteBuffer targetBlock = target.block(start + i);
+      if (block == null) {
+        Blocks.zero(targetBlock, 0, targetBlock.capacity());
+      } else {
+        Blocks.copy(block, targetBlock, block.capacity());
+      }
+    }
+  }
+
+  /**
+   * Returns a new file, not linked into any directory, containing the blocks of this file that hold
+   * the bytes from position {@code pos} up to {@code pos + count}, or an empty file if {@code pos}
+   * is at or past the end of this file. The first block of the snapshot is the block that contains
+   * {@code pos}.
+   *
+   * <p>The snapshot shares those blocks with this file rather than copying them, and since each
+   * file copies a shared block before writing to it, the snapshot's content doesn't change when
+   * this file is written to or truncated. The blocks of a {@linkplain #map mapped} file are copied
+   * instead, since they must stay where its mappings see them. The snapshot must be {@linkplain
+   * HeapDisk#free(RegularFile) freed} when it's no longer needed. Acquires the write lock.
+   *
+   * @throws IOException if this file's blocks were spilled to disk and reading them back fails, or
+   *     if this file is mapped and the disk is too full to copy its blocks
+   */
+  RegularFile snapshot(long pos, long count) throws IOException {
+    writeLock().lock();
+    try {
+      long bytesToRead = bytesToRead(pos, count);
+      if (bytesToRead <= 0) {
+        return new RegularFile(id(), getCreationTime(), disk, 0);
+      }
+
+      long start = blockIndex(pos) * (long) disk.blockSize();
+      RegularFile snapshot =
+          new RegularFile(id(), getCreationTime(), disk, pos + bytesToRead - start);
+      int first = blockIndex(pos);
+      int blocks = blockIndex(pos + bytesToRead - 1) - first + 1;
+      snapshot.expandIfNecessary(blocks);
+      use();
+      if (mapped) {
+        copyBlocksTo(snapshot, first, blocks);
+      } else {
+        disk.share(this, snapshot, first, blocks);
+      }
+      return snapshot;
+    } finally {
+      writeLock().unlock();
+    }
+  }
 
-    for (int i = 0; i < blockCount; i++) {
-      byte[] block = blocks[i];
-      byte[] copyBlock = copy.blocks[i];
-      System.arraycopy(block, 0, copyBlock, 0, block.length);
+  /**
+   * Returns read-only buffers over the bytes of this file starting at position {@code pos}, one
+   * for each block, without copying them. Holes are read as zeros, from as many buffers over the
+   * shared array of zeros as it takes to cover them. The buffers see any later
+   * writes to the blocks, so this is meant to be called on a {@linkplain #snapshot snapshot},
+   * which is never written to.
+   */
+  ByteBuffer[] readOnlyBuffers(long pos) {
+    long remaining = bytesToRead(pos, Long.MAX_VALUE);
+    if (remaining <= 0) {
+      return new ByteBuffer[0];
+    }
+
+    int blockIndex = blockIndex(pos);
+    int off = offsetInBlock(pos);
+    List<ByteBuffer> bufs = new ArrayList<>(blockCount - blockIndex);
+    for (int i = blockIndex; i < blockCount; i++) {
+      int len = length(off, remaining);
+      ByteBuffer block = block(i);
+      if (block == null) {
+        // holes share the array of zeros, which may take more than one buffer to cover a block
+        for (int n = len; n > 0; n -= ZEROS.length) {
+          bufs.add(ByteBuffer.wrap(ZEROS, 0, min(n, ZEROS.length)).asReadOnlyBuffer());
+        }
+      } else {
+        bufs.add(Blocks.view(block, off, len).slice().asReadOnlyBuffer());
+      }
+      remaining -= len;
+      off = 0;
+    }
+    return bufs.toArray(new ByteBuffer[0]);
+  }
+
+  /**
+   * Maps the {@code len} bytes of this file starting at position {@code pos} into memory, returning
+   * a direct buffer over them with position 0 and limit {@code len}. The buffer is a view of this
+   * file's blocks rather than a copy of them, so it sees later writes to this file, and reading
+   * through it takes no locks. If this file is smaller than {@code pos + len}, it's first extended
+   * to that size with zeros. Must be called while holding the write lock.
+   *
+   * <p>A mapping must be contiguous while blocks are allocated separately, so unless the region
+   * lies within the blocks of an earlier mapping, its blocks are first moved into a new direct
+   * buffer that stores them from then on. Mappings made earlier of any blocks that are moved keep
+   * seeing them as they were, as do mappings of blocks this file frees when it's truncated.
+   *
+   * @throws IOException if the disk is too full to extend this file or to move the region's blocks,
+   *     or if the blocks the region spans don't fit in a single buffer
+   */
+  ByteBuffer map(long pos, int len) throws IOException {
+    mapped = true;
+    use();
+    if (pos + len > size) {
+      prepareForWrite(pos + len, 0);
+    }
+    if (len == 0) {
+      return ByteBuffer.allocateDirect(0);
+    }
+
+    int blockSize = disk.blockSize();
+    int first = blockIndex(pos);
+    int count = blockIndex(pos + len - 1) - first + 1;
+    if ((long) count * blockSize > Integer.MAX_VALUE) {
+      throw new IOException("can't map " + len + " bytes spanning " + count + " blocks");
+    }
+
+    MappedArea area = mappedArea(first, count);
+    if (area == null) {
+      if (mappedAreas == null) {
+        mappedAreas = new ArrayList<>();
+      } else {
+        mappedAreas.removeIf(a -> !a.isCurrent());
+      }
+      area = new MappedArea(first, disk.map(this, first, count), count);
+      mappedAreas.add(area);
+    }
+    return Blocks.view(area.buffer, (int) (pos - (long) area.first * blockSize), len).slice();
+  }
+
+  /**
+   * Returns the mapped area that still holds the {@code count} blocks of this file starting at
+   * block {@code first}, or null if there's none.
+   */
+  private @Nullable MappedArea mappedArea(int first, int count) {
+    if (mappedAreas != null) {
+      for (MappedArea area : mappedAreas) {
+        if (area.holds(first, count)) {
+          return area;
+        }
+      }
+    }
+    return null;
+  }
+
+  /** A direct buffer that a run of this file's blocks was moved into when they were mapped. */
+  private final class MappedArea {
+
+    final int first;
+    final ByteBuffer buffer;
+
+    /** The blocks sliced from the buffer, which this file held when they were moved. */
+    private final ByteBuffer[] blocks;
+
+    MappedArea(int first, ByteBuffer buffer, int count) {
+      this.first = first;
+      this.buffer = buffer;
+      this.blocks = new ByteBuffer[count];
+      for (int i = 0; i < count; i++) {
+        blocks[i] = block(first + i);
+      }
+    }
+
+    /** Returns whether or not this file still holds the given run of blocks from this area. */
+    boolean holds(int first, int count) {
+      if (first < this.first || first + count > this.first + blocks.length) {
+        return false;
+      }
+      for (int i = first; i < first + count; i++) {
+        if (i >= blockCount || block(i) != blocks[i - this.first]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /** Returns whether or not this file still holds any of the blocks from this area. */
+    boolean isCurrent() {
+      for (int i = 0; i < blocks.length; i++) {
+        if (holds(first + i, 1)) {
+          return true;
+        }
+      }
+      return false;
     }
   }
 
@@ -182,6 +751,28 @@ final class RegularFile extends File {
     return lock;
   }
 
+  /** Returns the table of byte-range locks held on this file, creating it if necessary. */
+  FileLockTable lockTable() {
+    FileLockTable table = lockTable;
+    if (table == null) {
+      synchronized (this) {
+        table = lockTable;
+        if (table == null) {
+          table = lockTable = new FileLockTable();
+        }
+      }
+    }
+    return table;
+  }
+
+  /** Releases the byte-range locks held on this file through the given channel, which is closed. */
+  void releaseLocks(JimfsFileChannel channel) {
+    FileLockTable table = lockTable;
+    if (table != null) {
+      table.releaseAll(channel);
+    }
+  }
+
   // opened/closed/delete don't use the read/write lock... they only need to ensure that they are
   // synchronized among themselves
 
@@ -235,6 +826,7 @@ final class RegularFile extends File {
 
     long lastPosition = size - 1;
     this.size = size;
+    modified();
 
     int newBlockCount = blockIndex(lastPosition) + 1;
     int blocksToRemove = blockCount - newBlockCount;
@@ -245,33 +837,71 @@ final class RegularFile extends File {
     return true;
   }
 
+  /**
+   * Returns the count of modifications to this file's content. If it's the same as when bytes were
+   * read from this file, those bytes haven't changed since.
+   */
+  int modCount() {
+    return modCount;
+  }
+
+  /**
+   * Records a modification to this file's content. Writes that hold the write lock may do so
+   * before writing, since no reads can happen until they're done; in-place writes must do so after.
+   */
+  private void modified() {
+    MOD_COUNT.incrementAndGet(this);
+  }
+
   /** Prepares for a write of len bytes starting at position pos. */
   private void prepareForWrite(long pos, long len) throws IOException {
+    use();
+    modified();
     long end = pos + len;
 
-    // allocate any additional blocks needed
+    // a file that fits in a single small block is given a right-sized block rather than a full one,
+    // which grows as the file does until it's replaced by a full block
+    if (hasSmallBlock()) {
+      if (end > block(0).capacity()) {
+        disk.growSmallBlock(this, (int) min(end, disk.blockSize()));
+      }
+    } else if (blockCount == 0 && len > 0 && end <= disk.maxSmallBlockSize()) {
+      disk.allocateSmall(this, (int) end);
+    }
+
+    // allocate any additional blocks needed for the bytes being written; blocks that lie entirely
+    // between the current size and pos are added as holes rather than being allocated
     int lastBlockIndex = blockCount - 1;
     int endBlockIndex = blockIndex(end - 1);
 
-    if (endBlockIndex > lastBlockIndex) {
-      int additionalBlocksNeeded = endBlockIndex - lastBlockIndex;
-      disk.allocate(this, additionalBlocksNeeded);
+    if (end > 0 && endBlockIndex > lastBlockIndex) {
+      int firstWrittenBlockIndex = len == 0 ? endBlockIndex + 1 : blockIndex(pos);
+      if (firstWrittenBlockIndex > blockCount) {
+        addHoles(firstWrittenBlockIndex - blockCount);
+      }
+
+      int additionalBlocksNeeded = endBlockIndex - blockCount + 1;
+      if (additionalBlocksNeeded > 0) {
+        disk.allocate(this, additionalBlocksNeeded);
+      }
     }
 
-    // zero bytes between current size and pos
+    // zero bytes between current size and pos, other than those in holes
     if (pos > size) {
       long remaining = pos - size;
 
       int blockIndex = blockIndex(size);
-      byte[] block = blocks[blockIndex];
       int off = offsetInBlock(size);
 
-      remaining -= zero(block, off, length(off, remaining));
-
       while (remaining > 0) {
-        block = blocks[++blockIndex];
+        int zeroLen = length(off, remaining);
+        if (block(blockIndex) != null) {
+          zero(blockForWrite(blockIndex), off, zeroLen);
+        }
 
-        remaining -= zero(block, 0, length(remaining));
+        remaining -= zeroLen;
+        blockIndex++;
+        off = 0;
       }
 
       size = pos;
@@ -289,9 +919,9 @@ final class RegularFile extends File {
   public int write(long pos, byte b) throws IOException {
     prepareForWrite(pos, 1);
 
-    byte[] block = blocks[blockIndex(pos)];
+    ByteBuffer block = blockForWrite(blockIndex(pos));
     int off = offsetInBlock(pos);
-    block[off] = b;
+    block.put(off, b);
 
     if (pos >= size) {
       size = pos + 1;
@@ -319,7 +949,7 @@ final class RegularFile extends File {
     int remaining = len;
 
     int blockIndex = blockIndex(pos);
-    byte[] block = blocks[blockIndex];
+    ByteBuffer block = blockForWrite(blockIndex);
     int offInBlock = offsetInBlock(pos);
 
     int written = put(block, offInBlock, b, off, length(offInBlock, remaining));
@@ -327,7 +957,7 @@ final class RegularFile extends File {
     off += written;
 
     while (remaining > 0) {
-      block = blocks[++blockIndex];
+      block = blockForWrite(++blockIndex);
 
       written = put(block, 0, b, off, length(remaining));
       remaining -= written;
@@ -361,13 +991,13 @@ final class RegularFile extends File {
     }
 
     int blockIndex = blockIndex(pos);
-    byte[] block = blocks[blockIndex];
+    ByteBuffer block = blockForWrite(blockIndex);
     int off = offsetInBlock(pos);
 
     put(block, off, buf);
 
     while (buf.hasRemaining()) {
-      block = blocks[++blockIndex];
+      block = blockForWrite(++blockIndex);
 
       put(block, 0, buf);
     }
@@ -380,6 +1010,93 @@ final class RegularFile extends File {
     return len;
   }
 
+  /**
+   * Writes all available bytes from buffer {@code buf} to this file starting at position {@code
+   * pos}, if that can be done without changing the file's size or blocks: the bytes must lie within
+   * the file, in blocks that are allocated and not shared with other files. Returns the number of
+   * bytes written, or -1 without writing anything if the write must instead be done with {@link
+   * #write(long, ByteBuffer)}.
+   *
+   * <p>Unlike the other write methods, this only needs to be called while holding the read lock,
+   * so that in-place writes to different parts of a file can run concurrently. Concurrent in-place
+   * writes to the same blocks are serialized, but a concurrent read of those blocks may see only
+   * part of a write. Blocks can't become shared while the read lock is held, since files are only
+   * copied while holding their write lock.
+   *
+   * @throws IOException if the file's blocks were spilled to disk and reading them back fails
+   */
+  int writeInPlace(long pos, ByteBuffer buf) throws IOException {
+    int len = buf.remaining();
+    if (len == 0 || pos > size - len || hasSharedBlocks) {
+      return -1;
+    }
+
+    use();
+    int firstIndex = blockIndex(pos);
+    int lastIndex = blockIndex(pos + len - 1);
+    for (int i = firstIndex; i <= lastIndex; i++) {
+      if (block(i) == null) {
+        return -1; // the hole needs to be allocated
+      }
+    }
+
+    int stripes = lockWriteStripes(firstIndex, lastIndex);
+    try {
+      put(block(firstIndex), offsetInBlock(pos), buf);
+      for (int i = firstIndex + 1; i <= lastIndex; i++) {
+        put(block(i), 0, buf);
+      }
+      modified();
+    } finally {
+      unlockWriteStripes(stripes);
+    }
+    return len;
+  }
+
+  /**
+   * Locks the write stripes for the given range of blocks, returning a bit set of the stripes that
+   * were locked. Stripes are always locked in order so that concurrent writes can't deadlock.
+   */
+  private int lockWriteStripes(int firstIndex, int lastIndex) {
+    Lock[] locks = writeStripes();
+    int stripes = 0;
+    for (int i = firstIndex; i <= lastIndex && i < firstIndex + locks.length; i++) {
+      stripes |= 1 << (i & (locks.length - 1));
+    }
+    for (int i = 0; i < locks.length; i++) {
+      if ((stripes & (1 << i)) != 0) {
+        locks[i].lock();
+      }
+    }
+    return stripes;
+  }
+
+  private void unlockWriteStripes(int stripes) {
+    Lock[] locks = writeStripes;
+    for (int i = 0; i < locks.length; i++) {
+      if ((stripes & (1 << i)) != 0) {
+        locks[i].unlock();
+      }
+    }
+  }
+
+  private Lock[] writeStripes() {
+    Lock[] locks = writeStripes;
+    if (locks == null) {
+      synchronized (this) {
+        locks = writeStripes;
+        if (locks == null) {
+          locks = new Lock[WRITE_STRIPES];
+          for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+          }
+          writeStripes = locks;
+        }
+      }
+    }
+    return locks;
+  }
+
   /**
    * Writes all available bytes from each buffer in {@code bufs}, in order, to this file starting at
    * position {@code pos}. {@code pos} may be greater than the current size of this file, in which
@@ -402,6 +1119,10 @@ final class RegularFile extends File {
    * {@code pos}. Returns the number of bytes transferred. If {@code pos} is greater than the
    * current size of this file, then no bytes are transferred.
    *
+   * <p>If the channel is a {@link ScatteringByteChannel}, such as a {@link FileChannel}, it's asked
+   * to read into up to {@value #TRANSFER_BLOCKS} blocks at a time, so that a channel to a file on
+   * the default file system can fill them with a single system call.
+   *
    * @throws IOException if the file needs more blocks but the disk is full or if reading from src
    *     throws an exception
    */
@@ -413,83 +1134,112 @@ final class RegularFile extends File {
       return 0;
     }
 
+    use();
+    modified();
+    if (hasSmallBlock() && count > block(0).capacity() - startPos) {
+      // transfer directly to a full block
+      disk.growSmallBlock(this, disk.blockSize());
+    }
+
     long remaining = count;
     long currentPos = startPos;
+    int originalBlockCount = blockCount;
 
     int blockIndex = blockIndex(startPos);
     int off = offsetInBlock(startPos);
 
+    // Since src may have far fewer than count bytes, batches start at a single block and only grow
+    // while src keeps filling them, and never allocate more blocks than the disk has free.
+    ByteBuffer[] bufs =
+        new ByteBuffer[src instanceof ScatteringByteChannel ? transferBatchSize(count) : 1];
+    int batchSize = 1;
     outer:
     while (remaining > 0) {
-      byte[] block = blockForWrite(blockIndex);
+      int bufCount = 0;
+      for (long batched = 0; bufCount < batchSize && batched < remaining; bufCount++) {
+        if (bufCount > 0 && blockIndex >= blockCount && disk.getUnallocatedSpace() == 0) {
+          break;
+        }
+        int len = length(off, remaining - batched);
+        bufs[bufCount] = Blocks.view(blockForWrite(blockIndex++), off, len);
+        batched += len;
+        off = 0;
+      }
 
-      ByteBuffer buf = ByteBuffer.wrap(block, off, length(off, remaining));
-      while (buf.hasRemaining()) {
-        int read = src.read(buf);
+      int first = 0;
+      while (first < bufCount) {
+        long read =
+            src instanceof ScatteringByteChannel
+                ? ((ScatteringByteChannel) src).read(bufs, first, bufCount - first)
+                : src.read(bufs[first]);
         // Note: we stop if we read 0 bytes from the src; even though the src is not at EOF, the
         // spec of transferFrom is to stop immediately when reading from a non-blocking channel that
         // has no bytes available rather than continuing until it reaches EOF. This makes sense
         // because we'd otherwise just spin attempting to read bytes from the src repeatedly.
         if (read < 1) {
-          if (currentPos >= size && buf.position() == 0) {
-            // The current position is at or beyond the end of file (prior to transfer start) and
-            // the current buffer position is 0. This means that a new block must have just been
-            // allocated to hold any potential transferred bytes, but no bytes were transferred to
-            // it because the src had no remaining bytes. So we need to de-allocate that block.
-            // It's possible that it would be preferable to always transfer to a temporary block
-            // first and then copy that block to a newly allocated block when it's full or src
-            // doesn't have any further bytes. Then if we hadn't read anything into the temporary
-            // block, we could simply discard it. But I think this scenario is likely rare enough
-            // that it's fine to temporarily allocate a block that _might_ not get used.
-            disk.free(this, 1);
-          }
           break outer;
         }
 
         currentPos += read;
         remaining -= read;
+        while (first < bufCount && !bufs[first].hasRemaining()) {
+          first++;
+        }
       }
-
-      // Current write block is full
-      blockIndex++;
-      off = 0;
+      batchSize = min(batchSize * 2, bufs.length);
     }
 
     if (currentPos > size) {
       size = currentPos;
     }
 
+    // Blocks may have been allocated past the end of the file for bytes that src turned out not to
+    // have; those need to be freed again.
+    int neededBlockCount = max(originalBlockCount, size == 0 ? 0 : blockIndex(size - 1) + 1);
+    if (blockCount > neededBlockCount) {
+      disk.free(this, blockCount - neededBlockCount);
+    }
+
     return currentPos - startPos;
   }
 
   /**
    * Reads the byte at position {@code pos} in this file as an unsigned integer in the range 0-255.
    * If {@code pos} is greater than or equal to the size of this file, returns -1 instead.
+   *
+   * @throws IOException if the file's blocks were spilled to disk and reading them back fails
    */
-  public int read(long pos) {
+  public int read(long pos) throws IOException {
     if (pos >= size) {
       return -1;
     }
 
-    byte[] block = blocks[blockIndex(pos)];
+    use();
+    ByteBuffer block = block(blockIndex(pos));
+    if (block == null) {
+      return 0;
+    }
     int off = offsetInBlock(pos);
-    return Byte.toUnsignedInt(block[off]);
+    return Byte.toUnsignedInt(block.get(off));
   }
 
   /**
    * Reads up to {@code len} bytes starting at position {@code pos} in this file to the given byte
    * array starting at offset {@code off}. Returns the number of bytes actually read or -1 if {@code
    * pos} is greater than or equal to the size of this file.
+   *
+   * @throws IOException if the file's blocks were spilled to disk and reading them back fails
    */
-  public int read(long pos, byte[] b, int off, int len) {
+  public int read(long pos, byte[] b, int off, int len) throws IOException {
     // since max is len (an int), result is guaranteed to be an int
     int bytesToRead = (int) bytesToRead(pos, len);
 
     if (bytesToRead > 0) {
+      use();
       int remaining = bytesToRead;
 
       int blockIndex = blockIndex(pos);
-      byte[] block = blocks[blockIndex];
+      ByteBuffer block = block(blockIndex);
       int offsetInBlock = offsetInBlock(pos);
 
       int read = get(block, offsetInBlock, b, off, length(offsetInBlock, remaining));
@@ -498,7 +1248,7 @@ final class RegularFile extends File {
 
       while (remaining > 0) {
         int index = ++blockIndex;
-        block = blocks[index];
+        block = block(index);
 
         read = get(block, 0, b, off, length(remaining));
         remaining -= read;
@@ -513,23 +1263,26 @@ final class RegularFile extends File {
    * Reads up to {@code buf.remaining()} bytes starting at position {@code pos} in this file to the
    * given buffer. Returns the number of bytes read or -1 if {@code pos} is greater than or equal to
    * the size of this file.
+   *
+   * @throws IOException if the file's blocks were spilled to disk and reading them back fails
    */
-  public int read(long pos, ByteBuffer buf) {
+  public int read(long pos, ByteBuffer buf) throws IOException {
     // since max is buf.remaining() (an int), result is guaranteed to be an int
     int bytesToRead = (int) bytesToRead(pos, buf.remaining());
 
     if (bytesToRead > 0) {
+      use();
       int remaining = bytesToRead;
 
       int blockIndex = blockIndex(pos);
-      byte[] block = blocks[blockIndex];
+      ByteBuffer block = block(blockIndex);
       int off = offsetInBlock(pos);
 
       remaining -= get(block, off, buf, length(off, remaining));
 
       while (remaining > 0) {
         int index = ++blockIndex;
-        block = blocks[index];
+        block = block(index);
         remaining -= get(block, 0, buf, length(remaining));
       }
     }
@@ -541,8 +1294,10 @@ final class RegularFile extends File {
    * Reads up to the total {@code remaining()} number of bytes in each of {@code bufs} starting at
    * position {@code pos} in this file to the given buffers, in order. Returns the number of bytes
    * read or -1 if {@code pos} is greater than or equal to the size of this file.
+   *
+   * @throws IOException if the file's blocks were spilled to disk and reading them back fails
    */
-  public long read(long pos, Iterable<ByteBuffer> bufs) {
+  public long read(long pos, Iterable<ByteBuffer> bufs) throws IOException {
     if (pos >= size()) {
       return -1;
     }
@@ -566,46 +1321,93 @@ final class RegularFile extends File {
    * methods in this class, this method does not return -1 if {@code pos} is greater than or equal
    * to the current size. This for consistency with {@link FileChannel#transferTo}, which this
    * method is primarily intended as an implementation of.
+   *
+   * <p>If the channel is a {@link GatheringByteChannel}, such as a {@link FileChannel}, it's given
+   * up to {@value #TRANSFER_BLOCKS} blocks per write, so that a channel to a file on the default
+   * file system can write them with a single system call and a channel to another Jimfs file can
+   * copy them while locking that file only once.
    */
   public long transferTo(long pos, long count, WritableByteChannel dest) throws IOException {
     long bytesToRead = bytesToRead(pos, count);
 
     if (bytesToRead > 0) {
+      use();
       long remaining = bytesToRead;
 
       int blockIndex = blockIndex(pos);
-      byte[] block = blocks[blockIndex];
       int off = offsetInBlock(pos);
 
-      ByteBuffer buf = ByteBuffer.wrap(block, off, length(off, remaining));
-      while (buf.hasRemaining()) {
-        remaining -= dest.write(buf);
-      }
-      Java8Compatibility.clear(buf);
-
+      ByteBuffer[] bufs = new ByteBuffer[transferBatchSize(bytesToRead)];
       while (remaining > 0) {
-        int index = ++blockIndex;
-        block = blocks[index];
+        int bufCount = 0;
+        for (long batched = 0; bufCount < bufs.length && batched < remaining; bufCount++) {
+          int len = length(off, remaining - batched);
+          bufs[bufCount] = wrap(block(blockIndex++), off, len);
+          batched += len;
+          off = 0;
+        }
 
-        buf = ByteBuffer.wrap(block, 0, length(remaining));
-        while (buf.hasRemaining()) {
-          remaining -= dest.write(buf);
+        int first = 0;
+        while (first < bufCount) {
+          remaining -=
+              dest instanceof GatheringByteChannel
+                  ? ((GatheringByteChannel) dest).write(bufs, first, bufCount - first)
+                  : dest.write(bufs[first]);
+          while (first < bufCount && !bufs[first].hasRemaining()) {
+            first++;
+          }
         }
-        Java8Compatibility.clear(buf);
       }
     }
 
     return max(bytesToRead, 0); // don't return -1 for this method
   }
 
-  /** Gets the block at the given index, expanding to create the block if necessary. */
-  private byte[] blockForWrite(int index) throws IOException {
+  /**
+   * Returns the number of blocks to transfer at a time when transferring {@code count} bytes, which
+   * may span one more block than {@code count} would fill.
+   */
+  private int transferBatchSize(long count) {
+    return (int) min(TRANSFER_BLOCKS, count / disk.blockSize() + 2);
+  }
+
+  /**
+   * Returns the first position at or after {@code pos} that is not in a hole, or the current size
+   * if there is no such position. This is analogous to {@code lseek} with {@code SEEK_DATA}.
+   */
+  public long nextData(long pos) {
+    while (pos < size && getBlock(blockIndex(pos)) == null) {
+      pos = (blockIndex(pos) + 1L) * disk.blockSize();
+    }
+    return min(pos, size);
+  }
+
+  /**
+   * Returns the first position at or after {@code pos} that is in a hole, or the current size if
+   * there is no such position. This is analogous to {@code lseek} with {@code SEEK_HOLE}.
+   */
+  public long nextHole(long pos) {
+    while (pos < size && getBlock(blockIndex(pos)) != null) {
+      pos = (blockIndex(pos) + 1L) * disk.blockSize();
+    }
+    return min(pos, size);
+  }
+
+  /**
+   * Gets the block at the given index for writing, expanding to create the block if necessary,
+   * allocating it if it's a hole and unsharing it if it's shared with another file.
+   */
+  private ByteBuffer blockForWrite(int index) throws IOException {
     if (index >= blockCount) {
       int additionalBlocksNeeded = index - blockCount + 1;
       disk.allocate(this, additionalBlocksNeeded);
+    } else if (block(index) == null) {
+      disk.fillHole(this, index);
+    } else if (hasSharedBlocks) {
+      disk.unshare(this, index);
     }
 
-    return blocks[index];
+    return block(index);
   }
 
   private int blockIndex(long position) {
@@ -637,35 +1439,56 @@ final class RegularFile extends File {
   }
 
   /** Zeroes len bytes in the given block starting at the given offset. Returns len. */
-  private static int zero(byte[] block, int offset, int len) {
-    Util.zero(block, offset, len);
+  private static int zero(ByteBuffer block, int offset, int len) {
+    Blocks.zero(block, offset, len);
     return len;
   }
 
   /** Puts the given slice of the given array at the given offset in the given block. */
-  private static int put(byte[] block, int offset, byte[] b, int off, int len) {
-    System.arraycopy(b, off, block, offset, len);
+  private static int put(ByteBuffer block, int offset, byte[] b, int off, int len) {
+    Blocks.put(block, offset, b, off, len);
     return len;
   }
 
   /** Puts the contents of the given byte buffer at the given offset in the given block. */
-  private static void put(byte[] block, int offset, ByteBuffer buf) {
-    int len = min(block.length - offset, buf.remaining());
-    buf.get(block, offset, len);
+  private static void put(ByteBuffer block, int offset, ByteBuffer buf) {
+    int len = min(block.capacity() - offset, buf.remaining());
+    Blocks.put(block, offset, buf, len);
   }
 
   /**
    * Reads len bytes starting at the given offset in the given block into the given slice of the
-   * given byte array.
+   * given byte array. A null block is a hole, and reads as zeros.
    */
-  private static int get(byte[] block, int offset, byte[] b, int off, int len) {
-    System.arraycopy(block, offset, b, off, len);
+  private static int get(@Nullable ByteBuffer block, int offset, byte[] b, int off, int len) {
+    if (block == null) {
+      Util.zero(b, off, len);
+    } else {
+      Blocks.get(block, offset, b, off, len);
+    }
     return len;
   }
 
-  /** Reads len bytes starting at the given offset in the given block into the given byte buffer. */
-  private static int get(byte[] block, int offset, ByteBuffer buf, int len) {
-    buf.put(block, offset, len);
+  /**
+   * Reads len bytes starting at the given offset in the given block into the given byte buffer. A
+   * null block is a hole, and reads as zeros.
+   */
+  private static int get(@Nullable ByteBuffer block, int offset, ByteBuffer buf, int len) {
+    if (block == null) {
+      for (int remaining = len; remaining > 0; remaining -= ZEROS.length) {
+        buf.put(ZEROS, 0, min(remaining, ZEROS.length));
+      }
+    } else {
+      Blocks.get(block, offset, buf, len);
+    }
     return len;
   }
+
+  /**
+   * Wraps the given slice of the given block in a buffer. A null block is a hole, so a buffer of
+   * zeros is returned instead.
+   */
+  private static ByteBuffer wrap(@Nullable ByteBuffer block, int off, int len) {
+    return block == null ? ByteBuffer.allocate(len) : Blocks.view(block, off, len);
+  }
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.primitives.Ints;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A temporary file on the real file system that blocks are spilled to when a {@link HeapDisk} uses
+ * more heap than it's allowed to. The file is divided into block-sized slots; slots are reused once
+ * the blocks in them are read back or freed.
+ *
+ * <p>A spilled block is replaced in its file by a placeholder: a 4-byte heap buffer holding the
+ * index of the slot it was written to. Like compressed blocks, placeholders are marked as encoded
+ * by the file that holds them, so they're never mistaken for blocks of file content.
+ *
+ * <p>The file is created when the first block is spilled and deleted when the last file system
+ * using it is closed. Several file systems may use the same spill file, since {@linkplain
+ * Jimfs#fork forks} share their disk with the file system they were forked from.
+ */
+final class SpillFile {
+
+  private final Path directory;
+  private final int blockSize;
+
+  // all guarded by this
+  private @Nullable Path path;
+  // not a FileChannel, since interrupting a thread using one would close it for all files
+  private @Nullable RandomAccessFile file;
+  private int users;
+  private boolean closed;
+  private int slotCount;
+  private int[] freeSlots = new int[16];
+  private int freeSlotCount;
+  // the content of a direct block, which RandomAccessFile can only read or write as an array
+  private byte @Nullable [] buffer;
+
+  SpillFile(Path directory, int blockSize) {
+    this.directory = checkNotNull(directory);
+    this.blockSize = blockSize;
+  }
+
+  /** Returns the placeholder for a block spilled to the given slot. */
+  static ByteBuffer placeholder(int slot) {
+    return ByteBuffer.wrap(Ints.toByteArray(slot));
+  }
+
+  /** Returns the slot that the block the given placeholder stands in for was spilled to. */
+  static int slot(ByteBuffer placeholder) {
+    return placeholder.getInt(0);
+  }
+
+  /** Returns the number of blocks currently spilled to this file. */
+  synchronized int spilledBlockCount() {
+    return slotCount - freeSlotCount;
+  }
+
+  /** Registers a user of this file, which must {@linkplain #release() release} it when done. */
+  synchronized void retain() {
+    users++;
+  }
+
+  /**
+   * Releases a user of this file. When the last user releases it, the file is closed and deleted,
+   * and blocks can't be spilled to or read from it after that.
+   */
+  synchronized void release() throws IOException {
+    if (--users > 0) {
+      return;
+    }
+
+    closed = true;
+    if (file != null) {
+      try {
+        file.close();
+      } finally {
+        Files.deleteIfExists(path);
+        file = null;
+      }
+    }
+  }
+
+  /** Writes the given full block to a free slot in this file, returning its placeholder. */
+  synchronized ByteBuffer spill(ByteBuffer block) throws IOException {
+    checkOpen();
+    if (file == null) {
+      path = Files.createTempFile(directory, "jimfs", ".spill");
+      file = new RandomAccessFile(path.toFile(), "rw");
+    }
+
+    int slot = freeSlotCount > 0 ? freeSlots[--freeSlotCount] : slotCount++;
+    try {
+      file.seek(slot * (long) blockSize);
+      if (block.hasArray()) {
+        file.write(block.array(), block.arrayOffset(), blockSize);
+      } else {
+        Blocks.get(block, 0, buffer(), 0, blockSize);
+        file.write(buffer, 0, blockSize);
+      }
+    } catch (IOException e) {
+      free(slot);
+      throw e;
+    }
+    return placeholder(slot);
+  }
+
+  /**
+   * Reads the block that the given placeholder stands in for into the given full block, freeing
+   * its slot.
+   */
+  synchronized void read(ByteBuffer placeholder, ByteBuffer block) throws IOException {
+    checkOpen();
+    int slot = slot(placeholder);
+    file.seek(slot * (long) blockSize);
+    if (block.hasArray()) {
+      file.readFully(block.array(), block.arrayOffset(), blockSize);
+    } else {
+      file.readFully(buffer(), 0, blockSize);
+      Blocks.put(block, 0, buffer, 0, blockSize);
+    }
+    free(slot);
+  }
+
+  /** Frees the slot holding the block that the given placeholder stands in for. */
+  synchronized void free(ByteBuffer placeholder) {
+    free(slot(placeholder));
+  }
+
+  private byte[] buffer() {
+    if (buffer == null) {
+      buffer = new byte[blockSize];
+    }
+    return buffer;
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("spill file is closed");
+    }
+  }
+
+  private void free(int slot) {
+    if (freeSlotCount == freeSlots.length) {
+      freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+    }
+    freeSlots[freeSlotCount++] = slot;
+  }
+}
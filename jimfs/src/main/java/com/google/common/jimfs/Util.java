@@ -74,7 +74,7 @@ final class Util {
 
   private static final int ARRAY_LEN = 8192;
   private static final byte[] ZERO_ARRAY = new byte[ARRAY_LEN];
-  private static final byte[][] NULL_ARRAY = new byte[ARRAY_LEN][];
+  private static final Object[] NULL_ARRAY = new Object[ARRAY_LEN];
 
   /** Zeroes all bytes between off (inclusive) and off + len (exclusive) in the given array. */
   static void zero(byte[] bytes, int off, int len) {
@@ -95,7 +95,7 @@ final class Util {
    * Clears (sets to null) all blocks between off (inclusive) and off + len (exclusive) in the given
    * array.
    */
-  static void clear(byte[][] blocks, int off, int len) {
+  static void clear(Object[] blocks, int off, int len) {
     // this is significantly faster than looping or Arrays.fill (which loops), particularly when
     // the length of the slice to be cleared is <= to ARRAY_LEN (in that case, it's faster by a
     // factor of 2)
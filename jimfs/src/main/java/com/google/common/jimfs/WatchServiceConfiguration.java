@@ -44,6 +44,21 @@ public abstract class WatchServiceConfiguration {
     return new PollingConfig(interval, timeUnit);
   }
 
+  /**
+   * Returns a configuration for a {@link WatchService} that posts events to watch keys immediately
+   * as changes are made to watched directories, rather than periodically polling them for changes.
+   * Watched directories that aren't changing have no cost.
+   *
+   * <p>Unlike with a {@linkplain #polling polling} watch service, a key continues to watch the
+   * directory it was registered for if that directory is moved, and each change to a file in a
+   * watched directory posts an event rather than changes being coalesced between polls.
+   *
+   * @since 1.4
+   */
+  public static WatchServiceConfiguration eventDriven() {
+    return EventDrivenConfig.INSTANCE;
+  }
+
   WatchServiceConfiguration() {}
 
   /** Creates a new {@link AbstractWatchService} implementation. */
@@ -73,4 +88,20 @@ public abstract class WatchServiceConfiguration {
       return "WatchServiceConfiguration.polling(" + interval + ", " + timeUnit + ")";
     }
   }
+
+  /** Implementation for {@link #eventDriven}. */
+  private static final class EventDrivenConfig extends WatchServiceConfiguration {
+
+    static final EventDrivenConfig INSTANCE = new EventDrivenConfig();
+
+    @Override
+    AbstractWatchService newWatchService(FileSystemView view, PathService pathService) {
+      return new EventDrivenWatchService(view, pathService, view.state());
+    }
+
+    @Override
+    public String toString() {
+      return "WatchServiceConfiguration.eventDriven()";
+    }
+  }
 }
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for compression of cold files by {@link BlockCompressor}. */
+@RunWith(JUnit4.class)
+public class BlockCompressorTest {
+
+  private static final int BLOCK_SIZE = 1024;
+
+  private final FakeFileTimeSource fileTimeSource = new FakeFileTimeSource();
+
+  private HeapDisk disk;
+  private RegularFile file;
+
+  @Before
+  public void setUp() {
+    Configuration config =
+        Configuration.unix().toBuilder()
+            .setBlockSize(BLOCK_SIZE)
+            .setMaxSize(BLOCK_SIZE * 100)
+            .setColdFileCompressionDelay(1, HOURS)
+            .build();
+    disk = new HeapDisk(config);
+    file = RegularFile.create(0, fileTimeSource.now(), disk);
+  }
+
+  @Test
+  public void testCompressAndDecompress() throws IOException {
+    byte[] content = compressibleBytes(BLOCK_SIZE * 3 + 10);
+    file.write(0, content, 0, content.length);
+    long unallocated = disk.getUnallocatedSpace();
+
+    assertThat(file.compress()).isTrue();
+    assertThat(file.isCompressed()).isTrue();
+    for (int i = 0; i < 3; i++) {
+      assertThat(file.getBlock(i).capacity()).isLessThan(BLOCK_SIZE);
+    }
+    // compressed blocks remain allocated
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(unallocated);
+    assertThat(statistic("compressedBlockCount")).isEqualTo(4);
+    assertThat(statistic("uncompressedSize")).isEqualTo(BLOCK_SIZE * 4L);
+    assertThat((long) statistic("compressedSize")).isLessThan(BLOCK_SIZE * 4L);
+    assertThat(statistic("compressionHitRate")).isEqualTo(1.0);
+
+    byte[] read = new byte[content.length];
+    file.read(0, read, 0, read.length);
+
+    assertThat(read).isEqualTo(content);
+    assertThat(file.isCompressed()).isFalse();
+    assertThat(file.getBlock(0).capacity()).isEqualTo(BLOCK_SIZE);
+    assertThat(statistic("compressedBlockCount")).isEqualTo(0);
+    assertThat(statistic("compressedSize")).isEqualTo(0L);
+    assertThat(statistic("decompressions")).isEqualTo(4L);
+  }
+
+  @Test
+  public void testCompressedSingleBlockIsNotSmallBlock() throws IOException {
+    byte[] content = compressibleBytes(BLOCK_SIZE);
+    file.write(0, content, 0, content.length);
+    long unallocated = disk.getUnallocatedSpace();
+
+    assertThat(file.compress()).isTrue();
+
+    // the compressed block is shorter than a full block, but the file knows it's compressed
+    assertThat(file.isEncoded(0)).isTrue();
+    assertThat(file.hasSmallBlock()).isFalse();
+
+    disk.free(file);
+    assertThat(statistic("compressedBlockCount")).isEqualTo(0);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(unallocated + BLOCK_SIZE);
+  }
+
+  @Test
+  public void testCompressAndDecompress_directStorage() throws IOException {
+    Configuration config =
+        Configuration.unix().toBuilder()
+            .setBlockSize(BLOCK_SIZE)
+            .setBlockStorage(BlockStorage.DIRECT)
+            .setColdFileCompressionDelay(1, HOURS)
+            .build();
+    RegularFile file = RegularFile.create(0, fileTimeSource.now(), new HeapDisk(config));
+    byte[] content = compressibleBytes(BLOCK_SIZE * 2);
+    file.write(0, content, 0, content.length);
+
+    assertThat(file.compress()).isTrue();
+
+    byte[] read = new byte[content.length];
+    file.read(0, read, 0, read.length);
+    assertThat(read).isEqualTo(content);
+    assertThat(file.getBlock(0).isDirect()).isTrue();
+  }
+
+  @Test
+  public void testWriteToCompressedFile() throws IOException {
+    byte[] content = compressibleBytes(BLOCK_SIZE * 2);
+    file.write(0, content, 0, content.length);
+    file.compress();
+
+    file.write(BLOCK_SIZE, (byte) -1);
+
+    assertThat(file.isCompressed()).isFalse();
+    content[BLOCK_SIZE] = -1;
+    byte[] read = new byte[content.length];
+    file.read(0, read, 0, read.length);
+    assertThat(read).isEqualTo(content);
+  }
+
+  @Test
+  public void testIncompressibleBlocksAreNotCompressed() throws IOException {
+    byte[] content = new byte[BLOCK_SIZE * 2];
+    new Random(0).nextBytes(content);
+    byte[] compressible = compressibleBytes(BLOCK_SIZE);
+    System.arraycopy(compressible, 0, content, 0, BLOCK_SIZE);
+    file.write(0, content, 0, content.length);
+
+    assertThat(file.compress()).isTrue();
+
+    assertThat(file.getBlock(0).capacity()).isLessThan(BLOCK_SIZE);
+    assertThat(file.getBlock(1).capacity()).isEqualTo(BLOCK_SIZE);
+    assertThat(statistic("compressionAttempts")).isEqualTo(2L);
+    assertThat(statistic("compressionHits")).isEqualTo(1L);
+    assertThat(statistic("compressionHitRate")).isEqualTo(0.5);
+
+    byte[] read = new byte[content.length];
+    file.read(0, read, 0, read.length);
+    assertThat(read).isEqualTo(content);
+  }
+
+  @Test
+  public void testTruncateAndFreeCompressedFile() throws IOException {
+    long emptySpace = disk.getUnallocatedSpace();
+    byte[] content = compressibleBytes(BLOCK_SIZE * 4);
+    file.write(0, content, 0, content.length);
+    file.compress();
+
+    file.truncate(BLOCK_SIZE * 2);
+
+    assertThat(file.isCompressed()).isTrue();
+    assertThat(statistic("compressedBlockCount")).isEqualTo(2);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(emptySpace - BLOCK_SIZE * 2);
+
+    disk.free(file);
+
+    assertThat(file.isCompressed()).isFalse();
+    assertThat(statistic("compressedBlockCount")).isEqualTo(0);
+    assertThat(statistic("compressedSize")).isEqualTo(0L);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(emptySpace);
+    // compressed blocks aren't cached
+    assertThat(disk.cachedBlockCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testFilesWithSharedOrSmallBlocksAreNotCompressed() throws IOException {
+    file.write(0, (byte) 1);
+    assertThat(file.hasSmallBlock()).isTrue();
+    assertThat(file.compress()).isFalse();
+
+    byte[] content = compressibleBytes(BLOCK_SIZE * 2);
+    file.write(0, content, 0, content.length);
+    RegularFile copy = RegularFile.create(1, fileTimeSource.now(), disk);
+    file.copyContentTo(copy);
+    assertThat(file.compress()).isFalse();
+    assertThat(copy.compress()).isFalse();
+  }
+
+  @Test
+  public void testCompressIfCold() throws IOException {
+    byte[] content = compressibleBytes(BLOCK_SIZE);
+    file.write(0, content, 0, content.length);
+
+    // the file was used in the current epoch
+    assertThat(file.compressIfCold()).isFalse();
+  }
+
+  @Test
+  public void testNoStatisticsWithoutCompression() throws IOException {
+    try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix())) {
+      FileStore store = fs.getFileStores().iterator().next();
+      assertThrows(
+          UnsupportedOperationException.class, () -> store.getAttribute("jimfs:compressedSize"));
+    }
+  }
+
+  @Test
+  public void testColdFilesAreCompressedInTheBackground() throws Exception {
+    Configuration config =
+        Configuration.unix().toBuilder()
+            .setBlockSize(BLOCK_SIZE)
+            .setColdFileCompressionDelay(1, MILLISECONDS)
+            .build();
+    try (FileSystem fs = Jimfs.newFileSystem(config)) {
+      FileStore store = fs.getFileStores().iterator().next();
+      byte[] content = compressibleBytes(BLOCK_SIZE * 10);
+      Path path = Files.write(fs.getPath("/log"), content);
+
+      long deadline = System.nanoTime() + MILLISECONDS.toNanos(10000);
+      while ((int) store.getAttribute("jimfs:compressedBlockCount") < 10) {
+        assertThat(System.nanoTime()).isLessThan(deadline);
+        Thread.sleep(1);
+      }
+      assertThat((long) store.getAttribute("jimfs:compressedSize")).isLessThan(BLOCK_SIZE * 10L);
+
+      assertThat(Files.readAllBytes(path)).isEqualTo(content);
+      assertThat((long) store.getAttribute("jimfs:decompressions")).isAtLeast(10L);
+    }
+  }
+
+  private Object statistic(String name) {
+    return disk.compressor().getStatistic(name);
+  }
+
+  private static byte[] compressibleBytes(int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) (i % 7);
+    }
+    return bytes;
+  }
+}
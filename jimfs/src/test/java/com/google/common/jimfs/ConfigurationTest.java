@@ -35,6 +35,7 @@ import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.WatchService;
 import java.nio.file.attribute.PosixFilePermissions;
 import org.junit.Test;
@@ -67,6 +68,7 @@ public class ConfigurationTest {
     assertThat(config.blockSize).isEqualTo(8192);
     assertThat(config.maxSize).isEqualTo(4L * 1024 * 1024 * 1024);
     assertThat(config.maxCacheSize).isEqualTo(-1);
+    assertThat(config.maxInlineFileSize).isEqualTo(-1);
     assertThat(config.attributeViews).containsExactly("basic");
     assertThat(config.attributeProviders).isEmpty();
     assertThat(config.defaultAttributeValues).isEmpty();
@@ -174,8 +176,10 @@ public class ConfigurationTest {
             .setNameDisplayNormalization(NFC)
             .setPathEqualityUsesCanonicalForm(true)
             .setBlockSize(10)
+            .setBlockStorage(BlockStorage.DIRECT)
             .setMaxSize(100)
             .setMaxCacheSize(50)
+            .setMaxInlineFileSize(5)
             .setAttributeViews("basic", "posix")
             .addAttributeProvider(unixProvider)
             .setDefaultAttributeValue(
@@ -190,8 +194,10 @@ public class ConfigurationTest {
     assertThat(config.nameDisplayNormalization).containsExactly(NFC);
     assertThat(config.pathEqualityUsesCanonicalForm).isTrue();
     assertThat(config.blockSize).isEqualTo(10);
+    assertThat(config.blockStorage).isEqualTo(BlockStorage.DIRECT);
     assertThat(config.maxSize).isEqualTo(100);
     assertThat(config.maxCacheSize).isEqualTo(50);
+    assertThat(config.maxInlineFileSize).isEqualTo(5);
     assertThat(config.attributeViews).containsExactly("basic", "posix");
     assertThat(config.attributeProviders).containsExactly(unixProvider);
     assertThat(config.defaultAttributeValues)
@@ -251,6 +257,7 @@ public class ConfigurationTest {
     assertThat(config.nameDisplayNormalization).isEmpty();
     assertThat(config.pathEqualityUsesCanonicalForm).isFalse();
     assertThat(config.blockSize).isEqualTo(8192);
+    assertThat(config.blockStorage).isEqualTo(BlockStorage.HEAP);
     assertThat(config.maxSize).isEqualTo(4L * 1024 * 1024 * 1024);
     assertThat(config.maxCacheSize).isEqualTo(-1);
     assertThat(config.attributeViews).containsExactly("basic", "posix");
@@ -308,6 +315,18 @@ public class ConfigurationTest {
         () -> Configuration.unix().toBuilder().setDefaultAttributeValue("foo", 1));
   }
 
+  @Test
+  public void testSpillToDisk_maxHeapSizeSmallerThanBlockSize() {
+    Path directory = Paths.get("spill");
+    Configuration.Builder builder =
+        Configuration.unix().toBuilder().setBlockSize(8192).setSpillToDisk(directory, 8191);
+    assertThrows(IllegalArgumentException.class, builder::build);
+
+    // the block size may be set after the spill settings
+    assertThat(builder.setBlockSize(4096).build().maxHeapSize).isEqualTo(8191);
+    assertThat(builder.setSpillToDisk(directory, 4096).build().maxHeapSize).isEqualTo(4096);
+  }
+
   @Test // how's that for a name?
   public void testCreateFileSystemFromConfigurationWithWorkingDirectoryNotUnderConfiguredRoot() {
     assertThrows(
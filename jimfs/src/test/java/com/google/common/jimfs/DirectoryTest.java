@@ -84,6 +84,19 @@ public class DirectoryTest {
     assertThat(root.get(Name.simple("Foo"))).isNull();
   }
 
+  @Test
+  public void testGet_whileHoldingEntriesLock() {
+    dir.lockEntries();
+    try {
+      File bar = createDirectory(2);
+      dir.link(Name.simple("bar"), bar);
+      assertThat(dir.get(Name.simple("bar"))).isEqualTo(entry(dir, "bar", bar));
+    } finally {
+      dir.unlockEntries();
+    }
+    assertThat(dir.get(Name.simple("bar"))).isNotNull();
+  }
+
   @Test
   public void testLink() {
     assertThat(dir.get(Name.simple("bar"))).isNull();
@@ -206,6 +219,15 @@ public class DirectoryTest {
         .inOrder();
   }
 
+  @Test
+  public void testEntries() {
+    RegularFile bar = regularFile(10);
+    root.link(Name.simple("bar"), bar);
+
+    // does not include . or ..
+    assertThat(root.entries()).containsExactly(entry(root, "foo", dir), entry(root, "bar", bar));
+  }
+
   @Test
   public void testSnapshot_sortsUsingStringAndNotCanonicalValueOfNames() {
     dir.link(caseInsensitive("FOO"), regularFile(10));
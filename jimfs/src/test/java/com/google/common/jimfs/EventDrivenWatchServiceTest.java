@@ -0,0 +1,215 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.jimfs.AbstractWatchService.Event;
+import com.google.common.jimfs.AbstractWatchService.Key;
+import com.google.common.util.concurrent.Runnables;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.util.UUID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link EventDrivenWatchService}.
+ */
+@RunWith(JUnit4.class)
+public class EventDrivenWatchServiceTest {
+
+  private JimfsFileSystem fs;
+  private EventDrivenWatchService watcher;
+
+  @Before
+  public void setUp() {
+    fs = (JimfsFileSystem) Jimfs.newFileSystem(Configuration.unix());
+    watcher =
+        new EventDrivenWatchService(
+            fs.getDefaultView(),
+            fs.getPathService(),
+            new FileSystemState(new FakeFileTimeSource(), Runnables.doNothing()));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    watcher.close();
+    fs.close();
+    watcher = null;
+    fs = null;
+  }
+
+  @Test
+  public void testRegister() throws IOException {
+    Key key = watcher.register(createDirectory(), ImmutableList.of(ENTRY_CREATE));
+    assertThat(key.isValid()).isTrue();
+    assertThat(watcher.watchCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testRegister_fileDoesNotExist() throws IOException {
+    assertThrows(
+        NoSuchFileException.class,
+        () -> watcher.register(fs.getPath("/a/b/c"), ImmutableList.of(ENTRY_CREATE)));
+    assertThat(watcher.watchCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testRegister_fileIsNotDirectory() throws IOException {
+    Path path = fs.getPath("/a.txt");
+    Files.createFile(path);
+    assertThrows(
+        NotDirectoryException.class, () -> watcher.register(path, ImmutableList.of(ENTRY_CREATE)));
+  }
+
+  @Test
+  public void testCancelStopsWatching() throws IOException {
+    JimfsPath path = createDirectory();
+    Files.createFile(path.resolve("foo"));
+    Key key = watcher.register(path, ImmutableList.of(ENTRY_CREATE, ENTRY_MODIFY));
+    key.cancel();
+
+    assertThat(key.isValid()).isFalse();
+    assertThat(watcher.watchCount()).isEqualTo(0);
+
+    Files.createFile(path.resolve("bar"));
+    Files.write(path.resolve("foo"), "hello".getBytes(UTF_8));
+    assertThat(watcher.poll()).isNull();
+
+    assertThat(getFile(path).observers()).isEmpty();
+    assertThat(getFile(path.resolve("foo")).observers()).isEmpty();
+  }
+
+  @Test
+  public void testCloseCancelsAllKeys() throws IOException {
+    Key key1 = watcher.register(createDirectory(), ImmutableList.of(ENTRY_CREATE));
+    Key key2 = watcher.register(createDirectory(), ImmutableList.of(ENTRY_DELETE));
+
+    watcher.close();
+
+    assertThat(key1.isValid()).isFalse();
+    assertThat(key2.isValid()).isFalse();
+    assertThat(watcher.watchCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testDeletingDirectoryCancelsKey() throws IOException {
+    JimfsPath path = createDirectory();
+    Key key = watcher.register(path, ImmutableList.of(ENTRY_CREATE));
+
+    Files.delete(path);
+
+    assertThat(key.isValid()).isFalse();
+    assertThat(watcher.watchCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testMovingDirectoryKeepsWatching() throws IOException, InterruptedException {
+    JimfsPath path = createDirectory();
+    Key key = watcher.register(path, ImmutableList.of(ENTRY_CREATE));
+
+    Path moved = Files.move(path, fs.getPath("/moved"));
+    Files.createFile(moved.resolve("foo"));
+
+    assertThat(key.isValid()).isTrue();
+    assertWatcherHasEvents(new Event<>(ENTRY_CREATE, 1, fs.getPath("foo")));
+  }
+
+  @Test
+  public void testWatchForOneEventType() throws IOException, InterruptedException {
+    JimfsPath path = createDirectory();
+    watcher.register(path, ImmutableList.of(ENTRY_CREATE));
+
+    Files.createFile(path.resolve("foo"));
+
+    // events are posted immediately, without waiting for a poll
+    assertWatcherHasEvents(new Event<>(ENTRY_CREATE, 1, fs.getPath("foo")));
+
+    Files.createFile(path.resolve("bar"));
+    Files.delete(path.resolve("bar"));
+    Files.createFile(path.resolve("baz"));
+
+    assertWatcherHasEvents(
+        new Event<>(ENTRY_CREATE, 1, fs.getPath("bar")),
+        new Event<>(ENTRY_CREATE, 1, fs.getPath("baz")));
+  }
+
+  @Test
+  public void testWatchForMultipleEventTypes() throws IOException, InterruptedException {
+    JimfsPath path = createDirectory();
+    Files.createFile(path.resolve("existing"));
+    watcher.register(path, ImmutableList.of(ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY));
+
+    Files.createDirectory(path.resolve("foo"));
+    Files.createFile(path.resolve("bar"));
+    Files.write(path.resolve("existing"), "hello".getBytes(UTF_8));
+
+    assertWatcherHasEvents(
+        new Event<>(ENTRY_CREATE, 1, fs.getPath("foo")),
+        new Event<>(ENTRY_CREATE, 1, fs.getPath("bar")),
+        new Event<>(ENTRY_MODIFY, 1, fs.getPath("existing")));
+
+    Files.createFile(path.resolve("foo/bar"));
+    Files.move(path.resolve("bar"), path.resolve("baz"));
+    Files.write(path.resolve("baz"), "hello".getBytes(UTF_8));
+    Files.delete(path.resolve("foo/bar"));
+    Files.delete(path.resolve("foo"));
+
+    assertWatcherHasEvents(
+        new Event<>(ENTRY_MODIFY, 1, fs.getPath("foo")),
+        new Event<>(ENTRY_DELETE, 1, fs.getPath("bar")),
+        new Event<>(ENTRY_CREATE, 1, fs.getPath("baz")),
+        new Event<>(ENTRY_MODIFY, 1, fs.getPath("baz")),
+        new Event<>(ENTRY_MODIFY, 1, fs.getPath("foo")),
+        new Event<>(ENTRY_DELETE, 1, fs.getPath("foo")));
+
+    // the renamed file is no longer watched under its old name
+    assertThat(getFile(path.resolve("baz")).observers()).hasSize(1);
+  }
+
+  private void assertWatcherHasEvents(WatchEvent<?>... events) throws InterruptedException {
+    WatchKey key = watcher.poll();
+    assertThat(key).isNotNull();
+    assertThat(key.pollEvents()).containsExactlyElementsIn(events).inOrder();
+    key.reset();
+  }
+
+  private File getFile(JimfsPath path) throws IOException {
+    return fs.getDefaultView().lookUpWithLock(path, Options.NOFOLLOW_LINKS).file();
+  }
+
+  private JimfsPath createDirectory() throws IOException {
+    JimfsPath path = fs.getPath("/" + UUID.randomUUID().toString());
+    Files.createDirectory(path);
+    return path;
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link FileContentView}. */
+@RunWith(JUnit4.class)
+public class FileContentViewTest {
+
+  private static final int BLOCK_SIZE = 1024;
+
+  private FileSystem fs;
+  private FileStore store;
+  private Path path;
+  private byte[] content;
+
+  @Before
+  public void setUp() throws IOException {
+    fs = Jimfs.newFileSystem(Configuration.unix().toBuilder().setBlockSize(BLOCK_SIZE).build());
+    store = fs.getFileStores().iterator().next();
+    content = randomBytes(BLOCK_SIZE * 3 + 100);
+    path = Files.write(fs.getPath("/file"), content);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    fs.close();
+  }
+
+  @Test
+  public void testWholeFile() throws IOException {
+    try (FileContentView view = Jimfs.readOnlyView(path)) {
+      assertThat(view.size()).isEqualTo(content.length);
+      ByteBuffer[] buffers = view.buffers();
+      assertThat(buffers).hasLength(4);
+      for (ByteBuffer buffer : buffers) {
+        assertThat(buffer.isReadOnly()).isTrue();
+        assertThat(buffer.remaining()).isAtMost(BLOCK_SIZE);
+      }
+      assertThat(bytes(buffers)).isEqualTo(content);
+    }
+  }
+
+  @Test
+  public void testRange() throws IOException {
+    try (FileContentView view = Jimfs.readOnlyView(path, BLOCK_SIZE - 10, BLOCK_SIZE + 20)) {
+      assertThat(view.size()).isEqualTo(BLOCK_SIZE + 20);
+      assertThat(view.buffers()).hasLength(3);
+      assertThat(bytes(view.buffers()))
+          .isEqualTo(Arrays.copyOfRange(content, BLOCK_SIZE - 10, BLOCK_SIZE * 2 + 10));
+    }
+
+    try (FileContentView view = Jimfs.readOnlyView(path, BLOCK_SIZE * 3 + 50, 1000)) {
+      assertThat(view.size()).isEqualTo(50);
+      assertThat(bytes(view.buffers()))
+          .isEqualTo(Arrays.copyOfRange(content, BLOCK_SIZE * 3 + 50, content.length));
+    }
+
+    try (FileContentView view = Jimfs.readOnlyView(path, content.length, 10)) {
+      assertThat(view.size()).isEqualTo(0);
+      assertThat(view.buffers()).isEmpty();
+    }
+  }
+
+  @Test
+  public void testEachCallReturnsNewBuffers() throws IOException {
+    try (FileContentView view = Jimfs.readOnlyView(path)) {
+      byte[] first = bytes(view.buffers());
+      assertThat(bytes(view.buffers())).isEqualTo(first);
+    }
+  }
+
+  @Test
+  public void testViewIsSnapshot() throws IOException {
+    try (FileContentView view = Jimfs.readOnlyView(path)) {
+      try (FileChannel channel = FileChannel.open(path, WRITE)) {
+        channel.write(ByteBuffer.wrap(new byte[BLOCK_SIZE]), 10);
+        channel.truncate(BLOCK_SIZE);
+      }
+      assertThat(bytes(view.buffers())).isEqualTo(content);
+
+      Files.delete(path);
+      assertThat(bytes(view.buffers())).isEqualTo(content);
+    }
+  }
+
+  @Test
+  public void testViewHoldsStorageUntilClosed() throws IOException {
+    Files.delete(path);
+    long emptySpace = store.getUnallocatedSpace();
+    path = Files.write(path, content);
+
+    FileContentView view = Jimfs.readOnlyView(path, BLOCK_SIZE, BLOCK_SIZE * 2);
+    Files.delete(path);
+    // only the two viewed blocks are still in use
+    assertThat(store.getUnallocatedSpace()).isEqualTo(emptySpace - BLOCK_SIZE * 2);
+
+    view.close();
+    assertThat(store.getUnallocatedSpace()).isEqualTo(emptySpace);
+    assertThrows(IllegalStateException.class, view::buffers);
+    view.close(); // does nothing
+  }
+
+  @Test
+  public void testHolesAreZeros() throws IOException {
+    Path sparse = fs.getPath("/sparse");
+    try (FileChannel channel = FileChannel.open(sparse, CREATE, WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {1}), BLOCK_SIZE * 3);
+    }
+
+    try (FileContentView view = Jimfs.readOnlyView(sparse)) {
+      byte[] expected = new byte[BLOCK_SIZE * 3 + 1];
+      expected[BLOCK_SIZE * 3] = 1;
+      assertThat(bytes(view.buffers())).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void testHolesAreZeros_largeBlocks() throws IOException {
+    int blockSize = 32768;
+    try (FileSystem largeBlocks =
+        Jimfs.newFileSystem(Configuration.unix().toBuilder().setBlockSize(blockSize).build())) {
+      Path sparse = largeBlocks.getPath("/sparse");
+      try (FileChannel channel = FileChannel.open(sparse, CREATE, WRITE)) {
+        channel.write(ByteBuffer.wrap(new byte[] {1}), blockSize + 10);
+      }
+
+      try (FileContentView view = Jimfs.readOnlyView(sparse, 100, Long.MAX_VALUE)) {
+        byte[] expected = new byte[blockSize + 11 - 100];
+        expected[expected.length - 1] = 1;
+        assertThat(bytes(view.buffers())).isEqualTo(expected);
+      }
+    }
+  }
+
+  @Test
+  public void testBadPaths() throws IOException {
+    assertThrows(IllegalArgumentException.class, () -> Jimfs.readOnlyView(Paths.get("file")));
+    assertThrows(IllegalArgumentException.class, () -> Jimfs.readOnlyView(path, -1, 10));
+    assertThrows(NoSuchFileException.class, () -> Jimfs.readOnlyView(fs.getPath("/missing")));
+    assertThrows(FileSystemException.class, () -> Jimfs.readOnlyView(fs.getPath("/")));
+  }
+
+  private static byte[] bytes(ByteBuffer[] buffers) {
+    int length = 0;
+    for (ByteBuffer buffer : buffers) {
+      length += buffer.remaining();
+    }
+    ByteBuffer result = ByteBuffer.allocate(length);
+    for (ByteBuffer buffer : buffers) {
+      result.put(buffer);
+    }
+    return result.array();
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(0).nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.jimfs.PathSubject.paths;
+import static com.google.common.jimfs.TestUtils.bytes;
+import static com.google.common.jimfs.TestUtils.preFilledBytes;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for saving file systems to images and loading them with {@link FileSystemImage}. */
+@RunWith(JUnit4.class)
+public class FileSystemImageTest {
+
+  private static final Configuration UNIX_CONFIGURATION =
+      Configuration.unix().toBuilder()
+          .setAttributeViews("basic", "owner", "posix", "unix", "acl", "user")
+          .build();
+
+  private FileSystem fs;
+  private FileSystem imageFs;
+  private Path image;
+
+  @Before
+  public void setUp() {
+    fs = Jimfs.newFileSystem(UNIX_CONFIGURATION);
+    imageFs = Jimfs.newFileSystem(Configuration.unix());
+    image = imageFs.getPath("/image");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    fs.close();
+    imageFs.close();
+  }
+
+  @Test
+  public void testSaveAndLoad() throws IOException {
+    Files.createDirectories(fs.getPath("/foo/bar"));
+    Files.write(fs.getPath("/foo/bar/baz.txt"), preFilledBytes(10000));
+    Files.createFile(fs.getPath("/foo/empty.txt"));
+    Files.createLink(fs.getPath("/foo/link.txt"), fs.getPath("/foo/bar/baz.txt"));
+    Files.createSymbolicLink(fs.getPath("/foo/symlink"), fs.getPath("bar"));
+    Files.createFile(fs.getPath("/work/relative.txt"));
+
+    FileTime time = FileTime.fromMillis(123456789);
+    Files.setLastModifiedTime(fs.getPath("/foo/bar/baz.txt"), time);
+    Files.setAttribute(fs.getPath("/foo/bar"), "creationTime", time);
+    Files.setAttribute(
+        fs.getPath("/foo"), "posix:permissions", PosixFilePermissions.fromString("rwx------"));
+    UserPrincipal user = fs.getUserPrincipalLookupService().lookupPrincipalByName("user");
+    Files.setOwner(fs.getPath("/foo/empty.txt"), user);
+    Files.getFileAttributeView(fs.getPath("/foo/empty.txt"), UserDefinedFileAttributeView.class)
+        .write("test", UTF_8.encode("hello"));
+    AclEntry aclEntry =
+        AclEntry.newBuilder()
+            .setType(AclEntryType.ALLOW)
+            .setPrincipal(user)
+            .setPermissions(AclEntryPermission.READ_DATA, AclEntryPermission.WRITE_DATA)
+            .build();
+    Files.getFileAttributeView(fs.getPath("/foo/empty.txt"), AclFileAttributeView.class)
+        .setAcl(ImmutableList.of(aclEntry));
+
+    Jimfs.saveImage(fs, image);
+
+    try (FileSystem loaded = Jimfs.loadImage(image, UNIX_CONFIGURATION)) {
+      assertThatPath(loaded.getPath("/foo")).hasChildren("bar", "empty.txt", "link.txt", "symlink");
+      assertThatPath(loaded.getPath("/foo/bar/baz.txt"))
+          .containsBytes(preFilledBytes(10000))
+          .and()
+          .attribute("lastModifiedTime")
+          .is(time);
+      assertThatPath(loaded.getPath("/foo/bar")).attribute("creationTime").is(time);
+      assertThatPath(loaded.getPath("/foo"))
+          .attribute("posix:permissions")
+          .is(PosixFilePermissions.fromString("rwx------"));
+      assertThatPath(loaded.getPath("/foo/empty.txt"))
+          .containsNoBytes()
+          .and()
+          .attribute("owner:owner")
+          .is(user)
+          .and()
+          .attribute("user:test")
+          .is("hello".getBytes(UTF_8))
+          .and()
+          .attribute("acl:acl")
+          .is(ImmutableList.of(aclEntry));
+      assertThatPath(loaded.getPath("/foo/link.txt"))
+          .isSameFileAs(loaded.getPath("/foo/bar/baz.txt"))
+          .and()
+          .hasLinkCount(2);
+      assertThatPath(loaded.getPath("/foo/symlink"))
+          .noFollowLinks()
+          .isSymbolicLink()
+          .withTarget("bar");
+      assertThatPath(loaded.getPath("/foo/symlink/baz.txt")).containsBytes(preFilledBytes(10000));
+      assertThatPath(loaded.getPath("relative.txt")).isRegularFile();
+    }
+  }
+
+  @Test
+  public void testSaveAndLoad_sparseFile() throws IOException {
+    int blockSize = 8192;
+    try (SeekableByteChannel channel =
+        Files.newByteChannel(fs.getPath("/sparse"), CREATE_NEW, WRITE)) {
+      channel.position(blockSize * 100L);
+      channel.write(ByteBuffer.wrap(bytes("1")));
+      channel.position(blockSize * 200L);
+      channel.write(ByteBuffer.wrap(bytes("2")));
+    }
+
+    Jimfs.saveImage(fs, image);
+    assertThat(Files.size(image)).isLessThan(blockSize * 4L);
+
+    try (FileSystem loaded = Jimfs.loadImage(image, UNIX_CONFIGURATION)) {
+      FileStore store = loaded.getFileStores().iterator().next();
+      long unallocatedSpace = store.getUnallocatedSpace();
+      assertThat(store.getTotalSpace() - unallocatedSpace).isEqualTo(blockSize * 2L);
+
+      byte[] expected = new byte[blockSize * 200 + 1];
+      expected[blockSize * 100] = 1;
+      expected[blockSize * 200] = 2;
+      assertThatPath(loaded.getPath("/sparse")).containsBytes(expected);
+    }
+  }
+
+  @Test
+  public void testLoad_differentConfiguration() throws IOException {
+    Files.write(fs.getPath("/foo"), "hello".getBytes(UTF_8));
+    Files.setAttribute(fs.getPath("/foo"), "user:test", "test".getBytes(UTF_8));
+
+    Jimfs.saveImage(fs, image);
+
+    Configuration config =
+        Configuration.unix().toBuilder().setBlockSize(16).setWorkingDirectory("/foo2").build();
+    try (FileSystem loaded = Jimfs.loadImage(image, "loaded", config)) {
+      assertThat(loaded.provider().getScheme()).isEqualTo("jimfs");
+      assertThatPath(loaded.getPath("/foo")).containsBytes("hello".getBytes(UTF_8));
+      assertThatPath(loaded.getPath("/work")).isDirectory();
+      assertThatPath(loaded.getPath("/foo2")).isDirectory();
+    }
+  }
+
+  @Test
+  public void testLoad_rootNotInConfiguration() throws IOException {
+    try (FileSystem windows = Jimfs.newFileSystem(Configuration.windows())) {
+      Jimfs.saveImage(windows, image);
+    }
+
+    assertThrows(IOException.class, () -> Jimfs.loadImage(image, UNIX_CONFIGURATION));
+  }
+
+  @Test
+  public void testLoad_invalidImage() throws IOException {
+    Files.write(image, "not an image".getBytes(UTF_8));
+    assertThrows(IOException.class, () -> Jimfs.loadImage(image, UNIX_CONFIGURATION));
+
+    Jimfs.saveImage(fs, image);
+    byte[] bytes = Files.readAllBytes(image);
+    Files.write(image, Arrays.copyOf(bytes, bytes.length - 1));
+    assertThrows(IOException.class, () -> Jimfs.loadImage(image, UNIX_CONFIGURATION));
+  }
+
+  @Test
+  public void testSave_notJimfs() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> Jimfs.saveImage(FileSystems.getDefault(), image));
+  }
+
+  private static PathSubject assertThatPath(Path path) {
+    return assertAbout(paths()).that(path);
+  }
+}
@@ -19,9 +19,15 @@ package com.google.common.jimfs;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertThrows;
 
+import com.google.common.collect.Sets;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -52,7 +58,7 @@ public class HeapDiskTest {
     assertThat(disk.blockSize()).isEqualTo(8192);
     assertThat(disk.getTotalSpace()).isEqualTo(819200);
     assertThat(disk.getUnallocatedSpace()).isEqualTo(819200);
-    assertThat(disk.blockCache.blockCount()).isEqualTo(0);
+    assertThat(disk.cachedBlockCount()).isEqualTo(0);
   }
 
   @Test
@@ -69,7 +75,7 @@ public class HeapDiskTest {
     assertThat(disk.blockSize()).isEqualTo(4);
     assertThat(disk.getTotalSpace()).isEqualTo(96);
     assertThat(disk.getUnallocatedSpace()).isEqualTo(96);
-    assertThat(disk.blockCache.blockCount()).isEqualTo(0);
+    assertThat(disk.cachedBlockCount()).isEqualTo(0);
   }
 
   @Test
@@ -79,17 +85,17 @@ public class HeapDiskTest {
     disk.allocate(blocks, 1);
 
     assertThat(blocks.blockCount()).isEqualTo(1);
-    assertThat(blocks.getBlock(0).length).isEqualTo(4);
+    assertThat(blocks.getBlock(0).capacity()).isEqualTo(4);
     assertThat(disk.getUnallocatedSpace()).isEqualTo(36);
 
     disk.allocate(blocks, 5);
 
     assertThat(blocks.blockCount()).isEqualTo(6);
     for (int i = 0; i < blocks.blockCount(); i++) {
-      assertThat(blocks.getBlock(i).length).isEqualTo(4);
+      assertThat(blocks.getBlock(i).capacity()).isEqualTo(4);
     }
     assertThat(disk.getUnallocatedSpace()).isEqualTo(16);
-    assertThat(disk.blockCache.blockCount()).isEqualTo(0);
+    assertThat(disk.cachedBlockCount()).isEqualTo(0);
   }
 
   @Test
@@ -100,13 +106,13 @@ public class HeapDiskTest {
     disk.free(blocks, 2);
     assertThat(blocks.blockCount()).isEqualTo(4);
     assertThat(disk.getUnallocatedSpace()).isEqualTo(24);
-    assertThat(disk.blockCache.blockCount()).isEqualTo(0);
+    assertThat(disk.cachedBlockCount()).isEqualTo(0);
 
     disk.free(blocks);
 
     assertThat(blocks.blockCount()).isEqualTo(0);
     assertThat(disk.getUnallocatedSpace()).isEqualTo(40);
-    assertThat(disk.blockCache.blockCount()).isEqualTo(0);
+    assertThat(disk.cachedBlockCount()).isEqualTo(0);
   }
 
   @Test
@@ -118,13 +124,13 @@ public class HeapDiskTest {
 
     assertThat(blocks.blockCount()).isEqualTo(4);
     assertThat(disk.getUnallocatedSpace()).isEqualTo(24);
-    assertThat(disk.blockCache.blockCount()).isEqualTo(2);
+    assertThat(disk.cachedBlockCount()).isEqualTo(2);
 
     disk.free(blocks);
 
     assertThat(blocks.blockCount()).isEqualTo(0);
     assertThat(disk.getUnallocatedSpace()).isEqualTo(40);
-    assertThat(disk.blockCache.blockCount()).isEqualTo(6);
+    assertThat(disk.cachedBlockCount()).isEqualTo(6);
   }
 
   @Test
@@ -136,40 +142,36 @@ public class HeapDiskTest {
 
     assertThat(blocks.blockCount()).isEqualTo(4);
     assertThat(disk.getUnallocatedSpace()).isEqualTo(24);
-    assertThat(disk.blockCache.blockCount()).isEqualTo(2);
+    assertThat(disk.cachedBlockCount()).isEqualTo(2);
 
     disk.free(blocks);
 
     assertThat(blocks.blockCount()).isEqualTo(0);
     assertThat(disk.getUnallocatedSpace()).isEqualTo(40);
-    assertThat(disk.blockCache.blockCount()).isEqualTo(4);
+    assertThat(disk.cachedBlockCount()).isEqualTo(4);
   }
 
   @Test
   public void testAllocateFromCache_fullAllocationFromCache() throws IOException {
     HeapDisk disk = new HeapDisk(4, 10, 10);
     disk.allocate(blocks, 10);
+    Set<ByteBuffer> allocatedBlocks = blockSet(blocks, 0, 10);
 
     assertThat(disk.getUnallocatedSpace()).isEqualTo(0);
 
     disk.free(blocks);
 
     assertThat(blocks.blockCount()).isEqualTo(0);
-    assertThat(disk.blockCache.blockCount()).isEqualTo(10);
-
-    List<byte[]> cachedBlocks = new ArrayList<>();
-    for (int i = 0; i < 10; i++) {
-      cachedBlocks.add(disk.blockCache.getBlock(i));
-    }
+    assertThat(disk.cachedBlockCount()).isEqualTo(10);
 
     disk.allocate(blocks, 6);
 
     assertThat(blocks.blockCount()).isEqualTo(6);
-    assertThat(disk.blockCache.blockCount()).isEqualTo(4);
+    assertThat(disk.cachedBlockCount()).isEqualTo(4);
 
-    // the 6 arrays in blocks are the last 6 arrays that were cached
+    // all 6 arrays in blocks came from the cache
     for (int i = 0; i < 6; i++) {
-      assertThat(blocks.getBlock(i)).isEqualTo(cachedBlocks.get(i + 4));
+      assertThat(allocatedBlocks).contains(blocks.getBlock(i));
     }
   }
 
@@ -177,28 +179,127 @@ public class HeapDiskTest {
   public void testAllocateFromCache_partialAllocationFromCache() throws IOException {
     HeapDisk disk = new HeapDisk(4, 10, 4);
     disk.allocate(blocks, 10);
+    // only the first 4 blocks fit in the cache when they're freed
+    Set<ByteBuffer> cachedBlocks = blockSet(blocks, 0, 4);
 
     assertThat(disk.getUnallocatedSpace()).isEqualTo(0);
 
     disk.free(blocks);
 
     assertThat(blocks.blockCount()).isEqualTo(0);
-    assertThat(disk.blockCache.blockCount()).isEqualTo(4);
-
-    List<byte[]> cachedBlocks = new ArrayList<>();
-    for (int i = 0; i < 4; i++) {
-      cachedBlocks.add(disk.blockCache.getBlock(i));
-    }
+    assertThat(disk.cachedBlockCount()).isEqualTo(4);
 
     disk.allocate(blocks, 6);
 
     assertThat(blocks.blockCount()).isEqualTo(6);
-    assertThat(disk.blockCache.blockCount()).isEqualTo(0);
+    assertThat(disk.cachedBlockCount()).isEqualTo(0);
+
+    // 4 of the arrays in blocks are the 4 arrays that were cached
+    assertThat(blockSet(blocks, 0, 6)).containsAtLeastElementsIn(cachedBlocks);
+  }
+
+  @Test
+  public void testTrim() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10);
+    disk.allocate(blocks, 6);
+    disk.free(blocks, 4);
+
+    assertThat(disk.trim()).isEqualTo(4);
+
+    assertThat(disk.cachedBlockCount()).isEqualTo(0);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(32);
+    assertThat(disk.trim()).isEqualTo(0);
+
+    disk.allocate(blocks, 8);
+    assertThat(blocks.blockCount()).isEqualTo(10);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(0);
+  }
+
+  @Test
+  public void testTrimIfIdle() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10);
+    disk.allocate(blocks, 6);
+    disk.free(blocks, 4);
+    disk.allocate(blocks, 1);
 
-    // the last 4 arrays in blocks are the 4 arrays that were cached
-    for (int i = 2; i < 6; i++) {
-      assertThat(blocks.getBlock(i)).isEqualTo(cachedBlocks.get(i - 2));
+    // a block was taken from the cache since the last check
+    assertThat(disk.trimIfIdle()).isEqualTo(0);
+    assertThat(disk.cachedBlockCount()).isEqualTo(3);
+
+    disk.free(blocks, 1);
+
+    // but not since this check
+    assertThat(disk.trimIfIdle()).isEqualTo(4);
+    assertThat(disk.cachedBlockCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testConcurrentAllocateAndFree() throws Exception {
+    HeapDisk disk = new HeapDisk(4, 1000, 100);
+    int threadCount = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < threadCount; t++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  RegularFile file = RegularFile.create(-1, fileTimeSource.now(), disk);
+                  for (int i = 0; i < 1000; i++) {
+                    disk.allocate(file, 1 + i % 100);
+                    disk.free(file, 1 + i % 50);
+                    disk.free(file);
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
     }
+
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(4000);
+    assertThat(disk.cachedBlockCount()).isAtMost(100);
+  }
+
+  @Test
+  public void testConcurrentFree_sharedBlocks() throws Exception {
+    HeapDisk disk = new HeapDisk(4, 1000, 100);
+    RegularFile source = RegularFile.create(-1, fileTimeSource.now(), disk);
+    disk.allocate(source, 10);
+    int threadCount = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < threadCount; t++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < 1000; i++) {
+                    RegularFile copy = RegularFile.create(-1, fileTimeSource.now(), disk);
+                    disk.share(source, copy);
+                    // each copy frees some blocks of its own along with the shared ones
+                    disk.unshare(copy, i % 10);
+                    copy.addHoles(1);
+                    disk.allocate(copy, 1);
+                    disk.free(copy, 5);
+                    disk.free(copy);
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(3960);
+    disk.free(source);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(4000);
   }
 
   @Test
@@ -220,4 +321,381 @@ public class HeapDiskTest {
 
     assertThat(blocks2.blockCount()).isEqualTo(0);
   }
+
+  @Test
+  public void testShare() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10);
+    disk.allocate(blocks, 3);
+
+    RegularFile copy = RegularFile.create(-1, fileTimeSource.now(), disk);
+    disk.share(blocks, copy);
+
+    assertThat(copy.blockCount()).isEqualTo(3);
+    for (int i = 0; i < 3; i++) {
+      assertThat(copy.getBlock(i)).isSameInstanceAs(blocks.getBlock(i));
+    }
+    // shared blocks are only allocated once
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(28);
+  }
+
+  @Test
+  public void testUnshare() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10);
+    disk.allocate(blocks, 3);
+    RegularFile copy = RegularFile.create(-1, fileTimeSource.now(), disk);
+    disk.share(blocks, copy);
+
+    ByteBuffer block = blocks.getBlock(1);
+    disk.unshare(copy, 1);
+
+    assertThat(copy.getBlock(1)).isNotSameInstanceAs(block);
+    assertThat(blocks.getBlock(1)).isSameInstanceAs(block);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(24);
+
+    // the block is now only used by the original file, so it doesn't need to be unshared again
+    disk.unshare(blocks, 1);
+    assertThat(blocks.getBlock(1)).isSameInstanceAs(block);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(24);
+  }
+
+  @Test
+  public void testUnshare_clearsSharedBlocksOnceNoneAreShared() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10);
+    disk.allocate(blocks, 3);
+    RegularFile copy = RegularFile.create(-1, fileTimeSource.now(), disk);
+    disk.share(blocks, copy);
+
+    disk.unshare(copy, 0);
+    disk.unshare(copy, 0);
+    assertThat(copy.hasSharedBlocks()).isTrue();
+
+    disk.free(blocks);
+    assertThat(copy.hasSharedBlocks()).isTrue();
+
+    // the next write finds that the copy's blocks are no longer shared
+    disk.unshare(copy, 1);
+    assertThat(copy.hasSharedBlocks()).isFalse();
+  }
+
+  @Test
+  public void testFree_clearsSharedBlocksOnceNoneAreShared() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10);
+    disk.allocate(blocks, 3);
+    RegularFile copy = RegularFile.create(-1, fileTimeSource.now(), disk);
+    disk.share(blocks, copy);
+
+    disk.free(blocks, 1);
+    assertThat(blocks.hasSharedBlocks()).isTrue();
+
+    disk.free(copy);
+    disk.free(blocks, 1);
+    assertThat(blocks.hasSharedBlocks()).isFalse();
+  }
+
+  @Test
+  public void testUnshare_outOfSpace() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 3, 10);
+    disk.allocate(blocks, 3);
+    RegularFile copy = RegularFile.create(-1, fileTimeSource.now(), disk);
+    disk.share(blocks, copy);
+
+    assertThrows(IOException.class, () -> disk.unshare(copy, 0));
+  }
+
+  @Test
+  public void testFree_sharedBlocks() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10);
+    disk.allocate(blocks, 3);
+    RegularFile copy = RegularFile.create(-1, fileTimeSource.now(), disk);
+    disk.share(blocks, copy);
+    disk.unshare(copy, 0);
+
+    disk.free(blocks);
+
+    // only the block that was no longer shared was actually freed
+    assertThat(blocks.blockCount()).isEqualTo(0);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(28);
+    assertThat(disk.cachedBlockCount()).isEqualTo(1);
+
+    disk.free(copy);
+
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(40);
+    assertThat(disk.cachedBlockCount()).isEqualTo(4);
+  }
+
+  @Test
+  public void testFillHole() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10);
+    disk.allocate(blocks, 1);
+    blocks.getBlock(0).put(0, (byte) 1);
+    disk.free(blocks);
+
+    blocks.addHoles(2);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(40);
+
+    disk.fillHole(blocks, 1);
+
+    assertThat(blocks.getBlock(0)).isNull();
+    // the cached block was reused, but it must be zeroed since it's within the file
+    assertThat(blocks.getBlock(1)).isEqualTo(ByteBuffer.allocate(4));
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(36);
+    assertThat(disk.cachedBlockCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testFree_holes() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10);
+    blocks.addHoles(2);
+    disk.allocate(blocks, 1);
+    blocks.addHoles(1);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(36);
+
+    disk.free(blocks);
+
+    assertThat(blocks.blockCount()).isEqualTo(0);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(40);
+    assertThat(disk.cachedBlockCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testSmallBlocks() throws IOException {
+    HeapDisk disk = new HeapDisk(256, 10, 10);
+    assertThat(disk.maxSmallBlockSize()).isEqualTo(128);
+
+    disk.allocateSmall(blocks, 20);
+    assertThat(blocks.getBlock(0).capacity()).isEqualTo(32);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(2304);
+
+    blocks.getBlock(0).put(0, (byte) 1);
+    disk.growSmallBlock(blocks, 100);
+    assertThat(blocks.getBlock(0).capacity()).isEqualTo(128);
+    assertThat(blocks.getBlock(0).get(0)).isEqualTo(1);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(2304);
+
+    disk.growSmallBlock(blocks, 129);
+    assertThat(blocks.getBlock(0).capacity()).isEqualTo(256);
+    assertThat(blocks.getBlock(0).get(0)).isEqualTo(1);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(2304);
+  }
+
+  @Test
+  public void testSmallBlocks_notCached() throws IOException {
+    HeapDisk disk = new HeapDisk(256, 10, 10);
+    disk.allocateSmall(blocks, 1);
+
+    disk.free(blocks);
+
+    assertThat(blocks.blockCount()).isEqualTo(0);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(2560);
+    assertThat(disk.cachedBlockCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testSmallBlocks_growShared() throws IOException {
+    HeapDisk disk = new HeapDisk(256, 10, 10);
+    disk.allocateSmall(blocks, 1);
+    RegularFile copy = RegularFile.create(-1, fileTimeSource.now(), disk);
+    disk.share(blocks, copy);
+
+    ByteBuffer block = blocks.getBlock(0);
+    disk.growSmallBlock(copy, 32);
+
+    assertThat(copy.getBlock(0).capacity()).isEqualTo(32);
+    assertThat(blocks.getBlock(0)).isSameInstanceAs(block);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(2048);
+  }
+
+  @Test
+  public void testSmallBlocks_disabledForTinyBlockSize() {
+    assertThat(new HeapDisk(32, 10, 10).maxSmallBlockSize()).isEqualTo(0);
+  }
+
+  @Test
+  public void testDirectStorage() throws IOException {
+    HeapDisk disk = new HeapDisk(256, 10, 10, BlockStorage.DIRECT);
+    assertThat(disk.blockStorage()).isEqualTo(BlockStorage.DIRECT);
+
+    disk.allocate(blocks, 2);
+    assertThat(blocks.getBlock(0).isDirect()).isTrue();
+    assertThat(blocks.getBlock(0).capacity()).isEqualTo(256);
+    assertThat(blocks.getBlock(1).isDirect()).isTrue();
+
+    // blocks are sliced from the same chunk, so they must not overlap
+    blocks.getBlock(0).put(255, (byte) 1);
+    assertThat(blocks.getBlock(1).get(0)).isEqualTo(0);
+
+    // freed blocks are cached and reused as with heap storage
+    ByteBuffer block = blocks.getBlock(1);
+    disk.free(blocks, 1);
+    disk.allocate(blocks, 1);
+    assertThat(blocks.getBlock(1)).isSameInstanceAs(block);
+    disk.free(blocks);
+
+    // small blocks stay on the heap
+    disk.allocateSmall(blocks, 20);
+    assertThat(blocks.getBlock(0).isDirect()).isFalse();
+    disk.growSmallBlock(blocks, 200);
+    assertThat(blocks.getBlock(0).isDirect()).isTrue();
+  }
+
+  @Test
+  public void testSmallBlocks_fromConfiguration() throws IOException {
+    Configuration.Builder builder = Configuration.unix().toBuilder().setMaxSize(8192 * 10);
+    assertThat(new HeapDisk(builder.build()).maxSmallBlockSize()).isEqualTo(4096);
+    assertThat(new HeapDisk(builder.setMaxInlineFileSize(0).build()).maxSmallBlockSize())
+        .isEqualTo(0);
+    assertThat(new HeapDisk(builder.setMaxInlineFileSize(100_000).build()).maxSmallBlockSize())
+        .isEqualTo(8191);
+
+    HeapDisk disk = new HeapDisk(builder.setMaxInlineFileSize(100).build());
+    assertThat(disk.maxSmallBlockSize()).isEqualTo(100);
+
+    // small blocks are never larger than the maximum
+    disk.allocateSmall(blocks, 90);
+    assertThat(blocks.getBlock(0).capacity()).isEqualTo(100);
+  }
+
+  @Test
+  public void testDeduplicate() throws IOException {
+    HeapDisk disk = new HeapDisk(deduplicatingConfig(4, 10));
+    RegularFile file1 = RegularFile.create(-1, fileTimeSource.now(), disk);
+    RegularFile file2 = RegularFile.create(-1, fileTimeSource.now(), disk);
+    disk.allocate(file1, 2);
+    disk.allocate(file2, 3);
+    fill(file1.getBlock(0), 1);
+    fill(file1.getBlock(1), 2);
+    fill(file2.getBlock(0), 2);
+    fill(file2.getBlock(1), 3);
+    fill(file2.getBlock(2), 1);
+
+    disk.deduplicate(file1);
+
+    // the blocks have no duplicates yet, so they aren't interned
+    assertThat(file1.hasSharedBlocks()).isFalse();
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(20);
+
+    disk.deduplicate(file2);
+    // file1 was queued to use the blocks of file2 that turned out to be duplicates
+    disk.deduplicatePendingFiles();
+
+    assertThat(file2.getBlock(0)).isSameInstanceAs(file1.getBlock(1));
+    assertThat(file2.getBlock(2)).isSameInstanceAs(file1.getBlock(0));
+    assertThat(file1.hasSharedBlocks()).isTrue();
+    assertThat(file2.hasSharedBlocks()).isTrue();
+    // the duplicate blocks were freed
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(28);
+    assertThat(disk.cachedBlockCount()).isEqualTo(2);
+
+    disk.free(file1);
+    disk.free(file2);
+
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(40);
+  }
+
+  @Test
+  public void testDeduplicate_unshareInternedBlock() throws IOException {
+    HeapDisk disk = new HeapDisk(deduplicatingConfig(4, 10));
+    RegularFile file1 = RegularFile.create(-1, fileTimeSource.now(), disk);
+    RegularFile file2 = RegularFile.create(-1, fileTimeSource.now(), disk);
+    disk.allocate(file1, 1);
+    disk.allocate(file2, 1);
+    fill(file1.getBlock(0), 1);
+    fill(file2.getBlock(0), 1);
+    disk.deduplicate(file1);
+    disk.deduplicate(file2);
+    disk.deduplicatePendingFiles();
+    ByteBuffer interned = file1.getBlock(0);
+
+    disk.unshare(file2, 0);
+
+    // the block is still interned, so file2 gets a copy of it
+    assertThat(file2.getBlock(0)).isNotSameInstanceAs(interned);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(32);
+
+    disk.unshare(file1, 0);
+
+    // file1 was the only file using the interned block, so it takes the block out of the table
+    assertThat(file1.getBlock(0)).isSameInstanceAs(interned);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(32);
+
+    // and writing to it doesn't affect later deduplication
+    fill(file1.getBlock(0), 5);
+    disk.deduplicate(file2);
+    assertThat(file2.getBlock(0)).isNotSameInstanceAs(interned);
+  }
+
+  @Test
+  public void testDeduplicate_duplicatesInSameFile() throws IOException {
+    HeapDisk disk = new HeapDisk(deduplicatingConfig(4, 10));
+    RegularFile file = RegularFile.create(-1, fileTimeSource.now(), disk);
+    disk.allocate(file, 3);
+    fill(file.getBlock(0), 1);
+    fill(file.getBlock(1), 2);
+    fill(file.getBlock(2), 1);
+
+    disk.deduplicate(file);
+
+    assertThat(file.getBlock(2)).isSameInstanceAs(file.getBlock(0));
+    assertThat(file.getBlock(1)).isNotSameInstanceAs(file.getBlock(0));
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(32);
+
+    disk.free(file);
+
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(40);
+  }
+
+  @Test
+  public void testDeduplicate_skipsModifiedFile() throws IOException {
+    HeapDisk disk = new HeapDisk(deduplicatingConfig(4, 10));
+    RegularFile file1 = RegularFile.create(-1, fileTimeSource.now(), disk);
+    RegularFile file2 = RegularFile.create(-1, fileTimeSource.now(), disk);
+    file1.write(0, new byte[] {1, 1, 1, 1}, 0, 4);
+    file2.write(0, new byte[] {1, 1, 1, 1}, 0, 4);
+    disk.deduplicate(file1);
+
+    // the candidate block changed since file1 was deduplicated, so it's not a duplicate anymore
+    file1.write(0, (byte) 2);
+    disk.deduplicate(file2);
+
+    assertThat(file2.hasSharedBlocks()).isFalse();
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(32);
+  }
+
+  @Test
+  public void testDeduplicate_disabled() throws IOException {
+    HeapDisk disk = new HeapDisk(4, 10, 10);
+    RegularFile file1 = RegularFile.create(-1, fileTimeSource.now(), disk);
+    RegularFile file2 = RegularFile.create(-1, fileTimeSource.now(), disk);
+    disk.allocate(file1, 1);
+    disk.allocate(file2, 1);
+
+    disk.deduplicate(file1);
+    disk.deduplicate(file2);
+
+    assertThat(disk.deduplicatesBlocks()).isFalse();
+    assertThat(file2.getBlock(0)).isNotSameInstanceAs(file1.getBlock(0));
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(32);
+  }
+
+  private static Configuration deduplicatingConfig(int blockSize, int blockCount) {
+    return Configuration.unix().toBuilder()
+        .setBlockSize(blockSize)
+        .setMaxSize(blockSize * blockCount)
+        .setBlockDeduplication(true)
+        .build();
+  }
+
+  private static void fill(ByteBuffer block, int value) {
+    for (int i = 0; i < block.capacity(); i++) {
+      block.put(i, (byte) value);
+    }
+  }
+
+  private static Set<ByteBuffer> blockSet(RegularFile file, int from, int to) {
+    Set<ByteBuffer> set = Sets.newIdentityHashSet();
+    for (int i = from; i < to; i++) {
+      set.add(file.getBlock(i));
+    }
+    return set;
+  }
 }
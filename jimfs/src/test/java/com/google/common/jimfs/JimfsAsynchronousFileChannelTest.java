@@ -26,10 +26,13 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.Runnables;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.Uninterruptibles;
@@ -40,10 +43,12 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.CompletionHandler;
 import java.nio.channels.FileLock;
 import java.nio.file.OpenOption;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -58,12 +63,18 @@ public class JimfsAsynchronousFileChannelTest {
 
   private static JimfsAsynchronousFileChannel channel(
       RegularFile file, ExecutorService executor, OpenOption... options) throws IOException {
+    return channel(file, executor, false, options);
+  }
+
+  private static JimfsAsynchronousFileChannel channel(
+      RegularFile file, ExecutorService executor, boolean direct, OpenOption... options)
+      throws IOException {
     JimfsFileChannel channel =
         new JimfsFileChannel(
             file,
             Options.getOptionsForChannel(ImmutableSet.copyOf(options)),
             new FileSystemState(new FakeFileTimeSource(), Runnables.doNothing()));
-    return new JimfsAsynchronousFileChannel(channel, executor);
+    return new JimfsAsynchronousFileChannel(channel, executor, direct);
   }
 
   /**
@@ -112,6 +123,129 @@ public class JimfsAsynchronousFileChannelTest {
     }
   }
 
+  @Test
+  public void testDirectChannel() throws Throwable {
+    RegularFile file = regularFile(15);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    JimfsAsynchronousFileChannel channel = channel(file, executor, true, READ, WRITE);
+
+    try {
+      ListenableFuture<Integer> write = channel.write(buffer("1234567890"), 0);
+      assertThat(write.isDone()).isTrue();
+      assertThat(write.get()).isEqualTo(10);
+
+      ListenableFuture<Integer> read = channel.read(ByteBuffer.allocate(20), 0);
+      assertThat(read.isDone()).isTrue();
+      assertThat(read.get()).isEqualTo(15);
+
+      // completion handlers are still called from the executor
+      checkAsyncRead(channel);
+      checkAsyncWrite(channel);
+
+      channel.close();
+      assertClosed(channel.read(ByteBuffer.allocate(10), 0));
+      assertClosed(channel.write(ByteBuffer.allocate(10), 0));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testDirectChannel_usesExecutorWhenFileIsLocked() throws Throwable {
+    RegularFile file = regularFile(15);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    JimfsAsynchronousFileChannel channel = channel(file, executor, true, READ, WRITE);
+
+    try {
+      CountDownLatch release = new CountDownLatch(1);
+      holdLock(file.writeLock(), release);
+      ListenableFuture<Integer> read = channel.read(ByteBuffer.allocate(20), 0);
+      assertThat(read.isDone()).isFalse();
+      release.countDown();
+      assertThat(read.get(10, SECONDS)).isEqualTo(15);
+
+      release = new CountDownLatch(1);
+      holdLock(file.readLock(), release);
+      // writing past the end of the file needs the write lock
+      ListenableFuture<Integer> write = channel.write(buffer("1234567890"), 10);
+      assertThat(write.isDone()).isFalse();
+      release.countDown();
+      assertThat(write.get(10, SECONDS)).isEqualTo(10);
+      assertThat(file.size()).isEqualTo(20);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /** Locks the given lock from another thread, returning once it's held, until release opens. */
+  private static void holdLock(Lock lock, CountDownLatch release) {
+    CountDownLatch locked = new CountDownLatch(1);
+    new Thread(
+            () -> {
+              lock.lock();
+              try {
+                locked.countDown();
+                Uninterruptibles.awaitUninterruptibly(release);
+              } finally {
+                lock.unlock();
+              }
+            })
+        .start();
+    Uninterruptibles.awaitUninterruptibly(locked);
+  }
+
+  @Test
+  public void testLock_completesWhenConflictingLockIsReleased() throws Throwable {
+    RegularFile file = regularFile(15);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    try {
+      JimfsAsynchronousFileChannel channel1 = channel(file, executor, READ, WRITE);
+      JimfsAsynchronousFileChannel channel2 = channel(file, executor, READ, WRITE);
+
+      FileLock lock = channel1.lock().get();
+      Future<FileLock> future = channel2.lock(0, 10, true);
+      SettableFuture<FileLock> completionHandlerFuture = SettableFuture.create();
+      channel2.lock(10, 10, false, null, setFuture(completionHandlerFuture));
+      assertNull(channel2.tryLock(20, 10, true));
+      assertFalse(future.isDone());
+      assertFalse(completionHandlerFuture.isDone());
+
+      lock.release();
+
+      assertTrue(future.get(10, SECONDS).isShared());
+      assertFalse(completionHandlerFuture.get(10, SECONDS).isShared());
+      assertNull(channel1.tryLock());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testLock_cancelledOrClosedWhileWaiting() throws Throwable {
+    RegularFile file = regularFile(15);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    try {
+      JimfsAsynchronousFileChannel channel1 = channel(file, executor, READ, WRITE);
+      JimfsAsynchronousFileChannel channel2 = channel(file, executor, READ, WRITE);
+
+      FileLock lock = channel1.lock().get();
+      Future<FileLock> cancelled = channel2.lock(0, 10, false);
+      assertTrue(cancelled.cancel(false));
+      // the cancelled lock no longer overlaps new locks
+      Future<FileLock> future = channel2.lock(0, 10, false);
+
+      channel2.close();
+
+      assertClosed(future);
+      assertTrue(lock.isValid());
+      lock.release();
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   @Test
   public void testAsyncClose_write() throws Throwable {
     RegularFile file = regularFile(15);
@@ -204,11 +338,13 @@ public class JimfsAsynchronousFileChannelTest {
   }
 
   private static void checkAsyncLock(AsynchronousFileChannel channel) throws Throwable {
-    assertNotNull(channel.lock().get());
+    FileLock lock = channel.lock().get();
+    assertSame(channel, lock.acquiredBy());
+    lock.release();
     assertNotNull(channel.lock(0, 10, true).get());
 
     SettableFuture<FileLock> future = SettableFuture.create();
-    channel.lock(0, 10, true, null, setFuture(future));
+    channel.lock(10, 10, true, null, setFuture(future));
 
     assertNotNull(future.get(10, SECONDS));
   }
@@ -20,14 +20,18 @@ import static com.google.common.jimfs.TestUtils.assertNotEquals;
 import static com.google.common.jimfs.TestUtils.buffer;
 import static com.google.common.jimfs.TestUtils.bytes;
 import static com.google.common.jimfs.TestUtils.regularFile;
+import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
+import static java.lang.Math.min;
 import static java.nio.file.StandardOpenOption.APPEND;
 import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.WRITE;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
@@ -40,19 +44,26 @@ import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.Uninterruptibles;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.AsynchronousCloseException;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.channels.FileLock;
 import java.nio.channels.FileLockInterruptionException;
 import java.nio.channels.NonReadableChannelException;
 import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
 import java.nio.file.OpenOption;
+import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
@@ -208,6 +219,73 @@ public class JimfsFileChannelTest {
     assertEquals(0, channel.position());
   }
 
+  @Test
+  public void testTransferTo_defaultFileSystemChannel() throws IOException {
+    byte[] content = randomBytes(8096 * 100 + 123);
+    RegularFile file = regularFile(0);
+    file.write(0, content, 0, content.length);
+    FileChannel channel = channel(file, READ);
+
+    Path path = Files.createTempFile("jimfs", ".tmp");
+    try (FileChannel target = FileChannel.open(path, WRITE)) {
+      assertEquals(content.length - 5, channel.transferTo(5, Long.MAX_VALUE, target));
+      assertThat(Files.readAllBytes(path))
+          .isEqualTo(Arrays.copyOfRange(content, 5, content.length));
+    } finally {
+      Files.delete(path);
+    }
+  }
+
+  @Test
+  public void testTransferFrom_defaultFileSystemChannel() throws IOException {
+    byte[] content = randomBytes(8096 * 100 + 123);
+    RegularFile file = regularFile(10);
+    FileChannel channel = channel(file, READ, WRITE);
+
+    Path path = Files.write(Files.createTempFile("jimfs", ".tmp"), content);
+    try (FileChannel src = FileChannel.open(path, READ)) {
+      assertEquals(content.length, channel.transferFrom(src, 10, Long.MAX_VALUE));
+      assertEquals(content.length + 10, file.size());
+      byte[] read = new byte[content.length];
+      file.read(10, read, 0, read.length);
+      assertThat(read).isEqualTo(content);
+      // no blocks are left allocated past the end of the file
+      assertEquals((content.length + 10 + 8095) / 8096, file.blockCount());
+    } finally {
+      Files.delete(path);
+    }
+  }
+
+  @Test
+  public void testTransferBetweenJimfsChannels() throws IOException {
+    byte[] content = randomBytes(8096 * 100);
+    Arrays.fill(content, 8096 * 10, 8096 * 20, (byte) 0);
+    RegularFile file = regularFile(0);
+    file.write(0, content, 0, 8096 * 10);
+    file.write(8096 * 20, content, 8096 * 20, content.length - 8096 * 20); // leaves a hole
+    FileChannel channel = channel(file, READ);
+
+    RegularFile copy = regularFile(0);
+    FileChannel target = channel(copy, WRITE);
+    assertEquals(content.length, channel.transferTo(0, content.length, target));
+    assertEquals(content.length, target.position());
+
+    RegularFile copyOfCopy = regularFile(0);
+    FileChannel copyOfCopyChannel = channel(copyOfCopy, WRITE);
+    assertEquals(
+        content.length, copyOfCopyChannel.transferFrom(channel(copy, READ), 0, Long.MAX_VALUE));
+
+    byte[] read = new byte[content.length];
+    copyOfCopy.read(0, read, 0, read.length);
+    assertThat(read).isEqualTo(content);
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(0).nextBytes(bytes);
+    return bytes;
+  }
+
   @Test
   public void testTruncate() throws IOException {
     RegularFile file = regularFile(10);
@@ -500,18 +578,272 @@ public class JimfsFileChannelTest {
   public void testLock() throws IOException {
     FileChannel channel = channel(regularFile(10), READ, WRITE);
 
+    assertNotNull(channel.lock(0, 5, false));
+    assertNotNull(channel.lock(5, 5, true));
+    assertNotNull(channel.tryLock(10, 10, false));
+    assertNotNull(channel.tryLock(20, 10, true));
+
+    FileLock lock = channel.lock(30, 10, false);
+    assertTrue(lock.isValid());
+    lock.release();
+    assertFalse(lock.isValid());
+    assertNotNull(channel.tryLock(30, 10, true));
+  }
+
+  @Test
+  public void testLock_overlappingLockOnSameChannel() throws IOException {
+    FileChannel channel = channel(regularFile(10), READ, WRITE);
+
+    FileLock lock = channel.lock(0, 10, true);
+    assertThrows(OverlappingFileLockException.class, () -> channel.lock(5, 10, true));
+    assertThrows(OverlappingFileLockException.class, () -> channel.tryLock(9, 1, false));
+    assertThrows(OverlappingFileLockException.class, () -> channel.lock());
+
+    lock.release();
     assertNotNull(channel.lock());
-    assertNotNull(channel.lock(0, 10, false));
-    assertNotNull(channel.lock(0, 10, true));
+  }
 
-    assertNotNull(channel.tryLock());
-    assertNotNull(channel.tryLock(0, 10, false));
-    assertNotNull(channel.tryLock(0, 10, true));
+  @Test
+  public void testLock_conflictingLockOnOtherChannel() throws IOException {
+    RegularFile file = regularFile(10);
+    FileChannel channel1 = channel(file, READ, WRITE);
+    FileChannel channel2 = channel(file, READ, WRITE);
+
+    FileLock shared = channel1.lock(0, 10, true);
+    assertNotNull(channel2.tryLock(5, 10, true));
+    assertNull(channel2.tryLock(0, 1, false));
+    assertNotNull(channel2.tryLock(15, 10, false));
+
+    shared.release();
+    assertNotNull(channel2.tryLock(0, 1, false));
+    assertNull(channel1.tryLock(0, Long.MAX_VALUE, true));
+  }
+
+  @Test
+  public void testLock_blocksUntilConflictingLockIsReleased() throws Exception {
+    RegularFile file = regularFile(10);
+    FileChannel channel1 = channel(file, READ, WRITE);
+    FileChannel channel2 = channel(file, READ, WRITE);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    FileLock lock = channel1.lock();
+    Future<FileLock> future = executor.submit(() -> channel2.lock(5, 1, true));
+    Uninterruptibles.sleepUninterruptibly(20, MILLISECONDS);
+    assertFalse(future.isDone());
 
-    FileLock lock = channel.lock();
-    assertTrue(lock.isValid());
     lock.release();
+    assertTrue(future.get(10, SECONDS).isValid());
+    assertNull(channel1.tryLock());
+    executor.shutdown();
+  }
+
+  @Test
+  public void testLock_releasedWhenChannelIsClosed() throws Exception {
+    RegularFile file = regularFile(10);
+    FileChannel channel1 = channel(file, READ, WRITE);
+    FileChannel channel2 = channel(file, READ, WRITE);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    FileLock lock = channel1.lock();
+    Future<FileLock> future = executor.submit(() -> channel2.lock());
+    Uninterruptibles.sleepUninterruptibly(20, MILLISECONDS);
+
+    channel1.close();
     assertFalse(lock.isValid());
+    assertThrows(ClosedChannelException.class, () -> lock.release());
+    assertTrue(future.get(10, SECONDS).isValid());
+    executor.shutdown();
+  }
+
+  @Test
+  public void testLock_asynchronousCloseWhileWaiting() throws Exception {
+    RegularFile file = regularFile(10);
+    FileChannel channel1 = channel(file, READ, WRITE);
+    FileChannel channel2 = channel(file, READ, WRITE);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    FileLock lock = channel1.lock();
+    Future<FileLock> future = executor.submit(() -> channel2.lock());
+    Uninterruptibles.sleepUninterruptibly(20, MILLISECONDS);
+
+    channel2.close();
+    ExecutionException expected =
+        assertThrows(ExecutionException.class, () -> future.get(10, SECONDS));
+    assertThat(expected.getCause()).isInstanceOf(AsynchronousCloseException.class);
+    assertTrue(lock.isValid());
+    executor.shutdown();
+  }
+
+  @Test
+  public void testMap_readOnly() throws IOException {
+    RegularFile file = regularFile(0);
+    byte[] bytes = new byte[20000];
+    new Random(0).nextBytes(bytes);
+    file.write(0, bytes, 0, bytes.length);
+    FileChannel channel = channel(file, READ, WRITE);
+
+    // spans all three blocks of the file
+    MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 100, 17000);
+    assertTrue(buffer.isDirect());
+    assertTrue(buffer.isReadOnly());
+    assertEquals(0, buffer.position());
+    assertEquals(17000, buffer.limit());
+    assertEquals(ByteBuffer.wrap(bytes, 100, 17000), buffer);
+    assertEquals(0, channel.position());
+
+    // the buffer is a view of the file's content, which sees later writes to the file
+    channel.write(buffer("1234"), 8094);
+    assertEquals(buffer("1234"), slice(buffer, 7994, 4));
+
+    // mapping part of the region again gives a view of the same content
+    MappedByteBuffer part = channel.map(MapMode.READ_ONLY, 8094, 4);
+    assertEquals(buffer("1234"), part);
+    channel.write(buffer("5678"), 8094);
+    assertEquals(buffer("5678"), part);
+    assertEquals(buffer("5678"), slice(buffer, 7994, 4));
+  }
+
+  @Test
+  public void testMap_extendsFile() throws IOException {
+    RegularFile file = regularFile(0);
+    file.write(0, bytes("12345"), 0, 5);
+
+    FileChannel readOnly = channel(file, READ);
+    assertThrows(IOException.class, () -> readOnly.map(MapMode.READ_ONLY, 3, 5));
+    assertEquals(5, file.size());
+
+    FileChannel readWrite = channel(file, READ, WRITE);
+    MappedByteBuffer buffer = readWrite.map(MapMode.READ_ONLY, 3, 5);
+    assertEquals(ByteBuffer.wrap(bytes(4, 5, 0, 0, 0)), buffer);
+    assertEquals(8, file.size());
+
+    assertEquals(ByteBuffer.allocate(4), readWrite.map(MapMode.READ_ONLY, 10000, 4));
+    assertEquals(10004, file.size());
+  }
+
+  @Test
+  public void testMap_truncatedBlocksArentReused() throws IOException {
+    RegularFile file = regularFile(0);
+    byte[] bytes = new byte[8096];
+    Arrays.fill(bytes, (byte) 1);
+    file.write(0, bytes, 0, bytes.length);
+    MappedByteBuffer buffer = channel(file, READ).map(MapMode.READ_ONLY, 0, bytes.length);
+
+    // the truncated block isn't cached, so the other file can't be given it
+    file.truncate(0);
+    RegularFile other = RegularFile.create(1, file.getCreationTime(), file.disk());
+    other.write(0, new byte[bytes.length], 0, bytes.length);
+    assertEquals(ByteBuffer.wrap(bytes), buffer);
+  }
+
+  @Test
+  public void testMap_mappedFileIsCopiedRatherThanShared() throws IOException {
+    RegularFile file = regularFile(0);
+    file.write(0, bytes("1234567890"), 0, 10);
+    FileChannel channel = channel(file, READ, WRITE);
+    MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, 10);
+
+    RegularFile copy = file.copyWithoutContent(1, file.getCreationTime());
+    file.copyContentTo(copy);
+    channel.write(buffer("0"), 0);
+    assertEquals(buffer("0234567890"), buffer);
+
+    byte[] copied = new byte[10];
+    copy.read(0, copied, 0, 10);
+    assertEquals(buffer("1234567890"), ByteBuffer.wrap(copied));
+  }
+
+  @Test
+  public void testMap_unsupportedOrInvalid() throws IOException {
+    FileChannel writeOnly = channel(regularFile(10), WRITE);
+    FileChannel readWrite = channel(regularFile(10), READ, WRITE);
+
+    assertThrows(
+        UnsupportedOperationException.class, () -> readWrite.map(MapMode.READ_WRITE, 0, 10));
+    assertThrows(UnsupportedOperationException.class, () -> readWrite.map(MapMode.PRIVATE, 0, 10));
+    assertThrows(NonReadableChannelException.class, () -> writeOnly.map(MapMode.READ_ONLY, 0, 10));
+    assertThrows(IllegalArgumentException.class, () -> readWrite.map(MapMode.READ_ONLY, -1, 10));
+    assertThrows(IllegalArgumentException.class, () -> readWrite.map(MapMode.READ_ONLY, 0, -1));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> readWrite.map(MapMode.READ_ONLY, 0, Integer.MAX_VALUE + 1L));
+
+    readWrite.close();
+    assertThrows(ClosedChannelException.class, () -> readWrite.map(MapMode.READ_ONLY, 0, 10));
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int off, int len) {
+    ByteBuffer slice = buffer.duplicate();
+    Java8Compatibility.position(slice, off);
+    Java8Compatibility.limit(slice, off + len);
+    return slice;
+  }
+
+  @Test
+  public void testPositionalWrite_overwritingOnlyNeedsReadLock() throws Exception {
+    RegularFile file = regularFile(100);
+    FileChannel channel = channel(file, READ, WRITE);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    Future<Integer> extend;
+    file.readLock().lock(); // blocks writes that need the write lock
+    try {
+      Future<Integer> overwrite = executor.submit(() -> channel.write(buffer("1234"), 50));
+      assertEquals(4, (int) overwrite.get(10, SECONDS));
+
+      extend = executor.submit(() -> channel.write(buffer("1234"), 98));
+      Uninterruptibles.sleepUninterruptibly(20, MILLISECONDS);
+      assertFalse(extend.isDone());
+    } finally {
+      file.readLock().unlock();
+    }
+
+    assertEquals(4, (int) extend.get(10, SECONDS));
+    assertEquals(102, channel.size());
+    ByteBuffer buf = ByteBuffer.allocate(4);
+    channel.read(buf, 50);
+    buf.flip();
+    assertEquals(buffer("1234"), buf);
+    executor.shutdown();
+  }
+
+  @Test
+  public void testPositionalWrite_concurrentOverwrites() throws Exception {
+    int threads = 8;
+    int regionSize = 10000;
+    RegularFile file = regularFile(threads * regionSize);
+    FileChannel channel = channel(file, READ, WRITE);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      int region = i;
+      futures.add(
+          executor.submit(
+              () -> {
+                // write the region in overlapping chunks so that writes to adjacent blocks race
+                byte[] bytes = new byte[1000];
+                for (int round = 1; round <= 10; round++) {
+                  Arrays.fill(bytes, (byte) (region * 10 + round));
+                  for (int off = 0; off < regionSize; off += 500) {
+                    int len = min(bytes.length, regionSize - off);
+                    channel.write(ByteBuffer.wrap(bytes, 0, len), (long) region * regionSize + off);
+                  }
+                }
+                return null;
+              }));
+    }
+    for (Future<?> future : futures) {
+      future.get(10, SECONDS);
+    }
+    executor.shutdown();
+
+    assertEquals(threads * regionSize, channel.size());
+    byte[] content = new byte[threads * regionSize];
+    file.read(0, content, 0, content.length);
+    for (int i = 0; i < content.length; i++) {
+      assertEquals((byte) (i / regionSize * 10 + 10), content[i]);
+    }
   }
 
   @Test
@@ -857,8 +1189,15 @@ public class JimfsFileChannelTest {
           }
         });
 
+    assertClosedByInterrupt(
+        new FileChannelMethod() {
+          @Override
+          public void call(FileChannel channel) throws IOException {
+            channel.map(MapMode.READ_ONLY, 0, 1);
+          }
+        });
+
     // tryLock() does not handle interruption
-    // map() always throws UOE; it doesn't make sense for it to try to handle interruption
   }
 
   private interface FileChannelMethod {
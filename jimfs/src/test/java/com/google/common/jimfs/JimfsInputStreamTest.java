@@ -23,7 +23,13 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertThrows;
 
 import com.google.common.util.concurrent.Runnables;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -173,6 +179,127 @@ public class JimfsInputStreamTest {
     assertEmpty(in);
   }
 
+  @SuppressWarnings("GuardedByChecker")
+  @Test
+  public void testRead_seesWritesAfterBuffering() throws IOException {
+    JimfsInputStream in = newInputStream(1, 2, 3, 4, 5);
+    assertThat(in.read()).isEqualTo(1);
+
+    in.file.write(1, new byte[] {9, 9}, 0, 2);
+    assertThat(in.read()).isEqualTo(9);
+    assertThat(in.read(new byte[2])).isEqualTo(2);
+
+    in.file.truncate(3);
+    assertEmpty(in);
+  }
+
+  @SuppressWarnings("GuardedByChecker")
+  @Test
+  public void testRead_bufferedBytesDontLockFile() throws Exception {
+    JimfsInputStream in = newInputStream(1, 2, 3, 4, 5);
+    assertThat(in.read()).isEqualTo(1);
+
+    CountDownLatch locked = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(1);
+    Thread writer =
+        new Thread(
+            () -> {
+              in.file.writeLock().lock();
+              locked.countDown();
+              Uninterruptibles.awaitUninterruptibly(done);
+              in.file.writeLock().unlock();
+            });
+    writer.start();
+    locked.await();
+    try {
+      assertThat(in.read()).isEqualTo(2);
+      byte[] bytes = new byte[3];
+      assertThat(in.read(bytes)).isEqualTo(3);
+      assertArrayEquals(bytes(3, 4, 5), bytes);
+    } finally {
+      done.countDown();
+      writer.join();
+    }
+  }
+
+  @Test
+  public void testRead_fileModifiedAfterFillingBuffer() throws IOException {
+    RegularFile file = regularFile(0);
+    file.write(0, bytes(1, 2, 3, 4, 5), 0, 5);
+
+    // The stream gets the file's new access time after filling its buffer, while still holding the
+    // file's read lock. An in-place write, which only needs the read lock, makes the file look
+    // modified since the buffer was filled.
+    FileTimeSource modifyingTimeSource =
+        () -> {
+          try {
+            file.writeInPlace(4, ByteBuffer.wrap(bytes(9)));
+          } catch (IOException e) {
+            throw new AssertionError(e);
+          }
+          return FileTime.fromMillis(0);
+        };
+    JimfsInputStream in =
+        new JimfsInputStream(file, new FileSystemState(modifyingTimeSource, Runnables.doNothing()));
+
+    byte[] bytes = new byte[3];
+    assertThat(in.read(bytes)).isEqualTo(3);
+    assertArrayEquals(bytes(1, 2, 3), bytes);
+    assertThat(in.read(bytes)).isEqualTo(2);
+    assertArrayEquals(bytes(4, 9), Arrays.copyOf(bytes, 2));
+    assertThat(in.read(bytes)).isEqualTo(-1);
+  }
+
+  @Test
+  public void testReadAllBytes() throws IOException {
+    JimfsInputStream in = newInputStream(1, 2, 3, 4, 5);
+    assertThat(in.read()).isEqualTo(1);
+    assertArrayEquals(bytes(2, 3, 4, 5), in.readAllBytes());
+    assertThat(in.readAllBytes()).isEmpty();
+    assertEmpty(in);
+  }
+
+  @Test
+  public void testReadNBytes() throws IOException {
+    JimfsInputStream in = newInputStream(1, 2, 3, 4, 5);
+    byte[] bytes = new byte[6];
+    assertThat(in.readNBytes(bytes, 1, 2)).isEqualTo(2);
+    assertArrayEquals(bytes(0, 1, 2, 0, 0, 0), bytes);
+
+    assertArrayEquals(bytes(3, 4), in.readNBytes(2));
+    assertArrayEquals(bytes(5), in.readNBytes(10));
+    assertThat(in.readNBytes(bytes, 0, 6)).isEqualTo(0);
+    assertThat(in.readNBytes(10)).isEmpty();
+  }
+
+  @Test
+  public void testReadNBytes_largerThanBuffer() throws IOException {
+    int[] content = new int[20000];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = i % 100;
+    }
+    JimfsInputStream in = newInputStream(content);
+    assertThat(in.read()).isEqualTo(0);
+
+    byte[] bytes = in.readNBytes(content.length);
+    assertThat(bytes).hasLength(content.length - 1);
+    for (int i = 0; i < bytes.length; i++) {
+      assertThat(bytes[i]).isEqualTo((byte) content[i + 1]);
+    }
+  }
+
+  @Test
+  public void testTransferTo() throws IOException {
+    JimfsInputStream in = newInputStream(1, 2, 3, 4, 5);
+    assertThat(in.read()).isEqualTo(1);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertThat(in.transferTo(out)).isEqualTo(4);
+    assertArrayEquals(bytes(2, 3, 4, 5), out.toByteArray());
+    assertThat(in.transferTo(out)).isEqualTo(0);
+    assertEmpty(in);
+  }
+
   @Test
   public void testMark_unsupported() throws IOException {
     JimfsInputStream in = newInputStream(1, 2, 3);
@@ -211,6 +338,10 @@ public class JimfsInputStreamTest {
 
     RegularFile file = regularFile(0);
     file.write(0, b, 0, b.length);
+    return newInputStream(file);
+  }
+
+  private static JimfsInputStream newInputStream(RegularFile file) {
     return new JimfsInputStream(
         file, new FileSystemState(new FakeFileTimeSource(), Runnables.doNothing()));
   }
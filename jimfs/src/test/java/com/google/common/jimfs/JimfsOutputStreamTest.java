@@ -18,6 +18,7 @@ package com.google.common.jimfs;
 
 import static com.google.common.jimfs.TestUtils.bytes;
 import static com.google.common.jimfs.TestUtils.regularFile;
+import static com.google.common.truth.Truth.assertThat;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertThrows;
@@ -38,6 +39,9 @@ import org.junit.runners.JUnit4;
 @RunWith(JUnit4.class)
 public class JimfsOutputStreamTest {
 
+  /** The block size of the disk of the files created by {@link TestUtils#regularFile}. */
+  private static final int BLOCK_SIZE = 8096;
+
   @Test
   public void testWrite_singleByte() throws IOException {
     JimfsOutputStream out = newOutputStream(false);
@@ -158,12 +162,93 @@ public class JimfsOutputStreamTest {
     }
   }
 
+  @SuppressWarnings("GuardedByChecker")
+  @Test
+  public void testBuffered_smallWritesAreWrittenOnFlush() throws IOException {
+    JimfsOutputStream out = newBufferedOutputStream(false);
+    RegularFile file = out.file;
+    out.write(1);
+    out.write(new byte[] {2, 3});
+    assertThat(file.size()).isEqualTo(0);
+
+    out.flush();
+    assertStoreContains(out, 1, 2, 3);
+
+    out.write(4);
+    out.close();
+    assertThat(file.size()).isEqualTo(4);
+    assertThat(file.read(3)).isEqualTo(4);
+  }
+
+  @SuppressWarnings("GuardedByChecker")
+  @Test
+  public void testBuffered_bytesAreWrittenAtTheEndOfEachBlock() throws IOException {
+    JimfsOutputStream out = newBufferedOutputStream(false);
+    RegularFile file = out.file;
+    for (int i = 0; i < BLOCK_SIZE - 1; i++) {
+      out.write(1);
+    }
+    assertThat(file.size()).isEqualTo(0);
+
+    out.write(new byte[] {2, 3});
+    // the bytes up to the end of the first block are written, the rest are still buffered
+    assertThat(file.size()).isEqualTo(BLOCK_SIZE);
+    assertThat(file.read(BLOCK_SIZE - 1)).isEqualTo(2);
+
+    out.write(new byte[BLOCK_SIZE * 2]);
+    assertThat(file.size()).isEqualTo(BLOCK_SIZE * 3);
+    out.close();
+    assertThat(file.size()).isEqualTo(BLOCK_SIZE * 3 + 1);
+    assertThat(file.read(BLOCK_SIZE)).isEqualTo(3);
+  }
+
+  @SuppressWarnings("GuardedByChecker")
+  @Test
+  public void testBuffered_appendMode() throws IOException {
+    JimfsOutputStream out = newBufferedOutputStream(true);
+    out.write(1);
+    addBytesToStore(out, 9, 8, 7);
+    out.write(new byte[] {2, 3});
+    out.flush();
+    assertStoreContains(out, 9, 8, 7, 1, 2, 3);
+  }
+
+  @SuppressWarnings("GuardedByChecker")
+  @Test
+  public void testBuffered_overwriting() throws IOException {
+    JimfsOutputStream out = newBufferedOutputStream(false);
+    addBytesToStore(out, 9, 8, 7, 6, 5);
+    out.write(new byte[] {1, 2});
+    assertStoreContains(out, 9, 8, 7, 6, 5);
+    out.flush();
+    assertStoreContains(out, 1, 2, 7, 6, 5);
+    assertThat(out.file.size()).isEqualTo(5);
+  }
+
+  @Test
+  public void testBuffered_closed() throws IOException {
+    JimfsOutputStream out = newBufferedOutputStream(false);
+    out.write(1);
+    out.close();
+    out.flush(); // does nothing
+    assertThrows(IOException.class, () -> out.write(1));
+  }
+
   private static JimfsOutputStream newOutputStream(boolean append) {
     RegularFile file = regularFile(0);
     return new JimfsOutputStream(
         file, append, new FileSystemState(new FakeFileTimeSource(), Runnables.doNothing()));
   }
 
+  private static JimfsOutputStream newBufferedOutputStream(boolean append) {
+    RegularFile file = regularFile(0);
+    return new JimfsOutputStream(
+        file,
+        append,
+        new FileSystemState(new FakeFileTimeSource(), Runnables.doNothing()),
+        BLOCK_SIZE);
+  }
+
   @SuppressWarnings("GuardedByChecker")
   private static void addBytesToStore(JimfsOutputStream out, int... bytes) throws IOException {
     RegularFile file = out.file;
@@ -174,7 +259,8 @@ public class JimfsOutputStreamTest {
   }
 
   @SuppressWarnings("GuardedByChecker")
-  private static void assertStoreContains(JimfsOutputStream out, int... bytes) {
+  private static void assertStoreContains(JimfsOutputStream out, int... bytes)
+      throws IOException {
     byte[] actualBytes = new byte[bytes.length];
     int unused = out.file.read(0, actualBytes, 0, actualBytes.length);
     assertArrayEquals(bytes(bytes), actualBytes);
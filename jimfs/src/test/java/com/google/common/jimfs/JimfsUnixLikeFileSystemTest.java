@@ -36,6 +36,7 @@ import static java.nio.file.StandardOpenOption.SYNC;
 import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -58,6 +59,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
@@ -89,8 +92,15 @@ import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.nio.file.attribute.UserPrincipal;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.regex.PatternSyntaxException;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -2326,4 +2336,341 @@ public class JimfsUnixLikeFileSystemTest extends AbstractJimfsIntegrationTest {
       assertThat(channel).isNotInstanceOf(FileChannel.class);
     }
   }
+
+  @Test
+  public void testLookUpsDuringConcurrentModification() throws Exception {
+    Files.createDirectories(path("/foo/bar"));
+    Files.createFile(path("/foo/bar/baz"));
+    Files.createSymbolicLink(path("/link"), path("foo/bar"));
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Future<?> writer =
+          executor.submit(
+              () -> {
+                // create and delete enough files to resize the table of the directory being read
+                for (int i = 0; i < 200; i++) {
+                  for (int j = 0; j < 20; j++) {
+                    Files.createFile(path("/foo/bar/" + j));
+                  }
+                  Files.move(path("/foo/bar/0"), path("/foo/0"));
+                  Files.delete(path("/foo/0"));
+                  for (int j = 1; j < 20; j++) {
+                    Files.delete(path("/foo/bar/" + j));
+                  }
+                }
+                return null;
+              });
+
+      ImmutableList.Builder<Future<?>> readers = ImmutableList.builder();
+      for (int i = 0; i < 3; i++) {
+        readers.add(
+            executor.submit(
+                () -> {
+                  while (!writer.isDone()) {
+                    assertThat(Files.exists(path("/link/baz"))).isTrue();
+                    assertThat(Files.isRegularFile(path("/foo/bar/baz"))).isTrue();
+                    assertThat(Files.exists(path("/foo/bar/nonexistent"))).isFalse();
+                  }
+                  return null;
+                }));
+      }
+
+      writer.get();
+      for (Future<?> reader : readers.build()) {
+        reader.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testModificationsInDifferentDirectoriesDontBlockEachOther() throws Exception {
+    Files.createDirectories(path("/foo"));
+    Files.createDirectories(path("/bar"));
+    Directory bar =
+        (Directory)
+            ((JimfsFileSystem) fs)
+                .getDefaultView()
+                .lookUpWithLock((JimfsPath) path("/bar"), Options.NOFOLLOW_LINKS)
+                .file();
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    bar.lockEntries();
+    try {
+      executor.submit(() -> Files.createFile(path("/foo/file"))).get(10, SECONDS);
+      assertThat(Files.exists(path("/bar"))).isTrue();
+
+      Future<?> blocked = executor.submit(() -> Files.createFile(path("/bar/file")));
+      Uninterruptibles.sleepUninterruptibly(100, MILLISECONDS);
+      assertThat(blocked.isDone()).isFalse();
+
+      bar.unlockEntries();
+      blocked.get(10, SECONDS);
+      assertThat(Files.exists(path("/bar/file"))).isTrue();
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testConcurrentModificationsInSharedDirectory() throws Exception {
+    Files.createDirectories(path("/shared"));
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      ImmutableList.Builder<Future<?>> futures = ImmutableList.builder();
+      for (int t = 0; t < 4; t++) {
+        Path dir = Files.createDirectory(path("/dir" + t));
+        String prefix = "/shared/" + t + "-";
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < 200; i++) {
+                    Path file = Files.createFile(path(prefix + i));
+                    Files.createLink(dir.resolve("link" + i), file);
+                    Files.move(file, dir.resolve("moved" + i));
+                    Files.copy(dir.resolve("moved" + i), file);
+                    Files.move(file, dir.resolve("moved" + i), REPLACE_EXISTING);
+                    Files.delete(dir.resolve("link" + i));
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures.build()) {
+        future.get(60, SECONDS);
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertThatPath("/shared").hasNoChildren();
+    assertThatPath("/shared").hasLinkCount(2);
+    for (int t = 0; t < 4; t++) {
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(path("/dir" + t))) {
+        assertThat(stream).hasSize(200);
+      }
+      assertThatPath("/dir" + t + "/moved0").hasLinkCount(1);
+    }
+  }
+
+  @Test
+  public void testFork() throws IOException {
+    Files.createDirectories(path("/foo/bar"));
+    Files.write(path("/foo/bar/baz.txt"), preFilledBytes(10000));
+    Files.createLink(path("/foo/link.txt"), path("/foo/bar/baz.txt"));
+    Files.createSymbolicLink(path("/foo/symlink"), path("bar"));
+    Files.setAttribute(
+        path("/foo"), "posix:permissions", PosixFilePermissions.fromString("rwx------"));
+    Files.createFile(path("/work/relative.txt"));
+    FileTime modifiedTime = Files.getLastModifiedTime(path("/foo/bar/baz.txt"));
+
+    long unallocatedSpace = fs.getFileStores().iterator().next().getUnallocatedSpace();
+
+    try (FileSystem fork = Jimfs.fork(fs)) {
+      assertThat(fork.getSeparator()).isEqualTo("/");
+      assertThatPath(fork.getPath("/foo/bar/baz.txt"))
+          .containsBytes(preFilledBytes(10000))
+          .and()
+          .attribute("lastModifiedTime")
+          .is(modifiedTime);
+      assertThatPath(fork.getPath("/foo/symlink/baz.txt")).containsBytes(preFilledBytes(10000));
+      assertThatPath(fork.getPath("/foo"))
+          .attribute("posix:permissions")
+          .is(PosixFilePermissions.fromString("rwx------"));
+      assertThatPath(fork.getPath("relative.txt")).isRegularFile();
+      assertThatPath(fork.getPath("/foo/link.txt"))
+          .isSameFileAs(fork.getPath("/foo/bar/baz.txt"))
+          .and()
+          .hasLinkCount(2);
+
+      // file content isn't copied
+      assertThat(fork.getFileStores().iterator().next().getUnallocatedSpace())
+          .isEqualTo(unallocatedSpace);
+
+      // changes to either file system aren't visible in the other
+      Files.write(fork.getPath("/foo/bar/baz.txt"), bytes("1234"), APPEND);
+      Files.delete(fork.getPath("/foo/link.txt"));
+      Files.write(path("/foo/bar/baz.txt"), bytes("5"), WRITE);
+      Files.createFile(path("/foo/new.txt"));
+
+      assertThatPath(fork.getPath("/foo/bar/baz.txt"))
+          .containsBytes(concat(preFilledBytes(10000), bytes("1234")));
+      assertThatPath(fork.getPath("/foo/new.txt")).doesNotExist();
+      assertThatPath("/foo/bar/baz.txt")
+          .containsBytes(concat(bytes("5"), Arrays.copyOfRange(preFilledBytes(10000), 1, 10000)));
+      assertThatPath("/foo/link.txt").isRegularFile();
+    }
+  }
+
+  @Test
+  public void testFork_closingFileSystemsFreesStorage() throws IOException {
+    Configuration config =
+        Configuration.unix().toBuilder().setBlockSize(8192).setMaxSize(8192 * 4).build();
+    try (FileSystem source = Jimfs.newFileSystem(config)) {
+      FileStore store = source.getFileStores().iterator().next();
+      Files.write(source.getPath("/file"), new byte[8192]);
+
+      for (int i = 0; i < 100; i++) {
+        try (FileSystem fork = Jimfs.fork(source)) {
+          // each fork uses the three unallocated blocks, which must be freed when it's closed
+          Files.write(fork.getPath("/file"), new byte[8192 * 2]);
+          Files.write(fork.getPath("/other"), new byte[8192]);
+        }
+      }
+      assertThat(store.getUnallocatedSpace()).isEqualTo(8192 * 3);
+
+      try (FileSystem fork = Jimfs.fork(source)) {
+        FileStore forkStore = fork.getFileStores().iterator().next();
+        source.close();
+        // the fork still shares the source's block
+        assertThat(forkStore.getUnallocatedSpace()).isEqualTo(8192 * 3);
+        assertThatPath(fork.getPath("/file")).containsBytes(new byte[8192]);
+
+        Files.delete(fork.getPath("/file"));
+        assertThat(forkStore.getUnallocatedSpace()).isEqualTo(8192 * 4);
+      }
+    }
+  }
+
+  @Test
+  public void testFork_notJimfs() {
+    assertThrows(IllegalArgumentException.class, () -> Jimfs.fork(FileSystems.getDefault()));
+  }
+
+  @Test
+  public void testTrim() throws IOException {
+    Files.write(path("/foo"), preFilledBytes(8192 * 4));
+    Files.delete(path("/foo"));
+
+    assertThat(Jimfs.trim(fs)).isEqualTo(8192 * 4);
+    assertThat(Jimfs.trim(fs)).isEqualTo(0);
+  }
+
+  @Test
+  public void testTrim_notJimfs() {
+    assertThrows(IllegalArgumentException.class, () -> Jimfs.trim(FileSystems.getDefault()));
+  }
+
+  @Test
+  public void testBlockCacheIdleTimeout() throws Exception {
+    Configuration config =
+        Configuration.unix().toBuilder()
+            .setBlockCacheIdleTimeout(1, MILLISECONDS)
+            .setTrimBlockCacheOnLowMemory(true)
+            .build();
+    try (FileSystem trimming = Jimfs.newFileSystem(config)) {
+      Path path = Files.write(trimming.getPath("/foo"), preFilledBytes(8192 * 4));
+      Files.delete(path);
+
+      Thread.sleep(500);
+
+      // the cache was trimmed in the background
+      assertThat(Jimfs.trim(trimming)).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void testTrimBlockCacheOnLowMemory_leavesThresholdsUnchanged() throws IOException {
+    Map<String, Long> thresholds = collectionUsageThresholds();
+    Configuration config =
+        Configuration.unix().toBuilder().setTrimBlockCacheOnLowMemory(true).build();
+    try (FileSystem trimming = Jimfs.newFileSystem(config)) {
+      assertThat(collectionUsageThresholds()).isEqualTo(thresholds);
+    }
+  }
+
+  private static Map<String, Long> collectionUsageThresholds() {
+    Map<String, Long> thresholds = new HashMap<>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.isCollectionUsageThresholdSupported()) {
+        thresholds.put(pool.getName(), pool.getCollectionUsageThreshold());
+      }
+    }
+    return thresholds;
+  }
+
+  @Test
+  public void testBufferedOutputStreams() throws IOException {
+    Configuration config = Configuration.unix().toBuilder().setBufferedOutputStreams(true).build();
+    try (FileSystem buffering = Jimfs.newFileSystem(config)) {
+      Path path = buffering.getPath("/log");
+      byte[] content = preFilledBytes(8192 * 2 + 100);
+      try (OutputStream out = Files.newOutputStream(path)) {
+        for (byte b : content) {
+          out.write(b);
+        }
+        assertThat(Files.size(path)).isEqualTo(8192 * 2);
+      }
+      assertThat(Files.readAllBytes(path)).isEqualTo(content);
+
+      try (OutputStream out = Files.newOutputStream(path, APPEND)) {
+        out.write(content, 0, 10);
+        assertThat(Files.size(path)).isEqualTo(content.length);
+        out.flush();
+        assertThat(Files.size(path)).isEqualTo(content.length + 10);
+      }
+    }
+  }
+
+  @Test
+  public void testDirectAsynchronousIo() throws Exception {
+    Configuration config = Configuration.unix().toBuilder().setDirectAsynchronousIo(true).build();
+    try (FileSystem direct = Jimfs.newFileSystem(config)) {
+      Path path = direct.getPath("/file");
+      try (AsynchronousFileChannel channel =
+          AsynchronousFileChannel.open(path, CREATE, READ, WRITE)) {
+        Future<Integer> write = channel.write(ByteBuffer.wrap(preFilledBytes(10)), 0);
+        assertThat(write.isDone()).isTrue();
+        assertThat(write.get()).isEqualTo(10);
+
+        ByteBuffer buf = ByteBuffer.allocate(20);
+        Future<Integer> read = channel.read(buf, 0);
+        assertThat(read.isDone()).isTrue();
+        assertThat(read.get()).isEqualTo(10);
+      }
+      assertThat(Files.readAllBytes(path)).isEqualTo(preFilledBytes(10));
+    }
+  }
+
+  @Test
+  public void testDefaultThreadPool() throws Exception {
+    Configuration direct = Configuration.unix().toBuilder().setDirectAsynchronousIo(true).build();
+    try (JimfsFileSystem directFs = (JimfsFileSystem) Jimfs.newFileSystem(direct)) {
+      // direct asynchronous I/O alone doesn't change the default executor
+      assertThat(directFs.getDefaultThreadPool()).isInstanceOf(ThreadPoolExecutor.class);
+    }
+
+    Configuration virtual = Configuration.unix().toBuilder().setVirtualThreadExecutor(true).build();
+    try (JimfsFileSystem virtualFs = (JimfsFileSystem) Jimfs.newFileSystem(virtual)) {
+      // falls back to the usual pool on JVMs without virtual threads
+      assertThat(virtualFs.getDefaultThreadPool().submit(() -> 1).get()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void testBlockDeduplication() throws IOException {
+    Configuration config = Configuration.unix().toBuilder().setBlockDeduplication(true).build();
+    try (FileSystem deduplicating = Jimfs.newFileSystem(config)) {
+      FileStore store = deduplicating.getFileStores().iterator().next();
+      long totalSpace = store.getTotalSpace();
+      byte[] content = preFilledBytes(8192 * 4);
+      Files.write(deduplicating.getPath("/a"), content);
+      Files.write(deduplicating.getPath("/b"), content);
+      Files.write(deduplicating.getPath("/c"), content);
+
+      ((JimfsFileSystem) deduplicating).getFileStore().deduplicateFiles();
+
+      // the files' blocks all have the same content, so they're all replaced by a single block
+      assertThat(store.getUnallocatedSpace()).isEqualTo(totalSpace - 8192);
+
+      Files.write(deduplicating.getPath("/b"), bytes("1"), WRITE);
+
+      assertThat(store.getUnallocatedSpace()).isEqualTo(totalSpace - 8192 * 2);
+      assertThatPath(deduplicating.getPath("/a")).containsBytes(content);
+      assertThatPath(deduplicating.getPath("/c")).containsBytes(content);
+      content[0] = 1;
+      assertThatPath(deduplicating.getPath("/b")).containsBytes(content);
+    }
+  }
 }
@@ -17,10 +17,11 @@
 package com.google.common.jimfs;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
 
-import com.google.common.primitives.Bytes;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import org.junit.Before;
 import org.junit.Test;
@@ -55,49 +56,49 @@ public class RegularFileBlocksTest {
     assertThat(file.blockCount()).isEqualTo(0);
 
     // no bounds checking, but there should never be a block at an index >= size
-    assertThat(file.getBlock(0)).isNull();
+    assertThrows(IndexOutOfBoundsException.class, () -> file.getBlock(0));
   }
 
   @Test
   public void testAddAndGet() {
-    file.addBlock(new byte[] {1});
+    file.addBlock(ByteBuffer.wrap(new byte[] {1}));
 
     assertThat(file.blockCount()).isEqualTo(1);
-    assertThat(Bytes.asList(file.getBlock(0))).isEqualTo(Bytes.asList(new byte[] {1}));
-    assertThat(file.getBlock(1)).isNull();
+    assertThat(file.getBlock(0)).isEqualTo(ByteBuffer.wrap(new byte[] {1}));
+    assertThrows(IndexOutOfBoundsException.class, () -> file.getBlock(1));
 
-    file.addBlock(new byte[] {1, 2});
+    file.addBlock(ByteBuffer.wrap(new byte[] {1, 2}));
 
     assertThat(file.blockCount()).isEqualTo(2);
-    assertThat(Bytes.asList(file.getBlock(1))).isEqualTo(Bytes.asList(new byte[] {1, 2}));
-    assertThat(file.getBlock(2)).isNull();
+    assertThat(file.getBlock(1)).isEqualTo(ByteBuffer.wrap(new byte[] {1, 2}));
+    assertThrows(IndexOutOfBoundsException.class, () -> file.getBlock(2));
   }
 
   @Test
   public void testTruncate() {
-    file.addBlock(new byte[0]);
-    file.addBlock(new byte[0]);
-    file.addBlock(new byte[0]);
-    file.addBlock(new byte[0]);
+    file.addBlock(ByteBuffer.allocate(0));
+    file.addBlock(ByteBuffer.allocate(0));
+    file.addBlock(ByteBuffer.allocate(0));
+    file.addBlock(ByteBuffer.allocate(0));
 
     assertThat(file.blockCount()).isEqualTo(4);
 
     file.truncateBlocks(2);
 
     assertThat(file.blockCount()).isEqualTo(2);
-    assertThat(file.getBlock(2)).isNull();
-    assertThat(file.getBlock(3)).isNull();
+    assertThrows(IndexOutOfBoundsException.class, () -> file.getBlock(2));
+    assertThrows(IndexOutOfBoundsException.class, () -> file.getBlock(3));
     assertThat(file.getBlock(0)).isNotNull();
 
     file.truncateBlocks(0);
     assertThat(file.blockCount()).isEqualTo(0);
-    assertThat(file.getBlock(0)).isNull();
+    assertThrows(IndexOutOfBoundsException.class, () -> file.getBlock(0));
   }
 
   @Test
   public void testCopyTo() {
-    file.addBlock(new byte[] {1});
-    file.addBlock(new byte[] {1, 2});
+    file.addBlock(ByteBuffer.wrap(new byte[] {1}));
+    file.addBlock(ByteBuffer.wrap(new byte[] {1, 2}));
     RegularFile other = createFile();
 
     assertThat(other.blockCount()).isEqualTo(0);
@@ -123,9 +124,9 @@ public class RegularFileBlocksTest {
 
   @Test
   public void testTransferTo() {
-    file.addBlock(new byte[] {1});
-    file.addBlock(new byte[] {1, 2});
-    file.addBlock(new byte[] {1, 2, 3});
+    file.addBlock(ByteBuffer.wrap(new byte[] {1}));
+    file.addBlock(ByteBuffer.wrap(new byte[] {1, 2}));
+    file.addBlock(ByteBuffer.wrap(new byte[] {1, 2, 3}));
     RegularFile other = createFile();
 
     assertThat(file.blockCount()).isEqualTo(3);
@@ -136,18 +137,59 @@ public class RegularFileBlocksTest {
     assertThat(file.blockCount()).isEqualTo(0);
     assertThat(other.blockCount()).isEqualTo(3);
 
-    assertThat(file.getBlock(0)).isNull();
-    assertThat(Bytes.asList(other.getBlock(0))).isEqualTo(Bytes.asList(new byte[] {1}));
-    assertThat(Bytes.asList(other.getBlock(1))).isEqualTo(Bytes.asList(new byte[] {1, 2}));
-    assertThat(Bytes.asList(other.getBlock(2))).isEqualTo(Bytes.asList(new byte[] {1, 2, 3}));
+    assertThrows(IndexOutOfBoundsException.class, () -> file.getBlock(0));
+    assertThat(other.getBlock(0)).isEqualTo(ByteBuffer.wrap(new byte[] {1}));
+    assertThat(other.getBlock(1)).isEqualTo(ByteBuffer.wrap(new byte[] {1, 2}));
+    assertThat(other.getBlock(2)).isEqualTo(ByteBuffer.wrap(new byte[] {1, 2, 3}));
 
     other.transferBlocksTo(file, 1);
 
     assertThat(file.blockCount()).isEqualTo(1);
     assertThat(other.blockCount()).isEqualTo(2);
-    assertThat(other.getBlock(2)).isNull();
-    assertThat(Bytes.asList(file.getBlock(0))).isEqualTo(Bytes.asList(new byte[] {1, 2, 3}));
-    assertThat(file.getBlock(1)).isNull();
+    assertThrows(IndexOutOfBoundsException.class, () -> other.getBlock(2));
+    assertThat(file.getBlock(0)).isEqualTo(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+    assertThrows(IndexOutOfBoundsException.class, () -> file.getBlock(1));
+  }
+
+  @Test
+  public void testManyPages() {
+    ByteBuffer[] blocks = new ByteBuffer[2500];
+    for (int i = 0; i < blocks.length; i++) {
+      blocks[i] = ByteBuffer.wrap(new byte[] {(byte) i});
+      file.addBlock(blocks[i]);
+    }
+
+    assertThat(file.blockCount()).isEqualTo(2500);
+    assertBlocks(file, blocks, 0, 2500);
+    assertThrows(IndexOutOfBoundsException.class, () -> file.getBlock(2500));
+
+    file.truncateBlocks(1025);
+    assertThat(file.blockCount()).isEqualTo(1025);
+    assertBlocks(file, blocks, 0, 1025);
+    assertThrows(IndexOutOfBoundsException.class, () -> file.getBlock(1025));
+
+    file.truncateBlocks(1024);
+    assertThrows(IndexOutOfBoundsException.class, () -> file.getBlock(1024));
+    file.addBlock(blocks[2000]);
+    assertThat(file.getBlock(1024)).isSameInstanceAs(blocks[2000]);
+  }
+
+  @Test
+  public void testCopyTo_acrossPages() {
+    ByteBuffer[] blocks = new ByteBuffer[3000];
+    for (int i = 0; i < blocks.length; i++) {
+      blocks[i] = ByteBuffer.wrap(new byte[] {(byte) i});
+      file.addBlock(blocks[i]);
+    }
+    RegularFile other = createFile();
+    other.addBlock(ByteBuffer.allocate(0));
+
+    file.copyBlocksTo(other, 2990);
+
+    assertThat(other.blockCount()).isEqualTo(2991);
+    for (int i = 0; i < 2990; i++) {
+      assertThat(other.getBlock(i + 1)).isSameInstanceAs(blocks[i + 10]);
+    }
   }
 
   @Test
@@ -178,4 +220,10 @@ public class RegularFileBlocksTest {
     assertThat(transferred).isEqualTo(0);
     assertThat(file.blockCount()).isEqualTo(0);
   }
+
+  private static void assertBlocks(RegularFile file, ByteBuffer[] blocks, int from, int to) {
+    for (int i = from; i < to; i++) {
+      assertThat(file.getBlock(i)).isSameInstanceAs(blocks[i]);
+    }
+  }
 }
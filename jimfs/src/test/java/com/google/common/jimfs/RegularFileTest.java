@@ -67,13 +67,16 @@ public class RegularFileTest {
           continue;
         }
 
-        TestConfiguration state = new TestConfiguration(blockSize, cacheSize, reuseStrategy);
-        TestSuite suiteForTest = new TestSuite(state.toString());
-        for (Method method : TEST_METHODS) {
-          RegularFileTestRunner tester = new RegularFileTestRunner(method.getName(), state);
-          suiteForTest.addTest(tester);
+        for (BlockStorage storage : BlockStorage.values()) {
+          TestConfiguration state =
+              new TestConfiguration(blockSize, cacheSize, reuseStrategy, storage);
+          TestSuite suiteForTest = new TestSuite(state.toString());
+          for (Method method : TEST_METHODS) {
+            RegularFileTestRunner tester = new RegularFileTestRunner(method.getName(), state);
+            suiteForTest.addTest(tester);
+          }
+          suiteForReuseStrategy.addTest(suiteForTest);
         }
-        suiteForReuseStrategy.addTest(suiteForTest);
       }
       suite.addTest(suiteForReuseStrategy);
     }
@@ -120,15 +123,18 @@ public class RegularFileTest {
     private final int blockSize;
     private final int cacheSize;
     private final ReuseStrategy reuseStrategy;
+    private final BlockStorage storage;
 
     private final FakeFileTimeSource fileTimeSource = new FakeFileTimeSource();
 
     private HeapDisk disk;
 
-    public TestConfiguration(int blockSize, int cacheSize, ReuseStrategy reuseStrategy) {
+    public TestConfiguration(
+        int blockSize, int cacheSize, ReuseStrategy reuseStrategy, BlockStorage storage) {
       this.blockSize = blockSize;
       this.cacheSize = cacheSize;
       this.reuseStrategy = reuseStrategy;
+      this.storage = storage;
 
       if (reuseStrategy != ReuseStrategy.NEW_DISK) {
         this.disk = createDisk();
@@ -137,7 +143,7 @@ public class RegularFileTest {
 
     private HeapDisk createDisk() {
       int maxCachedBlockCount = cacheSize == -1 ? Integer.MAX_VALUE : (cacheSize / blockSize);
-      return new HeapDisk(blockSize, Integer.MAX_VALUE, maxCachedBlockCount);
+      return new HeapDisk(blockSize, Integer.MAX_VALUE, maxCachedBlockCount, storage);
     }
 
     public RegularFile createRegularFile() {
@@ -166,7 +172,7 @@ public class RegularFileTest {
 
     @Override
     public String toString() {
-      return reuseStrategy + " [" + blockSize + ", " + cacheSize + "]";
+      return reuseStrategy + " [" + blockSize + ", " + cacheSize + ", " + storage + "]";
     }
   }
 
@@ -202,30 +208,30 @@ public class RegularFileTest {
       file.write(0, buffer(fill));
     }
 
-    public void testEmpty() {
+    public void testEmpty() throws IOException {
       assertEquals(0, file.size());
       assertContentEquals("", file);
     }
 
-    public void testEmpty_read_singleByte() {
+    public void testEmpty_read_singleByte() throws IOException {
       assertEquals(-1, file.read(0));
       assertEquals(-1, file.read(1));
     }
 
-    public void testEmpty_read_byteArray() {
+    public void testEmpty_read_byteArray() throws IOException {
       byte[] array = new byte[10];
       assertEquals(-1, file.read(0, array, 0, array.length));
       assertArrayEquals(bytes("0000000000"), array);
     }
 
-    public void testEmpty_read_singleBuffer() {
+    public void testEmpty_read_singleBuffer() throws IOException {
       ByteBuffer buffer = ByteBuffer.allocate(10);
       int read = file.read(0, buffer);
       assertEquals(-1, read);
       assertEquals(0, buffer.position());
     }
 
-    public void testEmpty_read_multipleBuffers() {
+    public void testEmpty_read_multipleBuffers() throws IOException {
       ByteBuffer buf1 = ByteBuffer.allocate(5);
       ByteBuffer buf2 = ByteBuffer.allocate(5);
       long read = file.read(0, ImmutableList.of(buf1, buf2));
@@ -266,6 +272,137 @@ public class RegularFileTest {
       assertContentEquals("000001", file);
     }
 
+    public void testEmpty_write_farBeyondEnd_leavesHoles() throws IOException {
+      int blockSize = configuration.blockSize;
+      file.write(blockSize * 4L + 1, (byte) 1);
+
+      assertEquals(blockSize * 4L + 2, file.size());
+      assertEquals(5, file.blockCount());
+      for (int i = 0; i < 4; i++) {
+        assertNull(file.getBlock(i));
+      }
+      assertNotNull(file.getBlock(4));
+
+      byte[] expected = new byte[blockSize * 4 + 2];
+      expected[blockSize * 4 + 1] = 1;
+      assertContentEquals(expected, file);
+
+      byte[] array = new byte[blockSize * 4 + 2];
+      Arrays.fill(array, (byte) 9);
+      assertEquals(array.length, file.read(0, array, 0, array.length));
+      assertArrayEquals(expected, array);
+      assertEquals(0, file.read(blockSize));
+
+      ByteBufferChannel channel = new ByteBufferChannel(expected.length);
+      assertEquals(expected.length, file.transferTo(0, expected.length, channel));
+      assertArrayEquals(expected, channel.buffer().array());
+    }
+
+    public void testNextDataAndNextHole() throws IOException {
+      int blockSize = configuration.blockSize;
+      assertEquals(0, file.nextData(0));
+      assertEquals(0, file.nextHole(0));
+
+      file.write(0, (byte) 1);
+      file.write(blockSize * 3L, (byte) 2);
+
+      assertEquals(0, file.nextData(0));
+      assertEquals(blockSize, file.nextHole(0));
+      assertEquals(1, file.nextData(1));
+      assertEquals(blockSize * 3L, file.nextData(blockSize));
+      assertEquals(blockSize, file.nextHole(blockSize));
+      assertEquals(blockSize * 3L, file.nextData(blockSize * 2L + 1));
+      assertEquals(blockSize * 3L + 1, file.nextHole(blockSize * 3L));
+      assertEquals(blockSize * 3L + 1, file.nextData(blockSize * 3L + 1));
+    }
+
+    public void testSmallBlock() throws IOException {
+      int blockSize = configuration.blockSize;
+      file.write(0, (byte) 1);
+      if (file.getBlock(0).capacity() == blockSize) {
+        return; // this disk doesn't use small blocks
+      }
+
+      assertEquals(16, file.getBlock(0).capacity());
+
+      file.write(blockSize / 2 - 1, (byte) 2);
+      assertEquals(1, file.blockCount());
+      assertEquals(blockSize / 2, file.getBlock(0).capacity());
+
+      file.write(blockSize / 2, (byte) 3);
+      assertEquals(1, file.blockCount());
+      assertEquals(blockSize, file.getBlock(0).capacity());
+
+      file.write(blockSize, (byte) 4);
+      assertEquals(2, file.blockCount());
+
+      byte[] expected = new byte[blockSize + 1];
+      expected[0] = 1;
+      expected[blockSize / 2 - 1] = 2;
+      expected[blockSize / 2] = 3;
+      expected[blockSize] = 4;
+      assertContentEquals(expected, file);
+    }
+
+    public void testSmallBlock_sharedWithCopy() throws IOException {
+      file.write(0, bytes("1234"), 0, 4);
+      RegularFile copy = file.copyWithoutContent(1, fileTimeSource.now());
+      file.copyContentTo(copy);
+
+      copy.write(4, bytes("5678"), 0, 4);
+      file.write(0, (byte) 9);
+
+      assertContentEquals("9234", file);
+      assertContentEquals("12345678", copy);
+    }
+
+    public void testWriteInPlace() throws IOException {
+      int blockSize = configuration.blockSize;
+      file.write(0, new byte[blockSize * 3], 0, blockSize * 3);
+
+      assertEquals(3, file.writeInPlace(blockSize - 1L, buffer("123")));
+
+      byte[] expected = new byte[blockSize * 3];
+      expected[blockSize - 1] = 1;
+      expected[blockSize] = 2;
+      expected[blockSize + 1] = 3;
+      assertContentEquals(expected, file);
+
+      // writes that would extend the file can't be done in place
+      ByteBuffer buf = buffer("45");
+      assertEquals(-1, file.writeInPlace(blockSize * 3L - 1, buf));
+      assertEquals(2, buf.remaining());
+      assertContentEquals(expected, file);
+    }
+
+    public void testWriteInPlace_holesAndSharedBlocks() throws IOException {
+      int blockSize = configuration.blockSize;
+      file.write(blockSize * 2L, (byte) 1);
+
+      assertEquals(-1, file.writeInPlace(0, buffer("1")));
+
+      RegularFile copy = file.copyWithoutContent(1, fileTimeSource.now());
+      file.copyContentTo(copy);
+
+      assertEquals(-1, file.writeInPlace(blockSize * 2L, buffer("2")));
+      assertEquals(1, file.read(blockSize * 2L));
+    }
+
+    public void testEmpty_write_intoHole() throws IOException {
+      int blockSize = configuration.blockSize;
+      file.write(blockSize * 3L, (byte) 1);
+      file.write(blockSize + 1L, (byte) 2);
+
+      assertNull(file.getBlock(0));
+      assertNotNull(file.getBlock(1));
+      assertNull(file.getBlock(2));
+
+      byte[] expected = new byte[blockSize * 3 + 1];
+      expected[blockSize + 1] = 2;
+      expected[blockSize * 3] = 1;
+      assertContentEquals(expected, file);
+    }
+
     public void testEmpty_write_byteArray_atNonZeroPosition() throws IOException {
       byte[] bytes = bytes("111111");
       file.write(5, bytes, 0, bytes.length);
@@ -834,6 +971,46 @@ public class RegularFileTest {
       assertContentEquals("123456", copy);
     }
 
+    public void testNonEmpty_copy_writeToCopy() throws IOException {
+      fillContent("123456");
+      RegularFile copy = file.copyWithoutContent(1, fileTimeSource.now());
+      file.copyContentTo(copy);
+      copy.write(0, buffer("99"));
+      copy.write(5, (byte) 9);
+      assertContentEquals("993459", copy);
+      assertContentEquals("123456", file);
+    }
+
+    public void testNonEmpty_copy_writeToSource() throws IOException {
+      fillContent("123456");
+      RegularFile copy = file.copyWithoutContent(1, fileTimeSource.now());
+      file.copyContentTo(copy);
+      byte[] bytes = bytes("9999");
+      file.write(1, bytes, 0, bytes.length);
+      assertContentEquals("199996", file);
+      assertContentEquals("123456", copy);
+    }
+
+    public void testNonEmpty_copy_truncateAndExtendCopy() throws IOException {
+      fillContent("123456");
+      RegularFile copy = file.copyWithoutContent(1, fileTimeSource.now());
+      file.copyContentTo(copy);
+      copy.truncate(1);
+      copy.write(4, (byte) 9);
+      assertContentEquals("10009", copy);
+      assertContentEquals("123456", file);
+    }
+
+    public void testNonEmpty_copy_deleteSource() throws IOException {
+      fillContent("123456");
+      RegularFile copy = file.copyWithoutContent(1, fileTimeSource.now());
+      file.copyContentTo(copy);
+      file.deleted();
+      assertContentEquals("123456", copy);
+      copy.write(0, buffer("9"));
+      assertContentEquals("923456", copy);
+    }
+
     public void testNonEmpty_truncate_toZero() throws IOException {
       fillContent("123456");
       file.truncate(0);
@@ -889,11 +1066,13 @@ public class RegularFileTest {
       assertEquals(remaining, actual.remaining());
     }
 
-    private static void assertContentEquals(String expected, RegularFile actual) {
+    private static void assertContentEquals(String expected, RegularFile actual)
+        throws IOException {
       assertContentEquals(bytes(expected), actual);
     }
 
-    protected static void assertContentEquals(byte[] expected, RegularFile actual) {
+    protected static void assertContentEquals(byte[] expected, RegularFile actual)
+        throws IOException {
       assertEquals(expected.length, actual.sizeWithoutLocking());
       byte[] actualBytes = new byte[(int) actual.sizeWithoutLocking()];
       int unused = actual.read(0, ByteBuffer.wrap(actualBytes));
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.jimfs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for spilling file blocks to a {@link SpillFile}. */
+@RunWith(JUnit4.class)
+public class SpillFileTest {
+
+  private static final int BLOCK_SIZE = 1024;
+
+  @Rule public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private final FakeFileTimeSource fileTimeSource = new FakeFileTimeSource();
+
+  private Path directory;
+  private HeapDisk disk;
+  private RegularFile file;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = tempFolder.newFolder().toPath();
+    Configuration config =
+        Configuration.unix().toBuilder()
+            .setBlockSize(BLOCK_SIZE)
+            .setMaxSize(BLOCK_SIZE * 100)
+            .setSpillToDisk(directory, BLOCK_SIZE * 4)
+            .build();
+    disk = new HeapDisk(config);
+    disk.spillFile().retain();
+    file = RegularFile.create(0, fileTimeSource.now(), disk);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    disk.spillFile().release();
+  }
+
+  @Test
+  public void testSpillAndRestore() throws IOException {
+    byte[] content = randomBytes(BLOCK_SIZE * 3 + 10);
+    file.write(0, content, 0, content.length);
+    long unallocated = disk.getUnallocatedSpace();
+
+    assertThat(file.spill()).isTrue();
+    assertThat(file.isSpilled()).isTrue();
+    for (int i = 0; i < 4; i++) {
+      assertThat(file.getBlock(i).capacity()).isLessThan(BLOCK_SIZE);
+    }
+    // spilled blocks remain allocated
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(unallocated);
+    assertThat(disk.getStatistic("spilledBlockCount")).isEqualTo(4);
+    assertThat(disk.getStatistic("spilledSize")).isEqualTo(BLOCK_SIZE * 4L);
+    assertThat(spillFiles()).hasLength(1);
+
+    byte[] read = new byte[content.length];
+    file.read(0, read, 0, read.length);
+
+    assertThat(read).isEqualTo(content);
+    assertThat(file.isSpilled()).isFalse();
+    assertThat(file.getBlock(0).capacity()).isEqualTo(BLOCK_SIZE);
+    assertThat(disk.getStatistic("spilledBlockCount")).isEqualTo(0);
+  }
+
+  @Test
+  public void testSpillAndRestore_directStorage() throws IOException {
+    Configuration config =
+        Configuration.unix().toBuilder()
+            .setBlockSize(BLOCK_SIZE)
+            .setBlockStorage(BlockStorage.DIRECT)
+            .setSpillToDisk(directory, BLOCK_SIZE * 4)
+            .build();
+    HeapDisk disk = new HeapDisk(config);
+    disk.spillFile().retain();
+    RegularFile file = RegularFile.create(0, fileTimeSource.now(), disk);
+    byte[] content = randomBytes(BLOCK_SIZE * 2);
+    file.write(0, content, 0, content.length);
+
+    assertThat(file.spill()).isTrue();
+
+    byte[] read = new byte[content.length];
+    file.read(0, read, 0, read.length);
+    assertThat(read).isEqualTo(content);
+    assertThat(file.getBlock(0).isDirect()).isTrue();
+    disk.spillFile().release();
+  }
+
+  @Test
+  public void testWriteToSpilledFile() throws IOException {
+    byte[] content = randomBytes(BLOCK_SIZE * 2);
+    file.write(0, content, 0, content.length);
+    file.spill();
+
+    file.write(BLOCK_SIZE, (byte) -1);
+
+    assertThat(file.isSpilled()).isFalse();
+    content[BLOCK_SIZE] = -1;
+    byte[] read = new byte[content.length];
+    file.read(0, read, 0, read.length);
+    assertThat(read).isEqualTo(content);
+  }
+
+  @Test
+  public void testSlotsAreReused() throws IOException {
+    byte[] content = randomBytes(BLOCK_SIZE * 2);
+    file.write(0, content, 0, content.length);
+    file.spill();
+    file.read(0);
+    file.spill();
+
+    assertThat(disk.getStatistic("spilledBlockCount")).isEqualTo(2);
+    assertThat(Files.size(spillFiles()[0])).isEqualTo(BLOCK_SIZE * 2L);
+  }
+
+  @Test
+  public void testTruncateAndFreeSpilledFile() throws IOException {
+    long emptySpace = disk.getUnallocatedSpace();
+    byte[] content = randomBytes(BLOCK_SIZE * 4);
+    file.write(0, content, 0, content.length);
+    file.spill();
+
+    file.truncate(BLOCK_SIZE * 2);
+
+    assertThat(file.isSpilled()).isTrue();
+    assertThat(disk.getStatistic("spilledBlockCount")).isEqualTo(2);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(emptySpace - BLOCK_SIZE * 2);
+
+    disk.free(file);
+
+    assertThat(file.isSpilled()).isFalse();
+    assertThat(disk.getStatistic("spilledBlockCount")).isEqualTo(0);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(emptySpace);
+    // placeholders aren't cached
+    assertThat(disk.cachedBlockCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testFilesWithSharedOrSmallBlocksAreNotSpilled() throws IOException {
+    file.write(0, (byte) 1);
+    assertThat(file.hasSmallBlock()).isTrue();
+    assertThat(file.spill()).isFalse();
+
+    byte[] content = randomBytes(BLOCK_SIZE * 2);
+    file.write(0, content, 0, content.length);
+    RegularFile copy = RegularFile.create(1, fileTimeSource.now(), disk);
+    file.copyContentTo(copy);
+    assertThat(file.spill()).isFalse();
+    assertThat(copy.spill()).isFalse();
+  }
+
+  @Test
+  public void testIsOverHeapLimit() throws IOException {
+    byte[] content = randomBytes(BLOCK_SIZE * 3);
+    file.write(0, content, 0, content.length);
+    RegularFile other = RegularFile.create(1, fileTimeSource.now(), disk);
+    other.write(0, content, 0, content.length);
+    assertThat(disk.isOverHeapLimit()).isTrue();
+
+    file.spill();
+    assertThat(disk.isOverHeapLimit()).isFalse();
+  }
+
+  @Test
+  public void testFileLargerThanHeapLimit() throws IOException {
+    byte[] content = randomBytes(BLOCK_SIZE * 4);
+    file.write(0, content, 0, content.length);
+    long unallocated = disk.getUnallocatedSpace();
+
+    // the file could never be read back into the heap if it were spilled
+    assertThrows(IOException.class, () -> file.write(BLOCK_SIZE * 4, (byte) 1));
+    assertThrows(IOException.class, () -> file.write(BLOCK_SIZE * 10, (byte) 1));
+
+    assertThat(file.size()).isEqualTo(BLOCK_SIZE * 4);
+    assertThat(disk.getUnallocatedSpace()).isEqualTo(unallocated);
+  }
+
+  @Test
+  public void testClosedSpillFile() throws IOException {
+    byte[] content = randomBytes(BLOCK_SIZE * 2);
+    file.write(0, content, 0, content.length);
+    file.spill();
+
+    disk.spillFile().retain();
+    disk.spillFile().release();
+    disk.spillFile().release();
+
+    assertThat(spillFiles()).isEmpty();
+    assertThrows(IOException.class, () -> file.read(0));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedFilesAreSpilledInTheBackground() throws Exception {
+    Configuration config =
+        Configuration.unix().toBuilder()
+            .setBlockSize(BLOCK_SIZE)
+            .setSpillToDisk(directory, BLOCK_SIZE * 16)
+            .build();
+    byte[] content = randomBytes(BLOCK_SIZE * 10);
+    try (FileSystem fs = Jimfs.newFileSystem(config)) {
+      FileStore store = fs.getFileStores().iterator().next();
+      Path cold = Files.write(fs.getPath("/cold"), content);
+      Thread.sleep(HeapDisk.EPOCH_NANOS / 1_000_000 * 3);
+      Path hot = Files.write(fs.getPath("/hot"), content);
+
+      long deadline = System.nanoTime() + MILLISECONDS.toNanos(10000);
+      while ((int) store.getAttribute("jimfs:spilledBlockCount") < 10) {
+        assertThat(System.nanoTime()).isLessThan(deadline);
+        Thread.sleep(1);
+      }
+      assertThat(store.getAttribute("jimfs:spilledBlockCount")).isEqualTo(10);
+
+      assertThat(Files.readAllBytes(hot)).isEqualTo(content);
+      assertThat(Files.readAllBytes(cold)).isEqualTo(content);
+    }
+    assertThat(spillFiles()).isEmpty();
+  }
+
+  @Test
+  public void testSpillFileIsSharedWithForks() throws IOException {
+    Configuration config =
+        Configuration.unix().toBuilder()
+            .setBlockSize(BLOCK_SIZE)
+            .setSpillToDisk(directory, BLOCK_SIZE * 16)
+            .build();
+    byte[] content = randomBytes(BLOCK_SIZE * 10);
+    FileSystem fs = Jimfs.newFileSystem(config);
+    Files.write(fs.getPath("/shared"), content);
+    try (FileSystem fork = Jimfs.fork(fs)) {
+      Path path = Files.write(fork.getPath("/file"), content);
+      // the fork's copy of /shared shares its blocks, so only /file can be spilled
+      ((JimfsFileSystem) fork).getFileStore().spillLeastRecentlyUsedFiles();
+      assertThat(spillFiles()).hasLength(1);
+
+      fs.close();
+
+      assertThat(spillFiles()).hasLength(1);
+      assertThat(Files.readAllBytes(path)).isEqualTo(content);
+    }
+    assertThat(spillFiles()).isEmpty();
+  }
+
+  private Path[] spillFiles() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.toArray(Path[]::new);
+    }
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(0).nextBytes(bytes);
+    return bytes;
+  }
+}
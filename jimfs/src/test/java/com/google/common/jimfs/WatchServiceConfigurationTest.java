@@ -62,6 +62,14 @@ public class WatchServiceConfigurationTest {
     assertThat(pollingWatchService.timeUnit).isEqualTo(MILLISECONDS);
   }
 
+  @Test
+  public void testEventDrivenConfig() {
+    WatchServiceConfiguration eventDriven = WatchServiceConfiguration.eventDriven();
+    WatchService watchService =
+        eventDriven.newWatchService(fs.getDefaultView(), fs.getPathService());
+    assertThat(watchService).isInstanceOf(EventDrivenWatchService.class);
+  }
+
   @Test
   public void testDefaultConfig() {
     WatchService watchService =